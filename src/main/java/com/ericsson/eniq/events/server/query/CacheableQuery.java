@@ -0,0 +1,66 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * Describes a query whose transformed result may be held in the QueryResultCache
+ *
+ * Only results for time ranges that end at or before the latest loaded data are cached - the data for such a range
+ * never changes. The caller works out the latest loaded time for the tech pack being queried (for example, from the
+ * end time of the latest raw partition), as the executor doesn't know which tables a query reads.
+ *
+ * The transformer key must identify the transformer and all of the arguments it was created with (for example, the
+ * time column and time zone offset), as two transformers can produce different output from the same rows.
+ *
+ * @author eemecoy
+ */
+public final class CacheableQuery {
+
+    private final String templateName;
+
+    private final String transformerKey;
+
+    private final long dataEndTimeInMillis;
+
+    private final long latestLoadedTimeInMillis;
+
+    /**
+     * @param templateName            name of the query template, used for the template's time to live and statistics
+     * @param transformerKey          identifies the transformer and its arguments
+     * @param dataEndTimeInMillis     end of the time range queried
+     * @param latestLoadedTimeInMillis time up to which all data has been loaded
+     */
+    public CacheableQuery(final String templateName, final String transformerKey, final long dataEndTimeInMillis,
+            final long latestLoadedTimeInMillis) {
+        this.templateName = templateName;
+        this.transformerKey = transformerKey;
+        this.dataEndTimeInMillis = dataEndTimeInMillis;
+        this.latestLoadedTimeInMillis = latestLoadedTimeInMillis;
+    }
+
+    /**
+     * @return true if the time range lies fully within the data already loaded, so the result can be cached
+     */
+    public boolean isClosedTimeRange() {
+        return dataEndTimeInMillis <= latestLoadedTimeInMillis;
+    }
+
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public String getTransformerKey() {
+        return transformerKey;
+    }
+
+    public long getDataEndTimeInMillis() {
+        return dataEndTimeInMillis;
+    }
+
+    public long getLatestLoadedTimeInMillis() {
+        return latestLoadedTimeInMillis;
+    }
+}
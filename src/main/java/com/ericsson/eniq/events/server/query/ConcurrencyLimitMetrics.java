@@ -0,0 +1,71 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The limit on one database, at the moment it was read, as shown over JMX (see ConcurrencyLimiter)
+ *
+ * @author eemecoy
+ */
+public final class ConcurrencyLimitMetrics {
+
+    private final String name;
+
+    private final int limit;
+
+    private final int inFlight;
+
+    private final int queueDepth;
+
+    private final long rejected;
+
+    @ConstructorProperties({ "name", "limit", "inFlight", "queueDepth", "rejected" })
+    public ConcurrencyLimitMetrics(final String name, final int limit, final int inFlight, final int queueDepth,
+            final long rejected) {
+        this.name = name;
+        this.limit = limit;
+        this.inFlight = inFlight;
+        this.queueDepth = queueDepth;
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return the database - "repdb", or "dwh" and the LoadBalancingPolicy (see ConcurrencyLimiter.getLimitName())
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of queries allowed to run at the same time
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return number of queries running
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return number of requests waiting for the database
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return number of requests rejected because the database was busy
+     */
+    public long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,442 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static com.ericsson.eniq.events.server.common.MessageConstants.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ericsson.eniq.events.server.common.exception.ServiceException;
+import com.ericsson.eniq.events.server.common.exception.ServiceUserInfoException;
+import com.ericsson.eniq.events.server.datasource.loadbalancing.LoadBalancingPolicy;
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * Adaptive limit on the number of queries run at the same time on each database, so that an overloaded database
+ * is given fewer queries rather than all of the request threads
+ *
+ * Each database (each load balancing policy for the dwh, and the repdb) has its own limit, adjusted with AIMD
+ * from the time the database takes to execute the queries (given with recordLatency() - not the time the permit is
+ * held, which includes reading and transforming the result, so a slow transformer doesn't look like a slow
+ * database). A permit released without a latency (an update, or a query that failed before it ran) doesn't adjust
+ * the limit. While the short term average latency stays within the configured tolerance of
+ * the long term average, the limit grows by one for each limit's worth of queries (as long as the limit is being
+ * used), and when it rises above the tolerance, the limit is cut by BACKOFF_RATIO (at most once for each limit's
+ * worth of queries). The limit never goes outside the configured minimum and maximum.
+ *
+ * Requests over the limit wait in a bounded queue for up to the configured queue time out (or the request's
+ * deadline, if sooner). Requests that find the queue full, or that wait too long, are rejected with a
+ * ServiceUserInfoException rather than adding to the load on the database.
+ *
+ * Each limit, its queue depth and the requests rejected are shown over JMX as OBJECT_NAME.
+ *
+ * Limiting is disabled unless ENIQ_EVENTS_CONCURRENCY_LIMIT_ENABLED is set.
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ConcurrencyLimiter {
+
+    static final String OBJECT_NAME = "com.ericsson.eniq.events.server.query:type=ConcurrencyLimiter";
+
+    static final String DATABASE_BUSY_MESSAGE = "The database is busy. Please try again shortly.";
+
+    static final String REPDB_LIMIT_NAME = "repdb";
+
+    static final String DWH_LIMIT_NAME = "dwh";
+
+    static final int MAXIMUM_LIMITS = 64;
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    private static final double SHORT_TERM_WEIGHT = 0.1;
+
+    private static final double LONG_TERM_WEIGHT = 0.01;
+
+    private static final String OTHER_LIMITS = "other";
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    private volatile boolean enabled;
+
+    private volatile int initialLimit;
+
+    private volatile int minimumLimit;
+
+    private volatile int maximumLimit;
+
+    private volatile int maximumQueueSize;
+
+    private volatile long queueTimeOutInNanos;
+
+    private volatile double latencyTolerance;
+
+    private final ConcurrentMap<String, Limit> limits = new ConcurrentHashMap<String, Limit>();
+
+    private ObjectName objectName;
+
+    @PostConstruct
+    public void init() {
+        enabled = queryExecutorConfiguration.isConcurrencyLimitEnabled();
+        minimumLimit = queryExecutorConfiguration.getConcurrencyLimitMinimum();
+        maximumLimit = Math.max(minimumLimit, queryExecutorConfiguration.getConcurrencyLimitMaximum());
+        initialLimit = Math.min(maximumLimit,
+                Math.max(minimumLimit, queryExecutorConfiguration.getConcurrencyLimitInitial()));
+        maximumQueueSize = queryExecutorConfiguration.getConcurrencyLimitQueueSize();
+        queueTimeOutInNanos = TimeUnit.MILLISECONDS.toNanos(queryExecutorConfiguration
+                .getConcurrencyLimitQueueTimeOutInMillis());
+        latencyTolerance = queryExecutorConfiguration.getConcurrencyLimitLatencyTolerancePercent() / 100.0;
+        limits.clear();
+        try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeanServer.isRegistered(name)) {
+                //left behind by an earlier deployment
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(new LimiterView(), name);
+            objectName = name;
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "init", "Concurrency limiter not registered with JMX", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "destroy", e);
+        }
+        objectName = null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wait until the database has room for another query
+     *
+     * @param limitName database to run the query on (see getLimitName())
+     * @param deadline  deadline of the request, or null for none
+     * @return permit to give back with release() once the query's connection is closed, or null if limiting is
+     * disabled
+     * @throws ServiceUserInfoException if the database is busy, or the deadline passes while waiting
+     */
+    public Permit acquire(final String limitName, final QueryDeadline deadline) {
+        if (!enabled) {
+            return null;
+        }
+        final Limit limit = limitFor(limitName);
+        try {
+            limit.acquire(deadline);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(e);
+        }
+        return new Permit(limit);
+    }
+
+    /**
+     * Record the time the database took to execute a query run under the permit - the limit is adjusted from it
+     * when the permit is released
+     * A permit held for several queries one after another is given the total of their latencies
+     *
+     * @param permit         permit got from acquire(), may be null
+     * @param latencyInNanos time taken by executeQuery()
+     */
+    public void recordLatency(final Permit permit, final long latencyInNanos) {
+        if (permit != null) {
+            permit.recordLatency(latencyInNanos);
+        }
+    }
+
+    /**
+     * @param permit permit got from acquire(), may be null
+     */
+    public void release(final Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    /**
+     * The database node a policy picks isn't known until the connection has been taken, so dwh queries are limited
+     * for each policy (that is, for each group of nodes balanced across)
+     *
+     * @param loadBalancingPolicy policy used to select the dwh node, may be null
+     * @return name of the limit for queries run with the policy
+     */
+    public static String getLimitName(final LoadBalancingPolicy loadBalancingPolicy) {
+        if (loadBalancingPolicy == null) {
+            return DWH_LIMIT_NAME;
+        }
+        return DWH_LIMIT_NAME + ":" + loadBalancingPolicy.getClass().getSimpleName();
+    }
+
+    /**
+     * @return names of the limits in use
+     */
+    public List<String> getLimitNames() {
+        final List<String> names = new ArrayList<String>(limits.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return current limit, or -1 if there is no limit of that name
+     */
+    public int getLimit(final String limitName) {
+        final Limit limit = limits.get(limitName);
+        return limit == null ? -1 : limit.getLimit();
+    }
+
+    /**
+     * @return number of queries currently running on the database
+     */
+    public int getInFlightCount(final String limitName) {
+        final Limit limit = limits.get(limitName);
+        return limit == null ? 0 : limit.getInFlight();
+    }
+
+    /**
+     * @return number of requests waiting for the database
+     */
+    public int getQueueDepth(final String limitName) {
+        final Limit limit = limits.get(limitName);
+        return limit == null ? 0 : limit.getQueueDepth();
+    }
+
+    /**
+     * @return number of requests rejected because the database was busy
+     */
+    public long getRejectedCount(final String limitName) {
+        final Limit limit = limits.get(limitName);
+        return limit == null ? 0 : limit.getRejected();
+    }
+
+    /**
+     * @return number of requests rejected because a database was busy, on all databases
+     */
+    public long getRejectedCount() {
+        long rejected = 0;
+        for (final Limit limit : limits.values()) {
+            rejected += limit.getRejected();
+        }
+        return rejected;
+    }
+
+    /**
+     * @return snapshot of each limit, in order of name
+     */
+    public List<ConcurrencyLimitMetrics> getLimitMetrics() {
+        final List<ConcurrencyLimitMetrics> snapshots = new ArrayList<ConcurrencyLimitMetrics>();
+        for (final String limitName : getLimitNames()) {
+            final Limit limit = limits.get(limitName);
+            if (limit != null) {
+                snapshots.add(limit.toSnapshot(limitName));
+            }
+        }
+        return snapshots;
+    }
+
+    private Limit limitFor(final String limitName) {
+        final Limit limit = limits.get(limitName);
+        if (limit != null) {
+            return limit;
+        }
+        final String name = limits.size() >= MAXIMUM_LIMITS ? OTHER_LIMITS : limitName;
+        final Limit newLimit = new Limit(initialLimit);
+        final Limit existingLimit = limits.putIfAbsent(name, newLimit);
+        return existingLimit == null ? newLimit : existingLimit;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    /**
+     * A query's place on a database, held from before its connection is taken until after it is closed
+     */
+    public static final class Permit {
+
+        private final Limit limit;
+
+        private long latencyInNanos = -1;
+
+        private boolean released;
+
+        Permit(final Limit limit) {
+            this.limit = limit;
+        }
+
+        synchronized void recordLatency(final long queryLatencyInNanos) {
+            latencyInNanos = Math.max(latencyInNanos, 0) + queryLatencyInNanos;
+        }
+
+        synchronized void release() {
+            if (!released) {
+                released = true;
+                limit.release(latencyInNanos);
+            }
+        }
+    }
+
+    /**
+     * Limit for one database
+     * All state is guarded by the Limit's monitor, which waiting requests wait on
+     */
+    private final class Limit {
+
+        private double limit;
+
+        private int inFlight;
+
+        private int waiting;
+
+        private long rejected;
+
+        private double shortTermLatency = -1;
+
+        private double longTermLatency = -1;
+
+        private int samplesSinceBackoff;
+
+        Limit(final int initialLimit) {
+            this.limit = initialLimit;
+        }
+
+        synchronized void acquire(final QueryDeadline deadline) throws InterruptedException {
+            if (inFlight < (int) limit && waiting == 0) {
+                inFlight++;
+                return;
+            }
+            if (waiting >= maximumQueueSize) {
+                rejected++;
+                throw new ServiceUserInfoException(DATABASE_BUSY_MESSAGE);
+            }
+            final long waitUntil = System.nanoTime() + queueTimeOutInNanos;
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    long remainingNanos = waitUntil - System.nanoTime();
+                    if (deadline != null) {
+                        if (deadline.hasExpired()) {
+                            throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+                        }
+                        remainingNanos = Math.min(remainingNanos, deadline.getRemainingNanos());
+                    }
+                    if (remainingNanos <= 0) {
+                        rejected++;
+                        throw new ServiceUserInfoException(DATABASE_BUSY_MESSAGE);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                }
+                inFlight++;
+            } finally {
+                waiting--;
+            }
+        }
+
+        /**
+         * @param latencyInNanos latency of the queries run under the permit, or -1 to leave the limit as it is
+         */
+        synchronized void release(final long latencyInNanos) {
+            inFlight--;
+            notifyAll();
+            if (latencyInNanos < 0) {
+                return;
+            }
+            if (shortTermLatency < 0) {
+                shortTermLatency = latencyInNanos;
+                longTermLatency = latencyInNanos;
+            } else {
+                shortTermLatency += SHORT_TERM_WEIGHT * (latencyInNanos - shortTermLatency);
+                longTermLatency += LONG_TERM_WEIGHT * (latencyInNanos - longTermLatency);
+            }
+            samplesSinceBackoff++;
+            if (shortTermLatency > longTermLatency * latencyTolerance) {
+                if (samplesSinceBackoff >= (int) limit) {
+                    limit = Math.max(minimumLimit, limit * BACKOFF_RATIO);
+                    samplesSinceBackoff = 0;
+                }
+            } else if (inFlight + 1 >= limit / 2) {
+                limit = Math.min(maximumLimit, limit + 1 / limit);
+            }
+        }
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+
+        synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        synchronized int getQueueDepth() {
+            return waiting;
+        }
+
+        synchronized long getRejected() {
+            return rejected;
+        }
+
+        synchronized ConcurrencyLimitMetrics toSnapshot(final String limitName) {
+            return new ConcurrencyLimitMetrics(limitName, (int) limit, inFlight, waiting, rejected);
+        }
+    }
+
+    /**
+     * The view registered with JMX - a separate class, so that the MXBean interface doesn't become a business
+     * interface of the EJB
+     */
+    private final class LimiterView implements ConcurrencyLimiterMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return ConcurrencyLimiter.this.isEnabled();
+        }
+
+        @Override
+        public long getRejectedCount() {
+            return ConcurrencyLimiter.this.getRejectedCount();
+        }
+
+        @Override
+        public List<ConcurrencyLimitMetrics> getLimitMetrics() {
+            return ConcurrencyLimiter.this.getLimitMetrics();
+        }
+    }
+}
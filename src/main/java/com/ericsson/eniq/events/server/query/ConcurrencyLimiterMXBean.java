@@ -0,0 +1,28 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.List;
+
+/**
+ * JMX view of the ConcurrencyLimiter, registered as ConcurrencyLimiter.OBJECT_NAME
+ *
+ * @author eemecoy
+ */
+public interface ConcurrencyLimiterMXBean {
+
+    boolean isEnabled();
+
+    /**
+     * @return number of requests rejected because a database was busy, on all databases
+     */
+    long getRejectedCount();
+
+    /**
+     * @return the limit, queries running, queue depth and rejected requests of each database
+     */
+    List<ConcurrencyLimitMetrics> getLimitMetrics();
+}
@@ -9,18 +9,36 @@ import static com.ericsson.eniq.events.server.common.ApplicationConstants.*;
 import static com.ericsson.eniq.events.server.common.MessageConstants.*;
 import static com.ericsson.eniq.events.server.logging.performance.ServicesPerformanceThreadLocalHolder.*;
 
+import java.io.Writer;
+import java.security.Principal;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -30,12 +48,17 @@ import com.ericsson.eniq.events.server.datasource.DBConnectionManager;
 import com.ericsson.eniq.events.server.datasource.loadbalancing.LoadBalancingPolicy;
 import com.ericsson.eniq.events.server.datasource.loadbalancing.LoadBalancingPolicyFactory;
 import com.ericsson.eniq.events.server.logging.ServicesLogger;
+import com.ericsson.eniq.events.server.query.resultsettransformers.AccumulatingResultSetTransformer;
+import com.ericsson.eniq.events.server.query.resultsettransformers.ResultSetAccumulator;
 import com.ericsson.eniq.events.server.query.resultsettransformers.ResultSetTransformer;
+import com.ericsson.eniq.events.server.query.resultsettransformers.StreamingResultSetTransformer;
 
 /**
  * Class that handles running queries against databases
  * Also responsible for managing request ids - ie checking that a request hasn't been cancelled prior to
  * running the query
+ * Each statement is given the time remaining on the request's QueryDeadline as its query timeout, and the rows read
+ * from each result set are checked against the request's QueryLimits
  *
  * @author eemecoy
  *
@@ -45,6 +68,9 @@ import com.ericsson.eniq.events.server.query.resultsettransformers.ResultSetTran
 @LocalBean
 public class DataServiceQueryExecutor {
 
+    static final String QUERY_LIMIT_EXCEEDED_MESSAGE = "The result of this request is too large to display. "
+            + "Please reduce the time range or add a filter and try again.";
+
     @EJB
     private DBConnectionManager dbConnectionManager;
 
@@ -54,23 +80,83 @@ public class DataServiceQueryExecutor {
     @EJB
     private LoadBalancingPolicyFactory loadBalancingPolicyFactory;
 
+    @EJB
+    private QueryExecutorThreadPools queryExecutorThreadPools;
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    @EJB
+    private PreparedStatementCache preparedStatementCache;
+
+    @EJB
+    private HedgedQueryPolicy hedgedQueryPolicy;
+
+    @EJB
+    private QueryResultCache queryResultCache;
+
+    @EJB
+    private QueryCoalescer queryCoalescer;
+
+    @EJB
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @EJB
+    private QueryAdmissionScheduler queryAdmissionScheduler;
+
+    @EJB
+    private QueryMetrics queryMetrics;
+
+    @EJB
+    private SlowQueryLog slowQueryLog;
+
+    @Resource
+    private SessionContext sessionContext;
+
     public <T> T getDataForMultipleQueries(final String requestID, final List<String> queries,
             final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer,
             final LoadBalancingPolicy loadBalancingPolicy) {
+        if (transformer instanceof AccumulatingResultSetTransformer) {
+            return getDataForMultipleQueriesIncrementally(requestID, queries, parameters,
+                    (AccumulatingResultSetTransformer<T>) transformer, loadBalancingPolicy);
+        }
         NamedParameterStatement pstmt = null;
 
         Connection conn = null; //NOPMD (ejoegaf 20/6/2011 database connection closed in another method)
         final List<Connection> connectionsList = new ArrayList<Connection>();
         final List<NamedParameterStatement> statementsList = new ArrayList<NamedParameterStatement>();
         final List<ResultSet> resultsSetsList = new ArrayList<ResultSet>();
+        final QueryDeadline deadline = getDeadlineForRequest();
+        final QueryTimings timings = startTimings();
+        final QueryLimits startedLimits = startLimits();
+        final QueryLimits limits = getLimitsForRequest();
+        final List<QueryRun> runs = new ArrayList<QueryRun>(queries.size());
+        AdmittedQuery admittedQuery = null;
         try {
             setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
+            //the queries run one after another, so take one place on the database for the request
+            admittedQuery = admit(requestID, getPriorityForRequest(QueryClass.INTERACTIVE),
+                    ConcurrencyLimiter.getLimitName(loadBalancingPolicy), deadline);
+            if (admittedQuery == null) {
+                return null;
+            }
             for (final String query : queries) {
                 SQLQueryLogger.detailed(Level.FINE, getClass().getName(), "getData", query, parameters);
+                checkDeadline(deadline);
+                final int checkoutSpan = QueryTimings.begin(QueryPhase.CHECKOUT);
+                final QueryRun run = new QueryRun(requestID, query, QueryTemplates.templateOf(query), parameters,
+                        QueryMetrics.getTarget(loadBalancingPolicy));
+                runs.add(run);
                 conn = this.dbConnectionManager.getConnection(loadBalancingPolicy);
                 connectionsList.add(conn);
-                pstmt = QueryParameter.setParameters(new NamedParameterStatement(conn, query), parameters);
+                final long connectedTime = System.nanoTime();
+                QueryTimings.end(checkoutSpan);
+                final int prepareSpan = QueryTimings.begin(QueryPhase.PREPARE);
+                pstmt = QueryParameter.setParameters(createReadStatement(conn, query, parameters), parameters);
                 statementsList.add(pstmt);
+                QueryTimings.end(prepareSpan);
+                run.prepared(pstmt, connectedTime);
+                applyDeadline(pstmt, deadline);
                 if (requestIdMappings.isCancelFailedForReqId(requestID)) {
                     return null;
                 }
@@ -82,34 +168,771 @@ public class DataServiceQueryExecutor {
                             "Added requestId::" + requestID);
                     requestIdMappings.put(requestID, pstmt);
                 }
+                final int executeSpan = QueryTimings.begin(QueryPhase.EXECUTE);
+                final long executionStartTime = System.nanoTime();
                 final ResultSet resultSet = pstmt.executeQuery(); //NOPMD (eemecoy 17/10/2011, resultSet objects closed in closeConnections())
+                run.executed(System.nanoTime() - executionStartTime, admittedQuery);
+                QueryTimings.end(executeSpan);
                 if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED) && !requestIdMappings.containsKey(requestID)) {
                     return null;
                 }
-                resultsSetsList.add(resultSet);
-            }
-            return transformer.transform(resultsSetsList);
-        } catch (final SQLException sqlEx) {
-            final Exception wrappedEx = sqlEx.getNextException();
-            if (wrappedEx != null) {
-                final String wrappedExMsg = wrappedEx.getMessage();
-                if ((StringUtils.contains(wrappedExMsg, DATABASE_IO_EXCEPTION_CODE))) {
-                    //the database query has timed out
-                    throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
-                }
+                resultsSetsList.add(LimitedResultSet.limit(resultSet, pstmt, limits));
             }
-            throw new ServiceException(sqlEx);
+            return transform(transformer, resultsSetsList, runs);
         } catch (final Exception e) {
-            throw new ServiceException(e);
+            recordFailures(runs, e);
+            throw translateException(e, deadline);
         } finally {
+            removeRequestID(requestID);
             closeConnections(connectionsList, statementsList, resultsSetsList);
+            release(admittedQuery);
+            setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
+            finishLimits(startedLimits);
+            finishTimings(timings, requestID);
+        }
+    }
+
+    /**
+     * Version of getDataForMultipleQueries() for transformers that consume one result set at a time
+     * Each query's result set is given to the accumulator as soon as the query has run, and the result set, statement
+     * and connection are closed before the next query runs, so the request holds one connection at a time rather
+     * than one for each query until the transformer has finished
+     */
+    private <T> T getDataForMultipleQueriesIncrementally(final String requestID, final List<String> queries,
+            final Map<String, QueryParameter> parameters, final AccumulatingResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy) {
+        final QueryDeadline deadline = getDeadlineForRequest();
+        final QueryTimings timings = startTimings();
+        final QueryLimits startedLimits = startLimits();
+        final QueryLimits limits = getLimitsForRequest();
+        final ResultSetAccumulator<T> accumulator = transformer.createAccumulator();
+        final Object target = QueryMetrics.getTarget(loadBalancingPolicy);
+        AdmittedQuery admittedQuery = null;
+        try {
+            setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
+            //the queries run one after another, so take one place on the database for the request
+            admittedQuery = admit(requestID, getPriorityForRequest(QueryClass.INTERACTIVE),
+                    ConcurrencyLimiter.getLimitName(loadBalancingPolicy), deadline);
+            if (admittedQuery == null) {
+                return null;
+            }
+            if (requestID == null || requestID.isEmpty()) {
+                throw new ServiceException("Request ID is null/empty");
+            }
+            for (final String query : queries) {
+                SQLQueryLogger.detailed(Level.FINE, getClass().getName(), "getData", query, parameters);
+                checkDeadline(deadline);
+                if (!accumulate(requestID, query, parameters, accumulator, loadBalancingPolicy, target, deadline,
+                        limits, admittedQuery)) {
+                    return null;
+                }
+            }
+            final int transformSpan = QueryTimings.begin(QueryPhase.TRANSFORM);
+            final T result = accumulator.getResult();
+            QueryTimings.end(transformSpan);
+            return result;
+        } catch (final Exception e) {
+            throw translateException(e, deadline);
+        } finally {
             removeRequestID(requestID);
+            release(admittedQuery);
+            setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
+            finishLimits(startedLimits);
+            finishTimings(timings, requestID);
+        }
+    }
+
+    /**
+     * Run one query of getDataForMultipleQueriesIncrementally(), and close it once its result set is accumulated
+     *
+     * @return false if the request was cancelled
+     */
+    private <T> boolean accumulate(final String requestID, final String query,
+            final Map<String, QueryParameter> parameters, final ResultSetAccumulator<T> accumulator,
+            final LoadBalancingPolicy loadBalancingPolicy, final Object target, final QueryDeadline deadline,
+            final QueryLimits limits, final AdmittedQuery admittedQuery) throws Exception {
+        Connection conn = null; //NOPMD (eemecoy 17/10/2011 database connection closed in closeConnections())
+        NamedParameterStatement pstmt = null; //NOPMD (eemecoy 17/10/2011 statement closed in closeConnections())
+        ResultSet rs = null; //NOPMD (eemecoy 17/10/2011 result set closed in closeConnections())
+        final int checkoutSpan = QueryTimings.begin(QueryPhase.CHECKOUT);
+        final QueryRun run = new QueryRun(requestID, query, QueryTemplates.templateOf(query), parameters, target);
+        try {
+            conn = this.dbConnectionManager.getConnection(loadBalancingPolicy);
+            final long connectedTime = System.nanoTime();
+            QueryTimings.end(checkoutSpan);
+            final int prepareSpan = QueryTimings.begin(QueryPhase.PREPARE);
+            pstmt = QueryParameter.setParameters(createReadStatement(conn, query, parameters), parameters);
+            QueryTimings.end(prepareSpan);
+            run.prepared(pstmt, connectedTime);
+            applyDeadline(pstmt, deadline);
+            if (requestIdMappings.isCancelFailedForReqId(requestID)) {
+                return false;
+            }
+            if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED)) {
+                requestIdMappings.put(requestID, pstmt);
+            }
+            final int executeSpan = QueryTimings.begin(QueryPhase.EXECUTE);
+            final long executionStartTime = System.nanoTime();
+            rs = pstmt.executeQuery();
+            final long transformationStartTime = System.nanoTime();
+            QueryTimings.end(executeSpan);
+            run.executed(transformationStartTime - executionStartTime, admittedQuery);
+            if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED) && !requestIdMappings.containsKey(requestID)) {
+                return false;
+            }
+            final ResultSet limitedResultSet = LimitedResultSet.limit(rs, pstmt, limits);
+            final int transformSpan = QueryTimings.begin(QueryPhase.TRANSFORM);
+            accumulator.accumulate(limitedResultSet);
+            final long endTime = System.nanoTime();
+            QueryTimings.end(transformSpan);
+            run.completed(endTime - transformationStartTime, endTime, limitedResultSet, null);
+            return true;
+        } catch (final Exception e) {
+            run.failed(e);
+            throw e;
+        } finally {
+            //the statement is taken off the request first, so a cancel can't reach it once it has gone back to the
+            //cache
+            requestIdMappings.removeStatement(requestID, pstmt);
+            closeConnections(conn, pstmt, rs);
+        }
+    }
+
+    /**
+     * Run a query for each of a list of keys (such as one lookup for each cell or TAC) as one IN list query, rather
+     * than calling getData() for each key
+     * The keys are bound to keyParameterName as a LONG_LIST or STRING_LIST parameter, so the query should use it in
+     * an IN list, e.g. "where TAC in (:TAC)". The rows are split by the value of keyColumn, and each key's rows go to
+     * its own accumulator from the transformer, so each key gets the result it would have had from its own query.
+     * Ordering the query by keyColumn lets each key's rows be given to its accumulator in one run.
+     * If there are more keys than the configured IN list size, the query is run (one after another) for each chunk
+     * of keys.
+     *
+     * @param requestID           request id of query
+     * @param query               SQL query, with keyParameterName in an IN list
+     * @param parameters          query parameters, apart from the keys
+     * @param keyParameterName    name of the parameter the keys are bound to
+     * @param keys                keys to run the query for, all Longs or all Strings
+     * @param keyColumn           column of the result that holds the key of each row
+     * @param transformer         transformer to use on the rows of each key
+     * @param loadBalancingPolicy policy used to select the database node
+     * @return result of the transformer for each key (in the order of the keys), or null if the request was
+     * cancelled
+     */
+    public <K, T> Map<K, T> getDataForKeys(final String requestID, final String query,
+            final Map<String, QueryParameter> parameters, final String keyParameterName, final Collection<K> keys,
+            final String keyColumn, final AccumulatingResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy) {
+        final KeyDemultiplexingAccumulator<K, T> accumulator = new KeyDemultiplexingAccumulator<K, T>(keys,
+                keyColumn, transformer);
+        final QueryDeadline deadline = getDeadlineForRequest();
+        final QueryTimings timings = startTimings();
+        final QueryLimits startedLimits = startLimits();
+        final QueryLimits limits = getLimitsForRequest();
+        final Object target = QueryMetrics.getTarget(loadBalancingPolicy);
+        AdmittedQuery admittedQuery = null;
+        try {
+            setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
+            admittedQuery = admit(requestID, getPriorityForRequest(QueryClass.INTERACTIVE),
+                    ConcurrencyLimiter.getLimitName(loadBalancingPolicy), deadline);
+            if (admittedQuery == null) {
+                return null;
+            }
+            if (requestID == null || requestID.isEmpty()) {
+                throw new ServiceException("Request ID is null/empty");
+            }
+            for (final QueryParameter keyParameter : accumulator.getKeyParameters(queryExecutorConfiguration
+                    .getMaxInListSize())) {
+                final Map<String, QueryParameter> keyParameters = new HashMap<String, QueryParameter>();
+                if (parameters != null) {
+                    keyParameters.putAll(parameters);
+                }
+                keyParameters.put(keyParameterName, keyParameter);
+                SQLQueryLogger.detailed(Level.FINE, getClass().getName(), "getDataForKeys", query, keyParameters);
+                checkDeadline(deadline);
+                if (!accumulate(requestID, query, keyParameters, accumulator, loadBalancingPolicy, target, deadline,
+                        limits, admittedQuery)) {
+                    return null;
+                }
+            }
+            final int transformSpan = QueryTimings.begin(QueryPhase.TRANSFORM);
+            final Map<K, T> result = accumulator.getResult();
+            QueryTimings.end(transformSpan);
+            return result;
+        } catch (final Exception e) {
+            throw translateException(e, deadline);
+        } finally {
+            removeRequestID(requestID);
+            release(admittedQuery);
+            setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
+            finishLimits(startedLimits);
+            finishTimings(timings, requestID);
+        }
+    }
+
+    /**
+     * Parallel version of getDataForMultipleQueries()
+     * Each query is run on its own connection on the parallel query thread pool, so the latency of the request is
+     * close to that of the slowest query rather than the sum of all of them
+     * The result sets are passed to the transformer in the same order as the queries in the queries list
+     * If any query fails, or the request is cancelled, the statements still running are cancelled, and all
+     * connections are closed before this method returns
+     *
+     * @param requestID         request id of query
+     * @param queries           SQL queries to run
+     * @param parameters        query parameters (shared by all queries)
+     * @param transformer       transformer to use on the list of result sets
+     * @param loadBalancingPolicy policy used to select the database node for each query
+     * @return result of the transformer, or null if the request was cancelled
+     */
+    public <T> T getDataForMultipleQueriesInParallel(final String requestID, final List<String> queries,
+            final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy) {
+        if (requestID == null || requestID.isEmpty()) {
+            throw new ServiceException("Request ID is null/empty");
+        }
+        final AtomicBoolean abandoned = new AtomicBoolean(false);
+        final List<ParallelQuery> parallelQueries = new ArrayList<ParallelQuery>(queries.size());
+        final List<Future<ResultSet>> futures = new ArrayList<Future<ResultSet>>(queries.size());
+        boolean allQueriesCompleted = false;
+        final QueryDeadline deadline = getDeadlineForRequest();
+        final QueryTimings timings = startTimings();
+        final QueryLimits startedLimits = startLimits();
+        final QueryLimits limits = getLimitsForRequest();
+        try {
+            setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
+            if (requestIdMappings.isCancelFailedForReqId(requestID)) {
+                return null;
+            }
+            for (final String query : queries) {
+                final ParallelQuery parallelQuery = new ParallelQuery(requestID, query, parameters,
+                        loadBalancingPolicy, abandoned, deadline);
+                parallelQueries.add(parallelQuery);
+                futures.add(queryExecutorThreadPools.getParallelQueryExecutor().submit(parallelQuery));
+            }
+            final List<ResultSet> resultsSetsList = new ArrayList<ResultSet>(queries.size());
+            for (int i = 0; i < futures.size(); i++) {
+                final ResultSet resultSet = waitForQuery(futures.get(i), deadline); //NOPMD (eemecoy 17/10/2011, resultSet objects closed in closeParallelQueries())
+                if (resultSet == null) {
+                    return null;
+                }
+                resultsSetsList.add(LimitedResultSet.limit(resultSet, parallelQueries.get(i).pstmt, limits));
+            }
+            allQueriesCompleted = true;
+            if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED) && !requestIdMappings.containsKey(requestID)) {
+                return null;
+            }
+            final List<QueryRun> runs = new ArrayList<QueryRun>(parallelQueries.size());
+            for (final ParallelQuery parallelQuery : parallelQueries) {
+                runs.add(parallelQuery.run);
+            }
+            return transform(transformer, resultsSetsList, runs);
+        } catch (final ExecutionException executionEx) {
+            throw translateException(executionEx.getCause(), deadline);
+        } catch (final TimeoutException timeoutEx) {
+            //the deadline has passed - the queries still running are cancelled below
+            throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+        } catch (final InterruptedException interruptedEx) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(interruptedEx);
+        } catch (final Exception e) {
+            throw translateException(e, deadline);
+        } finally {
+            if (!allQueriesCompleted) {
+                abandon(abandoned, parallelQueries);
+            }
+            closeParallelQueries(requestID, parallelQueries, futures);
             setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
+            finishLimits(startedLimits);
+            finishTimings(timings, requestID);
+        }
+    }
+
+    private ResultSet waitForQuery(final Future<ResultSet> future, final QueryDeadline deadline)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (deadline == null) {
+            return future.get();
+        }
+        return future.get(Math.max(deadline.getRemainingNanos(), 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop any queries that haven't started yet from running, and cancel those that are running on the database
+     */
+    private void abandon(final AtomicBoolean abandoned, final List<ParallelQuery> parallelQueries) {
+        abandoned.set(true);
+        for (final ParallelQuery parallelQuery : parallelQueries) {
+            parallelQuery.cancel();
+        }
+    }
+
+    /**
+     * Wait for every submitted query to finish (a cancelled query finishes quickly) before closing its resources,
+     * so that no connection is left open by a query that was still running on the pool
+     * The request id is removed before the statements are released, so a cancel can't reach a statement that has
+     * gone back to the PreparedStatementCache
+     */
+    private void closeParallelQueries(final String requestID, final List<ParallelQuery> parallelQueries,
+            final List<Future<ResultSet>> futures) {
+        boolean interrupted = false;
+        for (final Future<ResultSet> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final Exception e) {
+                    //failure already reported to the caller, just need the query to have finished
+                    break;
+                }
+            }
+        }
+        removeRequestID(requestID);
+        final List<Connection> connectionsList = new ArrayList<Connection>(parallelQueries.size());
+        final List<NamedParameterStatement> statementsList = new ArrayList<NamedParameterStatement>(
+                parallelQueries.size());
+        final List<ResultSet> resultsSetsList = new ArrayList<ResultSet>(parallelQueries.size());
+        for (final ParallelQuery parallelQuery : parallelQueries) {
+            connectionsList.add(parallelQuery.conn);
+            statementsList.add(parallelQuery.pstmt);
+            resultsSetsList.add(parallelQuery.resultSet);
+        }
+        closeConnections(connectionsList, statementsList, resultsSetsList);
+        for (final ParallelQuery parallelQuery : parallelQueries) {
+            release(parallelQuery.admittedQuery);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Convert an exception thrown while running a query to the exception thrown to the services layer
+     * A query that timed out (either on the database or because the request's deadline passed) is reported to the
+     * user as a database timeout
+     */
+    private RuntimeException translateException(final Throwable throwable, final QueryDeadline deadline) {
+        if (throwable instanceof QueryLimitExceededException) {
+            return new ServiceUserInfoException(QUERY_LIMIT_EXCEEDED_MESSAGE);
+        }
+        if (throwable instanceof SQLException) {
+            if (throwable instanceof SQLTimeoutException || (deadline != null && deadline.hasExpired())) {
+                return new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+            }
+            final Exception wrappedEx = ((SQLException) throwable).getNextException();
+            if (wrappedEx != null && StringUtils.contains(wrappedEx.getMessage(), DATABASE_IO_EXCEPTION_CODE)) {
+                //the database query has timed out
+                return new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+            }
+        }
+        if (throwable instanceof ServiceException) {
+            return (ServiceException) throwable;
+        }
+        if (throwable instanceof ServiceUserInfoException) {
+            return (ServiceUserInfoException) throwable;
+        }
+        if (throwable instanceof Exception) {
+            return new ServiceException((Exception) throwable);
+        }
+        return new ServiceException(String.valueOf(throwable));
+    }
+
+    /**
+     * @return the deadline started for this request (see QueryDeadlineInterceptor), or if there isn't one, a deadline
+     * based on the default query timeout for this executor call alone (null if no default query timeout is configured)
+     */
+    QueryDeadline getDeadlineForRequest() {
+        final QueryDeadline deadline = QueryDeadline.current();
+        if (deadline != null) {
+            return deadline;
+        }
+        final int defaultQueryTimeoutInSeconds = queryExecutorConfiguration.getDefaultQueryTimeoutInSeconds();
+        if (defaultQueryTimeoutInSeconds > 0) {
+            return QueryDeadline.after(TimeUnit.SECONDS.toMillis(defaultQueryTimeoutInSeconds));
+        }
+        return null;
+    }
+
+    /**
+     * Give a request without its own limits the limits configured in the ENIQ Events properties, for the rest of the
+     * executor call, so that every query of the call (and of any call it makes) runs under the one QueryLimits and
+     * its truncation can be seen
+     *
+     * @return the limits started, to pass to finishLimits(), or null if this call didn't start any
+     */
+    private QueryLimits startLimits() {
+        if (QueryLimits.current() != null) {
+            return null;
+        }
+        final QueryLimits limits = queryExecutorConfiguration.getDefaultQueryLimits();
+        return limits == null ? null : QueryLimits.start(limits);
+    }
+
+    private void finishLimits(final QueryLimits startedLimits) {
+        if (startedLimits != null) {
+            QueryLimits.clear();
+        }
+    }
+
+    /**
+     * @return limits on the size of the request's results (see startLimits()), or null for no limits
+     */
+    private QueryLimits getLimitsForRequest() {
+        return QueryLimits.current();
+    }
+
+    /**
+     * The priority set for the request, with the default class for the executor method if the request doesn't set
+     * one, and the principal of the EJB caller if the request doesn't name a user
+     */
+    private QueryPriority getPriorityForRequest(final QueryClass defaultQueryClass) {
+        final QueryPriority priority = QueryPriority.current();
+        if (priority == null) {
+            return new QueryPriority(defaultQueryClass, getCallerPrincipalName());
+        }
+        final QueryClass queryClass = priority.getQueryClass() == null ? defaultQueryClass : priority.getQueryClass();
+        final String principal = priority.getPrincipal() == null ? getCallerPrincipalName() : priority.getPrincipal();
+        return new QueryPriority(queryClass, principal);
+    }
+
+    private String getCallerPrincipalName() {
+        if (sessionContext == null) {
+            return null;
+        }
+        try {
+            final Principal principal = sessionContext.getCallerPrincipal();
+            return principal == null ? null : principal.getName();
+        } catch (final IllegalStateException e) {
+            //not in a business method call, for example on a query pool thread
+            return null;
+        }
+    }
+
+    /**
+     * Take a place for the query from the QueryAdmissionScheduler, then a place on the database from the
+     * ConcurrencyLimiter
+     *
+     * @return the places taken, to give back with release() once the query's connection is closed, or null if the
+     * request was cancelled while waiting to be admitted
+     */
+    private AdmittedQuery admit(final String requestID, final QueryPriority priority, final String limitName,
+            final QueryDeadline deadline) {
+        final int span = QueryTimings.begin(QueryPhase.ADMISSION);
+        QueryAdmissionScheduler.Ticket ticket = null;
+        if (queryAdmissionScheduler.isEnabled()) {
+            ticket = queryAdmissionScheduler.acquire(requestID, priority, deadline);
+            if (ticket == null) {
+                QueryTimings.end(span);
+                removeRequestID(requestID);
+                return null;
+            }
+        }
+        try {
+            return new AdmittedQuery(ticket, concurrencyLimiter.acquire(limitName, deadline));
+        } catch (final RuntimeException e) {
+            queryAdmissionScheduler.release(ticket);
+            throw e;
+        } finally {
+            QueryTimings.end(span);
+        }
+    }
+
+    /**
+     * Give the ConcurrencyLimiter the time the database took to run the query, rather than the time the permit is
+     * held (which includes reading and transforming the result)
+     */
+    private void recordExecution(final AdmittedQuery admittedQuery, final long latencyInNanos) {
+        if (admittedQuery != null) {
+            concurrencyLimiter.recordLatency(admittedQuery.permit, latencyInNanos);
+        }
+    }
+
+    private void release(final AdmittedQuery admittedQuery) {
+        if (admittedQuery != null) {
+            concurrencyLimiter.release(admittedQuery.permit);
+            queryAdmissionScheduler.release(admittedQuery.ticket);
+        }
+    }
+
+    /**
+     * Time the request, if slow requests are to be logged and the caller isn't already timing it
+     *
+     * @return the timings started, to pass to finishTimings(), or null if this call doesn't own the request's timings
+     */
+    private QueryTimings startTimings() {
+        if (QueryTimings.current() != null || queryExecutorConfiguration.getQueryTimingLogThresholdInMillis() <= 0) {
+            return null;
+        }
+        return QueryTimings.start();
+    }
+
+    private void finishTimings(final QueryTimings timings, final String requestID) {
+        if (timings != null) {
+            QueryTimings.clear();
+            timings.logIfSlowerThan(queryExecutorConfiguration.getQueryTimingLogThresholdInMillis(), "requestId::"
+                    + requestID);
+        }
+    }
+
+    /**
+     * Fail fast if the request's deadline has already passed, rather than taking a connection from the pool
+     */
+    private void checkDeadline(final QueryDeadline deadline) {
+        if (deadline != null && deadline.hasExpired()) {
+            throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+        }
+    }
+
+    private void applyDeadline(final NamedParameterStatement pstmt, final QueryDeadline deadline)
+            throws SQLException {
+        if (deadline == null) {
+            return;
+        }
+        checkDeadline(deadline);
+        pstmt.setQueryTimeout(deadline.getRemainingSecondsForQueryTimeout());
+    }
+
+    /**
+     * Places taken for a query by admit(), either may be null
+     */
+    private static final class AdmittedQuery {
+
+        private final QueryAdmissionScheduler.Ticket ticket;
+
+        private final ConcurrencyLimiter.Permit permit;
+
+        AdmittedQuery(final QueryAdmissionScheduler.Ticket ticket, final ConcurrencyLimiter.Permit permit) {
+            this.ticket = ticket;
+            this.permit = permit;
+        }
+    }
+
+    /**
+     * One query of a request run by getDataForMultipleQueriesInParallel()
+     * The connection, statement and result set are only read by the requesting thread once the query has finished
+     */
+    private final class ParallelQuery implements Callable<ResultSet> {
+
+        private final String requestID;
+
+        private final String query;
+
+        private final Map<String, QueryParameter> parameters;
+
+        private final LoadBalancingPolicy loadBalancingPolicy;
+
+        private final AtomicBoolean abandoned;
+
+        private final QueryDeadline deadline;
+
+        private Connection conn; //NOPMD (eemecoy 17/10/2011 database connection closed in closeParallelQueries())
+
+        private volatile NamedParameterStatement pstmt;
+
+        private ResultSet resultSet;
+
+        private final QueryPriority priority = getPriorityForRequest(QueryClass.INTERACTIVE);
+
+        private final QueryTimings timings = QueryTimings.current();
+
+        //looked up on the requesting thread, which rendered the query
+        private final String templatePath;
+
+        private AdmittedQuery admittedQuery;
+
+        private QueryRun run;
+
+        ParallelQuery(final String requestID, final String query, final Map<String, QueryParameter> parameters,
+                final LoadBalancingPolicy loadBalancingPolicy, final AtomicBoolean abandoned,
+                final QueryDeadline deadline) {
+            this.requestID = requestID;
+            this.query = query;
+            this.parameters = parameters;
+            this.loadBalancingPolicy = loadBalancingPolicy;
+            this.abandoned = abandoned;
+            this.deadline = deadline;
+            templatePath = QueryTemplates.templateOf(query);
+        }
+
+        @Override
+        public ResultSet call() throws Exception {
+            //the parallel pool runs the query on the request thread when it is full, so put back what was there
+            final QueryTimings previousTimings = QueryTimings.current();
+            QueryTimings.setCurrent(timings);
+            try {
+                return runQuery();
+            } catch (final Exception e) {
+                //a query cancelled because another query of the request failed, or the hedge won, hasn't failed
+                if (run != null && (!abandoned.get() || isExpired(deadline))) {
+                    run.failed(e);
+                }
+                throw e;
+            } finally {
+                QueryTimings.setCurrent(previousTimings);
+            }
+        }
+
+        private ResultSet runQuery() throws Exception {
+            if (abandoned.get()) {
+                return null;
+            }
+            SQLQueryLogger.detailed(Level.FINE, getClass().getName(), "getDataForMultipleQueriesInParallel", query,
+                    parameters);
+            checkDeadline(deadline);
+            admittedQuery = admit(requestID, priority, ConcurrencyLimiter.getLimitName(loadBalancingPolicy), deadline);
+            if (admittedQuery == null) {
+                return null;
+            }
+            final int checkoutSpan = QueryTimings.begin(QueryPhase.CHECKOUT);
+            run = new QueryRun(requestID, query, templatePath, parameters,
+                    QueryMetrics.getTarget(loadBalancingPolicy));
+            conn = dbConnectionManager.getConnection(loadBalancingPolicy);
+            final long connectedTime = System.nanoTime();
+            QueryTimings.end(checkoutSpan);
+            final int prepareSpan = QueryTimings.begin(QueryPhase.PREPARE);
+            pstmt = QueryParameter.setParameters(createReadStatement(conn, query, parameters), parameters);
+            QueryTimings.end(prepareSpan);
+            run.prepared(pstmt, connectedTime);
+            applyDeadline(pstmt, deadline);
+            if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED)) {
+                requestIdMappings.put(requestID, pstmt);
+            }
+            //check again now that the statement is visible to cancel()
+            if (abandoned.get()) {
+                return null;
+            }
+            final int executeSpan = QueryTimings.begin(QueryPhase.EXECUTE);
+            final long executionStartTime = System.nanoTime();
+            resultSet = pstmt.executeQuery();
+            run.executed(System.nanoTime() - executionStartTime, admittedQuery);
+            QueryTimings.end(executeSpan);
+            return resultSet;
+        }
+
+        void cancel() {
+            final NamedParameterStatement statement = pstmt;
+            if (statement == null) {
+                return;
+            }
+            try {
+                statement.cancelExecution();
+            } catch (final Exception e) {
+                ServicesLogger.warn(getClass().getName(), "cancel", e);
+            }
+        }
+    }
+
+    /**
+     * Run the transformer on the result sets of a multiple query request, and record each query once the transformer
+     * has read its rows
+     * The transformer reads the result sets together, so the whole transformation time is recorded for each query
+     */
+    private <T> T transform(final ResultSetTransformer<T> transformer, final List<ResultSet> resultSets,
+            final List<QueryRun> runs) throws SQLException {
+        final int transformSpan = QueryTimings.begin(QueryPhase.TRANSFORM);
+        final long transformationStartTime = System.nanoTime();
+        final T result;
+        try {
+            result = transformer.transform(resultSets);
+        } catch (final SQLException e) {
+            recordFailures(runs, e);
+            throw e;
+        } catch (final RuntimeException e) {
+            recordFailures(runs, e);
+            throw e;
+        }
+        final long endTime = System.nanoTime();
+        QueryTimings.end(transformSpan);
+        for (int i = 0; i < runs.size(); i++) {
+            runs.get(i).completed(endTime - transformationStartTime, endTime, resultSets.get(i), null);
+        }
+        return result;
+    }
+
+    /**
+     * Record the queries of a failed request that haven't been recorded yet - none of their results were used
+     */
+    private void recordFailures(final List<QueryRun> runs, final Exception failure) {
+        for (final QueryRun run : runs) {
+            run.failed(failure);
+        }
+    }
+
+    /**
+     * The phases of one query of a request, recorded in the QueryMetrics and the SlowQueryLog once the transformer
+     * has read its result set, or once it has failed
+     * Created when the connection is requested from the pool
+     */
+    private final class QueryRun {
+
+        private final String requestID;
+
+        private final String query;
+
+        private final String templatePath;
+
+        private final Map<String, QueryParameter> parameters;
+
+        private final Object target;
+
+        private final long checkoutStartTime = System.nanoTime();
+
+        private long checkoutInNanos;
+
+        private long executionInNanos;
+
+        private QueryMetrics.TemplateMetrics metrics;
+
+        private boolean recorded;
+
+        QueryRun(final String requestID, final String query, final String templatePath,
+                final Map<String, QueryParameter> parameters, final Object target) {
+            this.requestID = requestID;
+            this.query = query;
+            this.templatePath = templatePath;
+            this.parameters = parameters;
+            this.target = target;
+        }
+
+        void prepared(final NamedParameterStatement pstmt, final long connectedTime) {
+            checkoutInNanos = connectedTime - checkoutStartTime;
+            metrics = queryMetrics.metricsFor(templatePath, pstmt.getFingerprint(), target);
+            metrics.recordCheckout(checkoutInNanos);
+        }
+
+        void executed(final long latencyInNanos, final AdmittedQuery admittedQuery) {
+            executionInNanos = latencyInNanos;
+            metrics.recordExecution(latencyInNanos);
+            recordExecution(admittedQuery, latencyInNanos);
+        }
+
+        void completed(final long transformationInNanos, final long endTime, final ResultSet resultSet,
+                final Object result) {
+            if (recorded || metrics == null) {
+                return;
+            }
+            recorded = true;
+            metrics.recordTransformation(transformationInNanos);
+            metrics.recordQuery(endTime - checkoutStartTime, resultSet, result);
+            slowQueryLog.record(requestID, query, parameters, target, checkoutInNanos, executionInNanos, endTime
+                    - checkoutStartTime, QueryMetrics.getRows(resultSet, result), null);
+        }
+
+        void failed(final Exception failure) {
+            if (recorded || metrics == null) {
+                return;
+            }
+            recorded = true;
+            metrics.recordFailure();
+            slowQueryLog.record(requestID, query, parameters, target, checkoutInNanos, executionInNanos,
+                    System.nanoTime() - checkoutStartTime, -1, failure);
         }
     }
 
     private void closeConnections(final List<Connection> connectionsList,
             final List<NamedParameterStatement> statementsList, final List<ResultSet> resultsSetsList) {
+        final int span = QueryTimings.begin(QueryPhase.CLOSE);
         //we need to catch the exceptions individually
         //   to ensure the database connection gets closed
         for (final ResultSet rs : resultsSetsList) {
@@ -121,63 +944,353 @@ public class DataServiceQueryExecutor {
                 }
             }
         }
-        for (final NamedParameterStatement pstmt : statementsList) {
-            if (pstmt != null) {
-                try {
-                    pstmt.close();
-                } catch (final Exception e) {
-                    ServicesLogger.warn(getClass().getName(), "closeConnections", e);
+        for (final NamedParameterStatement pstmt : statementsList) {
+            if (pstmt != null) {
+                preparedStatementCache.release(pstmt);
+            }
+        }
+        for (final Connection conn : connectionsList) {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (final Exception e) {
+                    ServicesLogger.warn(getClass().getName(), "closeConnections", e);
+                }
+            }
+        }
+        QueryTimings.end(span);
+    }
+
+    private void closeConnections(final Connection conn, final NamedParameterStatement pstmt, final ResultSet rs) {
+        final int span = QueryTimings.begin(QueryPhase.CLOSE);
+        //we need to catch the exceptions individually
+        //   to ensure the database connection gets closed
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+        } catch (final Exception e) {
+            ServicesLogger.warn(getClass().getName(), "closeConnections", e);
+        }
+        try {
+            if (pstmt != null) {
+                while (pstmt.getMoreResults()) {
+                    pstmt.getResultSet().close();
+                }
+            }
+        } catch (final Exception e) {
+            ServicesLogger.warn(getClass().getName(), "closeConnections", e);
+        }
+        if (pstmt != null) {
+            preparedStatementCache.release(pstmt);
+        }
+        try {
+            if (conn != null) {
+                conn.close();
+            }
+        } catch (final SQLException e) {
+            ServicesLogger.warn(getClass().getName(), "closeConnections", e);
+        }
+        QueryTimings.end(span);
+    }
+
+    public <T> T getData(final String requestID, final String query, final Map<String, QueryParameter> parameters,
+            final ResultSetTransformer<T> transformer, final LoadBalancingPolicy loadBalancingPolicy) {
+        final QueryDeadline deadline = getDeadlineForRequest();
+        final QueryTimings timings = startTimings();
+        final QueryLimits startedLimits = startLimits();
+        AdmittedQuery admittedQuery = null;
+        try {
+            checkDeadline(deadline);
+            admittedQuery = admit(requestID, getPriorityForRequest(QueryClass.INTERACTIVE),
+                    ConcurrencyLimiter.getLimitName(loadBalancingPolicy), deadline);
+            if (admittedQuery == null) {
+                return null;
+            }
+            final int checkoutSpan = QueryTimings.begin(QueryPhase.CHECKOUT);
+            final long checkoutStartTime = System.nanoTime();
+            final Connection connectionToDwh = this.dbConnectionManager.getConnection(loadBalancingPolicy); //NOPMD eemecoy 20/7/11 connection is closed by the private getData() method
+            QueryTimings.end(checkoutSpan);
+            return runQuery(requestID, query, parameters, transformer, connectionToDwh, deadline,
+                    QueryMetrics.getTarget(loadBalancingPolicy), checkoutStartTime, admittedQuery);
+        } catch (final Exception e) {
+            throw translateException(e, deadline);
+        } finally {
+            release(admittedQuery);
+            finishLimits(startedLimits);
+            finishTimings(timings, requestID);
+        }
+    }
+
+    /**
+     * Version of getData() that shares the query with any identical request already in flight, rather than running
+     * it again (see QueryCoalescer)
+     * If coalescing is disabled, or no transformer key is given, the query is run as getData()
+     *
+     * @param transformerKey identifies the transformer and its arguments, null to not coalesce
+     * @see #getData(String, String, Map, ResultSetTransformer, LoadBalancingPolicy)
+     */
+    public <T> T getCoalescedData(final String requestID, final String query,
+            final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy, final String transformerKey) {
+        if (transformerKey == null || !queryCoalescer.isEnabled()) {
+            return getData(requestID, query, parameters, transformer, loadBalancingPolicy);
+        }
+        if (requestID == null || requestID.isEmpty()) {
+            throw new ServiceException("Request ID is null/empty");
+        }
+        return queryCoalescer.execute(requestID, QueryResultCache.createKey(query, parameters, transformerKey),
+                getDeadlineForRequest(), new QueryCoalescer.SharedQuery<T>() {
+                    @Override
+                    public T run(final String sharedRequestID) {
+                        return getData(sharedRequestID, query, parameters, transformer, loadBalancingPolicy);
+                    }
+                });
+    }
+
+    /**
+     * Version of getData() that serves the transformed result from the QueryResultCache when the same query,
+     * parameters and transformer have been run before for a closed time range
+     * If the query isn't cacheable (see CacheableQuery), it is run as getData()
+     *
+     * @param cacheableQuery describes how the result may be cached, null to not cache
+     * @see #getData(String, String, Map, ResultSetTransformer, LoadBalancingPolicy)
+     */
+    public <T> T getCachedData(final String requestID, final String query,
+            final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy, final CacheableQuery cacheableQuery) {
+        if (!queryResultCache.isCacheable(cacheableQuery)) {
+            return getData(requestID, query, parameters, transformer, loadBalancingPolicy);
+        }
+        final QueryResultCache.ResultKey key = QueryResultCache.createKey(query, parameters,
+                cacheableQuery.getTransformerKey());
+        final T cachedResult = getCachedResult(key, cacheableQuery);
+        if (cachedResult != null) {
+            return cachedResult;
+        }
+        //the limits the query runs under are the ones checked for truncation before caching
+        final QueryLimits startedLimits = startLimits();
+        try {
+            final T result = getData(requestID, query, parameters, transformer, loadBalancingPolicy);
+            cacheResult(key, cacheableQuery, result, getLimitsForRequest());
+            return result;
+        } finally {
+            finishLimits(startedLimits);
+        }
+    }
+
+    /**
+     * Version of getDataForMultipleQueries() that serves the transformed result from the QueryResultCache
+     *
+     * @param cacheableQuery describes how the result may be cached, null to not cache
+     * @see #getCachedData(String, String, Map, ResultSetTransformer, LoadBalancingPolicy, CacheableQuery)
+     */
+    public <T> T getCachedDataForMultipleQueries(final String requestID, final List<String> queries,
+            final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy, final CacheableQuery cacheableQuery) {
+        if (!queryResultCache.isCacheable(cacheableQuery)) {
+            return getDataForMultipleQueries(requestID, queries, parameters, transformer, loadBalancingPolicy);
+        }
+        final QueryResultCache.ResultKey key = QueryResultCache.createKey(StringUtils.join(queries, ";\n"),
+                parameters, cacheableQuery.getTransformerKey());
+        final T cachedResult = getCachedResult(key, cacheableQuery);
+        if (cachedResult != null) {
+            return cachedResult;
+        }
+        final QueryLimits startedLimits = startLimits();
+        try {
+            final T result = getDataForMultipleQueries(requestID, queries, parameters, transformer,
+                    loadBalancingPolicy);
+            cacheResult(key, cacheableQuery, result, getLimitsForRequest());
+            return result;
+        } finally {
+            finishLimits(startedLimits);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getCachedResult(final QueryResultCache.ResultKey key, final CacheableQuery cacheableQuery) {
+        return (T) queryResultCache.get(key, cacheableQuery);
+    }
+
+    /**
+     * Results of cancelled requests (null) and truncated results are never cached
+     *
+     * @param limits limits the query was run under, may be null
+     */
+    private <T> void cacheResult(final QueryResultCache.ResultKey key, final CacheableQuery cacheableQuery,
+            final T result, final QueryLimits limits) {
+        if (result != null && (limits == null || !limits.wasTruncated())) {
+            queryResultCache.put(key, cacheableQuery, result);
+        }
+    }
+
+    /**
+     * Read only version of getData() that hedges slow queries
+     * If the query hasn't returned its first rows within the delay given by the HedgedQueryPolicy (and the policy's
+     * hedge rate allows), the same query is sent on a second connection from the load balancing policy. The result
+     * of whichever statement returns first is transformed, and the other statement is cancelled.
+     * Both statements are registered for the request id, so cancelling the request cancels both.
+     * The attempts run on their own thread pool, which rejects rather than running an attempt on the request thread:
+     * a hedge that is rejected is skipped (and counted by the HedgedQueryPolicy), and if the first attempt is
+     * rejected the query is run as getData()
+     * If hedging isn't enabled, the query is run as getData()
+     *
+     * @param requestID         request id of query
+     * @param query             SQL query to run, must not update the database
+     * @param parameters        query parameters
+     * @param transformer       transformer to use on result set
+     * @param loadBalancingPolicy policy used to select the database node for each attempt
+     */
+    public <T> T getDataWithHedging(final String requestID, final String query,
+            final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy) {
+        if (!hedgedQueryPolicy.isEnabled()) {
+            return getData(requestID, query, parameters, transformer, loadBalancingPolicy);
+        }
+        if (requestID == null || requestID.isEmpty()) {
+            throw new ServiceException("Request ID is null/empty");
+        }
+        final AtomicBoolean abandoned = new AtomicBoolean(false);
+        final List<ParallelQuery> attempts = new ArrayList<ParallelQuery>(2);
+        final List<Future<ResultSet>> futures = new ArrayList<Future<ResultSet>>(2);
+        final CompletionService<ResultSet> completionService = new ExecutorCompletionService<ResultSet>(
+                queryExecutorThreadPools.getHedgedQueryExecutor());
+        boolean completed = false;
+        final QueryDeadline deadline = getDeadlineForRequest();
+        final QueryTimings timings = startTimings();
+        final QueryLimits startedLimits = startLimits();
+        final QueryLimits limits = getLimitsForRequest();
+        try {
+            setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
+            if (requestIdMappings.isCancelFailedForReqId(requestID)) {
+                return null;
+            }
+            final long startTime = System.nanoTime();
+            if (!submitAttempt(requestID, query, parameters, loadBalancingPolicy, abandoned, deadline, attempts,
+                    futures, completionService)) {
+                //the hedged query pool is full, so run the query without a hedge
+                return getData(requestID, query, parameters, transformer, loadBalancingPolicy);
+            }
+            hedgedQueryPolicy.recordQuery(query);
+            final long hedgeDelay = hedgedQueryPolicy.getHedgeDelayInNanos(query);
+            Future<ResultSet> firstDone = completionService.poll(getWaitInNanos(hedgeDelay, deadline),
+                    TimeUnit.NANOSECONDS);
+            if (firstDone == null && !isExpired(deadline) && hedgedQueryPolicy.tryAcquireHedge(query)) {
+                ServicesLogger.detailed(Level.FINE, getClass().getName(), "getDataWithHedging",
+                        "Hedging query for requestId::" + requestID);
+                if (!submitAttempt(requestID, query, parameters, loadBalancingPolicy, abandoned, deadline, attempts,
+                        futures, completionService)) {
+                    hedgedQueryPolicy.recordSkippedHedge(query);
                 }
             }
-        }
-        for (final Connection conn : connectionsList) {
-            if (conn != null) {
+            ResultSet resultSet = null; //NOPMD (eemecoy 17/10/2011, resultSet objects closed in closeParallelQueries())
+            int winner = -1;
+            int attemptsOutstanding = futures.size();
+            while (winner < 0) {
+                if (firstDone == null) {
+                    firstDone = completionService.poll(getWaitInNanos(Long.MAX_VALUE, deadline), TimeUnit.NANOSECONDS);
+                    if (firstDone == null) {
+                        throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+                    }
+                }
+                attemptsOutstanding--;
                 try {
-                    conn.close();
-                } catch (final Exception e) {
-                    ServicesLogger.warn(getClass().getName(), "closeConnections", e);
+                    resultSet = firstDone.get();
+                    winner = futures.indexOf(firstDone);
+                } catch (final ExecutionException executionEx) {
+                    if (attemptsOutstanding == 0) {
+                        throw executionEx;
+                    }
+                    //the other attempt may still succeed
+                    firstDone = null;
                 }
             }
-        }
-    }
-
-    private void closeConnections(final Connection conn, final NamedParameterStatement pstmt, final ResultSet rs) {
-        //we need to catch the exceptions individually
-        //   to ensure the database connection gets closed
-        try {
-            if (rs != null) {
-                rs.close();
+            if (resultSet == null) {
+                return null;
             }
-        } catch (final Exception e) {
-            ServicesLogger.warn(getClass().getName(), "closeConnections", e);
-        }
-        try {
-            if (pstmt != null) {
-                while (pstmt.getMoreResults()) {
-                    pstmt.getResultSet().close();
+            final long elapsed = System.nanoTime() - startTime;
+            if (winner == 0) {
+                hedgedQueryPolicy.recordLatency(query, elapsed);
+            } else {
+                //the primary was still running, so its latency is at least this long - without the sample the
+                //hedge delay would only ever learn from the fast queries, and keep falling
+                hedgedQueryPolicy.recordLatency(query, Math.max(elapsed, hedgeDelay));
+                hedgedQueryPolicy.recordHedgeWin(query);
+            }
+            abandoned.set(true);
+            for (int i = 0; i < attempts.size(); i++) {
+                if (i != winner) {
+                    attempts.get(i).cancel();
                 }
-                pstmt.close();
             }
+            completed = true;
+            if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED) && !requestIdMappings.containsKey(requestID)) {
+                return null;
+            }
+            final NamedParameterStatement winningStatement = attempts.get(winner).pstmt;
+            final ResultSet limitedResultSet = LimitedResultSet.limit(resultSet, winningStatement, limits);
+            final int transformSpan = QueryTimings.begin(QueryPhase.TRANSFORM);
+            final long transformationStartTime = System.nanoTime();
+            final QueryRun winningRun = attempts.get(winner).run;
+            final T result;
+            try {
+                result = transformer.transform(limitedResultSet);
+            } catch (final SQLException e) {
+                winningRun.failed(e);
+                throw e;
+            }
+            final long endTime = System.nanoTime();
+            QueryTimings.end(transformSpan);
+            winningRun.completed(endTime - transformationStartTime, endTime, limitedResultSet, result);
+            return result;
+        } catch (final ExecutionException executionEx) {
+            throw translateException(executionEx.getCause(), deadline);
+        } catch (final InterruptedException interruptedEx) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(interruptedEx);
         } catch (final Exception e) {
-            ServicesLogger.warn(getClass().getName(), "closeConnections", e);
-        }
-        try {
-            if (conn != null) {
-                conn.close();
+            throw translateException(e, deadline);
+        } finally {
+            if (!completed) {
+                abandon(abandoned, attempts);
             }
-        } catch (final SQLException e) {
-            ServicesLogger.warn(getClass().getName(), "closeConnections", e);
+            closeParallelQueries(requestID, attempts, futures);
+            setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
+            finishLimits(startedLimits);
+            finishTimings(timings, requestID);
         }
     }
 
-    public <T> T getData(final String requestID, final String query, final Map<String, QueryParameter> parameters,
-            final ResultSetTransformer<T> transformer, final LoadBalancingPolicy loadBalancingPolicy) {
+    /**
+     * @return false if the hedged query thread pool is full, and the attempt wasn't submitted
+     */
+    private boolean submitAttempt(final String requestID, final String query,
+            final Map<String, QueryParameter> parameters, final LoadBalancingPolicy loadBalancingPolicy,
+            final AtomicBoolean abandoned, final QueryDeadline deadline, final List<ParallelQuery> attempts,
+            final List<Future<ResultSet>> futures, final CompletionService<ResultSet> completionService) {
+        final ParallelQuery attempt = new ParallelQuery(requestID, query, parameters, loadBalancingPolicy, abandoned,
+                deadline);
+        final Future<ResultSet> future;
         try {
-            final Connection connectionToDwh = this.dbConnectionManager.getConnection(loadBalancingPolicy); //NOPMD eemecoy 20/7/11 connection is closed by the private getData() method
-            return runQuery(requestID, query, parameters, transformer, connectionToDwh);
-        } catch (final Exception e) {
-            throw new ServiceException(e);
+            future = completionService.submit(attempt);
+        } catch (final RejectedExecutionException rejectedEx) {
+            return false;
         }
+        attempts.add(attempt);
+        futures.add(future);
+        return true;
+    }
+
+    private long getWaitInNanos(final long waitInNanos, final QueryDeadline deadline) {
+        if (deadline == null) {
+            return waitInNanos;
+        }
+        return Math.max(0, Math.min(waitInNanos, deadline.getRemainingNanos()));
+    }
+
+    private boolean isExpired(final QueryDeadline deadline) {
+        return deadline != null && deadline.hasExpired();
     }
 
     /**
@@ -188,15 +1301,27 @@ public class DataServiceQueryExecutor {
      * @param transformer The transformer used to conver the SQL ResultSet to any object
      * @return result set as transformed by the specified transformer, and with type specified in the ResultSetTransformer
      * @return conn     connection to database to use
+     * @param target    database the connection is to, for the QueryMetrics
+     * @param checkoutStartTime System.nanoTime() before the connection was taken from the pool
+     * @param admittedQuery     places taken for the query, may be null
      */
     private <T> T runQuery(final String requestID, final String query, final Map<String, QueryParameter> parameters,
-            final ResultSetTransformer<T> transformer, final Connection conn) {
+            final ResultSetTransformer<T> transformer, final Connection conn, final QueryDeadline deadline,
+            final Object target, final long checkoutStartTime, final AdmittedQuery admittedQuery) {
+        final long connectedTime = System.nanoTime();
         NamedParameterStatement pstmt = null; //NOPMD (ejoegaf 20/6/2011 database connection closed in another method)
         ResultSet rs = null; //NOPMD (ejoegaf 20/6/2011 database connection closed in another method)
+        QueryMetrics.TemplateMetrics metrics = null;
+        long executionInNanos = 0;
         try {
             SQLQueryLogger.detailed(Level.FINE, getClass().getName(), "getData", query, parameters);
             setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
-            pstmt = QueryParameter.setParameters(new NamedParameterStatement(conn, query), parameters);
+            final int prepareSpan = QueryTimings.begin(QueryPhase.PREPARE);
+            pstmt = QueryParameter.setParameters(createReadStatement(conn, query, parameters), parameters);
+            QueryTimings.end(prepareSpan);
+            metrics = queryMetrics.metricsFor(QueryTemplates.templateOf(query), pstmt.getFingerprint(), target);
+            metrics.recordCheckout(connectedTime - checkoutStartTime);
+            applyDeadline(pstmt, deadline);
             if (requestIdMappings.isCancelFailedForReqId(requestID)) {
                 return null;
             }
@@ -208,30 +1333,163 @@ public class DataServiceQueryExecutor {
                 ServicesLogger.detailed(Level.FINE, getClass().getName(), "getDataForAnyTransformerReturnType()",
                         "Added requestId::" + requestID);
             }
+            final int executeSpan = QueryTimings.begin(QueryPhase.EXECUTE);
+            final long executionStartTime = System.nanoTime();
             rs = pstmt.executeQuery();
+            final long transformationStartTime = System.nanoTime();
+            QueryTimings.end(executeSpan);
+            executionInNanos = transformationStartTime - executionStartTime;
+            metrics.recordExecution(executionInNanos);
+            recordExecution(admittedQuery, executionInNanos);
             if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED) && !requestIdMappings.containsKey(requestID)) {
                 return null;
             }
-            return transformer.transform(rs);
-        } catch (final SQLException sqlEx) {
-            final Exception wrappedEx = sqlEx.getNextException();
-            if (wrappedEx != null) {
-                final String wrappedExMsg = wrappedEx.getMessage();
-                if ((StringUtils.contains(wrappedExMsg, DATABASE_IO_EXCEPTION_CODE))) {
-                    //the database query has timed out
-                    throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
-                }
-            }
-            throw new ServiceException(sqlEx);
+            final ResultSet limitedResultSet = LimitedResultSet.limit(rs, pstmt, getLimitsForRequest());
+            final int transformSpan = QueryTimings.begin(QueryPhase.TRANSFORM);
+            final T result = transformer.transform(limitedResultSet);
+            final long endTime = System.nanoTime();
+            QueryTimings.end(transformSpan);
+            metrics.recordTransformation(endTime - transformationStartTime);
+            metrics.recordQuery(endTime - checkoutStartTime, limitedResultSet, result);
+            slowQueryLog.record(requestID, query, parameters, target, connectedTime - checkoutStartTime,
+                    executionInNanos, endTime - checkoutStartTime, QueryMetrics.getRows(limitedResultSet, result),
+                    null);
+            return result;
         } catch (final Exception e) {
-            throw new ServiceException(e);
+            if (metrics != null) {
+                metrics.recordFailure();
+                slowQueryLog.record(requestID, query, parameters, target, connectedTime - checkoutStartTime,
+                        executionInNanos, System.nanoTime() - checkoutStartTime, -1, e);
+            }
+            throw translateException(e, deadline);
         } finally {
+            //request id removed first, so a cancel can't reach a statement that has gone back to the cache
+            removeRequestID(requestID);
             closeConnections(conn, pstmt, rs);
             setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
+        }
+    }
+
+    /**
+     * Run query and write the transformed result set to the writer as the rows are read from the database, so that
+     * the full result is never held in memory
+     * The writer is flushed by the transformer but not closed
+     * To stream the result as a JAX-RS response, use StreamingQueryOutput
+     *
+     * @param requestID         request id of query
+     * @param query             SQL query to run
+     * @param parameters        query parameters
+     * @param transformer       streaming transformer used to write the result set
+     * @param loadBalancingPolicy policy used to select the database node
+     * @param writer            writer to stream the result to
+     */
+    public void streamData(final String requestID, final String query, final Map<String, QueryParameter> parameters,
+            final StreamingResultSetTransformer transformer, final LoadBalancingPolicy loadBalancingPolicy,
+            final Writer writer) {
+        Connection conn = null; //NOPMD (eemecoy 17/10/2011 database connection closed in closeConnections())
+        NamedParameterStatement pstmt = null; //NOPMD (eemecoy 17/10/2011 statement closed in closeConnections())
+        ResultSet rs = null; //NOPMD (eemecoy 17/10/2011 result set closed in closeConnections())
+        final QueryDeadline deadline = getDeadlineForRequest();
+        final QueryTimings timings = startTimings();
+        final QueryLimits startedLimits = startLimits();
+        AdmittedQuery admittedQuery = null;
+        QueryMetrics.TemplateMetrics metrics = null;
+        long checkoutInNanos = 0;
+        long executionInNanos = 0;
+        long checkoutStartTime = 0;
+        try {
+            SQLQueryLogger.detailed(Level.FINE, getClass().getName(), "streamData", query, parameters);
+            setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
+            checkDeadline(deadline);
+            admittedQuery = admit(requestID, getPriorityForRequest(QueryClass.EXPORT),
+                    ConcurrencyLimiter.getLimitName(loadBalancingPolicy), deadline);
+            if (admittedQuery == null) {
+                return;
+            }
+            final int checkoutSpan = QueryTimings.begin(QueryPhase.CHECKOUT);
+            checkoutStartTime = System.nanoTime();
+            conn = this.dbConnectionManager.getConnection(loadBalancingPolicy);
+            checkoutInNanos = System.nanoTime() - checkoutStartTime;
+            QueryTimings.end(checkoutSpan);
+            final int prepareSpan = QueryTimings.begin(QueryPhase.PREPARE);
+            pstmt = QueryParameter.setParameters(createReadStatement(conn, query, parameters), parameters);
+            QueryTimings.end(prepareSpan);
+            metrics = queryMetrics.metricsFor(QueryTemplates.templateOf(query), pstmt.getFingerprint(),
+                    QueryMetrics.getTarget(loadBalancingPolicy));
+            metrics.recordCheckout(checkoutInNanos);
+            applyDeadline(pstmt, deadline);
+            if (requestIdMappings.isCancelFailedForReqId(requestID)) {
+                return;
+            }
+            if (requestID == null || requestID.isEmpty()) {
+                throw new ServiceException("Request ID is null/empty");
+            }
+            if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED)) {
+                requestIdMappings.put(requestID, pstmt);
+            }
+            final int executeSpan = QueryTimings.begin(QueryPhase.EXECUTE);
+            final long executionStartTime = System.nanoTime();
+            rs = pstmt.executeQuery();
+            final long transformationStartTime = System.nanoTime();
+            QueryTimings.end(executeSpan);
+            executionInNanos = transformationStartTime - executionStartTime;
+            metrics.recordExecution(executionInNanos);
+            recordExecution(admittedQuery, executionInNanos);
+            if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED) && !requestIdMappings.containsKey(requestID)) {
+                return;
+            }
+            final ResultSet limitedResultSet = LimitedResultSet.limit(rs, pstmt, getLimitsForRequest());
+            final int transformSpan = QueryTimings.begin(QueryPhase.TRANSFORM);
+            transformer.transform(limitedResultSet, writer);
+            final long endTime = System.nanoTime();
+            QueryTimings.end(transformSpan);
+            metrics.recordTransformation(endTime - transformationStartTime);
+            metrics.recordQuery(endTime - checkoutStartTime, limitedResultSet, null);
+            slowQueryLog.record(requestID, query, parameters, QueryMetrics.getTarget(loadBalancingPolicy),
+                    checkoutInNanos, executionInNanos, endTime - checkoutStartTime,
+                    LimitedResultSet.getRowsRead(limitedResultSet), null);
+        } catch (final Exception e) {
+            if (metrics != null) {
+                metrics.recordFailure();
+                slowQueryLog.record(requestID, query, parameters, QueryMetrics.getTarget(loadBalancingPolicy),
+                        checkoutInNanos, executionInNanos, System.nanoTime() - checkoutStartTime, -1, e);
+            }
+            throw translateException(e, deadline);
+        } finally {
+            //request id removed first, so a cancel can't reach a statement that has gone back to the cache
             removeRequestID(requestID);
+            closeConnections(conn, pstmt, rs);
+            release(admittedQuery);
+            setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
+            finishLimits(startedLimits);
+            finishTimings(timings, requestID);
         }
     }
 
+    /**
+     * Read queries use forward only, read only cursors so that the driver streams rows from the database as the
+     * transformer consumes them, rather than caching the full result set on the heap
+     * The statement is prepared for the query with any LONG_LIST or STRING_LIST parameters expanded into IN lists
+     *
+     * @param parameters checked against the query's parameter manifest before the statement is prepared (any
+     *                   mismatch is logged once for the query), but not set
+     * @throws IllegalArgumentException if a list parameter has more values than the configured maximum
+     */
+    private NamedParameterStatement createReadStatement(final Connection conn, final String query,
+            final Map<String, QueryParameter> parameters) throws SQLException {
+        final ParsedQuery parsedQuery = ParsedQueryCache.getInstance().get(query);
+        parsedQuery.checkParameters(parameters);
+        final String expandedQuery = parsedQuery.expandListParameters(parameters,
+                queryExecutorConfiguration.getMaxInListSize());
+        final NamedParameterStatement pstmt = preparedStatementCache.prepare(conn, expandedQuery,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        final int fetchSize = queryExecutorConfiguration.getFetchSize();
+        if (fetchSize > 0) {
+            pstmt.setFetchSize(fetchSize);
+        }
+        return pstmt;
+    }
+
     private void removeRequestID(final String requestID) {
         requestIdMappings.remove(requestID);
         requestIdMappings.removeFailedCancelReqId(requestID);
@@ -249,11 +1507,29 @@ public class DataServiceQueryExecutor {
      */
     public <T> T getDataFromRepdb(final String requestID, final String query,
             final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer) {
+        final QueryDeadline deadline = getDeadlineForRequest();
+        final QueryTimings timings = startTimings();
+        final QueryLimits startedLimits = startLimits();
+        AdmittedQuery admittedQuery = null;
         try {
+            checkDeadline(deadline);
+            admittedQuery = admit(requestID, getPriorityForRequest(QueryClass.METADATA),
+                    ConcurrencyLimiter.REPDB_LIMIT_NAME, deadline);
+            if (admittedQuery == null) {
+                return null;
+            }
+            final int checkoutSpan = QueryTimings.begin(QueryPhase.CHECKOUT);
+            final long checkoutStartTime = System.nanoTime();
             final Connection connectionToDwh = this.dbConnectionManager.getDwhrepConnection(); //NOPMD (eemecoy 17/10/11 connection closed in getData() method)
-            return runQuery(requestID, query, parameters, transformer, connectionToDwh);
+            QueryTimings.end(checkoutSpan);
+            return runQuery(requestID, query, parameters, transformer, connectionToDwh, deadline,
+                    ConcurrencyLimiter.REPDB_LIMIT_NAME, checkoutStartTime, admittedQuery);
         } catch (final Exception e) {
-            throw new ServiceException(e);
+            throw translateException(e, deadline);
+        } finally {
+            release(admittedQuery);
+            finishLimits(startedLimits);
+            finishTimings(timings, requestID);
         }
     }
 
@@ -265,21 +1541,33 @@ public class DataServiceQueryExecutor {
      */
     public void updateDataInRepdb(final String requestID, final String query,
             final Map<String, QueryParameter> parameters) {
+        final QueryDeadline deadline = getDeadlineForRequest();
+        AdmittedQuery admittedQuery = null;
         try {
+            checkDeadline(deadline);
+            admittedQuery = admit(requestID, getPriorityForRequest(QueryClass.METADATA),
+                    ConcurrencyLimiter.REPDB_LIMIT_NAME, deadline);
+            if (admittedQuery == null) {
+                return;
+            }
             final Connection connectionToDwh = this.dbConnectionManager.getDwhrepConnection(); //NOPMD (eemecoy 17/10/11 connection closed in getData() method)
-            updateData(requestID, query, parameters, connectionToDwh);
+            updateData(requestID, query, parameters, connectionToDwh, deadline);
         } catch (final Exception e) {
-            throw new ServiceException(e);
+            throw translateException(e, deadline);
+        } finally {
+            release(admittedQuery);
         }
     }
 
     private void updateData(final String requestID, final String query, final Map<String, QueryParameter> parameters,
-            final Connection conn) {
+            final Connection conn, final QueryDeadline deadline) {
         NamedParameterStatement pstmt = null; //NOPMD
         try {
             SQLQueryLogger.detailed(Level.FINE, getClass().getName(), "updateData", query, parameters);
             setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
-            pstmt = QueryParameter.setParameters(new NamedParameterStatement(conn, query), parameters);
+            pstmt = QueryParameter.setParameters(preparedStatementCache.prepare(conn, query,
+                    ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY), parameters);
+            applyDeadline(pstmt, deadline);
             if (requestIdMappings.isCancelFailedForReqId(requestID)) {
                 return;
             }
@@ -289,22 +1577,147 @@ public class DataServiceQueryExecutor {
                         + requestID);
             }
             pstmt.executeUpdate();
-        } catch (final SQLException sqlEx) {
-            final Exception wrappedEx = sqlEx.getNextException();
-            if (wrappedEx != null) {
-                final String wrappedExMsg = wrappedEx.getMessage();
-                if ((StringUtils.contains(wrappedExMsg, DATABASE_IO_EXCEPTION_CODE))) {
-                    //the database query has timed out
-                    throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+        } catch (final Exception e) {
+            throw translateException(e, deadline);
+        } finally {
+            removeRequestID(requestID);
+            closeConnections(conn, pstmt, null);
+            setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
+        }
+    }
+
+    /**
+     * Inserts/Updates data in the repdb database, running the statement once for each set of parameters
+     * The parameter sets are sent to the database in batches of the configured repdb batch size
+     *
+     * @return update count for each parameter set, or null if the request was cancelled before the updates were run
+     * @see #updateDataInRepdbInBatches(String, String, List, int)
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int[] updateDataInRepdbInBatches(final String requestID, final String query,
+            final List<Map<String, QueryParameter>> parameterSets) {
+        return updateDataInRepdbInBatches(requestID, query, parameterSets,
+                queryExecutorConfiguration.getRepdbUpdateBatchSize());
+    }
+
+    /**
+     * Inserts/Updates data in the repdb database, running the statement once for each set of parameters
+     * All parameter sets are run on one connection in one transaction - if any batch fails, none of the updates
+     * are committed. The method manages that transaction on the connection itself, so it runs outside any container
+     * transaction
+     *
+     * @param requestID request id of query
+     * @param query SQL statement to run
+     * @param parameterSets statement parameters, one map for each row
+     * @param batchSize maximum number of parameter sets sent to the database in one batch
+     * @return update count for each parameter set, in the same order as parameterSets (as returned by the driver,
+     * so may be Statement.SUCCESS_NO_INFO), or null if the request was cancelled before the updates were run (in
+     * which case nothing is updated)
+     * @throws IllegalArgumentException if parameterSets is null or batchSize is less than 1
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int[] updateDataInRepdbInBatches(final String requestID, final String query,
+            final List<Map<String, QueryParameter>> parameterSets, final int batchSize) {
+        if (parameterSets == null) {
+            throw new IllegalArgumentException("Parameter sets may not be null");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1, was " + batchSize);
+        }
+        final QueryDeadline deadline = getDeadlineForRequest();
+        AdmittedQuery admittedQuery = null;
+        try {
+            checkDeadline(deadline);
+            admittedQuery = admit(requestID, getPriorityForRequest(QueryClass.METADATA),
+                    ConcurrencyLimiter.REPDB_LIMIT_NAME, deadline);
+            if (admittedQuery == null) {
+                return null;
+            }
+            final Connection connectionToDwh = this.dbConnectionManager.getDwhrepConnection(); //NOPMD (eemecoy 17/10/11 connection closed in updateDataInBatches() method)
+            return updateDataInBatches(requestID, query, parameterSets, batchSize, connectionToDwh, deadline);
+        } catch (final Exception e) {
+            throw translateException(e, deadline);
+        } finally {
+            release(admittedQuery);
+        }
+    }
+
+    private int[] updateDataInBatches(final String requestID, final String query,
+            final List<Map<String, QueryParameter>> parameterSets, final int batchSize, final Connection conn,
+            final QueryDeadline deadline) {
+        NamedParameterStatement pstmt = null; //NOPMD
+        boolean committed = false;
+        boolean autoCommit = true;
+        try {
+            final int[] updateCounts = new int[parameterSets.size()];
+            SQLQueryLogger.detailed(Level.FINE, getClass().getName(), "updateDataInBatches", query, null);
+            setQueryExecutionStartTime(Calendar.getInstance().getTimeInMillis());
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            pstmt = preparedStatementCache.prepare(conn, query, ResultSet.TYPE_SCROLL_INSENSITIVE,
+                    ResultSet.CONCUR_READ_ONLY);
+            if (requestIdMappings.isCancelFailedForReqId(requestID)) {
+                return null;
+            }
+            if (!requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED)) {
+                requestIdMappings.put(requestID, pstmt);
+            }
+            int rowsInBatch = 0;
+            int firstRowOfBatch = 0;
+            for (final Map<String, QueryParameter> parameters : parameterSets) {
+                //a parameter left out of one set mustn't keep the value from the previous set
+                pstmt.clearParameters();
+                QueryParameter.setParameters(pstmt, parameters);
+                pstmt.addBatch();
+                rowsInBatch++;
+                if (rowsInBatch == batchSize) {
+                    executeBatch(pstmt, deadline, updateCounts, firstRowOfBatch);
+                    firstRowOfBatch += rowsInBatch;
+                    rowsInBatch = 0;
                 }
             }
-            throw new ServiceException(sqlEx);
+            if (rowsInBatch > 0) {
+                executeBatch(pstmt, deadline, updateCounts, firstRowOfBatch);
+            }
+            conn.commit();
+            committed = true;
+            return updateCounts;
         } catch (final Exception e) {
-            throw new ServiceException(e);
+            throw translateException(e, deadline);
         } finally {
+            removeRequestID(requestID);
+            endBatchTransaction(conn, pstmt, committed, autoCommit);
             closeConnections(conn, pstmt, null);
             setQueryExecutionEndTime(Calendar.getInstance().getTimeInMillis());
-            removeRequestID(requestID);
+        }
+    }
+
+    private void executeBatch(final NamedParameterStatement pstmt, final QueryDeadline deadline,
+            final int[] updateCounts, final int firstRowOfBatch) throws SQLException {
+        applyDeadline(pstmt, deadline);
+        final int[] batchUpdateCounts = pstmt.executeBatch();
+        System.arraycopy(batchUpdateCounts, 0, updateCounts, firstRowOfBatch, batchUpdateCounts.length);
+    }
+
+    /**
+     * Roll back a failed batch update, and put the connection back in the auto commit mode it was checked out in
+     */
+    private void endBatchTransaction(final Connection conn, final NamedParameterStatement pstmt,
+            final boolean committed, final boolean autoCommit) {
+        if (!committed) {
+            try {
+                if (pstmt != null) {
+                    pstmt.clearBatch();
+                }
+                conn.rollback();
+            } catch (final SQLException e) {
+                ServicesLogger.warn(getClass().getName(), "endBatchTransaction", e);
+            }
+        }
+        try {
+            conn.setAutoCommit(autoCommit);
+        } catch (final SQLException e) {
+            ServicesLogger.warn(getClass().getName(), "endBatchTransaction", e);
         }
     }
 
@@ -313,6 +1726,97 @@ public class DataServiceQueryExecutor {
                 loadBalancingPolicyFactory.getDefaultLoadBalancingPolicy());
     }
 
+    /**
+     * Asynchronous version of getData()
+     * The query is run on the async query thread pool, with the calling thread's QueryDeadline
+     * Cancelling the returned future cancels the query on the database
+     * If the query fails, Future.get() throws an ExecutionException with the ServiceException as its cause
+     *
+     * @throws ServiceException if the async query pool is full
+     */
+    public <T> Future<T> getDataAsync(final String requestID, final String query,
+            final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy) {
+        return submitAsync(requestID, new Callable<T>() {
+            @Override
+            public T call() {
+                return getData(requestID, query, parameters, transformer, loadBalancingPolicy);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of getDataForMultipleQueries()
+     *
+     * @see #getDataAsync(String, String, Map, ResultSetTransformer, LoadBalancingPolicy)
+     */
+    public <T> Future<T> getDataForMultipleQueriesAsync(final String requestID, final List<String> queries,
+            final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer,
+            final LoadBalancingPolicy loadBalancingPolicy) {
+        return submitAsync(requestID, new Callable<T>() {
+            @Override
+            public T call() {
+                return getDataForMultipleQueries(requestID, queries, parameters, transformer, loadBalancingPolicy);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of getDataFromRepdb()
+     *
+     * @see #getDataAsync(String, String, Map, ResultSetTransformer, LoadBalancingPolicy)
+     */
+    public <T> Future<T> getDataFromRepdbAsync(final String requestID, final String query,
+            final Map<String, QueryParameter> parameters, final ResultSetTransformer<T> transformer) {
+        return submitAsync(requestID, new Callable<T>() {
+            @Override
+            public T call() {
+                return getDataFromRepdb(requestID, query, parameters, transformer);
+            }
+        });
+    }
+
+    private <T> Future<T> submitAsync(final String requestID, final Callable<T> query) {
+        final QueryDeadline deadline = QueryDeadline.current();
+        final QueryLimits limits = QueryLimits.current();
+        final QueryTimings timings = QueryTimings.current();
+        final QueryTemplates templates = QueryTemplates.current();
+        //the caller's principal isn't available on the async pool thread
+        final QueryPriority currentPriority = QueryPriority.current();
+        final QueryPriority priority = new QueryPriority(currentPriority == null ? null
+                : currentPriority.getQueryClass(), getPriorityForRequest(null).getPrincipal());
+        final QueryFuture<T> future = new QueryFuture<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final QueryDeadline previousDeadline = QueryDeadline.current();
+                final QueryLimits previousLimits = QueryLimits.current();
+                final QueryPriority previousPriority = QueryPriority.current();
+                final QueryTimings previousTimings = QueryTimings.current();
+                final QueryTemplates previousTemplates = QueryTemplates.current();
+                QueryDeadline.setCurrent(deadline);
+                QueryLimits.setCurrent(limits);
+                QueryPriority.setCurrent(priority);
+                QueryTimings.setCurrent(timings);
+                QueryTemplates.setCurrent(templates);
+                try {
+                    return query.call();
+                } finally {
+                    QueryDeadline.setCurrent(previousDeadline);
+                    QueryLimits.setCurrent(previousLimits);
+                    QueryPriority.setCurrent(previousPriority);
+                    QueryTimings.setCurrent(previousTimings);
+                    QueryTemplates.setCurrent(previousTemplates);
+                }
+            }
+        }, requestID, requestIdMappings);
+        try {
+            queryExecutorThreadPools.getAsyncQueryExecutor().execute(future);
+        } catch (final RejectedExecutionException e) {
+            throw new ServiceException("Async query pool is full, rejected request " + requestID);
+        }
+        return future;
+    }
+
     /**
      * for junit test case
      *
@@ -338,4 +1842,103 @@ public class DataServiceQueryExecutor {
     public void setLoadBalancingPolicyFactory(final LoadBalancingPolicyFactory loadBalancingPolicyFactory) {
         this.loadBalancingPolicyFactory = loadBalancingPolicyFactory;
     }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorThreadPools the queryExecutorThreadPools to set
+     */
+    public void setQueryExecutorThreadPools(final QueryExecutorThreadPools queryExecutorThreadPools) {
+        this.queryExecutorThreadPools = queryExecutorThreadPools;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param preparedStatementCache the preparedStatementCache to set
+     */
+    public void setPreparedStatementCache(final PreparedStatementCache preparedStatementCache) {
+        this.preparedStatementCache = preparedStatementCache;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param hedgedQueryPolicy the hedgedQueryPolicy to set
+     */
+    public void setHedgedQueryPolicy(final HedgedQueryPolicy hedgedQueryPolicy) {
+        this.hedgedQueryPolicy = hedgedQueryPolicy;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryResultCache the queryResultCache to set
+     */
+    public void setQueryResultCache(final QueryResultCache queryResultCache) {
+        this.queryResultCache = queryResultCache;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryCoalescer the queryCoalescer to set
+     */
+    public void setQueryCoalescer(final QueryCoalescer queryCoalescer) {
+        this.queryCoalescer = queryCoalescer;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param concurrencyLimiter the concurrencyLimiter to set
+     */
+    public void setConcurrencyLimiter(final ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryAdmissionScheduler the queryAdmissionScheduler to set
+     */
+    public void setQueryAdmissionScheduler(final QueryAdmissionScheduler queryAdmissionScheduler) {
+        this.queryAdmissionScheduler = queryAdmissionScheduler;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryMetrics the queryMetrics to set
+     */
+    public void setQueryMetrics(final QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param slowQueryLog the slowQueryLog to set
+     */
+    public void setSlowQueryLog(final SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param sessionContext the sessionContext to set
+     */
+    public void setSessionContext(final SessionContext sessionContext) {
+        this.sessionContext = sessionContext;
+    }
 }
@@ -0,0 +1,289 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * Decides when DataServiceQueryExecutor.getDataWithHedging() sends a second copy of a query to another reader node
+ *
+ * A query is hedged if it hasn't returned its first rows within the configured percentile of the recent latencies
+ * of the same query template (until enough latencies have been seen, a fixed default delay is used). Hedges are rate
+ * limited with a token bucket - each query adds a fraction of a token, each hedge takes a whole one - so that
+ * hedging can never add more than the configured percentage of extra queries, even when a whole node is slow.
+ *
+ * Statistics are kept for each query template (keyed by QueryFingerprint), up to MAXIMUM_TEMPLATES templates -
+ * further templates share one set of statistics.
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class HedgedQueryPolicy {
+
+    static final int MAXIMUM_TEMPLATES = 1000;
+
+    /**
+     * Number of latencies needed for a template before its percentile is used as the hedge delay
+     */
+    static final int MINIMUM_SAMPLES = 20;
+
+    private static final long MILLI_TOKENS_PER_TOKEN = 1000;
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    private volatile boolean enabled;
+
+    private volatile int latencyPercentile;
+
+    private volatile long defaultDelayInNanos;
+
+    private volatile long minimumDelayInNanos;
+
+    private volatile long milliTokensPerQuery;
+
+    private volatile long maximumMilliTokens;
+
+    private final AtomicLong milliTokens = new AtomicLong();
+
+    private final ConcurrentMap<Long, TemplateStatistics> statisticsByTemplate = new ConcurrentHashMap<Long, TemplateStatistics>();
+
+    private final TemplateStatistics overflowStatistics = new TemplateStatistics();
+
+    private final TemplateStatistics totals = new TemplateStatistics();
+
+    @PostConstruct
+    public void init() {
+        enabled = queryExecutorConfiguration.isHedgedQueriesEnabled();
+        latencyPercentile = queryExecutorConfiguration.getHedgeLatencyPercentile();
+        defaultDelayInNanos = TimeUnit.MILLISECONDS.toNanos(queryExecutorConfiguration.getHedgeDefaultDelayInMillis());
+        minimumDelayInNanos = TimeUnit.MILLISECONDS.toNanos(queryExecutorConfiguration.getHedgeMinimumDelayInMillis());
+        milliTokensPerQuery = queryExecutorConfiguration.getHedgeRatePercent() * MILLI_TOKENS_PER_TOKEN / 100;
+        maximumMilliTokens = queryExecutorConfiguration.getHedgeBurst() * MILLI_TOKENS_PER_TOKEN;
+        milliTokens.set(maximumMilliTokens);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record that a query is about to be run with hedging, earning a fraction of a hedge token
+     *
+     * @param query query text
+     */
+    public void recordQuery(final String query) {
+        statisticsFor(query).queries.incrementAndGet();
+        totals.queries.incrementAndGet();
+        while (true) {
+            final long current = milliTokens.get();
+            final long updated = Math.min(maximumMilliTokens, current + milliTokensPerQuery);
+            if (current == updated || milliTokens.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param query query text
+     * @return time to wait for the first rows of the query before sending a hedge
+     */
+    public long getHedgeDelayInNanos(final String query) {
+        final long percentileLatency = statisticsFor(query).getPercentileLatency(latencyPercentile);
+        if (percentileLatency < 0) {
+            return defaultDelayInNanos;
+        }
+        return Math.max(percentileLatency, minimumDelayInNanos);
+    }
+
+    /**
+     * Take a hedge token if one is available
+     *
+     * @param query query text
+     * @return true if the query may be hedged
+     */
+    public boolean tryAcquireHedge(final String query) {
+        final TemplateStatistics statistics = statisticsFor(query);
+        while (true) {
+            final long current = milliTokens.get();
+            if (current < MILLI_TOKENS_PER_TOKEN) {
+                statistics.rejectedHedges.incrementAndGet();
+                totals.rejectedHedges.incrementAndGet();
+                return false;
+            }
+            if (milliTokens.compareAndSet(current, current - MILLI_TOKENS_PER_TOKEN)) {
+                statistics.hedges.incrementAndGet();
+                totals.hedges.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Record that a hedge allowed by tryAcquireHedge() wasn't sent, because the hedged query thread pool was full
+     * The hedge's token is given back, and the hedge is counted as skipped rather than sent
+     *
+     * @param query query text
+     */
+    public void recordSkippedHedge(final String query) {
+        final TemplateStatistics statistics = statisticsFor(query);
+        statistics.hedges.decrementAndGet();
+        totals.hedges.decrementAndGet();
+        statistics.skippedHedges.incrementAndGet();
+        totals.skippedHedges.incrementAndGet();
+        while (true) {
+            final long current = milliTokens.get();
+            final long updated = Math.min(maximumMilliTokens, current + MILLI_TOKENS_PER_TOKEN);
+            if (current == updated || milliTokens.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param query query text
+     * @param latencyInNanos time taken for the query to return its first rows
+     */
+    public void recordLatency(final String query, final long latencyInNanos) {
+        statisticsFor(query).recordLatency(latencyInNanos);
+    }
+
+    /**
+     * @param query query text
+     */
+    public void recordHedgeWin(final String query) {
+        statisticsFor(query).hedgeWins.incrementAndGet();
+        totals.hedgeWins.incrementAndGet();
+    }
+
+    public long getQueryCount() {
+        return totals.queries.get();
+    }
+
+    public long getHedgeCount() {
+        return totals.hedges.get();
+    }
+
+    public long getHedgeWinCount() {
+        return totals.hedgeWins.get();
+    }
+
+    public long getRejectedHedgeCount() {
+        return totals.rejectedHedges.get();
+    }
+
+    /**
+     * @return number of hedges not sent because the hedged query thread pool was full
+     */
+    public long getSkippedHedgeCount() {
+        return totals.skippedHedges.get();
+    }
+
+    /**
+     * @param query query text
+     * @return query, hedge, hedge win, rejected hedge and skipped hedge counts for the query's template
+     */
+    public long[] getTemplateCounts(final String query) {
+        final TemplateStatistics statistics = statisticsFor(query);
+        return new long[] { statistics.queries.get(), statistics.hedges.get(), statistics.hedgeWins.get(),
+                statistics.rejectedHedges.get(), statistics.skippedHedges.get() };
+    }
+
+    private TemplateStatistics statisticsFor(final String query) {
+        final Long fingerprint = QueryFingerprint.of(query);
+        final TemplateStatistics statistics = statisticsByTemplate.get(fingerprint);
+        if (statistics != null) {
+            return statistics;
+        }
+        if (statisticsByTemplate.size() >= MAXIMUM_TEMPLATES) {
+            return overflowStatistics;
+        }
+        final TemplateStatistics newStatistics = new TemplateStatistics();
+        final TemplateStatistics existingStatistics = statisticsByTemplate.putIfAbsent(fingerprint, newStatistics);
+        return existingStatistics == null ? newStatistics : existingStatistics;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    /**
+     * Counters and recent latencies for one query template
+     * The latencies are held in a ring buffer, and the percentile is only recalculated every
+     * RECALCULATE_EVERY_SAMPLES samples
+     */
+    private static final class TemplateStatistics {
+
+        private static final int NUMBER_OF_SAMPLES = 256;
+
+        private static final int RECALCULATE_EVERY_SAMPLES = 16;
+
+        private final AtomicLong queries = new AtomicLong();
+
+        private final AtomicLong hedges = new AtomicLong();
+
+        private final AtomicLong hedgeWins = new AtomicLong();
+
+        private final AtomicLong rejectedHedges = new AtomicLong();
+
+        private final AtomicLong skippedHedges = new AtomicLong();
+
+        private final AtomicLongArray latencies = new AtomicLongArray(NUMBER_OF_SAMPLES);
+
+        private final AtomicInteger samples = new AtomicInteger();
+
+        private volatile long percentileLatency = -1;
+
+        private volatile int percentileCalculatedFor = -1;
+
+        void recordLatency(final long latencyInNanos) {
+            final int sample = samples.getAndIncrement();
+            latencies.set(sample & (NUMBER_OF_SAMPLES - 1), latencyInNanos);
+        }
+
+        /**
+         * @return the percentile of the recent latencies, or -1 if too few latencies have been recorded
+         */
+        long getPercentileLatency(final int percentile) {
+            final int numberOfSamples = samples.get();
+            if (numberOfSamples < MINIMUM_SAMPLES) {
+                return -1;
+            }
+            if (percentileCalculatedFor < 0 || numberOfSamples - percentileCalculatedFor >= RECALCULATE_EVERY_SAMPLES) {
+                final int size = Math.min(numberOfSamples, NUMBER_OF_SAMPLES);
+                final long[] sortedLatencies = new long[size];
+                for (int i = 0; i < size; i++) {
+                    sortedLatencies[i] = latencies.get(i);
+                }
+                Arrays.sort(sortedLatencies);
+                final int index = Math.min(size - 1, (int) Math.ceil(percentile / 100.0 * size) - 1);
+                percentileLatency = sortedLatencies[Math.max(0, index)];
+                percentileCalculatedFor = numberOfSamples;
+            }
+            return percentileLatency;
+        }
+    }
+}
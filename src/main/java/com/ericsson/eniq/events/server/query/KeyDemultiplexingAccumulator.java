@@ -0,0 +1,174 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ericsson.eniq.events.server.query.resultsettransformers.AccumulatingResultSetTransformer;
+import com.ericsson.eniq.events.server.query.resultsettransformers.ResultSetAccumulator;
+
+/**
+ * Splits the result of one IN list query for many keys back into a result for each key (see
+ * DataServiceQueryExecutor.getDataForKeys())
+ *
+ * Each key has its own accumulator from the transformer. The rows of the result set are read once, in runs of rows
+ * with the same value in the key column, and each run is given to the accumulator of its key through a view of the
+ * result set whose next() returns false at the end of the run. Rows are grouped best when the query is ordered by
+ * the key column, but any order works - a key's accumulator is just given more, shorter, runs.
+ * Rows for keys that weren't asked for (or with a NULL key) are skipped.
+ *
+ * Keys are Longs, read with getLong(), or Strings, read with getString().
+ *
+ * @author eemecoy
+ */
+final class KeyDemultiplexingAccumulator<K, T> implements ResultSetAccumulator<Map<K, T>> {
+
+    private final String keyColumn;
+
+    private final boolean stringKeys;
+
+    private final Map<K, ResultSetAccumulator<T>> accumulators = new LinkedHashMap<K, ResultSetAccumulator<T>>();
+
+    private ResultSet resultSet;
+
+    private Object runKey;
+
+    private Object nextKey;
+
+    private boolean firstRowOfRun;
+
+    private boolean endOfRun;
+
+    private boolean moreRows;
+
+    /**
+     * @param keys        keys to split the result by, Longs or Strings - duplicates are ignored
+     * @param keyColumn   column of the result holding the key of each row
+     * @param transformer transformer that creates the accumulator for each key
+     * @throws IllegalArgumentException if the keys aren't all Longs or all Strings
+     */
+    KeyDemultiplexingAccumulator(final Collection<K> keys, final String keyColumn,
+            final AccumulatingResultSetTransformer<T> transformer) {
+        this.keyColumn = keyColumn;
+        this.stringKeys = !keys.isEmpty() && keys.iterator().next() instanceof String;
+        final Class<?> keyType = stringKeys ? String.class : Long.class;
+        for (final K key : keys) {
+            if (!keyType.isInstance(key)) {
+                throw new IllegalArgumentException("Keys must all be Longs or all be Strings, not " + key);
+            }
+            if (!accumulators.containsKey(key)) {
+                accumulators.put(key, transformer.createAccumulator());
+            }
+        }
+    }
+
+    /**
+     * @param maximumListSize most keys to put in one IN list
+     * @return the keys, without duplicates, as list parameters of at most maximumListSize keys each
+     */
+    @SuppressWarnings("unchecked")
+    List<QueryParameter> getKeyParameters(final int maximumListSize) {
+        final List<QueryParameter> keyParameters = new ArrayList<QueryParameter>();
+        final List<K> keys = new ArrayList<K>(accumulators.keySet());
+        for (int start = 0; start < keys.size(); start += maximumListSize) {
+            final List<K> chunk = keys.subList(start, Math.min(start + maximumListSize, keys.size()));
+            keyParameters.add(stringKeys ? QueryParameter.createStringListParameter((List<String>) chunk)
+                    : QueryParameter.createLongListParameter((List<Long>) chunk));
+        }
+        return keyParameters;
+    }
+
+    @Override
+    public void accumulate(final ResultSet rs) throws SQLException {
+        resultSet = rs;
+        final ResultSet run = new RunResultSet(rs);
+        moreRows = rs.next();
+        if (moreRows) {
+            nextKey = readKey();
+        }
+        while (moreRows) {
+            runKey = nextKey;
+            firstRowOfRun = true;
+            endOfRun = false;
+            final ResultSetAccumulator<T> accumulator = accumulators.get(runKey);
+            if (accumulator != null) {
+                accumulator.accumulate(run);
+            }
+            //skip whatever the accumulator didn't read of the run
+            while (nextInRun()) {
+                continue;
+            }
+        }
+    }
+
+    @Override
+    public Map<K, T> getResult() throws SQLException {
+        final Map<K, T> results = new LinkedHashMap<K, T>();
+        for (final Map.Entry<K, ResultSetAccumulator<T>> entry : accumulators.entrySet()) {
+            results.put(entry.getKey(), entry.getValue().getResult());
+        }
+        return results;
+    }
+
+    /**
+     * The first call for a run is on the row already read, which started the run
+     */
+    private boolean nextInRun() throws SQLException {
+        if (firstRowOfRun) {
+            firstRowOfRun = false;
+            return true;
+        }
+        if (endOfRun) {
+            return false;
+        }
+        if (!resultSet.next()) {
+            endOfRun = true;
+            moreRows = false;
+            return false;
+        }
+        final Object key = readKey();
+        if (key == null ? runKey != null : !key.equals(runKey)) {
+            endOfRun = true;
+            nextKey = key;
+            return false;
+        }
+        return true;
+    }
+
+    private Object readKey() throws SQLException {
+        if (stringKeys) {
+            return resultSet.getString(keyColumn);
+        }
+        final long key = resultSet.getLong(keyColumn);
+        return resultSet.wasNull() ? null : Long.valueOf(key);
+    }
+
+    /**
+     * The view of the result set given to the accumulator of a run - next() returns false at the end of the run
+     */
+    private final class RunResultSet extends DelegatingResultSet {
+
+        RunResultSet(final ResultSet resultSet) {
+            super(resultSet);
+        }
+
+        @Override
+        public boolean next() throws SQLException {
+            return nextInRun();
+        }
+
+        @Override
+        public void close() {
+            //the result set is closed by the executor, after the last run
+        }
+    }
+}
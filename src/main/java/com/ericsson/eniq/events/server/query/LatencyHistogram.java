@@ -0,0 +1,121 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies, in the same log-linear layout as an HdrHistogram: each power of two of
+ * microseconds is split into SUB_BUCKETS linear buckets, so every recorded value is counted within about 6% of its
+ * real value, from 1 microsecond up to MAXIMUM_VALUE_IN_MICROS (larger values are counted as the maximum)
+ *
+ * Recording is lock free and allocates nothing - it is a couple of shifts and an atomic increment - so latencies can
+ * be recorded on every query. Percentiles are worked out from the counts when they are read.
+ *
+ * @author eemecoy
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAXIMUM_EXPONENT = 35;
+
+    static final long MAXIMUM_VALUE_IN_MICROS = (1L << (MAXIMUM_EXPONENT + 1)) - 1;
+
+    static final int NUMBER_OF_BUCKETS = (MAXIMUM_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong totalInMicros = new AtomicLong();
+
+    private final AtomicLong maximumInMicros = new AtomicLong();
+
+    /**
+     * @param latencyInNanos latency to record, negative values are ignored
+     */
+    public void recordNanos(final long latencyInNanos) {
+        if (latencyInNanos < 0) {
+            return;
+        }
+        final long micros = Math.min(TimeUnit.NANOSECONDS.toMicros(latencyInNanos), MAXIMUM_VALUE_IN_MICROS);
+        counts.incrementAndGet(bucketFor(micros));
+        totalCount.incrementAndGet();
+        totalInMicros.addAndGet(micros);
+        long maximum = maximumInMicros.get();
+        while (micros > maximum && !maximumInMicros.compareAndSet(maximum, micros)) {
+            maximum = maximumInMicros.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMaximumInMicros() {
+        return maximumInMicros.get();
+    }
+
+    /**
+     * @return the mean latency, or 0 if nothing has been recorded
+     */
+    public double getMeanInMicros() {
+        final long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalInMicros.get() / count;
+    }
+
+    /**
+     * The counts are read one bucket at a time while other threads are recording, so the percentile is only as
+     * consistent as the moment it was read
+     *
+     * @param percentile percentile to get, from 0 to 100
+     * @return highest latency counted in the same bucket as the percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentileInMicros(final double percentile) {
+        final long[] snapshot = new long[NUMBER_OF_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueInBucket(i), maximumInMicros.get());
+            }
+        }
+        return maximumInMicros.get();
+    }
+
+    static int bucketFor(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueInBucket(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
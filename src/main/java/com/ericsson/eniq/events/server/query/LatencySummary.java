@@ -0,0 +1,79 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Summary of a LatencyHistogram at the moment it was read, as shown over JMX
+ * All latencies are in microseconds
+ *
+ * @author eemecoy
+ */
+public final class LatencySummary {
+
+    private final long count;
+
+    private final double meanInMicros;
+
+    private final long p50InMicros;
+
+    private final long p90InMicros;
+
+    private final long p99InMicros;
+
+    private final long p999InMicros;
+
+    private final long maximumInMicros;
+
+    @ConstructorProperties({ "count", "meanInMicros", "p50InMicros", "p90InMicros", "p99InMicros", "p999InMicros",
+            "maximumInMicros" })
+    public LatencySummary(final long count, final double meanInMicros, final long p50InMicros,
+            final long p90InMicros, final long p99InMicros, final long p999InMicros, final long maximumInMicros) {
+        this.count = count;
+        this.meanInMicros = meanInMicros;
+        this.p50InMicros = p50InMicros;
+        this.p90InMicros = p90InMicros;
+        this.p99InMicros = p99InMicros;
+        this.p999InMicros = p999InMicros;
+        this.maximumInMicros = maximumInMicros;
+    }
+
+    static LatencySummary of(final LatencyHistogram histogram) {
+        return new LatencySummary(histogram.getCount(), histogram.getMeanInMicros(),
+                histogram.getValueAtPercentileInMicros(50), histogram.getValueAtPercentileInMicros(90),
+                histogram.getValueAtPercentileInMicros(99), histogram.getValueAtPercentileInMicros(99.9),
+                histogram.getMaximumInMicros());
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanInMicros() {
+        return meanInMicros;
+    }
+
+    public long getP50InMicros() {
+        return p50InMicros;
+    }
+
+    public long getP90InMicros() {
+        return p90InMicros;
+    }
+
+    public long getP99InMicros() {
+        return p99InMicros;
+    }
+
+    public long getP999InMicros() {
+        return p999InMicros;
+    }
+
+    public long getMaximumInMicros() {
+        return maximumInMicros;
+    }
+}
@@ -0,0 +1,507 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * Wraps a ResultSet to count what the transformer reads through it, and to enforce the QueryLimits of a request
+ *
+ * Rows are counted on each call to next(), and the size of each value read through a column getter is added to an
+ * estimate of the memory taken by the transformed result. The counts are kept whether or not the request has limits,
+ * for the QueryMetrics and the SlowQueryLog. Once either limit is reached the statement is cancelled on the
+ * database, and next() either returns false (truncate) or throws a QueryLimitExceededException (fail).
+ *
+ * Every other method is passed straight to the wrapped result set by the DelegatingResultSet.
+ *
+ * @author eemecoy
+ */
+final class LimitedResultSet extends DelegatingResultSet {
+
+    /**
+     * Estimated overhead of each value held by the transformers (the object header, and the reference to it)
+     */
+    private static final int VALUE_OVERHEAD_IN_BYTES = 16;
+
+    private static final int BYTES_PER_CHAR = 2;
+
+    private final NamedParameterStatement pstmt;
+
+    private final QueryLimits limits;
+
+    private long rowsRead;
+
+    private long bytesRead;
+
+    private boolean limitReached;
+
+    private final long createdTime = System.nanoTime();
+
+    private LimitedResultSet(final ResultSet resultSet, final NamedParameterStatement pstmt, final QueryLimits limits) {
+        super(resultSet);
+        this.pstmt = pstmt;
+        this.limits = limits;
+    }
+
+    /**
+     * @param resultSet result set to count and limit
+     * @param pstmt     statement the result set came from, cancelled when a limit is reached
+     * @param limits    limits for the request, may be null
+     * @return the result set, wrapped to count the rows and bytes read through it, and to enforce the limits if the
+     * request has any
+     */
+    static ResultSet limit(final ResultSet resultSet, final NamedParameterStatement pstmt, final QueryLimits limits) {
+        if (resultSet == null) {
+            return null;
+        }
+        return new LimitedResultSet(resultSet, pstmt, limits == null || !limits.hasLimits() ? null : limits);
+    }
+
+    /**
+     * @param resultSet result set returned by limit()
+     * @return number of rows read through the result set, or -1 if it didn't come from limit()
+     */
+    static long getRowsRead(final ResultSet resultSet) {
+        return resultSet instanceof LimitedResultSet ? ((LimitedResultSet) resultSet).rowsRead : -1;
+    }
+
+    /**
+     * @param resultSet result set returned by limit()
+     * @return estimated size of the values read through the result set, or -1 if it didn't come from limit()
+     */
+    static long getBytesRead(final ResultSet resultSet) {
+        return resultSet instanceof LimitedResultSet ? ((LimitedResultSet) resultSet).bytesRead : -1;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        if (limitReached || !resultSet.next()) {
+            return false;
+        }
+        if (rowsRead == 0) {
+            QueryTimings.record(QueryPhase.FIRST_ROW, createdTime, System.nanoTime());
+        }
+        //only treated as over the limit if there really is another row
+        if (limits != null && (limits.isRowLimitReached(rowsRead) || limits.isByteLimitReached(bytesRead))) {
+            limitReached = true;
+            cancelStatement();
+            if (!limits.isTruncate()) {
+                throw new QueryLimitExceededException("Query result exceeded " + limits + " after " + rowsRead
+                        + " rows");
+            }
+            limits.markTruncated();
+            return false;
+        }
+        rowsRead++;
+        return true;
+    }
+
+    private void cancelStatement() {
+        try {
+            pstmt.cancelExecution();
+        } catch (final SQLException e) {
+            ServicesLogger.warn(getClass().getName(), "cancelStatement", e);
+        }
+    }
+
+    /**
+     * Add the estimated size of a value read through a column getter to the bytes read
+     */
+    private <V> V count(final V value) {
+        bytesRead += estimateSize(value);
+        return value;
+    }
+
+    private long estimateSize(final Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return VALUE_OVERHEAD_IN_BYTES + (long) ((String) value).length() * BYTES_PER_CHAR;
+        }
+        if (value instanceof byte[]) {
+            return VALUE_OVERHEAD_IN_BYTES + ((byte[]) value).length;
+        }
+        return VALUE_OVERHEAD_IN_BYTES;
+    }
+
+    @Override
+    public Array getArray(final int columnIndex) throws SQLException {
+        return count(resultSet.getArray(columnIndex));
+    }
+
+    @Override
+    public Array getArray(final String columnLabel) throws SQLException {
+        return count(resultSet.getArray(columnLabel));
+    }
+
+    @Override
+    public InputStream getAsciiStream(final int columnIndex) throws SQLException {
+        return count(resultSet.getAsciiStream(columnIndex));
+    }
+
+    @Override
+    public InputStream getAsciiStream(final String columnLabel) throws SQLException {
+        return count(resultSet.getAsciiStream(columnLabel));
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(final int columnIndex) throws SQLException {
+        return count(resultSet.getBigDecimal(columnIndex));
+    }
+
+    @Deprecated
+    @Override
+    public BigDecimal getBigDecimal(final int columnIndex, final int scale) throws SQLException {
+        return count(resultSet.getBigDecimal(columnIndex, scale));
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(final String columnLabel) throws SQLException {
+        return count(resultSet.getBigDecimal(columnLabel));
+    }
+
+    @Deprecated
+    @Override
+    public BigDecimal getBigDecimal(final String columnLabel, final int scale) throws SQLException {
+        return count(resultSet.getBigDecimal(columnLabel, scale));
+    }
+
+    @Override
+    public InputStream getBinaryStream(final int columnIndex) throws SQLException {
+        return count(resultSet.getBinaryStream(columnIndex));
+    }
+
+    @Override
+    public InputStream getBinaryStream(final String columnLabel) throws SQLException {
+        return count(resultSet.getBinaryStream(columnLabel));
+    }
+
+    @Override
+    public Blob getBlob(final int columnIndex) throws SQLException {
+        return count(resultSet.getBlob(columnIndex));
+    }
+
+    @Override
+    public Blob getBlob(final String columnLabel) throws SQLException {
+        return count(resultSet.getBlob(columnLabel));
+    }
+
+    @Override
+    public boolean getBoolean(final int columnIndex) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getBoolean(columnIndex);
+    }
+
+    @Override
+    public boolean getBoolean(final String columnLabel) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getBoolean(columnLabel);
+    }
+
+    @Override
+    public byte getByte(final int columnIndex) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getByte(columnIndex);
+    }
+
+    @Override
+    public byte getByte(final String columnLabel) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getByte(columnLabel);
+    }
+
+    @Override
+    public byte[] getBytes(final int columnIndex) throws SQLException {
+        return count(resultSet.getBytes(columnIndex));
+    }
+
+    @Override
+    public byte[] getBytes(final String columnLabel) throws SQLException {
+        return count(resultSet.getBytes(columnLabel));
+    }
+
+    @Override
+    public Reader getCharacterStream(final int columnIndex) throws SQLException {
+        return count(resultSet.getCharacterStream(columnIndex));
+    }
+
+    @Override
+    public Reader getCharacterStream(final String columnLabel) throws SQLException {
+        return count(resultSet.getCharacterStream(columnLabel));
+    }
+
+    @Override
+    public Clob getClob(final int columnIndex) throws SQLException {
+        return count(resultSet.getClob(columnIndex));
+    }
+
+    @Override
+    public Clob getClob(final String columnLabel) throws SQLException {
+        return count(resultSet.getClob(columnLabel));
+    }
+
+    @Override
+    public Date getDate(final int columnIndex) throws SQLException {
+        return count(resultSet.getDate(columnIndex));
+    }
+
+    @Override
+    public Date getDate(final int columnIndex, final Calendar cal) throws SQLException {
+        return count(resultSet.getDate(columnIndex, cal));
+    }
+
+    @Override
+    public Date getDate(final String columnLabel) throws SQLException {
+        return count(resultSet.getDate(columnLabel));
+    }
+
+    @Override
+    public Date getDate(final String columnLabel, final Calendar cal) throws SQLException {
+        return count(resultSet.getDate(columnLabel, cal));
+    }
+
+    @Override
+    public double getDouble(final int columnIndex) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(final String columnLabel) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getDouble(columnLabel);
+    }
+
+    @Override
+    public float getFloat(final int columnIndex) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getFloat(columnIndex);
+    }
+
+    @Override
+    public float getFloat(final String columnLabel) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getFloat(columnLabel);
+    }
+
+    @Override
+    public int getInt(final int columnIndex) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getInt(columnIndex);
+    }
+
+    @Override
+    public int getInt(final String columnLabel) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getInt(columnLabel);
+    }
+
+    @Override
+    public long getLong(final int columnIndex) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(final String columnLabel) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getLong(columnLabel);
+    }
+
+    @Override
+    public Reader getNCharacterStream(final int columnIndex) throws SQLException {
+        return count(resultSet.getNCharacterStream(columnIndex));
+    }
+
+    @Override
+    public Reader getNCharacterStream(final String columnLabel) throws SQLException {
+        return count(resultSet.getNCharacterStream(columnLabel));
+    }
+
+    @Override
+    public NClob getNClob(final int columnIndex) throws SQLException {
+        return count(resultSet.getNClob(columnIndex));
+    }
+
+    @Override
+    public NClob getNClob(final String columnLabel) throws SQLException {
+        return count(resultSet.getNClob(columnLabel));
+    }
+
+    @Override
+    public String getNString(final int columnIndex) throws SQLException {
+        return count(resultSet.getNString(columnIndex));
+    }
+
+    @Override
+    public String getNString(final String columnLabel) throws SQLException {
+        return count(resultSet.getNString(columnLabel));
+    }
+
+    @Override
+    public Object getObject(final int columnIndex) throws SQLException {
+        return count(resultSet.getObject(columnIndex));
+    }
+
+    @Override
+    public <T> T getObject(final int columnIndex, final Class<T> type) throws SQLException {
+        return count(super.getObject(columnIndex, type));
+    }
+
+    @Override
+    public Object getObject(final int columnIndex, final Map<String, Class<?>> map) throws SQLException {
+        return count(resultSet.getObject(columnIndex, map));
+    }
+
+    @Override
+    public Object getObject(final String columnLabel) throws SQLException {
+        return count(resultSet.getObject(columnLabel));
+    }
+
+    @Override
+    public <T> T getObject(final String columnLabel, final Class<T> type) throws SQLException {
+        return count(super.getObject(columnLabel, type));
+    }
+
+    @Override
+    public Object getObject(final String columnLabel, final Map<String, Class<?>> map) throws SQLException {
+        return count(resultSet.getObject(columnLabel, map));
+    }
+
+    @Override
+    public Ref getRef(final int columnIndex) throws SQLException {
+        return count(resultSet.getRef(columnIndex));
+    }
+
+    @Override
+    public Ref getRef(final String columnLabel) throws SQLException {
+        return count(resultSet.getRef(columnLabel));
+    }
+
+    @Override
+    public RowId getRowId(final int columnIndex) throws SQLException {
+        return count(resultSet.getRowId(columnIndex));
+    }
+
+    @Override
+    public RowId getRowId(final String columnLabel) throws SQLException {
+        return count(resultSet.getRowId(columnLabel));
+    }
+
+    @Override
+    public SQLXML getSQLXML(final int columnIndex) throws SQLException {
+        return count(resultSet.getSQLXML(columnIndex));
+    }
+
+    @Override
+    public SQLXML getSQLXML(final String columnLabel) throws SQLException {
+        return count(resultSet.getSQLXML(columnLabel));
+    }
+
+    @Override
+    public short getShort(final int columnIndex) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getShort(columnIndex);
+    }
+
+    @Override
+    public short getShort(final String columnLabel) throws SQLException {
+        bytesRead += VALUE_OVERHEAD_IN_BYTES;
+        return resultSet.getShort(columnLabel);
+    }
+
+    @Override
+    public String getString(final int columnIndex) throws SQLException {
+        return count(resultSet.getString(columnIndex));
+    }
+
+    @Override
+    public String getString(final String columnLabel) throws SQLException {
+        return count(resultSet.getString(columnLabel));
+    }
+
+    @Override
+    public Time getTime(final int columnIndex) throws SQLException {
+        return count(resultSet.getTime(columnIndex));
+    }
+
+    @Override
+    public Time getTime(final int columnIndex, final Calendar cal) throws SQLException {
+        return count(resultSet.getTime(columnIndex, cal));
+    }
+
+    @Override
+    public Time getTime(final String columnLabel) throws SQLException {
+        return count(resultSet.getTime(columnLabel));
+    }
+
+    @Override
+    public Time getTime(final String columnLabel, final Calendar cal) throws SQLException {
+        return count(resultSet.getTime(columnLabel, cal));
+    }
+
+    @Override
+    public Timestamp getTimestamp(final int columnIndex) throws SQLException {
+        return count(resultSet.getTimestamp(columnIndex));
+    }
+
+    @Override
+    public Timestamp getTimestamp(final int columnIndex, final Calendar cal) throws SQLException {
+        return count(resultSet.getTimestamp(columnIndex, cal));
+    }
+
+    @Override
+    public Timestamp getTimestamp(final String columnLabel) throws SQLException {
+        return count(resultSet.getTimestamp(columnLabel));
+    }
+
+    @Override
+    public Timestamp getTimestamp(final String columnLabel, final Calendar cal) throws SQLException {
+        return count(resultSet.getTimestamp(columnLabel, cal));
+    }
+
+    @Override
+    public URL getURL(final int columnIndex) throws SQLException {
+        return count(resultSet.getURL(columnIndex));
+    }
+
+    @Override
+    public URL getURL(final String columnLabel) throws SQLException {
+        return count(resultSet.getURL(columnLabel));
+    }
+
+    @Deprecated
+    @Override
+    public InputStream getUnicodeStream(final int columnIndex) throws SQLException {
+        return count(resultSet.getUnicodeStream(columnIndex));
+    }
+
+    @Deprecated
+    @Override
+    public InputStream getUnicodeStream(final String columnLabel) throws SQLException {
+        return count(resultSet.getUnicodeStream(columnLabel));
+    }
+}
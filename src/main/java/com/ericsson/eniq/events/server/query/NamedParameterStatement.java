@@ -7,14 +7,13 @@ package com.ericsson.eniq.events.server.query;
 
 import java.io.StringReader;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -26,98 +25,221 @@ import java.util.Map;
 @SuppressWarnings("PMD.CyclomaticComplexity")
 //NOPMD etomcor 1/June/10 -this calls will be replaced by Spring, so redundant to refactor for Cyclomatic Complexity violations => NOPMD
 public class NamedParameterStatement {
+
+    private static final int INITIAL_PARAMETERS = 16;
     /** The statement this object is wrapping. */
     private final PreparedStatement statement;
 
     /** Maps parameter names to arrays of ints which are the parameter indices. 
     */
-    @SuppressWarnings("unchecked")
-    private final Map indexMap;
+    private final Map<String, int[]> indexMap;
+
+    private final long fingerprint;
+
+    private final ParameterBindingPlan bindingPlan;
 
     /**
      * Creates a NamedParameterStatement.  Wraps a call to
      * c.{@link Connection#prepareStatement(java.lang.String) 
     prepareStatement}.
+     * The statement produces scrollable, read only result sets
+     * The parsed form of the query is taken from the ParsedQueryCache if the same query has been parsed before
      * @param connection the database connection
      * @param query      the parameterized query
      * @throws SQLException if the statement could not be created
      */
-    @SuppressWarnings("unchecked")
     public NamedParameterStatement(final Connection connection, final String query) throws SQLException {
-        indexMap = new HashMap();
-        final String parsedQuery = parse(query, indexMap);
-        statement = connection.prepareStatement(parsedQuery, ResultSet.TYPE_SCROLL_INSENSITIVE,
-                ResultSet.CONCUR_READ_ONLY);
+        this(connection, query, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    /**
+     * Creates a NamedParameterStatement with the given cursor type.  Wraps a call to
+     * c.{@link Connection#prepareStatement(java.lang.String, int, int) prepareStatement}.
+     * Use ResultSet.TYPE_FORWARD_ONLY where the result set is only read once from start to end - the driver can
+     * then stream the rows rather than caching the whole result on the client
+     * @param connection           the database connection
+     * @param query                the parameterized query
+     * @param resultSetType        one of the ResultSet.TYPE_* constants
+     * @param resultSetConcurrency one of the ResultSet.CONCUR_* constants
+     * @throws SQLException if the statement could not be created
+     */
+    public NamedParameterStatement(final Connection connection, final String query, final int resultSetType,
+            final int resultSetConcurrency) throws SQLException {
+        final ParsedQuery parsedQuery = ParsedQueryCache.getInstance().get(query);
+        indexMap = parsedQuery.getIndexMap();
+        fingerprint = parsedQuery.getFingerprint();
+        bindingPlan = parsedQuery.getBindingPlan();
+        statement = connection.prepareStatement(parsedQuery.getParsedSql(), resultSetType, resultSetConcurrency);
     }
 
     /**
      * Parses a query with named parameters. The parameter-index mappings are put into the map, and the
      * parsed query is returned.  DO NOT CALL FROM CLIENT CODE.  This method is non-private so JUnit code can test it.
      * @param query    query to parse
-     * @param paramMap map to hold parameter-index mappings
+     * @param paramMap map to hold parameter-index mappings - each name is mapped to an int[] of its JDBC indexes
+     * @return the parsed query
+     */
+    static final String parse(final String query, final Map<String, int[]> paramMap) {
+        final ParsedQuery parsedQuery = parse(query);
+        paramMap.putAll(parsedQuery.getIndexMap());
+        return parsedQuery.getParsedSql();
+    }
+
+    /**
+     * Parses a query with named parameters.  Use ParsedQuery.parse(), or better the ParsedQueryCache, rather than
+     * calling this directly.
+     * The query is scanned once, as a char array:
+     * - text in single or double quotes, and -- and slash-star comments, are copied as they are, so colons in
+     *   literals (such as times) and in comments are never taken as parameters
+     * - '::' is copied as it is (a cast), and so is a colon that isn't followed by the start of a Java identifier
+     *   (such as the colons of an unquoted time, 10:30:00)
+     * - each :parameterName is replaced by '?'
+     * The parsed query keeps the JDBC indexes of each name, and the offset in the query of each parameter's ':'
+     * @param query query to parse
      * @return the parsed query
      */
-    @SuppressWarnings("unchecked")
-    static final String parse(final String query, final Map paramMap) { //NOPMD etomcor 1/June/10 -this calls will be replaced by Spring, so redundant to refactor for Cyclomatic Complexity violations => NOPMD
-        // I was originally using regular expressions, but they didn't work well for ignoring
-        // parameter-like strings inside quotes.
-        final int length = query.length();
-        final StringBuffer parsedQuery = new StringBuffer(length);
-        boolean inSingleQuote = false;
-        boolean inDoubleQuote = false;
-        int index = 1;
-
-        for (int i = 0; i < length; i++) {
-            char c = query.charAt(i);
-            if (inSingleQuote) {
-                if (c == '\'') {
-                    inSingleQuote = false;
+    static final ParsedQuery parse(final String query) { //NOPMD etomcor 1/June/10 -this calls will be replaced by Spring, so redundant to refactor for Cyclomatic Complexity violations => NOPMD
+        final char[] sql = query.toCharArray();
+        final int length = sql.length;
+        //each :parameterName becomes a single '?', so the parsed query is never longer than the query
+        final char[] parsedQuery = new char[length];
+        int parsedLength = 0;
+        String[] names = new String[INITIAL_PARAMETERS];
+        int numberOfNames = 0;
+        //the index into names of each parameter, in JDBC index order
+        int[] parameters = new int[INITIAL_PARAMETERS];
+        int[] starts = new int[INITIAL_PARAMETERS];
+        int numberOfParameters = 0;
+
+        int i = 0;
+        while (i < length) {
+            final char c = sql[i];
+            final int end;
+            if (c == '\'' || c == '"') {
+                end = skipQuoted(sql, i, c);
+            } else if (c == '-' && i + 1 < length && sql[i + 1] == '-') {
+                end = skipLineComment(sql, i);
+            } else if (c == '/' && i + 1 < length && sql[i + 1] == '*') {
+                end = skipBlockComment(sql, i);
+            } else if (c == ':' && i + 1 < length && sql[i + 1] == ':') {
+                end = i + 2;
+            } else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(sql[i + 1])) {
+                int j = i + 2;
+                while (j < length && Character.isJavaIdentifierPart(sql[j])) {
+                    j++;
+                }
+                final int name = indexOf(names, numberOfNames, sql, i + 1, j);
+                if (name == numberOfNames) {
+                    if (numberOfNames == names.length) {
+                        names = Arrays.copyOf(names, numberOfNames * 2);
+                    }
+                    names[numberOfNames++] = new String(sql, i + 1, j - i - 1);
                 }
-            } else if (inDoubleQuote) {
-                if (c == '"') {
-                    inDoubleQuote = false;
+                if (numberOfParameters == parameters.length) {
+                    parameters = Arrays.copyOf(parameters, numberOfParameters * 2);
+                    starts = Arrays.copyOf(starts, numberOfParameters * 2);
                 }
+                starts[numberOfParameters] = i;
+                parameters[numberOfParameters++] = name;
+                parsedQuery[parsedLength++] = '?'; // replace the parameter with a question mark
+                i = j; // skip past the end if the parameter
+                continue;
             } else {
-                if (c == '\'') {
-                    inSingleQuote = true;
-                } else if (c == '"') {
-                    inDoubleQuote = true;
-                } else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(query.charAt(i + 1))) {
-                    int j = i + 2;
-                    while (j < length && Character.isJavaIdentifierPart(query.charAt(j))) {
-                        j++;
-                    }
-                    final String name = query.substring(i + 1, j);
-                    c = '?'; // replace the parameter with a question mark
-                    i += name.length(); // skip past the end if the parameter
-
-                    List indexList = (List) paramMap.get(name);
-                    if (indexList == null) {
-                        indexList = new LinkedList(); //NOPMD (eemecoy 1/6/10, necessary evil)
-                        paramMap.put(name, indexList);
-                    }
-                    indexList.add(new Integer(index)); //NOPMD (eemecoy 1/6/10, necessary evil)
+                end = i + 1;
+            }
+            System.arraycopy(sql, i, parsedQuery, parsedLength, end - i);
+            parsedLength += end - i;
+            i = end;
+        }
+
+        // the JDBC indexes of each name, in arrays of exactly the right size
+        final int[] counts = new int[numberOfNames];
+        for (int parameter = 0; parameter < numberOfParameters; parameter++) {
+            counts[parameters[parameter]]++;
+        }
+        final int[][] indexes = new int[numberOfNames][];
+        for (int name = 0; name < numberOfNames; name++) {
+            indexes[name] = new int[counts[name]]; //NOPMD (eemecoy 1/6/10, necessary evil)
+            counts[name] = 0;
+        }
+        for (int parameter = 0; parameter < numberOfParameters; parameter++) {
+            final int name = parameters[parameter];
+            indexes[name][counts[name]++] = parameter + 1;
+        }
+        final Map<String, int[]> indexMap = new HashMap<String, int[]>();
+        for (int name = 0; name < numberOfNames; name++) {
+            indexMap.put(names[name], indexes[name]);
+        }
+
+        return new ParsedQuery(query, new String(parsedQuery, 0, parsedLength), indexMap,
+                Arrays.copyOf(starts, numberOfParameters));
+    }
 
-                    index++;
+    /**
+     * @return index after the closing quote, or the length of the query if the quote isn't closed
+     * A doubled quote inside the quotes is an escaped quote, and is skipped over
+     */
+    private static int skipQuoted(final char[] sql, final int start, final char quote) {
+        int i = start + 1;
+        while (i < sql.length) {
+            if (sql[i] == quote) {
+                if (i + 1 < sql.length && sql[i + 1] == quote) {
+                    i += 2;
+                    continue;
                 }
+                return i + 1;
             }
-            parsedQuery.append(c);
+            i++;
+        }
+        return sql.length;
+    }
+
+    /**
+     * @return index of the end of line (which isn't part of the comment), or the length of the query
+     */
+    private static int skipLineComment(final char[] sql, final int start) {
+        int i = start + 2;
+        while (i < sql.length && sql[i] != '\n' && sql[i] != '\r') {
+            i++;
         }
+        return i;
+    }
 
-        // replace the lists of Integer objects with arrays of ints
-        for (final Iterator itr = paramMap.entrySet().iterator(); itr.hasNext();) {
-            final Map.Entry entry = (Map.Entry) itr.next();
-            final List list = (List) entry.getValue();
-            final int[] indexes = new int[list.size()]; //NOPMD (eemecoy 1/6/10, necessary evil)
-            int i = 0;
-            for (final Iterator itr2 = list.iterator(); itr2.hasNext();) {
-                final Integer x = (Integer) itr2.next();
-                indexes[i++] = x.intValue();
+    /**
+     * @return index after the closing star-slash, or the length of the query if the comment isn't closed
+     */
+    private static int skipBlockComment(final char[] sql, final int start) {
+        for (int i = start + 2; i + 1 < sql.length; i++) {
+            if (sql[i] == '*' && sql[i + 1] == '/') {
+                return i + 2;
             }
-            entry.setValue(indexes);
         }
+        return sql.length;
+    }
 
-        return parsedQuery.toString();
+    /**
+     * @return index of the name held in sql[start, end) in names, or numberOfNames if it isn't there yet
+     */
+    private static int indexOf(final String[] names, final int numberOfNames, final char[] sql, final int start,
+            final int end) {
+        for (int name = 0; name < numberOfNames; name++) {
+            if (matches(names[name], sql, start, end)) {
+                return name;
+            }
+        }
+        return numberOfNames;
+    }
+
+    private static boolean matches(final String name, final char[] sql, final int start, final int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != sql[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -127,7 +249,7 @@ public class NamedParameterStatement {
      * @throws IllegalArgumentException if the parameter does not exist
      */
     private int[] getIndexes(final String name) {
-        final int[] indexes = (int[]) indexMap.get(name);
+        final int[] indexes = indexMap.get(name);
         if (indexes == null) {
             throw new IllegalArgumentException("Parameter not found: " + name);
         }
@@ -242,6 +364,21 @@ public class NamedParameterStatement {
         }
     }
 
+    /**
+     * Sets a parameter.
+     * @param name  parameter name
+     * @param value parameter value
+     * @throws SQLException if an error occurred
+     * @throws IllegalArgumentException if the parameter does not exist
+     * @see PreparedStatement#setDate(int, java.sql.Date)
+     */
+    public void setDate(final String name, final Date value) throws SQLException {
+        final int[] indexes = getIndexes(name);
+        for (int i = 0; i < indexes.length; i++) {
+            statement.setDate(indexes[i], value);
+        }
+    }
+
     /**
      * Sets a parameter as CLOB(Sybase Text type).
      * @param name  parameter name
@@ -257,6 +394,16 @@ public class NamedParameterStatement {
         }
     }
 
+    /**
+     * Sets all of the parameters through the query's ParameterBindingPlan, rather than looking each one up by name
+     * @param parameters named parameter and the corresponding QueryParameter (value & type)
+     * @throws SQLException if an error occurred
+     * @see QueryParameter#setParameters(NamedParameterStatement, Map)
+     */
+    public void setParameters(final Map<String, QueryParameter> parameters) throws SQLException {
+        bindingPlan.bind(statement, parameters);
+    }
+
     /**
      * Returns the underlying statement.
      * @return the statement
@@ -265,6 +412,35 @@ public class NamedParameterStatement {
         return statement;
     }
 
+    /**
+     * Clears the current parameter values, so the statement can be reused.
+     * @throws SQLException if an error occurred
+     * @see PreparedStatement#clearParameters()
+     */
+    public void clearParameters() throws SQLException {
+        statement.clearParameters();
+    }
+
+    /**
+     * Sets the number of seconds the driver will wait for the statement to execute.
+     * @param seconds the query timeout in seconds, 0 for no limit
+     * @throws SQLException if an error occurred
+     * @see Statement#setQueryTimeout(int)
+     */
+    public void setQueryTimeout(final int seconds) throws SQLException {
+        statement.setQueryTimeout(seconds);
+    }
+
+    /**
+     * Gives the driver a hint as to the number of rows to fetch from the database at a time.
+     * @param rows number of rows to fetch, 0 to use the driver default
+     * @throws SQLException if an error occurred
+     * @see Statement#setFetchSize(int)
+     */
+    public void setFetchSize(final int rows) throws SQLException {
+        statement.setFetchSize(rows);
+    }
+
     /**
      * Executes the statement.
      * @return true if the first result is a {@link ResultSet}
@@ -313,6 +489,14 @@ public class NamedParameterStatement {
         statement.addBatch();
     }
 
+    /**
+     * Discards the current batch entries.
+     * @throws SQLException if something went wrong
+     */
+    public void clearBatch() throws SQLException {
+        statement.clearBatch();
+    }
+
     /**
      * Executes all of the batched statements.
      * 
@@ -368,4 +552,11 @@ public class NamedParameterStatement {
         return indexMap.size();
     }
 
+    /**
+     * @return the QueryFingerprint of the query, used to key statistics without hashing the SQL again
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
 }
\ No newline at end of file
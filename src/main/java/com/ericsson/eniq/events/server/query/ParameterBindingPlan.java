@@ -0,0 +1,128 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * The named parameters of a parsed query, resolved once to their JDBC parameter indexes, so binding the parameters
+ * of a statement is a walk over an array - one map lookup for each parameter of the query, with no iterator and no
+ * second lookup by name in the statement
+ *
+ * The sorted names are the query's parameter manifest. If the parameters given don't match it, the mismatch is
+ * logged once for the query, rather than on every call - check() finds it before the statement is prepared.
+ *
+ * Instances are immutable (apart from the mismatch flag), so are shared through the ParsedQueryCache along with the
+ * ParsedQuery.
+ *
+ * @author eemecoy
+ */
+final class ParameterBindingPlan {
+
+    private final String[] names;
+
+    private final int[][] indexes;
+
+    private final long fingerprint;
+
+    private final AtomicBoolean mismatchReported = new AtomicBoolean();
+
+    ParameterBindingPlan(final Map<String, int[]> indexMap, final long fingerprint) {
+        names = indexMap.keySet().toArray(new String[indexMap.size()]);
+        Arrays.sort(names);
+        indexes = new int[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            indexes[i] = indexMap.get(names[i]);
+        }
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Check the parameters against the parameter manifest, before a statement is prepared for them
+     *
+     * @param parameters named parameter and the corresponding QueryParameter, may be null
+     * @return true if there is a value for each named parameter of the query, and no other values
+     */
+    boolean check(final Map<String, QueryParameter> parameters) {
+        final Map<String, QueryParameter> values = parameters == null ? Collections
+                .<String, QueryParameter> emptyMap() : parameters;
+        int found = 0;
+        for (final String name : names) {
+            if (values.containsKey(name)) {
+                found++;
+            }
+        }
+        if (found == names.length && found == values.size()) {
+            return true;
+        }
+        if (mismatchReported.compareAndSet(false, true)) {
+            reportMismatch(values);
+        }
+        return false;
+    }
+
+    /**
+     * Bind the parameters to the statement
+     * Named parameters of the query without a value are left unset, and values for names that aren't in the query
+     * are ignored
+     *
+     * @param statement  statement prepared from the parsed query
+     * @param parameters named parameter and the corresponding QueryParameter (value & type)
+     */
+    void bind(final PreparedStatement statement, final Map<String, QueryParameter> parameters) throws SQLException {
+        int bound = 0;
+        for (int i = 0; i < names.length; i++) {
+            final QueryParameter queryParameter = parameters.get(names[i]);
+            if (queryParameter != null) {
+                queryParameter.bind(statement, indexes[i]);
+                bound++;
+            }
+        }
+        if ((bound != names.length || bound != parameters.size()) && mismatchReported.compareAndSet(false, true)) {
+            reportMismatch(parameters);
+        }
+    }
+
+    private void reportMismatch(final Map<String, QueryParameter> parameters) {
+        final List<String> missing = new ArrayList<String>();
+        for (final String name : names) {
+            if (!parameters.containsKey(name)) {
+                missing.add(name);
+            }
+        }
+        final List<String> extra = new ArrayList<String>();
+        for (final String name : parameters.keySet()) {
+            if (Arrays.binarySearch(names, name) < 0) {
+                extra.add(name);
+            }
+        }
+        ServicesLogger.warn(NamedParameterStatement.class.getName(), "setParameters",
+                "All parameters are not set for query " + QueryFingerprint.toString(fingerprint)
+                        + " (reported once for the query): NumberOfNamedParameters: " + names.length
+                        + ", NumberOfQueryParameters: " + parameters.size() + ", not set: " + missing
+                        + ", not in query: " + extra);
+    }
+
+    int getNumberOfParameters() {
+        return names.length;
+    }
+
+    /**
+     * @return the parameter manifest - the names of the query's named parameters, sorted
+     */
+    List<String> getParameterNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+}
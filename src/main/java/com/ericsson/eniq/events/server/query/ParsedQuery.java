@@ -0,0 +1,185 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of parsing a query with named parameters - the SQL with each :parameterName replaced by a '?', and
+ * the JDBC parameter indexes for each parameter name (also resolved into a ParameterBindingPlan)
+ * Instances are immutable, so can be shared between statements through the ParsedQueryCache
+ *
+ * The parsed query also keeps where each parameter is in the query, so that a query with LONG_LIST or STRING_LIST
+ * parameters can be expanded into one with an IN list of parameters for each of them, without scanning it again
+ *
+ * @author eemecoy
+ */
+public final class ParsedQuery {
+
+    private static final String LIST_SEPARATOR = ", ";
+
+    private final String query;
+
+    private final String parsedSql;
+
+    private final Map<String, int[]> indexMap;
+
+    private final long fingerprint;
+
+    private final ParameterBindingPlan bindingPlan;
+
+    /** offset of the ':' of each parameter in the query, in JDBC index order */
+    private final int[] parameterStarts;
+
+    /** name of each parameter, in JDBC index order */
+    private final String[] parameterNames;
+
+    /**
+     * @param query           query with named parameters
+     * @param parsedSql       the query with the named parameters replaced by '?'
+     * @param indexMap        JDBC parameter indexes for each parameter name
+     * @param parameterStarts offset of the ':' of each parameter in the query, in JDBC index order
+     */
+    ParsedQuery(final String query, final String parsedSql, final Map<String, int[]> indexMap,
+            final int[] parameterStarts) {
+        this.query = query;
+        this.parsedSql = parsedSql;
+        this.parameterStarts = parameterStarts;
+        this.parameterNames = new String[parameterStarts.length];
+        for (final Map.Entry<String, int[]> entry : indexMap.entrySet()) {
+            for (final int index : entry.getValue()) {
+                parameterNames[index - 1] = entry.getKey();
+            }
+        }
+        this.indexMap = Collections.unmodifiableMap(indexMap);
+        this.fingerprint = QueryFingerprint.of(query);
+        this.bindingPlan = new ParameterBindingPlan(indexMap, fingerprint);
+    }
+
+    /**
+     * Parse the query
+     *
+     * @param query query with named parameters
+     * @return the parsed query
+     */
+    static ParsedQuery parse(final String query) {
+        return NamedParameterStatement.parse(query);
+    }
+
+    /**
+     * @return the query with the named parameters replaced by '?'
+     */
+    public String getParsedSql() {
+        return parsedSql;
+    }
+
+    /**
+     * The int arrays in the map must not be modified
+     *
+     * @return unmodifiable map of parameter name to JDBC parameter indexes
+     */
+    public Map<String, int[]> getIndexMap() {
+        return indexMap;
+    }
+
+    /**
+     * @param name parameter name
+     * @return the JDBC parameter indexes for the parameter, or null if the parameter isn't in the query
+     */
+    int[] getIndexes(final String name) {
+        return indexMap.get(name);
+    }
+
+    /**
+     * @return the QueryFingerprint of the query, worked out once when the query is parsed
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the plan for binding parameters to statements prepared from the query
+     */
+    ParameterBindingPlan getBindingPlan() {
+        return bindingPlan;
+    }
+
+    /**
+     * @return the names of the query's named parameters, sorted
+     */
+    public List<String> getParameterNames() {
+        return bindingPlan.getParameterNames();
+    }
+
+    /**
+     * Check that there is a value for each named parameter of the query, and no other values, before a statement
+     * is prepared - a mismatch is logged once for the query
+     *
+     * @param parameters named parameter and the corresponding QueryParameter, may be null
+     * @return true if the parameters match the query
+     */
+    public boolean checkParameters(final Map<String, QueryParameter> parameters) {
+        return bindingPlan.check(parameters);
+    }
+
+    /**
+     * Expand each LONG_LIST or STRING_LIST parameter of the query into an IN list of parameters, so one query can
+     * be run for a list of values rather than one query for each value
+     * :name is repeated (comma separated) as many times as the list size rounded up to a power of two, so the
+     * query has at most a few shapes (each parsed and prepared once) whatever the list sizes, and the parameter
+     * binds its values in order across the repeated :name (see QueryParameter)
+     * Parameters in quotes or comments aren't expanded, as the query is not scanned again
+     *
+     * e.g. "where IMSI in (:IMSI)" with a LONG_LIST of 3 values becomes "where IMSI in (:IMSI, :IMSI, :IMSI, :IMSI)"
+     *
+     * @param parameters      named parameter and the corresponding QueryParameter, may be null
+     * @param maximumListSize largest number of parameters a list parameter may be expanded to - unless it is a power
+     *                        of two, the longest list allowed is the power of two below it
+     * @return the expanded query, or the query itself if it has no list parameters
+     * @throws IllegalArgumentException if a list parameter would be expanded to more than maximumListSize parameters
+     */
+    public String expandListParameters(final Map<String, QueryParameter> parameters, final int maximumListSize) {
+        if (parameters == null || parameters.isEmpty()) {
+            return query;
+        }
+        StringBuilder expandedQuery = null;
+        int copied = 0;
+        for (int i = 0; i < parameterStarts.length; i++) {
+            final QueryParameter queryParameter = parameters.get(parameterNames[i]);
+            if (queryParameter == null || !queryParameter.isList()) {
+                continue;
+            }
+            final int listSize = queryParameter.getListSize();
+            final int expandedSize = QueryParameter.getExpandedSize(listSize);
+            //the padded IN list is what reaches the database, so it is the one that has to fit
+            if (expandedSize > maximumListSize) {
+                throw new IllegalArgumentException(queryParameter.getType() + " parameter :" + parameterNames[i]
+                        + " has " + listSize + " values, expanded to " + expandedSize
+                        + " parameters, more than the limit of " + maximumListSize);
+            }
+            final int start = parameterStarts[i];
+            final int end = start + 1 + parameterNames[i].length();
+            if (expandedQuery == null) {
+                expandedQuery = new StringBuilder(query.length() + expandedSize * (end - start + 2));
+            }
+            expandedQuery.append(query, copied, end);
+            for (int j = 1; j < expandedSize; j++) {
+                expandedQuery.append(LIST_SEPARATOR).append(query, start, end);
+            }
+            copied = end;
+        }
+        if (expandedQuery == null) {
+            return query;
+        }
+        return expandedQuery.append(query, copied, query.length()).toString();
+    }
+
+    public int getNumberOfParameters() {
+        return indexMap.size();
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used cache of parsed queries, keyed by the SQL text
+ *
+ * The same rendered SQL is run over and over again by different users, and parsing it (it is often tens of KB
+ * long) on every execution is one of the hottest paths in the services. The cache is split into segments, each with
+ * its own lock, so that concurrent requests for different queries don't contend with each other.
+ *
+ * Hit, miss and eviction counts are kept so the saving can be monitored.
+ *
+ * @author eemecoy
+ */
+public final class ParsedQueryCache {
+
+    static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    private static final int NUMBER_OF_SEGMENTS = 16;
+
+    private static final ParsedQueryCache INSTANCE = new ParsedQueryCache(DEFAULT_MAXIMUM_SIZE);
+
+    private volatile Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    ParsedQueryCache(final int maximumSize) {
+        segments = createSegments(maximumSize);
+    }
+
+    /**
+     * @return the cache shared by all NamedParameterStatements
+     */
+    public static ParsedQueryCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the parsed version of the query, parsing it if it isn't already in the cache
+     *
+     * @param query query with named parameters
+     * @return the parsed query
+     */
+    public ParsedQuery get(final String query) {
+        final Segment segment = segmentFor(query);
+        ParsedQuery parsedQuery;
+        synchronized (segment) {
+            parsedQuery = segment.get(query);
+        }
+        if (parsedQuery != null) {
+            hits.incrementAndGet();
+            return parsedQuery;
+        }
+        misses.incrementAndGet();
+        //parse outside the lock - two threads may parse the same query at the same time, the result is the same
+        parsedQuery = ParsedQuery.parse(query);
+        synchronized (segment) {
+            segment.put(query, parsedQuery);
+        }
+        return parsedQuery;
+    }
+
+    /**
+     * Change the maximum number of queries held in the cache
+     * The current contents of the cache are discarded
+     *
+     * @param maximumSize maximum number of parsed queries to cache
+     */
+    public void setMaximumSize(final int maximumSize) {
+        segments = createSegments(maximumSize);
+    }
+
+    public void clear() {
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private Segment segmentFor(final String query) {
+        final Segment[] currentSegments = segments;
+        int hash = query.hashCode();
+        //spread the bits of the hash, as String hash codes of similar queries differ mostly in the low bits
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return currentSegments[hash & (currentSegments.length - 1)];
+    }
+
+    private Segment[] createSegments(final int maximumSize) {
+        final int maximumSizeOfSegment = Math.max(1, (maximumSize + NUMBER_OF_SEGMENTS - 1) / NUMBER_OF_SEGMENTS);
+        final Segment[] newSegments = new Segment[NUMBER_OF_SEGMENTS];
+        for (int i = 0; i < NUMBER_OF_SEGMENTS; i++) {
+            newSegments[i] = new Segment(maximumSizeOfSegment);
+        }
+        return newSegments;
+    }
+
+    /**
+     * Access ordered map, that discards the least recently used query once it holds more than maximumSize queries
+     * Not thread safe - callers synchronize on the segment
+     */
+    private final class Segment extends LinkedHashMap<String, ParsedQuery> {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final float LOAD_FACTOR = 0.75f;
+
+        private final int maximumSize;
+
+        Segment(final int maximumSize) {
+            super(maximumSize, LOAD_FACTOR, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, ParsedQuery> eldest) {
+            if (size() > maximumSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
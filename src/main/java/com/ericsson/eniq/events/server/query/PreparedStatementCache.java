@@ -0,0 +1,508 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * Opt-in cache of prepared statements, so that the same template SQL isn't prepared on Sybase IQ for every request
+ *
+ * The connections handed out by the DBConnectionManager are logical handles onto pooled physical connections, and
+ * the pool closes every statement prepared on a handle when the handle is closed. Each checkout is a new handle, so
+ * the cache prepares statements on the physical connection, and keeps an LRU list of statements, keyed by query and
+ * cursor type, for each physical connection.
+ * Connection.unwrap(Connection.class) returns the handle itself (the handle is a Connection), so the physical
+ * connection is reached through the pool's own accessor on its handle class - getConnection() on the GlassFish
+ * ConnectionHolder, getUnderlyingConnection() (JBoss) or getInnermostDelegate() (DBCP) - and only through unwrap()
+ * if that gives back a different object. If the physical connection can't be reached the statement isn't cached,
+ * as a statement cached on a handle could never be used again.
+ *
+ * A statement is removed from the cache while it is in use and returned with its parameters cleared when the
+ * request is complete, so a statement is never shared between requests. The NamedParameterStatement is the same
+ * object for the duration of the request, so cancelling through the RequestIdMappingService works as before.
+ *
+ * The cache is disabled unless ENIQ_EVENTS_PREPARED_STATEMENT_CACHE_SIZE is set. Prepare, hit, miss and eviction
+ * counts are kept whether or not the cache is enabled, so the two can be compared, and are shown over JMX as
+ * OBJECT_NAME.
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+@Lock(LockType.READ)
+public class PreparedStatementCache {
+
+    static final String OBJECT_NAME = "com.ericsson.eniq.events.server.query:type=PreparedStatementCache";
+
+    /**
+     * Physical connections are only discarded by the pool, so bound the number tracked in case they are replaced
+     * without the cache seeing their statements closed
+     */
+    static final int MAXIMUM_CONNECTIONS = 256;
+
+    /**
+     * Methods of the pools' connection handle classes that return the physical connection, tried in order
+     */
+    private static final String[] PHYSICAL_CONNECTION_ACCESSORS = { "getConnection", "getUnderlyingConnection",
+            "getInnermostDelegate" };
+
+    /**
+     * Cached for a handle class without an accessor
+     */
+    private static final Object NO_ACCESSOR = new Object();
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    private volatile int statementsPerConnection;
+
+    private final Map<Connection, StatementsForConnection> statementsByConnection = new LinkedHashMap<Connection, StatementsForConnection>(
+            16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Connection, StatementsForConnection> eldest) {
+            if (size() > MAXIMUM_CONNECTIONS) {
+                eldest.getValue().closeAll();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Statements currently in use, and where to return them to once the request is complete
+     */
+    private final Map<NamedParameterStatement, CachedStatementKey> statementsInUse = new IdentityHashMap<NamedParameterStatement, CachedStatementKey>();
+
+    /**
+     * Accessor for the physical connection (or NO_ACCESSOR) for each class of connection handle
+     */
+    private final ConcurrentMap<Class<?>, Object> accessors = new ConcurrentHashMap<Class<?>, Object>();
+
+    private final AtomicBoolean notCachedReported = new AtomicBoolean();
+
+    private final AtomicLong prepares = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private ObjectName objectName;
+
+    @PostConstruct
+    public void init() {
+        statementsPerConnection = queryExecutorConfiguration.getPreparedStatementCacheSize();
+        try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeanServer.isRegistered(name)) {
+                //left behind by an earlier deployment
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(new CacheView(), name);
+            objectName = name;
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "init", "Prepared statement cache not registered with JMX", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        closeAll();
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "destroy", e);
+        }
+        objectName = null;
+    }
+
+    public void closeAll() {
+        synchronized (statementsByConnection) {
+            for (final StatementsForConnection statements : statementsByConnection.values()) {
+                statements.closeAll();
+            }
+            statementsByConnection.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return statementsPerConnection > 0;
+    }
+
+    /**
+     * Get a prepared statement for the query, from the cache if there's a free statement for the query on the
+     * connection, otherwise by preparing a new statement
+     * The statement must be given back with release() rather than closed
+     *
+     * @param conn                 connection checked out for the request
+     * @param query                query with named parameters
+     * @param resultSetType        one of the ResultSet.TYPE_* constants
+     * @param resultSetConcurrency one of the ResultSet.CONCUR_* constants
+     * @return the statement
+     * @throws SQLException if the statement could not be prepared
+     */
+    public NamedParameterStatement prepare(final Connection conn, final String query, final int resultSetType,
+            final int resultSetConcurrency) throws SQLException {
+        if (!isEnabled()) {
+            prepares.incrementAndGet();
+            return new NamedParameterStatement(conn, query, resultSetType, resultSetConcurrency);
+        }
+        final Connection physicalConnection = getPhysicalConnection(conn);
+        if (physicalConnection == null) {
+            //not cached, closed by release()
+            misses.incrementAndGet();
+            prepares.incrementAndGet();
+            return new NamedParameterStatement(conn, query, resultSetType, resultSetConcurrency);
+        }
+        final CachedStatementKey key = new CachedStatementKey(physicalConnection, query, resultSetType,
+                resultSetConcurrency);
+        NamedParameterStatement pstmt = checkOut(key);
+        if (pstmt == null) {
+            misses.incrementAndGet();
+            prepares.incrementAndGet();
+            pstmt = new NamedParameterStatement(physicalConnection, query, resultSetType, resultSetConcurrency);
+        } else {
+            hits.incrementAndGet();
+        }
+        synchronized (statementsInUse) {
+            statementsInUse.put(pstmt, key);
+        }
+        return pstmt;
+    }
+
+    /**
+     * Give back a statement got from prepare() - the statement is cleared and returned to the cache, or closed if
+     * it wasn't cached
+     * Any result sets on the statement must already be closed
+     *
+     * @param pstmt statement to release
+     */
+    public void release(final NamedParameterStatement pstmt) {
+        final CachedStatementKey key;
+        synchronized (statementsInUse) {
+            key = statementsInUse.remove(pstmt);
+        }
+        if (key == null) {
+            closeStatement(pstmt);
+            return;
+        }
+        try {
+            pstmt.clearParameters();
+            pstmt.setQueryTimeout(0);
+        } catch (final SQLException e) {
+            //statement can't be reused
+            closeStatement(pstmt);
+            return;
+        }
+        checkIn(key, pstmt);
+    }
+
+    private NamedParameterStatement checkOut(final CachedStatementKey key) {
+        synchronized (statementsByConnection) {
+            final StatementsForConnection statements = statementsByConnection.get(key.connection);
+            if (statements == null) {
+                return null;
+            }
+            final NamedParameterStatement pstmt = statements.remove(key);
+            if (pstmt == null) {
+                return null;
+            }
+            if (isClosed(pstmt)) {
+                //closed by the pool or driver, discard the connection's statements
+                statementsByConnection.remove(key.connection);
+                statements.closeAll();
+                return null;
+            }
+            return pstmt;
+        }
+    }
+
+    private void checkIn(final CachedStatementKey key, final NamedParameterStatement pstmt) {
+        synchronized (statementsByConnection) {
+            StatementsForConnection statements = statementsByConnection.get(key.connection);
+            if (statements == null) {
+                statements = new StatementsForConnection(statementsPerConnection);
+                statementsByConnection.put(key.connection, statements);
+            }
+            final NamedParameterStatement previous = statements.put(key, pstmt);
+            if (previous != null && previous != pstmt) {
+                closeStatement(previous);
+            }
+        }
+    }
+
+    /**
+     * @return the physical connection behind the pool's handle, or null if it can't be reached
+     */
+    private Connection getPhysicalConnection(final Connection conn) {
+        final Object accessor = getAccessor(conn.getClass());
+        if (accessor != NO_ACCESSOR) {
+            try {
+                final Object physicalConnection = ((Method) accessor).invoke(conn);
+                if (physicalConnection instanceof Connection && physicalConnection != conn) {
+                    return (Connection) physicalConnection;
+                }
+            } catch (final IllegalAccessException e) {
+                //fall through to unwrap
+            } catch (final InvocationTargetException e) {
+                //handle is closed, fall through to unwrap
+            }
+        }
+        try {
+            final Connection physicalConnection = conn.unwrap(Connection.class);
+            if (physicalConnection != null && physicalConnection != conn) {
+                return physicalConnection;
+            }
+        } catch (final SQLException e) {
+            //fall through, not a wrapper
+        } catch (final AbstractMethodError e) {
+            //pre JDBC 4 driver
+        }
+        if (notCachedReported.compareAndSet(false, true)) {
+            ServicesLogger.warn(getClass().getName(), "getPhysicalConnection", "Physical connection can't be reached "
+                    + "from " + conn.getClass().getName() + ", prepared statements are not cached");
+        }
+        return null;
+    }
+
+    private Object getAccessor(final Class<?> handleClass) {
+        Object accessor = accessors.get(handleClass);
+        if (accessor == null) {
+            accessor = findAccessor(handleClass);
+            accessors.putIfAbsent(handleClass, accessor);
+        }
+        return accessor;
+    }
+
+    private static Object findAccessor(final Class<?> handleClass) {
+        for (final String accessorName : PHYSICAL_CONNECTION_ACCESSORS) {
+            try {
+                final Method accessor = handleClass.getMethod(accessorName);
+                if (Connection.class.isAssignableFrom(accessor.getReturnType())) {
+                    accessor.setAccessible(true);
+                    return accessor;
+                }
+            } catch (final NoSuchMethodException e) {
+                //try the next accessor
+            } catch (final SecurityException e) {
+                //try the next accessor
+            }
+        }
+        return NO_ACCESSOR;
+    }
+
+    private boolean isClosed(final NamedParameterStatement pstmt) {
+        try {
+            return pstmt.isClosed();
+        } catch (final SQLException e) {
+            return true;
+        } catch (final AbstractMethodError e) {
+            //pre JDBC 4 driver
+            return false;
+        }
+    }
+
+    private void closeStatement(final NamedParameterStatement pstmt) {
+        try {
+            pstmt.close();
+        } catch (final SQLException e) {
+            ServicesLogger.warn(getClass().getName(), "closeStatement", e);
+        }
+    }
+
+    /**
+     * @return number of statements prepared on the database, with or without the cache
+     */
+    public long getPrepareCount() {
+        return prepares.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of statements currently held in the cache (not including those in use)
+     */
+    public int getCachedStatementCount() {
+        int count = 0;
+        synchronized (statementsByConnection) {
+            for (final StatementsForConnection statements : statementsByConnection.values()) {
+                count += statements.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    /**
+     * The view registered with JMX - a separate class, so that the MXBean interface doesn't become a business
+     * interface of the EJB
+     */
+    private final class CacheView implements PreparedStatementCacheMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return PreparedStatementCache.this.isEnabled();
+        }
+
+        @Override
+        public long getPrepareCount() {
+            return PreparedStatementCache.this.getPrepareCount();
+        }
+
+        @Override
+        public long getHitCount() {
+            return PreparedStatementCache.this.getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return PreparedStatementCache.this.getMissCount();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return PreparedStatementCache.this.getEvictionCount();
+        }
+
+        @Override
+        public int getCachedStatementCount() {
+            return PreparedStatementCache.this.getCachedStatementCount();
+        }
+    }
+
+    /**
+     * Free statements for one physical connection, least recently used first
+     * Not thread safe - callers synchronize on statementsByConnection
+     */
+    private final class StatementsForConnection extends LinkedHashMap<CachedStatementKey, NamedParameterStatement> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+
+        StatementsForConnection(final int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<CachedStatementKey, NamedParameterStatement> eldest) {
+            if (size() > maximumSize) {
+                evictions.incrementAndGet();
+                closeStatement(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+
+        void closeAll() {
+            final List<NamedParameterStatement> statements = new ArrayList<NamedParameterStatement>(values());
+            clear();
+            for (final Iterator<NamedParameterStatement> iterator = statements.iterator(); iterator.hasNext();) {
+                closeStatement(iterator.next());
+            }
+        }
+    }
+
+    /**
+     * Statements are cached by physical connection, query and cursor type
+     */
+    private static final class CachedStatementKey {
+
+        private final Connection connection;
+
+        private final String query;
+
+        private final int resultSetType;
+
+        private final int resultSetConcurrency;
+
+        CachedStatementKey(final Connection connection, final String query, final int resultSetType,
+                final int resultSetConcurrency) {
+            this.connection = connection;
+            this.query = query;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(connection);
+            result = 31 * result + query.hashCode();
+            result = 31 * result + resultSetType;
+            return 31 * result + resultSetConcurrency;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CachedStatementKey)) {
+                return false;
+            }
+            final CachedStatementKey other = (CachedStatementKey) obj;
+            return connection == other.connection && resultSetType == other.resultSetType
+                    && resultSetConcurrency == other.resultSetConcurrency && query.equals(other.query);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * JMX view of the PreparedStatementCache, registered as PreparedStatementCache.OBJECT_NAME
+ *
+ * @author eemecoy
+ */
+public interface PreparedStatementCacheMXBean {
+
+    boolean isEnabled();
+
+    /**
+     * @return number of statements prepared on the database, with or without the cache
+     */
+    long getPrepareCount();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    /**
+     * @return number of statements currently held in the cache (not including those in use)
+     */
+    int getCachedStatementCount();
+}
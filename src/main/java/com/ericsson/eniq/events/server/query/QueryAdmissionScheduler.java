@@ -0,0 +1,445 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static com.ericsson.eniq.events.server.common.ApplicationConstants.*;
+import static com.ericsson.eniq.events.server.common.MessageConstants.*;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import com.ericsson.eniq.events.server.common.exception.ServiceException;
+import com.ericsson.eniq.events.server.common.exception.ServiceUserInfoException;
+
+/**
+ * Admits queries to the database by QueryClass and user, so that one kind of work (or one user) can't take all of
+ * the connections from the others
+ *
+ * At most the configured number of queries are admitted at the same time, and no more than each class's cap from
+ * any one class. When queries have to queue, the next query admitted is chosen with weighted fair queuing (in its
+ * stride scheduling form, as every query counts as one unit of work): the class with the lowest pass value is
+ * chosen, and its pass is advanced by 1 / weight, so that under contention each class is admitted in proportion to
+ * its weight. Within a class, the same is done for each user principal with equal weights, so one user's exports
+ * queue behind each other rather than in front of every other user's. A class or user that has been idle joins at
+ * the current pass, so it can't save up credit while idle.
+ *
+ * A queued request that is cancelled through the RequestIdMappingService leaves the queue straight away. Queued
+ * requests that find the queue full, or that wait longer than the queue time out, are rejected with a
+ * ServiceUserInfoException.
+ *
+ * Admission is disabled unless ENIQ_EVENTS_QUERY_ADMISSION_ENABLED is set.
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class QueryAdmissionScheduler {
+
+    static final String UNKNOWN_PRINCIPAL = "unknown";
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    @EJB
+    private RequestIdMappingService requestIdMappings;
+
+    private volatile boolean enabled;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<QueryClass, ClassQueue> classQueues = new EnumMap<QueryClass, ClassQueue>(QueryClass.class);
+
+    private int maximumRunning;
+
+    private int maximumQueued;
+
+    private long queueTimeOutInNanos;
+
+    private int running;
+
+    private int queued;
+
+    /**
+     * Pass of the class most recently admitted from - idle classes rejoin at this pass
+     */
+    private double virtualTime;
+
+    private long rejected;
+
+    private long cancelledWhileQueued;
+
+    @PostConstruct
+    public void init() {
+        lock.lock();
+        try {
+            enabled = queryExecutorConfiguration.isQueryAdmissionEnabled();
+            maximumRunning = queryExecutorConfiguration.getQueryAdmissionSlots();
+            maximumQueued = queryExecutorConfiguration.getQueryAdmissionQueueSize();
+            queueTimeOutInNanos = TimeUnit.MILLISECONDS.toNanos(queryExecutorConfiguration
+                    .getQueryAdmissionQueueTimeOutInMillis());
+            for (final QueryClass queryClass : QueryClass.values()) {
+                classQueues.put(queryClass, new ClassQueue(queryClass, queryExecutorConfiguration
+                        .getQueryClassWeight(queryClass), queryExecutorConfiguration
+                        .getQueryClassMaximumConcurrent(queryClass)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wait until the query is admitted
+     *
+     * @param requestID request id of the query
+     * @param priority  class and user of the query
+     * @param deadline  deadline of the request, or null for none
+     * @return ticket to give back with release() once the query is complete, or null if the request was cancelled
+     * while queued (or if admission is disabled)
+     * @throws ServiceUserInfoException if the queue is full, or the request waits too long
+     */
+    public Ticket acquire(final String requestID, final QueryPriority priority, final QueryDeadline deadline) {
+        if (!enabled) {
+            return null;
+        }
+        final ClassQueue classQueue = classQueues.get(priority.getQueryClass());
+        final String principal = priority.getPrincipal() == null ? UNKNOWN_PRINCIPAL : priority.getPrincipal();
+        final Waiter waiter = new Waiter(classQueue, principal);
+        if (requestID != null && !requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED)) {
+            requestIdMappings.addCancellationListener(requestID, waiter);
+        }
+        lock.lock();
+        try {
+            if (waiter.cancelled) {
+                return null;
+            }
+            if (queued >= maximumQueued && !canAdmitWithoutQueuing(classQueue)) {
+                rejected++;
+                throw new ServiceUserInfoException(ConcurrencyLimiter.DATABASE_BUSY_MESSAGE);
+            }
+            enqueue(waiter);
+            admitQueued();
+            final long waitUntil = System.nanoTime() + queueTimeOutInNanos;
+            while (!waiter.admitted && !waiter.cancelled) {
+                long remainingNanos = waitUntil - System.nanoTime();
+                if (deadline != null) {
+                    remainingNanos = Math.min(remainingNanos, deadline.getRemainingNanos());
+                }
+                if (remainingNanos <= 0) {
+                    dequeue(waiter);
+                    rejected++;
+                    if (deadline != null && deadline.hasExpired()) {
+                        throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+                    }
+                    throw new ServiceUserInfoException(ConcurrencyLimiter.DATABASE_BUSY_MESSAGE);
+                }
+                waiter.condition.awaitNanos(remainingNanos);
+            }
+            return waiter.admitted ? new Ticket(waiter) : null;
+        } catch (final InterruptedException e) {
+            if (!waiter.admitted) {
+                dequeue(waiter);
+            } else {
+                releaseAdmitted(waiter);
+            }
+            Thread.currentThread().interrupt();
+            throw new ServiceException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param ticket ticket got from acquire(), may be null
+     */
+    public void release(final Ticket ticket) {
+        if (ticket == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!ticket.released) {
+                ticket.released = true;
+                releaseAdmitted(ticket.waiter);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canAdmitWithoutQueuing(final ClassQueue classQueue) {
+        return running < maximumRunning && classQueue.running < classQueue.maximumRunning && classQueue.queued == 0;
+    }
+
+    private void releaseAdmitted(final Waiter waiter) {
+        running--;
+        waiter.classQueue.running--;
+        admitQueued();
+    }
+
+    private void enqueue(final Waiter waiter) {
+        final ClassQueue classQueue = waiter.classQueue;
+        if (classQueue.queued == 0) {
+            classQueue.pass = Math.max(classQueue.pass, virtualTime);
+        }
+        UserQueue userQueue = classQueue.users.get(waiter.principal);
+        if (userQueue == null) {
+            userQueue = new UserQueue(classQueue.virtualTime);
+            classQueue.users.put(waiter.principal, userQueue);
+        }
+        userQueue.waiters.add(waiter);
+        classQueue.queued++;
+        queued++;
+    }
+
+    private void dequeue(final Waiter waiter) {
+        final ClassQueue classQueue = waiter.classQueue;
+        final UserQueue userQueue = classQueue.users.get(waiter.principal);
+        if (userQueue == null || !userQueue.waiters.remove(waiter)) {
+            return;
+        }
+        if (userQueue.waiters.isEmpty()) {
+            classQueue.users.remove(waiter.principal);
+        }
+        classQueue.queued--;
+        queued--;
+    }
+
+    /**
+     * Admit queued queries, in weighted fair order, while there are free places
+     */
+    private void admitQueued() {
+        while (running < maximumRunning) {
+            ClassQueue nextClass = null;
+            for (final ClassQueue classQueue : classQueues.values()) {
+                if (classQueue.queued > 0 && classQueue.running < classQueue.maximumRunning
+                        && (nextClass == null || classQueue.pass < nextClass.pass)) {
+                    nextClass = classQueue;
+                }
+            }
+            if (nextClass == null) {
+                return;
+            }
+            UserQueue nextUser = null;
+            for (final UserQueue userQueue : nextClass.users.values()) {
+                if (nextUser == null || userQueue.pass < nextUser.pass) {
+                    nextUser = userQueue;
+                }
+            }
+            final Waiter waiter = nextUser.waiters.getFirst();
+            dequeue(waiter);
+            virtualTime = nextClass.pass;
+            nextClass.pass += 1.0 / nextClass.weight;
+            nextClass.virtualTime = nextUser.pass;
+            nextUser.pass += 1;
+            nextClass.running++;
+            nextClass.admitted++;
+            running++;
+            waiter.admitted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    /**
+     * @return number of queries of the class waiting to be admitted
+     */
+    public int getQueueDepth(final QueryClass queryClass) {
+        lock.lock();
+        try {
+            return classQueues.get(queryClass).queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queries of the class currently admitted
+     */
+    public int getRunningCount(final QueryClass queryClass) {
+        lock.lock();
+        try {
+            return classQueues.get(queryClass).running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queries of the class admitted since startup
+     */
+    public long getAdmittedCount(final QueryClass queryClass) {
+        lock.lock();
+        try {
+            return classQueues.get(queryClass).admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queries rejected because the queue was full or they waited too long
+     */
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queries that left the queue because their request was cancelled
+     */
+    public long getCancelledWhileQueuedCount() {
+        lock.lock();
+        try {
+            return cancelledWhileQueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param requestIdMappings the requestIdMappings to set
+     */
+    public void setRequestIdMappings(final RequestIdMappingService requestIdMappings) {
+        this.requestIdMappings = requestIdMappings;
+    }
+
+    /**
+     * An admitted query's place, held until the query's connection is closed
+     */
+    public static final class Ticket {
+
+        private final Waiter waiter;
+
+        private boolean released;
+
+        Ticket(final Waiter waiter) {
+            this.waiter = waiter;
+        }
+
+        public QueryClass getQueryClass() {
+            return waiter.classQueue.queryClass;
+        }
+    }
+
+    /**
+     * Queued and running queries of one class
+     */
+    private static final class ClassQueue {
+
+        private final QueryClass queryClass;
+
+        private final int weight;
+
+        private final int maximumRunning;
+
+        /**
+         * Users with queued queries, by principal
+         */
+        private final Map<String, UserQueue> users = new LinkedHashMap<String, UserQueue>();
+
+        private double pass;
+
+        /**
+         * Pass of the user most recently admitted from - users with nothing queued rejoin at this pass
+         */
+        private double virtualTime;
+
+        private int queued;
+
+        private int running;
+
+        private long admitted;
+
+        ClassQueue(final QueryClass queryClass, final int weight, final int maximumRunning) {
+            this.queryClass = queryClass;
+            this.weight = weight;
+            this.maximumRunning = maximumRunning;
+        }
+    }
+
+    /**
+     * Queued queries of one user in one class, oldest first
+     */
+    private static final class UserQueue {
+
+        private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+        private double pass;
+
+        UserQueue(final double pass) {
+            this.pass = pass;
+        }
+    }
+
+    /**
+     * A query waiting to be admitted
+     * Guarded by the scheduler's lock, apart from the cancelled flag which is also read before the lock is taken
+     */
+    private final class Waiter implements RequestCancellationListener {
+
+        private final ClassQueue classQueue;
+
+        private final String principal;
+
+        private final Condition condition = lock.newCondition();
+
+        private boolean admitted;
+
+        private volatile boolean cancelled;
+
+        Waiter(final ClassQueue classQueue, final String principal) {
+            this.classQueue = classQueue;
+            this.principal = principal;
+        }
+
+        @Override
+        public void requestCancelled(final String requestID) {
+            lock.lock();
+            try {
+                if (admitted || cancelled) {
+                    return;
+                }
+                cancelled = true;
+                dequeue(this);
+                cancelledWhileQueued++;
+                condition.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
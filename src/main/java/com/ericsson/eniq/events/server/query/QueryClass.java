@@ -0,0 +1,53 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * Classes of query, used by the QueryAdmissionScheduler to share the database between the different kinds of work
+ * Each class has a weight (its share of the database when there is contention) and a cap on the number of its
+ * queries that may run at the same time, both of which can be overridden in the ENIQ Events properties
+ *
+ * @author eemecoy
+ */
+public enum QueryClass {
+
+    /**
+     * Dashboard widgets and grids, the user is waiting on the result
+     */
+    INTERACTIVE(8, 40),
+
+    /**
+     * Type ahead lookups from live load, small and latency sensitive
+     */
+    LOOKUP(4, 20),
+
+    /**
+     * CSV exports and other long running queries
+     */
+    EXPORT(1, 5),
+
+    /**
+     * Queries and updates on the repdb
+     */
+    METADATA(4, 10);
+
+    private final int defaultWeight;
+
+    private final int defaultMaximumConcurrent;
+
+    private QueryClass(final int defaultWeight, final int defaultMaximumConcurrent) {
+        this.defaultWeight = defaultWeight;
+        this.defaultMaximumConcurrent = defaultMaximumConcurrent;
+    }
+
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    public int getDefaultMaximumConcurrent() {
+        return defaultMaximumConcurrent;
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static com.ericsson.eniq.events.server.common.ApplicationConstants.*;
+import static com.ericsson.eniq.events.server.common.MessageConstants.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import com.ericsson.eniq.events.server.common.exception.ServiceException;
+import com.ericsson.eniq.events.server.common.exception.ServiceUserInfoException;
+
+/**
+ * Coalesces identical queries that are in flight at the same time (for example, when many operators' dashboards
+ * refresh together), so that the query is only run once on the database
+ *
+ * The first request for a query (keyed by SQL, parameter values and transformer key) runs the query, under a
+ * shared request id of its own. Requests for the same query that arrive while it is running wait for, and share,
+ * its transformed result. The shared result is handed to every waiting request, so it must not be modified - only
+ * transformers that produce Strings (such as the JSON transformers) should be coalesced.
+ *
+ * Cancellation is reference counted: each waiting request registers a RequestCancellationListener for its own
+ * request id, and the shared statement is only cancelled (through the shared request id) once every waiting
+ * request has been cancelled or has given up. A request whose deadline passes while waiting gives up with a
+ * timeout, leaving the query to the other requests. The query runs with the deadline and limits of the request
+ * that started it.
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class QueryCoalescer {
+
+    static final String SHARED_REQUEST_ID_PREFIX = "coalesced-";
+
+    @EJB
+    private RequestIdMappingService requestIdMappings;
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    private volatile boolean enabled;
+
+    private final ConcurrentMap<QueryResultCache.ResultKey, InFlightQuery> inFlightQueries = new ConcurrentHashMap<QueryResultCache.ResultKey, InFlightQuery>();
+
+    private final AtomicLong sharedRequestIds = new AtomicLong();
+
+    private final AtomicLong queriesRun = new AtomicLong();
+
+    private final AtomicLong coalescedRequests = new AtomicLong();
+
+    private final AtomicLong sharedCancels = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        enabled = queryExecutorConfiguration.isQueryCoalescingEnabled();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Run the query, or wait for the identical query already in flight
+     *
+     * @param requestID request id of the caller
+     * @param key       identifies the query, its parameter values and its transformer
+     * @param deadline  deadline of the caller, or null for none
+     * @param query     runs the query for the given shared request id
+     * @return the transformed result, or null if the request was cancelled
+     */
+    public <T> T execute(final String requestID, final QueryResultCache.ResultKey key, final QueryDeadline deadline,
+            final SharedQuery<T> query) {
+        if (requestIdMappings.isCancelFailedForReqId(requestID)) {
+            return null;
+        }
+        InFlightQuery inFlightQuery;
+        Participant participant;
+        boolean runQuery;
+        do {
+            inFlightQuery = inFlightQueries.get(key);
+            runQuery = false;
+            if (inFlightQuery == null) {
+                final InFlightQuery newQuery = new InFlightQuery(SHARED_REQUEST_ID_PREFIX
+                        + sharedRequestIds.incrementAndGet());
+                inFlightQuery = inFlightQueries.putIfAbsent(key, newQuery);
+                if (inFlightQuery == null) {
+                    inFlightQuery = newQuery;
+                    runQuery = true;
+                }
+            }
+            participant = inFlightQuery.join();
+            if (participant == null) {
+                //completed or abandoned since it was looked up
+                inFlightQueries.remove(key, inFlightQuery);
+            }
+        } while (participant == null);
+
+        final boolean cancellable = requestID != null && !requestID.equalsIgnoreCase(CANCEL_REQ_NOT_SUPPORTED);
+        try {
+            if (cancellable) {
+                requestIdMappings.addCancellationListener(requestID, participant);
+            }
+            if (runQuery) {
+                queriesRun.incrementAndGet();
+                run(key, inFlightQuery, query);
+            } else {
+                coalescedRequests.incrementAndGet();
+            }
+            return this.<T> awaitResult(participant, deadline);
+        } finally {
+            participant.leave();
+            if (cancellable) {
+                requestIdMappings.remove(requestID);
+                requestIdMappings.removeFailedCancelReqId(requestID);
+            }
+        }
+    }
+
+    private <T> void run(final QueryResultCache.ResultKey key, final InFlightQuery inFlightQuery,
+            final SharedQuery<T> query) {
+        try {
+            inFlightQuery.complete(query.run(inFlightQuery.sharedRequestID), null);
+        } catch (final RuntimeException e) {
+            inFlightQuery.complete(null, e);
+        } finally {
+            inFlightQueries.remove(key, inFlightQuery);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T awaitResult(final Participant participant, final QueryDeadline deadline) {
+        try {
+            if (deadline == null) {
+                participant.woken.await();
+            } else if (!participant.woken.await(deadline.getRemainingNanos(), TimeUnit.NANOSECONDS)) {
+                throw new ServiceUserInfoException(E_DATABASE_TIMEOUT);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(e);
+        }
+        if (participant.cancelled) {
+            return null;
+        }
+        final InFlightQuery inFlightQuery = participant.inFlightQuery;
+        if (inFlightQuery.failure != null) {
+            throw inFlightQuery.failure;
+        }
+        return (T) inFlightQuery.result;
+    }
+
+    /**
+     * @return number of queries run on the database through the coalescer
+     */
+    public long getQueryCount() {
+        return queriesRun.get();
+    }
+
+    /**
+     * @return number of requests that shared a query already in flight
+     */
+    public long getCoalescedCount() {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * @return number of shared queries cancelled because all of their requests were cancelled
+     */
+    public long getSharedCancelCount() {
+        return sharedCancels.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlightQueries.size();
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param requestIdMappings the requestIdMappings to set
+     */
+    public void setRequestIdMappings(final RequestIdMappingService requestIdMappings) {
+        this.requestIdMappings = requestIdMappings;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    /**
+     * The query run on behalf of all of the coalesced requests
+     */
+    public interface SharedQuery<T> {
+
+        /**
+         * @param sharedRequestID request id to run the query under
+         * @return the transformed result
+         */
+        T run(String sharedRequestID);
+    }
+
+    /**
+     * A query being run, and the requests waiting for it
+     * A query is closed to new requests once it has completed, or once all of its requests have left
+     */
+    private final class InFlightQuery {
+
+        private final String sharedRequestID;
+
+        private final List<Participant> participants = new ArrayList<Participant>();
+
+        private int interestedParticipants;
+
+        private boolean closed;
+
+        private volatile Object result;
+
+        private volatile RuntimeException failure;
+
+        InFlightQuery(final String sharedRequestID) {
+            this.sharedRequestID = sharedRequestID;
+        }
+
+        synchronized Participant join() {
+            if (closed) {
+                return null;
+            }
+            final Participant participant = new Participant(this);
+            participants.add(participant);
+            interestedParticipants++;
+            return participant;
+        }
+
+        void complete(final Object queryResult, final RuntimeException queryFailure) {
+            result = queryResult;
+            failure = queryFailure;
+            final List<Participant> waiting;
+            synchronized (this) {
+                closed = true;
+                waiting = new ArrayList<Participant>(participants);
+            }
+            for (final Participant participant : waiting) {
+                participant.woken.countDown();
+            }
+        }
+
+        /**
+         * Cancel the shared statement if this was the last request interested in the result
+         */
+        void leave() {
+            final boolean cancel;
+            synchronized (this) {
+                interestedParticipants--;
+                cancel = interestedParticipants == 0 && !closed;
+                if (cancel) {
+                    closed = true;
+                }
+            }
+            if (cancel) {
+                sharedCancels.incrementAndGet();
+                requestIdMappings.cancel(sharedRequestID);
+            }
+        }
+    }
+
+    /**
+     * One request waiting for an InFlightQuery
+     */
+    private final class Participant implements RequestCancellationListener {
+
+        private final InFlightQuery inFlightQuery;
+
+        private final CountDownLatch woken = new CountDownLatch(1);
+
+        private volatile boolean cancelled;
+
+        private boolean left;
+
+        Participant(final InFlightQuery inFlightQuery) {
+            this.inFlightQuery = inFlightQuery;
+        }
+
+        @Override
+        public void requestCancelled(final String requestID) {
+            cancelled = true;
+            woken.countDown();
+            leave();
+        }
+
+        void leave() {
+            synchronized (this) {
+                if (left) {
+                    return;
+                }
+                left = true;
+            }
+            inFlightQuery.leave();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget for a single services request
+ *
+ * The deadline should be started when the request is received, before the tech pack resolution and query
+ * generation, so that all of the work done for the request counts toward the one budget. The
+ * QueryDeadlineInterceptor does this for the EJB that handles the request. The DataServiceQueryExecutor gives each
+ * statement it runs the time remaining on the deadline as its query timeout.
+ *
+ * As with the ServicesPerformanceThreadLocalHolder, the deadline is held per request thread - the code that starts it
+ * is responsible for clearing it once the request is complete:
+ *
+ * <pre>
+ * QueryDeadline.start(budgetInMillis);
+ * try {
+ *     ...
+ * } finally {
+ *     QueryDeadline.clear();
+ * }
+ * </pre>
+ *
+ * @author eemecoy
+ */
+public final class QueryDeadline {
+
+    private static final ThreadLocal<QueryDeadline> CURRENT_DEADLINE = new ThreadLocal<QueryDeadline>();
+
+    private static final long NANOS_IN_1_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long deadlineInNanos;
+
+    private QueryDeadline(final long deadlineInNanos) {
+        this.deadlineInNanos = deadlineInNanos;
+    }
+
+    /**
+     * Start the deadline for the request being processed by the current thread
+     *
+     * @param budgetInMillis time allowed for the whole request
+     * @return the deadline
+     */
+    public static QueryDeadline start(final long budgetInMillis) {
+        final QueryDeadline deadline = after(budgetInMillis);
+        CURRENT_DEADLINE.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Create a deadline that isn't associated with the current thread
+     *
+     * @param budgetInMillis time allowed from now
+     * @return the deadline
+     */
+    public static QueryDeadline after(final long budgetInMillis) {
+        return new QueryDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetInMillis));
+    }
+
+    /**
+     * @return the deadline started for the request being processed by the current thread, or null if none
+     */
+    public static QueryDeadline current() {
+        return CURRENT_DEADLINE.get();
+    }
+
+    /**
+     * Make the deadline the current deadline for this thread - used to carry a request's deadline over to the thread
+     * that runs the request's queries
+     *
+     * @param deadline deadline of the request, may be null
+     */
+    static void setCurrent(final QueryDeadline deadline) {
+        if (deadline == null) {
+            CURRENT_DEADLINE.remove();
+        } else {
+            CURRENT_DEADLINE.set(deadline);
+        }
+    }
+
+    /**
+     * Clear the deadline for the current thread
+     */
+    public static void clear() {
+        CURRENT_DEADLINE.remove();
+    }
+
+    /**
+     * @return time remaining until the deadline in nanoseconds, negative if the deadline has passed
+     */
+    public long getRemainingNanos() {
+        return deadlineInNanos - System.nanoTime();
+    }
+
+    public boolean hasExpired() {
+        return getRemainingNanos() <= 0;
+    }
+
+    /**
+     * JDBC query timeouts are in whole seconds - round the remaining time up, so a statement is never given a
+     * timeout of 0 (which means no timeout)
+     *
+     * @return time remaining in seconds, at least 1
+     */
+    public int getRemainingSecondsForQueryTimeout() {
+        final long remainingNanos = getRemainingNanos();
+        if (remainingNanos <= 0) {
+            return 1;
+        }
+        final long remainingSeconds = (remainingNanos + NANOS_IN_1_SECOND - 1) / NANOS_IN_1_SECOND;
+        return (int) Math.min(remainingSeconds, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryDeadline:" + TimeUnit.NANOSECONDS.toMillis(getRemainingNanos()) + "ms remaining";
+    }
+}
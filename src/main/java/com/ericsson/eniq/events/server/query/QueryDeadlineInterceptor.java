@@ -0,0 +1,61 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.EJB;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+/**
+ * Starts the QueryDeadline of a services request when the request enters the EJB that handles it, so that every
+ * executor call made for the request - the tech pack resolution and query generation included - counts toward one
+ * budget, rather than each call getting the default query timeout to itself
+ *
+ * The services beans bind it to the business methods that handle requests:
+ *
+ * <pre>
+ * &#064;Interceptors(QueryDeadlineInterceptor.class)
+ * public String getData(...)
+ * </pre>
+ *
+ * The budget is the default query timeout configured in the ENIQ Events properties. A request that already has a
+ * deadline (one bean calling another) keeps it, and the deadline is cleared only by the invocation that started it.
+ *
+ * @author eemecoy
+ */
+public class QueryDeadlineInterceptor {
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    @AroundInvoke
+    public Object startDeadline(final InvocationContext invocationContext) throws Exception {
+        if (QueryDeadline.current() != null) {
+            return invocationContext.proceed();
+        }
+        final int budgetInSeconds = queryExecutorConfiguration.getDefaultQueryTimeoutInSeconds();
+        if (budgetInSeconds <= 0) {
+            return invocationContext.proceed();
+        }
+        QueryDeadline.start(TimeUnit.SECONDS.toMillis(budgetInSeconds));
+        try {
+            return invocationContext.proceed();
+        } finally {
+            QueryDeadline.clear();
+        }
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+}
@@ -0,0 +1,587 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.Properties;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import com.ericsson.eniq.events.server.common.ApplicationConfigConstants;
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * Tuning parameters for the DataServiceQueryExecutor, read from the ENIQ Events properties
+ * If a property isn't defined (or can't be parsed), the default value for that property is used
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+@Lock(LockType.READ)
+public class QueryExecutorConfiguration {
+
+    static final String PARALLEL_QUERY_THREADS_PROPERTY = "ENIQ_EVENTS_PARALLEL_QUERY_THREADS";
+
+    static final String PARALLEL_QUERY_QUEUE_SIZE_PROPERTY = "ENIQ_EVENTS_PARALLEL_QUERY_QUEUE_SIZE";
+
+    static final String ASYNC_QUERY_THREADS_PROPERTY = "ENIQ_EVENTS_ASYNC_QUERY_THREADS";
+
+    static final String ASYNC_QUERY_QUEUE_SIZE_PROPERTY = "ENIQ_EVENTS_ASYNC_QUERY_QUEUE_SIZE";
+
+    static final String HEDGED_QUERY_THREADS_PROPERTY = "ENIQ_EVENTS_HEDGED_QUERY_THREADS";
+
+    static final String HEDGED_QUERY_QUEUE_SIZE_PROPERTY = "ENIQ_EVENTS_HEDGED_QUERY_QUEUE_SIZE";
+
+    static final String FETCH_SIZE_PROPERTY = "ENIQ_EVENTS_QUERY_FETCH_SIZE";
+
+    static final String PARSED_QUERY_CACHE_SIZE_PROPERTY = "ENIQ_EVENTS_PARSED_QUERY_CACHE_SIZE";
+
+    static final String PREPARED_STATEMENT_CACHE_SIZE_PROPERTY = "ENIQ_EVENTS_PREPARED_STATEMENT_CACHE_SIZE";
+
+    static final String REPDB_UPDATE_BATCH_SIZE_PROPERTY = "ENIQ_EVENTS_REPDB_UPDATE_BATCH_SIZE";
+
+    static final String MAX_ROWS_PER_QUERY_PROPERTY = "ENIQ_EVENTS_MAX_ROWS_PER_QUERY";
+
+    static final String MAX_MEGABYTES_PER_QUERY_PROPERTY = "ENIQ_EVENTS_MAX_MEGABYTES_PER_QUERY";
+
+    static final String TRUNCATE_RESULT_ON_QUERY_LIMIT_PROPERTY = "ENIQ_EVENTS_TRUNCATE_RESULT_ON_QUERY_LIMIT";
+
+    static final String HEDGED_QUERIES_ENABLED_PROPERTY = "ENIQ_EVENTS_HEDGED_QUERIES_ENABLED";
+
+    static final String HEDGE_LATENCY_PERCENTILE_PROPERTY = "ENIQ_EVENTS_HEDGE_LATENCY_PERCENTILE";
+
+    static final String HEDGE_DEFAULT_DELAY_PROPERTY = "ENIQ_EVENTS_HEDGE_DEFAULT_DELAY_MILLIS";
+
+    static final String HEDGE_MINIMUM_DELAY_PROPERTY = "ENIQ_EVENTS_HEDGE_MINIMUM_DELAY_MILLIS";
+
+    static final String HEDGE_RATE_PERCENT_PROPERTY = "ENIQ_EVENTS_HEDGE_RATE_PERCENT";
+
+    static final String HEDGE_BURST_PROPERTY = "ENIQ_EVENTS_HEDGE_BURST";
+
+    static final String CONCURRENCY_LIMIT_ENABLED_PROPERTY = "ENIQ_EVENTS_CONCURRENCY_LIMIT_ENABLED";
+
+    static final String CONCURRENCY_LIMIT_INITIAL_PROPERTY = "ENIQ_EVENTS_CONCURRENCY_LIMIT_INITIAL";
+
+    static final String CONCURRENCY_LIMIT_MINIMUM_PROPERTY = "ENIQ_EVENTS_CONCURRENCY_LIMIT_MINIMUM";
+
+    static final String CONCURRENCY_LIMIT_MAXIMUM_PROPERTY = "ENIQ_EVENTS_CONCURRENCY_LIMIT_MAXIMUM";
+
+    static final String CONCURRENCY_LIMIT_QUEUE_SIZE_PROPERTY = "ENIQ_EVENTS_CONCURRENCY_LIMIT_QUEUE_SIZE";
+
+    static final String CONCURRENCY_LIMIT_QUEUE_TIMEOUT_PROPERTY = "ENIQ_EVENTS_CONCURRENCY_LIMIT_QUEUE_TIMEOUT_MILLIS";
+
+    static final String CONCURRENCY_LIMIT_LATENCY_TOLERANCE_PROPERTY = "ENIQ_EVENTS_CONCURRENCY_LIMIT_LATENCY_TOLERANCE_PERCENT";
+
+    static final String QUERY_ADMISSION_ENABLED_PROPERTY = "ENIQ_EVENTS_QUERY_ADMISSION_ENABLED";
+
+    static final String QUERY_ADMISSION_SLOTS_PROPERTY = "ENIQ_EVENTS_QUERY_ADMISSION_SLOTS";
+
+    static final String QUERY_ADMISSION_QUEUE_SIZE_PROPERTY = "ENIQ_EVENTS_QUERY_ADMISSION_QUEUE_SIZE";
+
+    static final String QUERY_ADMISSION_QUEUE_TIMEOUT_PROPERTY = "ENIQ_EVENTS_QUERY_ADMISSION_QUEUE_TIMEOUT_MILLIS";
+
+    /**
+     * The weight of a class is set with this property name followed by "." and the QueryClass name
+     */
+    static final String QUERY_CLASS_WEIGHT_PROPERTY = "ENIQ_EVENTS_QUERY_CLASS_WEIGHT";
+
+    /**
+     * The cap on a class is set with this property name followed by "." and the QueryClass name
+     */
+    static final String QUERY_CLASS_MAX_CONCURRENT_PROPERTY = "ENIQ_EVENTS_QUERY_CLASS_MAX_CONCURRENT";
+
+    static final String QUERY_COALESCING_DISABLED_PROPERTY = "ENIQ_EVENTS_QUERY_COALESCING_DISABLED";
+
+    static final String RESULT_CACHE_SIZE_PROPERTY = "ENIQ_EVENTS_RESULT_CACHE_SIZE_MB";
+
+    /**
+     * The time to live for a template can be set with this property name followed by "." and the template name
+     */
+    static final String RESULT_CACHE_TIME_TO_LIVE_PROPERTY = "ENIQ_EVENTS_RESULT_CACHE_TTL_SECONDS";
+
+    static final String QUERY_TIMING_LOG_THRESHOLD_PROPERTY = "ENIQ_EVENTS_QUERY_TIMING_LOG_THRESHOLD_MILLIS";
+
+    static final String SLOW_QUERY_LOG_THRESHOLD_PROPERTY = "ENIQ_EVENTS_SLOW_QUERY_LOG_THRESHOLD_MILLIS";
+
+    static final String SLOW_QUERY_LOG_SAMPLE_PROPERTY = "ENIQ_EVENTS_SLOW_QUERY_LOG_SAMPLE_ONE_IN";
+
+    static final String SLOW_QUERY_LOG_SIZE_PROPERTY = "ENIQ_EVENTS_SLOW_QUERY_LOG_SIZE";
+
+    static final String MAX_IN_LIST_SIZE_PROPERTY = "ENIQ_EVENTS_MAX_IN_LIST_SIZE";
+
+    static final String STRING_DATE_PARAMETER_TEMPLATES_PROPERTY = "ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES";
+
+    static final String DEFAULT_QUERY_TIMEOUT_PROPERTY = "ENIQ_EVENTS_DEFAULT_QUERY_TIMEOUT_SECONDS";
+
+    static final int DEFAULT_PARALLEL_QUERY_THREADS = 16;
+
+    static final int DEFAULT_PARALLEL_QUERY_QUEUE_SIZE = 64;
+
+    static final int DEFAULT_ASYNC_QUERY_THREADS = 32;
+
+    static final int DEFAULT_ASYNC_QUERY_QUEUE_SIZE = 256;
+
+    static final int DEFAULT_HEDGED_QUERY_THREADS = 16;
+
+    static final int DEFAULT_HEDGED_QUERY_QUEUE_SIZE = 16;
+
+    static final int DEFAULT_FETCH_SIZE = 0;
+
+    static final int DEFAULT_QUERY_TIMEOUT_IN_SECONDS = 0;
+
+    static final int DEFAULT_PREPARED_STATEMENT_CACHE_SIZE = 0;
+
+    static final int DEFAULT_REPDB_UPDATE_BATCH_SIZE = 100;
+
+    static final int DEFAULT_MAX_ROWS_PER_QUERY = 0;
+
+    static final int DEFAULT_MAX_MEGABYTES_PER_QUERY = 0;
+
+    static final int DEFAULT_HEDGE_LATENCY_PERCENTILE = 95;
+
+    static final int DEFAULT_HEDGE_DEFAULT_DELAY_IN_MILLIS = 2000;
+
+    static final int DEFAULT_HEDGE_MINIMUM_DELAY_IN_MILLIS = 200;
+
+    static final int DEFAULT_HEDGE_RATE_PERCENT = 5;
+
+    static final int DEFAULT_HEDGE_BURST = 10;
+
+    static final int DEFAULT_CONCURRENCY_LIMIT_INITIAL = 20;
+
+    static final int DEFAULT_CONCURRENCY_LIMIT_MINIMUM = 4;
+
+    static final int DEFAULT_CONCURRENCY_LIMIT_MAXIMUM = 200;
+
+    static final int DEFAULT_CONCURRENCY_LIMIT_QUEUE_SIZE = 50;
+
+    static final int DEFAULT_CONCURRENCY_LIMIT_QUEUE_TIMEOUT_IN_MILLIS = 2000;
+
+    static final int DEFAULT_CONCURRENCY_LIMIT_LATENCY_TOLERANCE_PERCENT = 200;
+
+    static final int DEFAULT_QUERY_ADMISSION_SLOTS = 40;
+
+    static final int DEFAULT_QUERY_ADMISSION_QUEUE_SIZE = 500;
+
+    static final int DEFAULT_QUERY_ADMISSION_QUEUE_TIMEOUT_IN_MILLIS = 60000;
+
+    static final int DEFAULT_RESULT_CACHE_SIZE_IN_MEGABYTES = 64;
+
+    static final int DEFAULT_RESULT_CACHE_TIME_TO_LIVE_IN_SECONDS = 3600;
+
+    static final int DEFAULT_QUERY_TIMING_LOG_THRESHOLD_IN_MILLIS = 0;
+
+    static final int DEFAULT_SLOW_QUERY_LOG_THRESHOLD_IN_MILLIS = 10000;
+
+    static final int DEFAULT_SLOW_QUERY_LOG_SAMPLE_ONE_IN = 0;
+
+    static final int DEFAULT_SLOW_QUERY_LOG_SIZE = 100;
+
+    static final int DEFAULT_MAX_IN_LIST_SIZE = 1024;
+
+    private static final int MAXIMUM_PERCENTILE = 100;
+
+    private static final long BYTES_IN_1_MEGABYTE = 1024L * 1024L;
+
+    @Resource(name = ApplicationConfigConstants.ENIQ_EVENT_PROPERTIES)
+    private Properties eniqEventsProperties;
+
+    /**
+     * Size the caches that aren't managed by the container
+     */
+    @PostConstruct
+    public void configureCaches() {
+        ParsedQueryCache.getInstance().setMaximumSize(getParsedQueryCacheSize());
+    }
+
+    /**
+     * @return maximum number of queries that can run concurrently on the parallel query thread pool
+     */
+    public int getParallelQueryThreads() {
+        return getPositiveIntProperty(PARALLEL_QUERY_THREADS_PROPERTY, DEFAULT_PARALLEL_QUERY_THREADS);
+    }
+
+    /**
+     * @return number of queries that can be queued for the parallel query thread pool before the calling
+     * thread runs the query itself
+     */
+    public int getParallelQueryQueueSize() {
+        return getPositiveIntProperty(PARALLEL_QUERY_QUEUE_SIZE_PROPERTY, DEFAULT_PARALLEL_QUERY_QUEUE_SIZE);
+    }
+
+    /**
+     * @return maximum number of queries started through the asynchronous API that can run concurrently
+     */
+    public int getAsyncQueryThreads() {
+        return getPositiveIntProperty(ASYNC_QUERY_THREADS_PROPERTY, DEFAULT_ASYNC_QUERY_THREADS);
+    }
+
+    /**
+     * @return number of asynchronous queries that can be queued before further queries are rejected
+     */
+    public int getAsyncQueryQueueSize() {
+        return getPositiveIntProperty(ASYNC_QUERY_QUEUE_SIZE_PROPERTY, DEFAULT_ASYNC_QUERY_QUEUE_SIZE);
+    }
+
+    /**
+     * @return maximum number of attempts of hedged queries (first attempts and hedges) that can run concurrently
+     */
+    public int getHedgedQueryThreads() {
+        return getPositiveIntProperty(HEDGED_QUERY_THREADS_PROPERTY, DEFAULT_HEDGED_QUERY_THREADS);
+    }
+
+    /**
+     * @return number of attempts of hedged queries that can be queued before further attempts are rejected (a
+     * rejected hedge is skipped)
+     */
+    public int getHedgedQueryQueueSize() {
+        return getPositiveIntProperty(HEDGED_QUERY_QUEUE_SIZE_PROPERTY, DEFAULT_HEDGED_QUERY_QUEUE_SIZE);
+    }
+
+    /**
+     * @return number of rows the driver should fetch from the database at a time for read queries,
+     * 0 to use the driver default
+     */
+    public int getFetchSize() {
+        return getIntProperty(FETCH_SIZE_PROPERTY, DEFAULT_FETCH_SIZE, 0);
+    }
+
+    /**
+     * @return time budget in seconds applied to a request that doesn't have a QueryDeadline, 0 for no timeout
+     */
+    public int getDefaultQueryTimeoutInSeconds() {
+        return getIntProperty(DEFAULT_QUERY_TIMEOUT_PROPERTY, DEFAULT_QUERY_TIMEOUT_IN_SECONDS, 0);
+    }
+
+    /**
+     * @return maximum number of parsed queries held in the ParsedQueryCache
+     */
+    public int getParsedQueryCacheSize() {
+        return getPositiveIntProperty(PARSED_QUERY_CACHE_SIZE_PROPERTY, ParsedQueryCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @return maximum number of prepared statements cached for each database connection, 0 to disable the
+     * PreparedStatementCache
+     */
+    public int getPreparedStatementCacheSize() {
+        return getIntProperty(PREPARED_STATEMENT_CACHE_SIZE_PROPERTY, DEFAULT_PREPARED_STATEMENT_CACHE_SIZE, 0);
+    }
+
+    /**
+     * @return maximum number of parameter sets sent to repdb in one JDBC batch
+     */
+    public int getRepdbUpdateBatchSize() {
+        return getPositiveIntProperty(REPDB_UPDATE_BATCH_SIZE_PROPERTY, DEFAULT_REPDB_UPDATE_BATCH_SIZE);
+    }
+
+    /**
+     * @return maximum number of rows read from any one query for a request without its own QueryLimits,
+     * 0 for no limit
+     */
+    public int getMaxRowsPerQuery() {
+        return getIntProperty(MAX_ROWS_PER_QUERY_PROPERTY, DEFAULT_MAX_ROWS_PER_QUERY, 0);
+    }
+
+    /**
+     * @return maximum estimated size in MB of the values read from any one query for a request without its own
+     * QueryLimits, 0 for no limit
+     */
+    public int getMaxMegabytesPerQuery() {
+        return getIntProperty(MAX_MEGABYTES_PER_QUERY_PROPERTY, DEFAULT_MAX_MEGABYTES_PER_QUERY, 0);
+    }
+
+    /**
+     * @return true if a result that exceeds the configured limits should be truncated, false (the default) if
+     * the request should fail
+     */
+    public boolean isTruncateResultOnQueryLimit() {
+        return getBooleanProperty(TRUNCATE_RESULT_ON_QUERY_LIMIT_PROPERTY);
+    }
+
+    /**
+     * A caller that needs to know whether its result was truncated by the configured limits starts these as its
+     * request's limits (see QueryLimits), rather than leaving the DataServiceQueryExecutor to apply them
+     *
+     * @return new QueryLimits with the configured limits, or null if no limits are configured
+     */
+    public QueryLimits getDefaultQueryLimits() {
+        final int maxRows = getMaxRowsPerQuery();
+        final long maxBytes = getMaxMegabytesPerQuery() * BYTES_IN_1_MEGABYTE;
+        if (maxRows == QueryLimits.NO_LIMIT && maxBytes == QueryLimits.NO_LIMIT) {
+            return null;
+        }
+        return new QueryLimits(maxRows, maxBytes, isTruncateResultOnQueryLimit());
+    }
+
+    /**
+     * @return true if DataServiceQueryExecutor.getDataWithHedging() should hedge slow queries, false (the default)
+     * to run them as getData()
+     */
+    public boolean isHedgedQueriesEnabled() {
+        return getBooleanProperty(HEDGED_QUERIES_ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return percentile of a query template's recent latencies after which the query is hedged
+     */
+    public int getHedgeLatencyPercentile() {
+        final int percentile = getPositiveIntProperty(HEDGE_LATENCY_PERCENTILE_PROPERTY,
+                DEFAULT_HEDGE_LATENCY_PERCENTILE);
+        return Math.min(percentile, MAXIMUM_PERCENTILE);
+    }
+
+    /**
+     * @return time after which a query is hedged if too few latencies have been seen for its template
+     */
+    public int getHedgeDefaultDelayInMillis() {
+        return getPositiveIntProperty(HEDGE_DEFAULT_DELAY_PROPERTY, DEFAULT_HEDGE_DEFAULT_DELAY_IN_MILLIS);
+    }
+
+    /**
+     * @return minimum time before any query is hedged
+     */
+    public int getHedgeMinimumDelayInMillis() {
+        return getIntProperty(HEDGE_MINIMUM_DELAY_PROPERTY, DEFAULT_HEDGE_MINIMUM_DELAY_IN_MILLIS, 0);
+    }
+
+    /**
+     * @return maximum number of hedges, as a percentage of the queries run with hedging
+     */
+    public int getHedgeRatePercent() {
+        final int ratePercent = getIntProperty(HEDGE_RATE_PERCENT_PROPERTY, DEFAULT_HEDGE_RATE_PERCENT, 0);
+        return Math.min(ratePercent, MAXIMUM_PERCENTILE);
+    }
+
+    /**
+     * @return number of hedges that can be sent in a burst, above the hedge rate
+     */
+    public int getHedgeBurst() {
+        return getIntProperty(HEDGE_BURST_PROPERTY, DEFAULT_HEDGE_BURST, 0);
+    }
+
+    public boolean isConcurrencyLimitEnabled() {
+        return getBooleanProperty(CONCURRENCY_LIMIT_ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return number of queries allowed at the same time on a database before any latency has been measured
+     */
+    public int getConcurrencyLimitInitial() {
+        return getPositiveIntProperty(CONCURRENCY_LIMIT_INITIAL_PROPERTY, DEFAULT_CONCURRENCY_LIMIT_INITIAL);
+    }
+
+    public int getConcurrencyLimitMinimum() {
+        return getPositiveIntProperty(CONCURRENCY_LIMIT_MINIMUM_PROPERTY, DEFAULT_CONCURRENCY_LIMIT_MINIMUM);
+    }
+
+    public int getConcurrencyLimitMaximum() {
+        return getPositiveIntProperty(CONCURRENCY_LIMIT_MAXIMUM_PROPERTY, DEFAULT_CONCURRENCY_LIMIT_MAXIMUM);
+    }
+
+    /**
+     * @return number of requests that may wait for a database that is at its limit, 0 to reject them straight away
+     */
+    public int getConcurrencyLimitQueueSize() {
+        return getIntProperty(CONCURRENCY_LIMIT_QUEUE_SIZE_PROPERTY, DEFAULT_CONCURRENCY_LIMIT_QUEUE_SIZE, 0);
+    }
+
+    /**
+     * @return maximum time a request waits for a database that is at its limit
+     */
+    public int getConcurrencyLimitQueueTimeOutInMillis() {
+        return getIntProperty(CONCURRENCY_LIMIT_QUEUE_TIMEOUT_PROPERTY,
+                DEFAULT_CONCURRENCY_LIMIT_QUEUE_TIMEOUT_IN_MILLIS, 0);
+    }
+
+    /**
+     * @return short term average latency, as a percentage of the long term average, above which the limit is cut
+     */
+    public int getConcurrencyLimitLatencyTolerancePercent() {
+        return getIntProperty(CONCURRENCY_LIMIT_LATENCY_TOLERANCE_PROPERTY,
+                DEFAULT_CONCURRENCY_LIMIT_LATENCY_TOLERANCE_PERCENT, 100);
+    }
+
+    public boolean isQueryAdmissionEnabled() {
+        return getBooleanProperty(QUERY_ADMISSION_ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return number of queries the QueryAdmissionScheduler admits at the same time, across all classes
+     */
+    public int getQueryAdmissionSlots() {
+        return getPositiveIntProperty(QUERY_ADMISSION_SLOTS_PROPERTY, DEFAULT_QUERY_ADMISSION_SLOTS);
+    }
+
+    /**
+     * @return number of queries that may wait for admission, 0 to reject queries that can't be admitted straight
+     * away
+     */
+    public int getQueryAdmissionQueueSize() {
+        return getIntProperty(QUERY_ADMISSION_QUEUE_SIZE_PROPERTY, DEFAULT_QUERY_ADMISSION_QUEUE_SIZE, 0);
+    }
+
+    public int getQueryAdmissionQueueTimeOutInMillis() {
+        return getIntProperty(QUERY_ADMISSION_QUEUE_TIMEOUT_PROPERTY, DEFAULT_QUERY_ADMISSION_QUEUE_TIMEOUT_IN_MILLIS,
+                0);
+    }
+
+    /**
+     * @return share of the database given to the class when queries are queued
+     */
+    public int getQueryClassWeight(final QueryClass queryClass) {
+        return getPositiveIntProperty(QUERY_CLASS_WEIGHT_PROPERTY + "." + queryClass.name(),
+                queryClass.getDefaultWeight());
+    }
+
+    /**
+     * @return maximum number of queries of the class admitted at the same time
+     */
+    public int getQueryClassMaximumConcurrent(final QueryClass queryClass) {
+        return getPositiveIntProperty(QUERY_CLASS_MAX_CONCURRENT_PROPERTY + "." + queryClass.name(),
+                queryClass.getDefaultMaximumConcurrent());
+    }
+
+    /**
+     * @return true unless coalescing of identical in flight queries has been disabled
+     */
+    public boolean isQueryCoalescingEnabled() {
+        return !getBooleanProperty(QUERY_COALESCING_DISABLED_PROPERTY);
+    }
+
+    /**
+     * @return maximum estimated size of the results held in the QueryResultCache, 0 to disable the cache
+     */
+    public int getResultCacheSizeInMegabytes() {
+        return getIntProperty(RESULT_CACHE_SIZE_PROPERTY, DEFAULT_RESULT_CACHE_SIZE_IN_MEGABYTES, 0);
+    }
+
+    /**
+     * @param templateName name of the query template, may be null
+     * @return time for which a result of the template is held in the QueryResultCache, 0 to not cache the template
+     */
+    public int getResultCacheTimeToLiveInSeconds(final String templateName) {
+        final int defaultTimeToLive = getIntProperty(RESULT_CACHE_TIME_TO_LIVE_PROPERTY,
+                DEFAULT_RESULT_CACHE_TIME_TO_LIVE_IN_SECONDS, 0);
+        if (templateName == null) {
+            return defaultTimeToLive;
+        }
+        return getIntProperty(RESULT_CACHE_TIME_TO_LIVE_PROPERTY + "." + templateName, defaultTimeToLive, 0);
+    }
+
+    /**
+     * @return time over which the DataServiceQueryExecutor logs the QueryTimings breakdown of a request it has
+     * timed, 0 to not time requests
+     */
+    public int getQueryTimingLogThresholdInMillis() {
+        return getIntProperty(QUERY_TIMING_LOG_THRESHOLD_PROPERTY, DEFAULT_QUERY_TIMING_LOG_THRESHOLD_IN_MILLIS, 0);
+    }
+
+    /**
+     * @return time over which a query is kept in the SlowQueryLog, 0 to keep only the sampled queries
+     */
+    public int getSlowQueryLogThresholdInMillis() {
+        return getIntProperty(SLOW_QUERY_LOG_THRESHOLD_PROPERTY, DEFAULT_SLOW_QUERY_LOG_THRESHOLD_IN_MILLIS, 0);
+    }
+
+    /**
+     * @return one in this many of the queries under the threshold are also kept in the SlowQueryLog, 0 for none
+     */
+    public int getSlowQueryLogSampleOneIn() {
+        return getIntProperty(SLOW_QUERY_LOG_SAMPLE_PROPERTY, DEFAULT_SLOW_QUERY_LOG_SAMPLE_ONE_IN, 0);
+    }
+
+    /**
+     * @return number of queries the SlowQueryLog holds before the oldest is dropped, 0 to disable the log
+     */
+    public int getSlowQueryLogSize() {
+        return getIntProperty(SLOW_QUERY_LOG_SIZE_PROPERTY, DEFAULT_SLOW_QUERY_LOG_SIZE, 0);
+    }
+
+    /**
+     * @return largest number of values a LONG_LIST or STRING_LIST parameter may hold - a longer list is refused
+     * rather than expanded into an IN list, and the caller has to split it over more than one query
+     * Lists are padded to a power of two (see ParsedQuery.expandListParameters()), so the configured size is rounded
+     * down to a power of two, and a full list never expands to more parameters than configured
+     */
+    public int getMaxInListSize() {
+        return Integer.highestOneBit(getIntProperty(MAX_IN_LIST_SIZE_PROPERTY, DEFAULT_MAX_IN_LIST_SIZE, 1));
+    }
+
+    /**
+     * Templates that still need their date range parameters (dateFrom, dateTo and the local and adjusted dates) as
+     * strings are listed, comma separated, in ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES
+     * Other templates, and date parameters mapped without a template, are bound as TIMESTAMP and DATE
+     *
+     * @param templatePath path of the template the query is built from, may be null
+     * @return true if the template's date range parameters should be bound as strings
+     */
+    public boolean isDateParametersAsStrings(final String templatePath) {
+        if (templatePath == null || eniqEventsProperties == null) {
+            return false;
+        }
+        final String templatePaths = eniqEventsProperties.getProperty(STRING_DATE_PARAMETER_TEMPLATES_PROPERTY);
+        if (templatePaths == null) {
+            return false;
+        }
+        for (final String stringTemplatePath : templatePaths.split(",")) {
+            if (templatePath.equals(stringTemplatePath.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean getBooleanProperty(final String propertyName) {
+        if (eniqEventsProperties == null) {
+            return false;
+        }
+        final String value = eniqEventsProperties.getProperty(propertyName);
+        return value != null && Boolean.parseBoolean(value.trim());
+    }
+
+    int getPositiveIntProperty(final String propertyName, final int defaultValue) {
+        return getIntProperty(propertyName, defaultValue, 1);
+    }
+
+    int getIntProperty(final String propertyName, final int defaultValue, final int minimumValue) {
+        if (eniqEventsProperties == null) {
+            return defaultValue;
+        }
+        final String value = eniqEventsProperties.getProperty(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final int parsedValue = Integer.parseInt(value.trim());
+            if (parsedValue >= minimumValue) {
+                return parsedValue;
+            }
+        } catch (final NumberFormatException e) {
+            //fall through to default
+        }
+        ServicesLogger.warn(getClass().getName(), "getIntProperty", "Invalid value " + value + " for property "
+                + propertyName + ", using default of " + defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param eniqEventsProperties the eniqEventsProperties to set
+     */
+    public void setEniqEventsProperties(final Properties eniqEventsProperties) {
+        this.eniqEventsProperties = eniqEventsProperties;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * Owns the thread pools used by the DataServiceQueryExecutor to run blocking JDBC calls off the request thread
+ * The pools are bounded - once all threads are busy and the queue is full, the calling thread runs a parallel query
+ * itself, and asynchronous queries and hedged query attempts are rejected
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+@Lock(LockType.READ)
+public class QueryExecutorThreadPools {
+
+    private static final long IDLE_THREAD_TIMEOUT_IN_SECONDS = 60;
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    private ThreadPoolExecutor parallelQueryExecutor;
+
+    private ThreadPoolExecutor asyncQueryExecutor;
+
+    private ThreadPoolExecutor hedgedQueryExecutor;
+
+    @PostConstruct
+    public void createThreadPools() {
+        parallelQueryExecutor = createBoundedPool("eniq-events-parallel-query",
+                queryExecutorConfiguration.getParallelQueryThreads(),
+                queryExecutorConfiguration.getParallelQueryQueueSize(), new ThreadPoolExecutor.CallerRunsPolicy());
+        //the caller of the async API must never block, so reject rather than run on the calling thread
+        asyncQueryExecutor = createBoundedPool("eniq-events-async-query",
+                queryExecutorConfiguration.getAsyncQueryThreads(),
+                queryExecutorConfiguration.getAsyncQueryQueueSize(), new ThreadPoolExecutor.AbortPolicy());
+        //a hedge run on the request thread would block it in executeQuery, so it couldn't see the first attempt
+        //finish - reject instead, and the hedge is skipped
+        hedgedQueryExecutor = createBoundedPool("eniq-events-hedged-query",
+                queryExecutorConfiguration.getHedgedQueryThreads(),
+                queryExecutorConfiguration.getHedgedQueryQueueSize(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdownThreadPools() {
+        if (parallelQueryExecutor != null) {
+            parallelQueryExecutor.shutdownNow();
+        }
+        if (asyncQueryExecutor != null) {
+            asyncQueryExecutor.shutdownNow();
+        }
+        if (hedgedQueryExecutor != null) {
+            hedgedQueryExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the pool used to fan out the queries of a single request
+     */
+    public ExecutorService getParallelQueryExecutor() {
+        return parallelQueryExecutor;
+    }
+
+    /**
+     * @return the pool used to run the queries of the asynchronous DataServiceQueryExecutor methods
+     */
+    public ExecutorService getAsyncQueryExecutor() {
+        return asyncQueryExecutor;
+    }
+
+    /**
+     * @return the pool used to run the attempts of DataServiceQueryExecutor.getDataWithHedging() - rejects attempts
+     * once it is full, rather than running them on the calling thread
+     */
+    public ExecutorService getHedgedQueryExecutor() {
+        return hedgedQueryExecutor;
+    }
+
+    private ThreadPoolExecutor createBoundedPool(final String poolName, final int threads, final int queueSize,
+            final RejectedExecutionHandler rejectedExecutionHandler) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_TIMEOUT_IN_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueSize), new NamedDaemonThreadFactory(poolName),
+                rejectedExecutionHandler);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    /**
+     * Names the pool threads so they can be identified in thread dumps, and marks them as daemon threads so they
+     * never hold up shutdown of the application server
+     */
+    static class NamedDaemonThreadFactory implements ThreadFactory {
+
+        private final String poolName;
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        NamedDaemonThreadFactory(final String poolName) {
+            this.poolName = poolName;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, poolName + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
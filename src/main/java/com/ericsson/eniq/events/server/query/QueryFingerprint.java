@@ -0,0 +1,54 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * 64 bit fingerprint of SQL text (FNV-1a), used to key per query statistics without holding on to the SQL itself,
+ * which is often tens of KB long
+ * Two different queries may (very rarely) have the same fingerprint, so fingerprints are only used where a
+ * collision just merges statistics
+ *
+ * @author eemecoy
+ */
+public final class QueryFingerprint {
+
+    private static final long FNV_64_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_64_PRIME = 0x100000001b3L;
+
+    private QueryFingerprint() {
+    }
+
+    /**
+     * @param sql query text
+     * @return fingerprint of the query
+     */
+    public static long of(final String sql) {
+        long hash = FNV_64_OFFSET_BASIS;
+        final int length = sql.length();
+        for (int i = 0; i < length; i++) {
+            final char c = sql.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV_64_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_64_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @param fingerprint a query fingerprint
+     * @return the fingerprint as 16 hex digits, for logs and statistics
+     */
+    public static String toString(final long fingerprint) {
+        final String hex = Long.toHexString(fingerprint);
+        final StringBuilder paddedHex = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) {
+            paddedHex.append('0');
+        }
+        return paddedHex.append(hex).toString();
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static com.ericsson.eniq.events.server.common.ApplicationConstants.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Result of a query run asynchronously by the DataServiceQueryExecutor
+ *
+ * Cancelling the future cancels the query on the database in the same way as a cancel request from the UI - the
+ * statements registered for the request id are cancelled, or if no statement has been created yet, the request id
+ * is added to the failed cancel list so the query is never run.
+ * Interrupting the thread running the query would have no effect on the JDBC call, so the pool thread is never
+ * interrupted.
+ *
+ * @author eemecoy
+ */
+final class QueryFuture<T> extends FutureTask<T> {
+
+    private final String requestID;
+
+    private final RequestIdMappingService requestIdMappings;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    QueryFuture(final Callable<T> query, final String requestID, final RequestIdMappingService requestIdMappings) {
+        super(query);
+        this.requestID = requestID;
+        this.requestIdMappings = requestIdMappings;
+    }
+
+    @Override
+    public void run() {
+        started.set(true);
+        super.run();
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        if (!super.cancel(false)) {
+            return false;
+        }
+        if (started.get() && !CANCEL_REQ_NOT_SUPPORTED.equalsIgnoreCase(requestID)) {
+            requestIdMappings.cancel(requestID);
+        }
+        return true;
+    }
+}
@@ -52,6 +52,15 @@ public class QueryGenerator implements IQueryGenerator {
      */
     @Override
     public String getQuery(final QueryGeneratorParameters queryGeneratorParameters) {
+        final int span = QueryTimings.begin(QueryPhase.RENDER);
+        try {
+            return generateQuery(queryGeneratorParameters);
+        } finally {
+            QueryTimings.end(span);
+        }
+    }
+
+    private String generateQuery(final QueryGeneratorParameters queryGeneratorParameters) {
         String timerange = null;
         if (queryGeneratorParameters.dateTimeRange != null) {
             timerange = dateTimeHelper.getEventDataSourceType(queryGeneratorParameters.dateTimeRange).toString();
@@ -62,7 +71,10 @@ public class QueryGenerator implements IQueryGenerator {
         final String templateFile = templateMappingEngine.getTemplate(queryGeneratorParameters.templatePath,
                 queryGeneratorParameters.requestParameters, queryGeneratorParameters.drillDownTypeForService, viewType);
 
-        return templateUtils.getQueryFromTemplate(templateFile, templateParameters);
+        final String query = templateUtils.getQueryFromTemplate(templateFile, templateParameters);
+        //so the query is recorded in the QueryMetrics against its template rather than its SQL
+        QueryTemplates.rendered(query, templateFile);
+        return query;
     }
 
     Map<String, Object> getTemplateParameters(final QueryGeneratorParameters queryGeneratorParameters,
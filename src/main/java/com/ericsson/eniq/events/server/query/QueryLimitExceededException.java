@@ -0,0 +1,24 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown from ResultSet.next() when the result of a query exceeds the QueryLimits for the request, and the limits
+ * are set to fail rather than truncate
+ * A SQLException, so that it passes through the result set transformers in the same way as any database error
+ *
+ * @author eemecoy
+ */
+public class QueryLimitExceededException extends SQLException {
+
+    private static final long serialVersionUID = 1L;
+
+    public QueryLimitExceededException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * Limits on the size of the result of a services request, enforced by the DataServiceQueryExecutor as the rows are
+ * read from the database
+ *
+ * Once a limit is reached, the executor stops reading, cancels the statement on the database, and either ends the
+ * result set early (the request is then marked as truncated, so the UI can be told the result is incomplete) or
+ * fails the request with a ServiceUserInfoException.
+ *
+ * Limits for a request (for example, tighter limits for a particular query template) are set on the request thread
+ * in the same way as the QueryDeadline:
+ *
+ * <pre>
+ * final QueryLimits limits = QueryLimits.start(new QueryLimits(maxRows, maxBytes, true));
+ * try {
+ *     ...
+ *     if (limits.wasTruncated()) {
+ *         ...
+ *     }
+ * } finally {
+ *     QueryLimits.clear();
+ * }
+ * </pre>
+ *
+ * Requests without their own limits get the limits configured in the ENIQ Events properties, if any, which the
+ * executor starts for the duration of each call. A caller that needs to know whether its result was truncated by
+ * the configured limits starts them itself, with QueryExecutorConfiguration.getDefaultQueryLimits().
+ *
+ * @author eemecoy
+ */
+public final class QueryLimits {
+
+    /**
+     * Value for maxRows or maxBytes meaning there is no limit
+     */
+    public static final long NO_LIMIT = 0;
+
+    private static final ThreadLocal<QueryLimits> CURRENT_LIMITS = new ThreadLocal<QueryLimits>();
+
+    private final long maxRows;
+
+    private final long maxBytes;
+
+    private final boolean truncate;
+
+    private volatile boolean truncated;
+
+    /**
+     * @param maxRows   maximum number of rows read for any one query, NO_LIMIT for no limit
+     * @param maxBytes  maximum estimated size in bytes of the values read for any one query, NO_LIMIT for no limit
+     * @param truncate  true to end the result early when a limit is reached, false to fail the request
+     */
+    public QueryLimits(final long maxRows, final long maxBytes, final boolean truncate) {
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.truncate = truncate;
+    }
+
+    /**
+     * Set the limits for the request being processed by the current thread
+     *
+     * @param limits limits for the request
+     * @return the limits
+     */
+    public static QueryLimits start(final QueryLimits limits) {
+        CURRENT_LIMITS.set(limits);
+        return limits;
+    }
+
+    /**
+     * @return the limits set for the request being processed by the current thread, or null if none
+     */
+    public static QueryLimits current() {
+        return CURRENT_LIMITS.get();
+    }
+
+    /**
+     * Make the limits the current limits for this thread - used to carry a request's limits over to the thread that
+     * runs the request's queries
+     *
+     * @param limits limits of the request, may be null
+     */
+    static void setCurrent(final QueryLimits limits) {
+        if (limits == null) {
+            CURRENT_LIMITS.remove();
+        } else {
+            CURRENT_LIMITS.set(limits);
+        }
+    }
+
+    /**
+     * Clear the limits for the current thread
+     */
+    public static void clear() {
+        CURRENT_LIMITS.remove();
+    }
+
+    public boolean hasLimits() {
+        return maxRows > NO_LIMIT || maxBytes > NO_LIMIT;
+    }
+
+    boolean isRowLimitReached(final long rowsRead) {
+        return maxRows > NO_LIMIT && rowsRead >= maxRows;
+    }
+
+    boolean isByteLimitReached(final long bytesRead) {
+        return maxBytes > NO_LIMIT && bytesRead >= maxBytes;
+    }
+
+    public long getMaxRows() {
+        return maxRows;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isTruncate() {
+        return truncate;
+    }
+
+    /**
+     * @return true if the result of any query run under these limits was ended early
+     */
+    public boolean wasTruncated() {
+        return truncated;
+    }
+
+    void markTruncated() {
+        truncated = true;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryLimits:maxRows=" + maxRows + ",maxBytes=" + maxBytes + (truncate ? ",truncate" : ",fail");
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ericsson.eniq.events.server.datasource.loadbalancing.LoadBalancingPolicy;
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * Latency histograms, row counts and result sizes for each query template and database, shown over JMX as
+ * OBJECT_NAME so the monitoring can see which templates are slow, and whether the time goes on getting a connection,
+ * on the database or on transforming the result
+ *
+ * Queries are keyed on the path of the template they were rendered from (see QueryTemplates), so that the raw
+ * partitions and IN list sizes of one template don't each take a place in the table. Queries that weren't rendered
+ * from a known template are keyed on their QueryFingerprint.
+ *
+ * Looking up a template's metrics and recording into them allocates nothing (apart from the first time a template
+ * is seen), so metrics are recorded for every query. The templates are held in a fixed size open addressed table,
+ * up to MAXIMUM_TEMPLATES templates - further templates share one set of metrics.
+ *
+ * Rows fetched and bytes materialized are counted exactly for every read query, whether or not the request has
+ * QueryLimits, as the transformer always reads the result set through the LimitedResultSet. For a query with no
+ * LimitedResultSet, rows are taken from the size of the result if it is a Collection, and bytes from its length if it
+ * is a String (as for the JSON transformers).
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class QueryMetrics {
+
+    static final String OBJECT_NAME = "com.ericsson.eniq.events.server.query:type=QueryMetrics";
+
+    static final int MAXIMUM_TEMPLATES = 256;
+
+    static final String OTHER_TEMPLATES = "other";
+
+    /**
+     * Twice MAXIMUM_TEMPLATES (and a power of two), so that probes stay short
+     */
+    private static final int TABLE_SIZE = 512;
+
+    private static final int BYTES_PER_CHAR = 2;
+
+    private final AtomicReferenceArray<TemplateMetrics> templates = new AtomicReferenceArray<TemplateMetrics>(
+            TABLE_SIZE);
+
+    private final AtomicInteger numberOfTemplates = new AtomicInteger();
+
+    private final TemplateMetrics otherTemplates = new TemplateMetrics(0, OTHER_TEMPLATES, OTHER_TEMPLATES);
+
+    private ObjectName objectName;
+
+    @PostConstruct
+    public void init() {
+        try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeanServer.isRegistered(name)) {
+                //left behind by an earlier deployment
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(new MetricsView(), name);
+            objectName = name;
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "init", "Query metrics not registered with JMX", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "destroy", e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * @param loadBalancingPolicy policy used to select the dwh node, may be null
+     * @return the target to record dwh queries run with the policy against (see metricsFor())
+     */
+    public static Object getTarget(final LoadBalancingPolicy loadBalancingPolicy) {
+        return loadBalancingPolicy == null ? ConcurrencyLimiter.DWH_LIMIT_NAME : loadBalancingPolicy.getClass();
+    }
+
+    /**
+     * @param templatePath path of the template the query was rendered from (see QueryTemplates), null if not known
+     * @param fingerprint  QueryFingerprint of the query, to key the metrics on if the template isn't known
+     * @param target       database the query is run on - getTarget() for the dwh, or
+     *                     ConcurrencyLimiter.REPDB_LIMIT_NAME for the repdb
+     * @return the metrics to record the query in
+     */
+    public TemplateMetrics metricsFor(final String templatePath, final long fingerprint, final Object target) {
+        if (templatePath == null) {
+            return metricsFor(fingerprint, null, target);
+        }
+        return metricsFor(QueryFingerprint.of(templatePath), templatePath, target);
+    }
+
+    /**
+     * @param fingerprint QueryFingerprint of the query (see NamedParameterStatement.getFingerprint())
+     * @param target      database the query is run on
+     * @return the metrics to record the query in
+     */
+    public TemplateMetrics metricsFor(final long fingerprint, final Object target) {
+        return metricsFor(fingerprint, null, target);
+    }
+
+    private TemplateMetrics metricsFor(final long key, final String templatePath, final Object target) {
+        int index = spread(key, target) & (TABLE_SIZE - 1);
+        for (int probe = 0; probe < TABLE_SIZE; probe++) {
+            TemplateMetrics metrics = templates.get(index);
+            if (metrics == null) {
+                if (numberOfTemplates.get() >= MAXIMUM_TEMPLATES) {
+                    return otherTemplates;
+                }
+                final TemplateMetrics newMetrics = new TemplateMetrics(key, templatePath, target);
+                if (templates.compareAndSet(index, null, newMetrics)) {
+                    numberOfTemplates.incrementAndGet();
+                    return newMetrics;
+                }
+                metrics = templates.get(index);
+            }
+            if (metrics.key == key && metrics.target.equals(target)) {
+                return metrics;
+            }
+            index = (index + 1) & (TABLE_SIZE - 1);
+        }
+        return otherTemplates;
+    }
+
+    private static int spread(final long key, final Object target) {
+        final int hash = (int) (key ^ (key >>> 32)) ^ target.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @param resultSet result set passed to the transformer, may be null
+     * @param result    transformed result, may be null
+     * @return rows read from the result set, or -1 if not known
+     */
+    static long getRows(final ResultSet resultSet, final Object result) {
+        final long rows = LimitedResultSet.getRowsRead(resultSet);
+        if (rows < 0 && result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return rows;
+    }
+
+    /**
+     * @param target target passed to metricsFor()
+     * @return name of the database, as shown over JMX
+     */
+    static String getTargetName(final Object target) {
+        if (target instanceof Class) {
+            return ConcurrencyLimiter.DWH_LIMIT_NAME + ":" + ((Class<?>) target).getSimpleName();
+        }
+        return String.valueOf(target);
+    }
+
+    public long getQueryCount() {
+        long queries = 0;
+        for (final TemplateMetrics metrics : getAllTemplateMetrics()) {
+            queries += metrics.total.getCount();
+        }
+        return queries;
+    }
+
+    public long getFailureCount() {
+        long failures = 0;
+        for (final TemplateMetrics metrics : getAllTemplateMetrics()) {
+            failures += metrics.failures.get();
+        }
+        return failures;
+    }
+
+    public int getTemplateCount() {
+        return numberOfTemplates.get();
+    }
+
+    /**
+     * @return snapshot of the metrics of each template, with the templates over the maximum last
+     */
+    public List<QueryTemplateMetrics> getTemplateMetrics() {
+        final List<QueryTemplateMetrics> snapshots = new ArrayList<QueryTemplateMetrics>();
+        for (final TemplateMetrics metrics : getAllTemplateMetrics()) {
+            if (metrics != otherTemplates || metrics.total.getCount() > 0 || metrics.failures.get() > 0) {
+                snapshots.add(metrics.toSnapshot());
+            }
+        }
+        return snapshots;
+    }
+
+    private List<TemplateMetrics> getAllTemplateMetrics() {
+        final List<TemplateMetrics> allMetrics = new ArrayList<TemplateMetrics>();
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            final TemplateMetrics metrics = templates.get(i);
+            if (metrics != null) {
+                allMetrics.add(metrics);
+            }
+        }
+        allMetrics.add(otherTemplates);
+        return allMetrics;
+    }
+
+    /**
+     * Metrics for one query template run on one database
+     */
+    public static final class TemplateMetrics {
+
+        /**
+         * QueryFingerprint of the template path, or of the SQL if the template isn't known
+         */
+        private final long key;
+
+        private final String templatePath;
+
+        private final Object target;
+
+        private final LatencyHistogram checkout = new LatencyHistogram();
+
+        private final LatencyHistogram execution = new LatencyHistogram();
+
+        private final LatencyHistogram transformation = new LatencyHistogram();
+
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong rowsFetched = new AtomicLong();
+
+        private final AtomicLong bytesMaterialized = new AtomicLong();
+
+        TemplateMetrics(final long key, final String templatePath, final Object target) {
+            this.key = key;
+            this.templatePath = templatePath;
+            this.target = target;
+        }
+
+        /**
+         * @param latencyInNanos time taken to get a connection from the pool
+         */
+        public void recordCheckout(final long latencyInNanos) {
+            checkout.recordNanos(latencyInNanos);
+        }
+
+        /**
+         * @param latencyInNanos time taken by executeQuery() (or executeUpdate())
+         */
+        public void recordExecution(final long latencyInNanos) {
+            execution.recordNanos(latencyInNanos);
+        }
+
+        /**
+         * @param latencyInNanos time taken by the transformer
+         */
+        public void recordTransformation(final long latencyInNanos) {
+            transformation.recordNanos(latencyInNanos);
+        }
+
+        /**
+         * Record a completed query
+         *
+         * @param latencyInNanos time taken for the whole query
+         * @param resultSet      result set passed to the transformer, may be null
+         * @param result         transformed result, may be null
+         */
+        public void recordQuery(final long latencyInNanos, final ResultSet resultSet, final Object result) {
+            total.recordNanos(latencyInNanos);
+            final long rows = getRows(resultSet, result);
+            if (rows > 0) {
+                rowsFetched.addAndGet(rows);
+            }
+            long bytes = LimitedResultSet.getBytesRead(resultSet);
+            if (bytes < 0 && result instanceof String) {
+                bytes = (long) ((String) result).length() * BYTES_PER_CHAR;
+            }
+            if (bytes > 0) {
+                bytesMaterialized.addAndGet(bytes);
+            }
+        }
+
+        public void recordFailure() {
+            failures.incrementAndGet();
+        }
+
+        QueryTemplateMetrics toSnapshot() {
+            final String templateName = templatePath == null ? QueryFingerprint.toString(key) : templatePath;
+            return new QueryTemplateMetrics(templateName, getTargetName(target), failures.get(), rowsFetched.get(),
+                    bytesMaterialized.get(), LatencySummary.of(checkout), LatencySummary.of(execution),
+                    LatencySummary.of(transformation), LatencySummary.of(total));
+        }
+    }
+
+    /**
+     * The view registered with JMX - a separate class, so that the MXBean interface doesn't become a business
+     * interface of the EJB
+     */
+    private final class MetricsView implements QueryMetricsMXBean {
+
+        @Override
+        public long getQueryCount() {
+            return QueryMetrics.this.getQueryCount();
+        }
+
+        @Override
+        public long getFailureCount() {
+            return QueryMetrics.this.getFailureCount();
+        }
+
+        @Override
+        public int getTemplateCount() {
+            return QueryMetrics.this.getTemplateCount();
+        }
+
+        @Override
+        public List<QueryTemplateMetrics> getTemplateMetrics() {
+            return QueryMetrics.this.getTemplateMetrics();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.List;
+
+/**
+ * JMX view of the QueryMetrics, registered as QueryMetrics.OBJECT_NAME
+ *
+ * @author eemecoy
+ */
+public interface QueryMetricsMXBean {
+
+    /**
+     * @return number of queries completed, on all templates
+     */
+    long getQueryCount();
+
+    /**
+     * @return number of queries that failed, on all templates
+     */
+    long getFailureCount();
+
+    /**
+     * @return number of templates with their own metrics
+     */
+    int getTemplateCount();
+
+    /**
+     * @return metrics for each template and database
+     */
+    List<QueryTemplateMetrics> getTemplateMetrics();
+}
@@ -5,12 +5,30 @@
  */
 package com.ericsson.eniq.events.server.query;
 
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.Date;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
-import com.ericsson.eniq.events.server.logging.ServicesLogger;
-
 /**
+ * LONG and INT parameters created from a primitive long or int hold the value unboxed, and are bound to the
+ * statement without boxing - getValue() boxes the value only when it is asked for
+ *
+ * LONG_LIST and STRING_LIST parameters hold a long[] or String[], and are bound to an IN list of parameters:
+ * :name in the query is expanded to as many parameters as the list size rounded up to a power of two, and the
+ * extra parameters repeat the last value (which doesn't change the result of the IN), so there are only a few
+ * shapes of each query to parse and prepare. An empty list is bound as a single NULL, which matches nothing.
+ *
+ * TIMESTAMP and DATE parameters hold the time in milliseconds since the epoch, unboxed like LONG, so the database
+ * compares DATETIME and DATE columns against a native value rather than converting a string for each comparison
  *
  * @author ehaoswa
  * @author etomcor
@@ -22,6 +40,10 @@ public final class QueryParameter {
 
     private final Object value;
 
+    private final boolean primitive;
+
+    private final long primitiveValue;
+
     public static QueryParameter createStringParameter(final String value) {
         return new QueryParameter(QueryParameterType.STRING, value);
     }
@@ -30,10 +52,53 @@ public final class QueryParameter {
         return new QueryParameter(QueryParameterType.LONG, value);
     }
 
+    public static QueryParameter createLongParameter(final long value) {
+        return new QueryParameter(QueryParameterType.LONG, value);
+    }
+
     public static QueryParameter createIntParameter(final Integer value) {
         return new QueryParameter(QueryParameterType.INT, value);
     }
 
+    public static QueryParameter createIntParameter(final int value) {
+        return new QueryParameter(QueryParameterType.INT, value);
+    }
+
+    public static QueryParameter createLongListParameter(final long... values) {
+        return new QueryParameter(QueryParameterType.LONG_LIST, values.clone());
+    }
+
+    public static QueryParameter createLongListParameter(final Collection<Long> values) {
+        final long[] longs = new long[values.size()];
+        int i = 0;
+        for (final Long value : values) {
+            longs[i++] = value;
+        }
+        return new QueryParameter(QueryParameterType.LONG_LIST, longs);
+    }
+
+    public static QueryParameter createStringListParameter(final String... values) {
+        return new QueryParameter(QueryParameterType.STRING_LIST, values.clone());
+    }
+
+    public static QueryParameter createStringListParameter(final Collection<String> values) {
+        return new QueryParameter(QueryParameterType.STRING_LIST, values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * @param epochMillis time in milliseconds since the epoch
+     */
+    public static QueryParameter createTimestampParameter(final long epochMillis) {
+        return new QueryParameter(QueryParameterType.TIMESTAMP, epochMillis);
+    }
+
+    /**
+     * @param epochMillis start of the day, in milliseconds since the epoch
+     */
+    public static QueryParameter createDateParameter(final long epochMillis) {
+        return new QueryParameter(QueryParameterType.DATE, epochMillis);
+    }
+
     public static QueryParameter createNullParameter(final Integer value) {
         return new QueryParameter(QueryParameterType.NULL, value);
     }
@@ -50,24 +115,242 @@ public final class QueryParameter {
         super();
         this.type = type;
         this.value = value;
+        this.primitive = false;
+        this.primitiveValue = 0;
+    }
+
+    private QueryParameter(final QueryParameterType type, final long primitiveValue) {
+        super();
+        this.type = type;
+        this.value = null;
+        this.primitive = true;
+        this.primitiveValue = primitiveValue;
     }
 
     public QueryParameterType getType() {
         return type;
     }
 
+    /**
+     * @return the value - for LONG_LIST and STRING_LIST, an unmodifiable copy of the list, and for TIMESTAMP and
+     * DATE, a java.sql.Timestamp or java.sql.Date
+     */
     public Object getValue() {
-        return value;
+        if (type == QueryParameterType.LONG_LIST) {
+            final long[] longs = (long[]) value;
+            final List<Long> values = new ArrayList<Long>(longs.length);
+            for (final long longValue : longs) {
+                values.add(longValue);
+            }
+            return Collections.unmodifiableList(values);
+        }
+        if (type == QueryParameterType.STRING_LIST) {
+            return Collections.unmodifiableList(Arrays.asList((String[]) value));
+        }
+        if (!primitive) {
+            return value;
+        }
+        if (type == QueryParameterType.INT) {
+            return Integer.valueOf((int) primitiveValue);
+        }
+        if (type == QueryParameterType.TIMESTAMP) {
+            return new Timestamp(primitiveValue);
+        }
+        if (type == QueryParameterType.DATE) {
+            return new Date(primitiveValue);
+        }
+        return Long.valueOf(primitiveValue);
+    }
+
+    /**
+     * @return true if this is a LONG_LIST or STRING_LIST parameter
+     */
+    public boolean isList() {
+        return type == QueryParameterType.LONG_LIST || type == QueryParameterType.STRING_LIST;
+    }
+
+    /**
+     * @return the number of values in a LONG_LIST or STRING_LIST parameter
+     * @throws IllegalStateException if this isn't a list parameter
+     */
+    public int getListSize() {
+        if (type == QueryParameterType.LONG_LIST) {
+            return ((long[]) value).length;
+        }
+        if (type == QueryParameterType.STRING_LIST) {
+            return ((String[]) value).length;
+        }
+        throw new IllegalStateException(type + " is not a list parameter");
+    }
+
+    /**
+     * @param listSize number of values in a list parameter
+     * @return the number of parameters the list is expanded to - the list size rounded up to a power of two, and
+     * at least 1 (an empty list is bound as a single NULL)
+     */
+    static int getExpandedSize(final int listSize) {
+        if (listSize <= 1) {
+            return 1;
+        }
+        return Integer.highestOneBit(listSize - 1) << 1;
     }
 
     @Override
     public String toString() {
-        return ((type != null ? type.toString() : "<type unknown>") + ":" + value);
+        return ((type != null ? type.toString() : "<type unknown>") + ":" + getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        if (type == QueryParameterType.LONG_LIST) {
+            return 31 * type.hashCode() + Arrays.hashCode((long[]) value);
+        }
+        if (type == QueryParameterType.STRING_LIST) {
+            return 31 * type.hashCode() + Arrays.hashCode((String[]) value);
+        }
+        final Object parameterValue = getValue();
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((type == null) ? 0 : type.hashCode());
+        result = prime * result + ((parameterValue == null) ? 0 : parameterValue.hashCode());
+        return result;
+    }
+
+    /**
+     * Two parameters are equal if they have the same type and value, so parameter maps can be used as part of a
+     * cache key
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof QueryParameter)) {
+            return false;
+        }
+        final QueryParameter other = (QueryParameter) obj;
+        if (type != other.type) {
+            return false;
+        }
+        if (primitive && other.primitive) {
+            return primitiveValue == other.primitiveValue;
+        }
+        if (type == QueryParameterType.LONG_LIST) {
+            return Arrays.equals((long[]) value, (long[]) other.value);
+        }
+        if (type == QueryParameterType.STRING_LIST) {
+            return Arrays.equals((String[]) value, (String[]) other.value);
+        }
+        final Object parameterValue = getValue();
+        return parameterValue == null ? other.getValue() == null : parameterValue.equals(other.getValue());
+    }
+
+    /**
+     * Set this parameter's value at each of the JDBC parameter indexes
+     * A list parameter has the indexes of its expanded IN list (or of each IN list, if :name is in the query more
+     * than once), and its values are set in order across each of them
+     *
+     * @param statement statement to set the value on
+     * @param indexes   JDBC parameter indexes of the parameter
+     */
+    void bind(final PreparedStatement statement, final int[] indexes) throws SQLException {
+        switch (type) {
+        case STRING:
+            for (final int index : indexes) {
+                statement.setString(index, (String) value);
+            }
+            break;
+        case LONG:
+            final long longValue = primitive ? primitiveValue : (Long) value;
+            for (final int index : indexes) {
+                statement.setLong(index, longValue);
+            }
+            break;
+        case INT:
+            final int intValue = primitive ? (int) primitiveValue : (Integer) value;
+            for (final int index : indexes) {
+                statement.setInt(index, intValue);
+            }
+            break;
+        case TIMESTAMP:
+            final Timestamp timestamp = new Timestamp(primitiveValue);
+            for (final int index : indexes) {
+                statement.setTimestamp(index, timestamp);
+            }
+            break;
+        case DATE:
+            final Date date = new Date(primitiveValue);
+            for (final int index : indexes) {
+                statement.setDate(index, date);
+            }
+            break;
+        case NULL:
+            for (final int index : indexes) {
+                statement.setNull(index, (Integer) value);
+            }
+            break;
+        case DBNULL:
+            for (final int index : indexes) {
+                statement.setNull(index, Types.INTEGER);
+            }
+            break;
+        case CLOB:
+            final String text = (String) value;
+            for (final int index : indexes) {
+                statement.setCharacterStream(index, new StringReader(text), text.length());//NOPMD ejedmar 09.01.2012 creating StringReader in the loop is ok
+            }
+            break;
+        case LONG_LIST:
+            final long[] longs = (long[]) value;
+            if (longs.length == 0) {
+                bindEmptyList(statement, indexes, Types.BIGINT);
+                break;
+            }
+            final int longsExpandedSize = getExpandedListSize(indexes, longs.length);
+            for (int i = 0; i < indexes.length; i++) {
+                statement.setLong(indexes[i], longs[Math.min(i % longsExpandedSize, longs.length - 1)]);
+            }
+            break;
+        case STRING_LIST:
+            final String[] strings = (String[]) value;
+            if (strings.length == 0) {
+                bindEmptyList(statement, indexes, Types.VARCHAR);
+                break;
+            }
+            final int stringsExpandedSize = getExpandedListSize(indexes, strings.length);
+            for (int i = 0; i < indexes.length; i++) {
+                statement.setString(indexes[i], strings[Math.min(i % stringsExpandedSize, strings.length - 1)]);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    private static void bindEmptyList(final PreparedStatement statement, final int[] indexes, final int sqlType)
+            throws SQLException {
+        for (final int index : indexes) {
+            statement.setNull(index, sqlType);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the statement wasn't prepared from the query expanded for this list size
+     */
+    private int getExpandedListSize(final int[] indexes, final int listSize) {
+        final int expandedSize = getExpandedSize(listSize);
+        if (indexes.length % expandedSize != 0) {
+            throw new IllegalArgumentException(type + " parameter of " + listSize + " values needs IN lists of "
+                    + expandedSize + " parameters, but has " + indexes.length
+                    + " - the query must be expanded with ParsedQuery.expandListParameters()");
+        }
+        return expandedSize;
     }
 
     /**
      * Given a NamedParameterStatement insert named parameters 
-     * appropriately according to supported types. Default to object if type is not supported.
+     * appropriately according to supported types, through the query's ParameterBindingPlan.
+     * A mismatch between the parameters and the query's named parameters is logged once for each query.
      *  
      * @param stmt
      * @param parameters HashMap of named parameter and the corresponding QueryParameter (value & type)
@@ -85,42 +368,8 @@ public final class QueryParameter {
         if (parameters == null || parameters.isEmpty()) {
             return stmt; // nothing to do
         }
-        
-        if (stmt.getNumberOfParameters() != parameters.size()) {
-			ServicesLogger.warn(NamedParameterStatement.class.getName(),
-					"setParameters", "All parameters are not set");
-			ServicesLogger.info(NamedParameterStatement.class.getName(),
-					"NumberOfNamedParameters:", stmt.getNumberOfParameters());
-			ServicesLogger.info(NamedParameterStatement.class.getName(),
-					"NumberOfQueryParameters:", parameters.size());
-		}
-        for (final String keyParameterName : parameters.keySet()) {
-            final QueryParameter queryParameter = parameters.get(keyParameterName);
-            switch (queryParameter.type) {
-            case STRING:
-                stmt.setString(keyParameterName, (String) queryParameter.value);
-                break;
-            case LONG:
-                stmt.setLong(keyParameterName, (Long) queryParameter.value);
-                break;
-            case INT:
-                stmt.setInt(keyParameterName, (Integer) queryParameter.value);
-                break;
-
-            case NULL:
-                stmt.setNull(keyParameterName, (Integer) queryParameter.value);
-                break;
-            case DBNULL:
-                stmt.setDBNull(keyParameterName);
-                break;
-            case CLOB:
-                stmt.setClob(keyParameterName, (String) queryParameter.value);
-                break;
-            default:
-                throw new IllegalArgumentException("Unknown type " + queryParameter.type);
-            }
-        }
 
+        stmt.setParameters(parameters);
         return stmt;
     }
 
@@ -7,12 +7,15 @@ package com.ericsson.eniq.events.server.query;
 
 /**
  * Type of query parameter
+ * LONG_LIST and STRING_LIST are collection valued - each is expanded into an IN list of parameters
+ * (see ParsedQuery.expandListParameters())
+ * TIMESTAMP and DATE hold milliseconds since the epoch, and are bound with setTimestamp() and setDate()
  * 
  * @author EEMECOY
  *
  */
 public enum QueryParameterType {
 
-    STRING, LONG, INT, NULL, CLOB, DBNULL
+    STRING, LONG, INT, NULL, CLOB, DBNULL, LONG_LIST, STRING_LIST, TIMESTAMP, DATE
 
 }
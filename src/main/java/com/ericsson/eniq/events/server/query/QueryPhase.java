@@ -0,0 +1,83 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * Stages of a services request that are timed by the QueryTimings
+ *
+ * @author eemecoy
+ */
+public enum QueryPhase {
+
+    /**
+     * Rendering the query template (QueryGenerator.getQuery())
+     */
+    RENDER("render"),
+
+    /**
+     * Resolving the raw tables for the time range (TechPackListFactory)
+     */
+    RAW_TABLES("rawTables"),
+
+    /**
+     * Asking the ENIQ engine for the raw tables, over RMI
+     */
+    RAW_TABLES_ENGINE("engine"),
+
+    /**
+     * Falling back to SQL on the time range views for the raw tables
+     */
+    RAW_TABLES_SQL("sql"),
+
+    /**
+     * Waiting for the QueryAdmissionScheduler and the ConcurrencyLimiter
+     */
+    ADMISSION("admission"),
+
+    /**
+     * Getting a connection from the pool
+     */
+    CHECKOUT("checkout"),
+
+    /**
+     * Parsing the named parameters and binding their values
+     */
+    PREPARE("prepare"),
+
+    /**
+     * executeQuery() (or executeUpdate())
+     */
+    EXECUTE("execute"),
+
+    /**
+     * From executeQuery() returning to the first row being read by the transformer, timed by the LimitedResultSet
+     * that every read query's result set is wrapped in
+     */
+    FIRST_ROW("firstRow"),
+
+    /**
+     * Transforming the result sets
+     */
+    TRANSFORM("transform"),
+
+    /**
+     * Closing the result sets and statements, and returning the connections
+     */
+    CLOSE("close");
+
+    private final String label;
+
+    private QueryPhase(final String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return short name of the phase, used in the timing breakdown
+     */
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * Class of query and user of a services request, used by the QueryAdmissionScheduler to decide which queued query
+ * is run next
+ *
+ * The priority is set on the request thread in the same way as the QueryDeadline:
+ *
+ * <pre>
+ * QueryPriority.start(QueryClass.EXPORT);
+ * try {
+ *     ...
+ * } finally {
+ *     QueryPriority.clear();
+ * }
+ * </pre>
+ *
+ * Requests without a priority are given a class from the executor method called (EXPORT for streamData(),
+ * METADATA for the repdb, otherwise INTERACTIVE), and the principal of the EJB caller.
+ *
+ * @author eemecoy
+ */
+public final class QueryPriority {
+
+    private static final ThreadLocal<QueryPriority> CURRENT_PRIORITY = new ThreadLocal<QueryPriority>();
+
+    private final QueryClass queryClass;
+
+    private final String principal;
+
+    /**
+     * @param queryClass class of the request's queries, null for the executor's default
+     * @param principal  name of the user, null for the EJB caller
+     */
+    public QueryPriority(final QueryClass queryClass, final String principal) {
+        this.queryClass = queryClass;
+        this.principal = principal;
+    }
+
+    /**
+     * Set the class of the queries for the request being processed by the current thread
+     *
+     * @param queryClass class of the request's queries
+     * @return the priority
+     */
+    public static QueryPriority start(final QueryClass queryClass) {
+        return start(new QueryPriority(queryClass, null));
+    }
+
+    /**
+     * Set the priority for the request being processed by the current thread
+     *
+     * @param priority priority of the request
+     * @return the priority
+     */
+    public static QueryPriority start(final QueryPriority priority) {
+        CURRENT_PRIORITY.set(priority);
+        return priority;
+    }
+
+    /**
+     * @return the priority set for the request being processed by the current thread, or null if none
+     */
+    public static QueryPriority current() {
+        return CURRENT_PRIORITY.get();
+    }
+
+    /**
+     * Make the priority the current priority for this thread - used to carry a request's priority over to the
+     * thread that runs the request's queries
+     *
+     * @param priority priority of the request, may be null
+     */
+    static void setCurrent(final QueryPriority priority) {
+        if (priority == null) {
+            CURRENT_PRIORITY.remove();
+        } else {
+            CURRENT_PRIORITY.set(priority);
+        }
+    }
+
+    /**
+     * Clear the priority for the current thread
+     */
+    public static void clear() {
+        CURRENT_PRIORITY.remove();
+    }
+
+    public QueryClass getQueryClass() {
+        return queryClass;
+    }
+
+    public String getPrincipal() {
+        return principal;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPriority:" + queryClass + ":" + principal;
+    }
+}
@@ -0,0 +1,469 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * Cache of transformed query results, for queries over time ranges whose data will not change
+ * (see CacheableQuery)
+ *
+ * Results are keyed by the SQL, the parameter values and the transformer key, and are weighted by their estimated
+ * size in memory. The cache is split into segments, each with its own lock and its own share of the maximum
+ * weight; the least recently used results of a segment are evicted once the segment is over its weight. Each
+ * result expires after the time to live configured for its template.
+ *
+ * The hit ratio (overall and for each template), evictions and weight are shown over JMX as OBJECT_NAME.
+ *
+ * Cached results are shared by every request that gets them, so must not be modified by the caller - in practice
+ * the cache should only be used with transformers that produce Strings (such as the JSON transformers).
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class QueryResultCache {
+
+    static final String OBJECT_NAME = "com.ericsson.eniq.events.server.query:type=QueryResultCache";
+
+    static final int MAXIMUM_TEMPLATES = 1000;
+
+    private static final int NUMBER_OF_SEGMENTS = 16;
+
+    private static final long BYTES_IN_1_MEGABYTE = 1024L * 1024L;
+
+    private static final int OBJECT_OVERHEAD_IN_BYTES = 16;
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    private volatile Segment[] segments = new Segment[0];
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong openTimeRanges = new AtomicLong();
+
+    /**
+     * Hit and miss counts for each template - templates beyond MAXIMUM_TEMPLATES share otherTemplateCounts
+     */
+    private final ConcurrentMap<String, AtomicLong[]> hitsAndMissesByTemplate = new ConcurrentHashMap<String, AtomicLong[]>();
+
+    private final AtomicLong[] otherTemplateCounts = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+
+    private ObjectName objectName;
+
+    @PostConstruct
+    public void init() {
+        final long maximumWeight = queryExecutorConfiguration.getResultCacheSizeInMegabytes() * BYTES_IN_1_MEGABYTE;
+        final Segment[] newSegments = new Segment[maximumWeight > 0 ? NUMBER_OF_SEGMENTS : 0];
+        for (int i = 0; i < newSegments.length; i++) {
+            newSegments[i] = new Segment(maximumWeight / NUMBER_OF_SEGMENTS);
+        }
+        segments = newSegments;
+        try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeanServer.isRegistered(name)) {
+                //left behind by an earlier deployment
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(new CacheView(), name);
+            objectName = name;
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "init", "Query result cache not registered with JMX", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "destroy", e);
+        }
+        objectName = null;
+    }
+
+    public boolean isEnabled() {
+        return segments.length > 0;
+    }
+
+    /**
+     * @param cacheableQuery describes the query
+     * @return true if the query's result may be cached (the cache is enabled, and the time range is closed)
+     */
+    public boolean isCacheable(final CacheableQuery cacheableQuery) {
+        if (!isEnabled() || cacheableQuery == null) {
+            return false;
+        }
+        if (!cacheableQuery.isClosedTimeRange()) {
+            openTimeRanges.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the cached result, or null if there is no unexpired result for the key
+     */
+    public Object get(final ResultKey key, final CacheableQuery cacheableQuery) {
+        final Segment segment = segmentFor(key);
+        final Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && entry.hasExpired()) {
+                segment.removeEntry(key);
+            }
+        }
+        final AtomicLong[] templateCounts = countsFor(cacheableQuery.getTemplateName());
+        if (entry == null || entry.hasExpired()) {
+            misses.incrementAndGet();
+            templateCounts[1].incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        templateCounts[0].incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Cache the result - results too large for a segment of the cache are not cached
+     */
+    public void put(final ResultKey key, final CacheableQuery cacheableQuery, final Object result) {
+        final long timeToLiveInSeconds = queryExecutorConfiguration.getResultCacheTimeToLiveInSeconds(cacheableQuery
+                .getTemplateName());
+        if (timeToLiveInSeconds <= 0) {
+            return;
+        }
+        final Segment segment = segmentFor(key);
+        final long weight = key.weight + estimateWeight(result);
+        if (weight > segment.maximumWeight) {
+            return;
+        }
+        final Entry entry = new Entry(result, weight, System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(timeToLiveInSeconds));
+        synchronized (segment) {
+            segment.removeEntry(key);
+            segment.put(key, entry);
+            segment.weight += weight;
+            segment.evictToWeight();
+        }
+    }
+
+    public void clear() {
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of requests not cached because their time range wasn't fully loaded
+     */
+    public long getOpenTimeRangeCount() {
+        return openTimeRanges.get();
+    }
+
+    /**
+     * @return hits as a fraction of lookups, 0 if there have been no lookups
+     */
+    public double getHitRatio() {
+        final long hitCount = hits.get();
+        final long lookups = hitCount + misses.get();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * @param templateName name of the query template
+     * @return hits as a fraction of lookups for the template, 0 if there have been no lookups
+     */
+    public double getHitRatio(final String templateName) {
+        final AtomicLong[] templateCounts = countsFor(templateName);
+        final long hitCount = templateCounts[0].get();
+        final long lookups = hitCount + templateCounts[1].get();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * @return estimated size in bytes of the results held in the cache
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Key for a query result
+     *
+     * @param query        SQL query
+     * @param parameters   query parameters, may be null
+     * @param transformerKey identifies the transformer and its arguments
+     */
+    public static ResultKey createKey(final String query, final Map<String, QueryParameter> parameters,
+            final String transformerKey) {
+        return new ResultKey(query, parameters, transformerKey);
+    }
+
+    /**
+     * Rough estimate of the memory held by a transformed result - Strings (by far the most common result) are
+     * measured exactly, collections and maps by their contents
+     */
+    static long estimateWeight(final Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return OBJECT_OVERHEAD_IN_BYTES + 2L * ((String) value).length();
+        }
+        if (value instanceof Collection) {
+            long weight = OBJECT_OVERHEAD_IN_BYTES;
+            for (final Object element : (Collection<?>) value) {
+                weight += OBJECT_OVERHEAD_IN_BYTES + estimateWeight(element);
+            }
+            return weight;
+        }
+        if (value instanceof Map) {
+            long weight = OBJECT_OVERHEAD_IN_BYTES;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                weight += OBJECT_OVERHEAD_IN_BYTES + estimateWeight(entry.getKey()) + estimateWeight(entry.getValue());
+            }
+            return weight;
+        }
+        return OBJECT_OVERHEAD_IN_BYTES;
+    }
+
+    private Segment segmentFor(final ResultKey key) {
+        final Segment[] currentSegments = segments;
+        //spread the hash, as the results of one template differ only in their parameters
+        final int hash = key.hashCode ^ (key.hashCode >>> 16);
+        return currentSegments[hash & (currentSegments.length - 1)];
+    }
+
+    private AtomicLong[] countsFor(final String templateName) {
+        if (templateName == null) {
+            return otherTemplateCounts;
+        }
+        AtomicLong[] counts = hitsAndMissesByTemplate.get(templateName);
+        if (counts != null) {
+            return counts;
+        }
+        if (hitsAndMissesByTemplate.size() >= MAXIMUM_TEMPLATES) {
+            return otherTemplateCounts;
+        }
+        counts = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+        final AtomicLong[] existingCounts = hitsAndMissesByTemplate.putIfAbsent(templateName, counts);
+        return existingCounts == null ? counts : existingCounts;
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    /**
+     * The view registered with JMX - a separate class, so that the MXBean interface doesn't become a business
+     * interface of the EJB
+     */
+    private final class CacheView implements QueryResultCacheMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return QueryResultCache.this.isEnabled();
+        }
+
+        @Override
+        public long getHitCount() {
+            return QueryResultCache.this.getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return QueryResultCache.this.getMissCount();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return QueryResultCache.this.getEvictionCount();
+        }
+
+        @Override
+        public long getOpenTimeRangeCount() {
+            return QueryResultCache.this.getOpenTimeRangeCount();
+        }
+
+        @Override
+        public double getHitRatio() {
+            return QueryResultCache.this.getHitRatio();
+        }
+
+        @Override
+        public double getHitRatio(final String templateName) {
+            return QueryResultCache.this.getHitRatio(templateName);
+        }
+
+        @Override
+        public long getWeight() {
+            return QueryResultCache.this.getWeight();
+        }
+    }
+
+    /**
+     * SQL, parameter values and transformer key of a cached result
+     */
+    public static final class ResultKey {
+
+        private final String query;
+
+        private final Map<String, QueryParameter> parameters;
+
+        private final String transformerKey;
+
+        private final long fingerprint;
+
+        private final int hashCode;
+
+        private final long weight;
+
+        ResultKey(final String query, final Map<String, QueryParameter> parameters, final String transformerKey) {
+            this.query = query;
+            this.parameters = parameters == null ? new HashMap<String, QueryParameter>()
+                    : new HashMap<String, QueryParameter>(parameters);
+            this.transformerKey = transformerKey;
+            this.fingerprint = QueryFingerprint.of(query);
+            this.hashCode = 31 * (31 * (int) (fingerprint ^ (fingerprint >>> 32)) + this.parameters.hashCode())
+                    + (transformerKey == null ? 0 : transformerKey.hashCode());
+            this.weight = estimateWeight(query) + estimateWeight(transformerKey) + OBJECT_OVERHEAD_IN_BYTES
+                    * this.parameters.size() * 4;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ResultKey)) {
+                return false;
+            }
+            final ResultKey other = (ResultKey) obj;
+            return fingerprint == other.fingerprint && query.equals(other.query)
+                    && parameters.equals(other.parameters)
+                    && (transformerKey == null ? other.transformerKey == null : transformerKey
+                            .equals(other.transformerKey));
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+
+        private final long weight;
+
+        private final long expiryTimeInNanos;
+
+        Entry(final Object value, final long weight, final long expiryTimeInNanos) {
+            this.value = value;
+            this.weight = weight;
+            this.expiryTimeInNanos = expiryTimeInNanos;
+        }
+
+        boolean hasExpired() {
+            return System.nanoTime() - expiryTimeInNanos >= 0;
+        }
+    }
+
+    /**
+     * Access ordered map of results, with the total weight of the results it holds
+     * Not thread safe - callers synchronize on the segment
+     */
+    private final class Segment extends LinkedHashMap<ResultKey, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long maximumWeight;
+
+        private long weight;
+
+        Segment(final long maximumWeight) {
+            super(16, 0.75f, true);
+            this.maximumWeight = maximumWeight;
+        }
+
+        void removeEntry(final ResultKey key) {
+            final Entry removed = remove(key);
+            if (removed != null) {
+                weight -= removed.weight;
+            }
+        }
+
+        void evictToWeight() {
+            final Iterator<Entry> iterator = values().iterator();
+            while (weight > maximumWeight && iterator.hasNext()) {
+                final Entry eldest = iterator.next();
+                iterator.remove();
+                weight -= eldest.weight;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+}
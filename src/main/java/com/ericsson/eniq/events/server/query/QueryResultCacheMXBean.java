@@ -0,0 +1,43 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * JMX view of the QueryResultCache, registered as QueryResultCache.OBJECT_NAME
+ *
+ * @author eemecoy
+ */
+public interface QueryResultCacheMXBean {
+
+    boolean isEnabled();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    /**
+     * @return number of requests not cached because their time range wasn't fully loaded
+     */
+    long getOpenTimeRangeCount();
+
+    /**
+     * @return hits as a fraction of lookups, 0 if there have been no lookups
+     */
+    double getHitRatio();
+
+    /**
+     * @param templateName name of the query template
+     * @return hits as a fraction of lookups for the template, 0 if there have been no lookups
+     */
+    double getHitRatio(String templateName);
+
+    /**
+     * @return estimated size in bytes of the results held in the cache
+     */
+    long getWeight();
+}
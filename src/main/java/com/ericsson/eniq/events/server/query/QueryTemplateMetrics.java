@@ -0,0 +1,106 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Metrics for one query template run on one database, at the moment they were read, as shown over JMX
+ * (see QueryMetrics)
+ *
+ * @author eemecoy
+ */
+public final class QueryTemplateMetrics {
+
+    private final String template;
+
+    private final String target;
+
+    private final long failures;
+
+    private final long rowsFetched;
+
+    private final long bytesMaterialized;
+
+    private final LatencySummary checkout;
+
+    private final LatencySummary execution;
+
+    private final LatencySummary transformation;
+
+    private final LatencySummary total;
+
+    @ConstructorProperties({ "template", "target", "failures", "rowsFetched", "bytesMaterialized", "checkout",
+            "execution", "transformation", "total" })
+    public QueryTemplateMetrics(final String template, final String target, final long failures,
+            final long rowsFetched, final long bytesMaterialized, final LatencySummary checkout,
+            final LatencySummary execution, final LatencySummary transformation, final LatencySummary total) {
+        this.template = template;
+        this.target = target;
+        this.failures = failures;
+        this.rowsFetched = rowsFetched;
+        this.bytesMaterialized = bytesMaterialized;
+        this.checkout = checkout;
+        this.execution = execution;
+        this.transformation = transformation;
+        this.total = total;
+    }
+
+    /**
+     * @return the path of the template, the QueryFingerprint of the SQL as hex for a query not rendered from a known
+     * template, or "other" for templates over the maximum
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the database the template was run on - "repdb", or "dwh:" and the LoadBalancingPolicy
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getRowsFetched() {
+        return rowsFetched;
+    }
+
+    public long getBytesMaterialized() {
+        return bytesMaterialized;
+    }
+
+    /**
+     * @return time taken to get a connection from the pool
+     */
+    public LatencySummary getCheckout() {
+        return checkout;
+    }
+
+    /**
+     * @return time taken by executeQuery(), up to the first rows being available
+     */
+    public LatencySummary getExecution() {
+        return execution;
+    }
+
+    /**
+     * @return time taken by the transformer to read and transform the rows
+     */
+    public LatencySummary getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * @return time taken for the whole query, from asking for the connection to the result being transformed
+     */
+    public LatencySummary getTotal() {
+        return total;
+    }
+}
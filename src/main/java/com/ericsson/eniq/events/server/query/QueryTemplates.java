@@ -0,0 +1,97 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * The templates that the queries of the request being processed by the current thread were rendered from, so that
+ * the QueryMetrics can be kept per template rather than per SQL text - the SQL of one template differs for each set
+ * of raw partitions, IN list size and so on
+ *
+ * The QueryGenerator records the template of each query it renders, and the DataServiceQueryExecutor looks it up
+ * when it runs the query. Only the last MAXIMUM_QUERIES queries rendered on the thread are held (a request runs its
+ * queries soon after rendering them), and they are found by reference first, so the SQL isn't compared again when
+ * the caller passes the rendered String straight to the executor.
+ *
+ * As with the QueryTimings, the templates are carried over to the thread that runs an async query.
+ *
+ * @author eemecoy
+ */
+public final class QueryTemplates {
+
+    static final int MAXIMUM_QUERIES = 16;
+
+    private static final ThreadLocal<QueryTemplates> CURRENT_TEMPLATES = new ThreadLocal<QueryTemplates>() {
+        @Override
+        protected QueryTemplates initialValue() {
+            return new QueryTemplates();
+        }
+    };
+
+    private final String[] queries = new String[MAXIMUM_QUERIES];
+
+    private final String[] templates = new String[MAXIMUM_QUERIES];
+
+    private int next;
+
+    /**
+     * Record the template a query was rendered from, for the request being processed by the current thread
+     *
+     * @param query        rendered SQL
+     * @param templatePath path of the template the query was rendered from
+     */
+    public static void rendered(final String query, final String templatePath) {
+        if (query != null && templatePath != null) {
+            CURRENT_TEMPLATES.get().add(query, templatePath);
+        }
+    }
+
+    /**
+     * @param query SQL about to be run
+     * @return path of the template the query was rendered from on this thread, or null if it wasn't rendered from a
+     * template (or was rendered too long ago)
+     */
+    public static String templateOf(final String query) {
+        return query == null ? null : CURRENT_TEMPLATES.get().find(query);
+    }
+
+    /**
+     * @return the templates of this thread, to carry over to the thread that runs an async query
+     */
+    static QueryTemplates current() {
+        return CURRENT_TEMPLATES.get();
+    }
+
+    /**
+     * @param queryTemplates templates to make this thread's, null to give the thread its own again
+     */
+    static void setCurrent(final QueryTemplates queryTemplates) {
+        if (queryTemplates == null) {
+            CURRENT_TEMPLATES.remove();
+        } else {
+            CURRENT_TEMPLATES.set(queryTemplates);
+        }
+    }
+
+    private synchronized void add(final String query, final String templatePath) {
+        queries[next] = query;
+        templates[next] = templatePath;
+        next = (next + 1) % MAXIMUM_QUERIES;
+    }
+
+    private synchronized String find(final String query) {
+        for (int i = 0; i < MAXIMUM_QUERIES; i++) {
+            if (queries[i] == query) {
+                return templates[i];
+            }
+        }
+        for (int i = 0; i < MAXIMUM_QUERIES; i++) {
+            if (query.equals(queries[i])) {
+                return templates[i];
+            }
+        }
+        return null;
+    }
+}
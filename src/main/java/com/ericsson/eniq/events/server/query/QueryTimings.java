@@ -0,0 +1,301 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * Time taken by each stage (QueryPhase) of a services request, as nested spans timed with System.nanoTime()
+ *
+ * The timings are held per request thread in the same way as the QueryDeadline. The code that handles the request
+ * should start them when the request is received, so that template rendering and raw table resolution are
+ * included, and can then log the breakdown if the request was slow, or attach it to the response as the
+ * DEBUG_HEADER:
+ *
+ * <pre>
+ * final QueryTimings timings = QueryTimings.start();
+ * try {
+ *     ...
+ * } finally {
+ *     timings.logIfSlowerThan(thresholdInMillis, requestDescription);
+ *     QueryTimings.clear();
+ * }
+ * </pre>
+ *
+ * If the request has no timings when it reaches the DataServiceQueryExecutor, and
+ * ENIQ_EVENTS_QUERY_TIMING_LOG_THRESHOLD_MILLIS is set, the executor times its own part of the request, and logs
+ * the breakdown if it took longer than the threshold.
+ *
+ * Each stage is timed with:
+ *
+ * <pre>
+ * final int span = QueryTimings.begin(QueryPhase.EXECUTE);
+ * try {
+ *     ...
+ * } finally {
+ *     QueryTimings.end(span);
+ * }
+ * </pre>
+ *
+ * which does nothing (beyond reading the thread local) if the request isn't being timed. A span begun while another
+ * span is open on the same thread is nested inside it. The timings are carried over to the threads that run the
+ * request's queries, so spans can be recorded from more than one thread at once. Up to MAXIMUM_SPANS spans are kept
+ * for a request - further spans are only counted.
+ *
+ * The breakdown adds up the spans of each phase, for example
+ * "total=153.2ms render=2.1ms rawTables=40.3ms rawTables.engine=40.1ms checkout=1.2ms execute=80.2ms(x8) ..."
+ *
+ * @author eemecoy
+ */
+public final class QueryTimings {
+
+    /**
+     * Name of the response header the breakdown can be attached as, when debugging
+     */
+    public static final String DEBUG_HEADER = "X-ENIQ-Query-Timings";
+
+    /**
+     * Returned by begin() when the request isn't being timed
+     */
+    public static final int NO_SPAN = -1;
+
+    static final int MAXIMUM_SPANS = 256;
+
+    private static final ThreadLocal<QueryTimings> CURRENT_TIMINGS = new ThreadLocal<QueryTimings>();
+
+    private static final double NANOS_IN_1_MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long startTime = System.nanoTime();
+
+    private static final int INITIAL_SPANS = 16;
+
+    private QueryPhase[] phases = new QueryPhase[INITIAL_SPANS];
+
+    private int[] parents = new int[INITIAL_SPANS];
+
+    private long[] threadIds = new long[INITIAL_SPANS];
+
+    private long[] startTimes = new long[INITIAL_SPANS];
+
+    private long[] endTimes = new long[INITIAL_SPANS];
+
+    private boolean[] ended = new boolean[INITIAL_SPANS];
+
+    private int numberOfSpans;
+
+    private int droppedSpans;
+
+    /**
+     * Start timing the request being processed by the current thread
+     *
+     * @return the timings
+     */
+    public static QueryTimings start() {
+        final QueryTimings timings = new QueryTimings();
+        CURRENT_TIMINGS.set(timings);
+        return timings;
+    }
+
+    /**
+     * @return the timings of the request being processed by the current thread, or null if it isn't being timed
+     */
+    public static QueryTimings current() {
+        return CURRENT_TIMINGS.get();
+    }
+
+    /**
+     * Make the timings the current timings for this thread - used to carry a request's timings over to the threads
+     * that run the request's queries
+     *
+     * @param timings timings of the request, may be null
+     */
+    static void setCurrent(final QueryTimings timings) {
+        if (timings == null) {
+            CURRENT_TIMINGS.remove();
+        } else {
+            CURRENT_TIMINGS.set(timings);
+        }
+    }
+
+    /**
+     * Stop timing the request being processed by the current thread
+     */
+    public static void clear() {
+        CURRENT_TIMINGS.remove();
+    }
+
+    /**
+     * Begin a span for the request being processed by the current thread
+     *
+     * @param phase stage of the request
+     * @return the span, to pass to end(), or NO_SPAN if the request isn't being timed
+     */
+    public static int begin(final QueryPhase phase) {
+        final QueryTimings timings = CURRENT_TIMINGS.get();
+        return timings == null ? NO_SPAN : timings.addSpan(phase, System.nanoTime(), false, 0);
+    }
+
+    /**
+     * @param span span returned by begin(), may be NO_SPAN
+     */
+    public static void end(final int span) {
+        if (span == NO_SPAN) {
+            return;
+        }
+        final QueryTimings timings = CURRENT_TIMINGS.get();
+        if (timings != null) {
+            timings.endSpan(span, System.nanoTime());
+        }
+    }
+
+    /**
+     * Record a span that has already ended, timed by the caller
+     *
+     * @param phase       stage of the request
+     * @param startTime   System.nanoTime() at the start of the stage
+     * @param endTime     System.nanoTime() at the end of the stage
+     */
+    public static void record(final QueryPhase phase, final long startTime, final long endTime) {
+        final QueryTimings timings = CURRENT_TIMINGS.get();
+        if (timings != null) {
+            timings.addSpan(phase, startTime, true, endTime);
+        }
+    }
+
+    private synchronized int addSpan(final QueryPhase phase, final long spanStartTime, final boolean hasEnded,
+            final long spanEndTime) {
+        if (numberOfSpans == MAXIMUM_SPANS) {
+            droppedSpans++;
+            return NO_SPAN;
+        }
+        if (numberOfSpans == phases.length) {
+            grow();
+        }
+        final long threadId = Thread.currentThread().getId();
+        final int span = numberOfSpans++;
+        phases[span] = phase;
+        parents[span] = findOpenSpan(threadId, span);
+        threadIds[span] = threadId;
+        startTimes[span] = spanStartTime;
+        endTimes[span] = spanEndTime;
+        ended[span] = hasEnded;
+        return span;
+    }
+
+    private void grow() {
+        final int capacity = Math.min(phases.length * 2, MAXIMUM_SPANS);
+        phases = Arrays.copyOf(phases, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        threadIds = Arrays.copyOf(threadIds, capacity);
+        startTimes = Arrays.copyOf(startTimes, capacity);
+        endTimes = Arrays.copyOf(endTimes, capacity);
+        ended = Arrays.copyOf(ended, capacity);
+    }
+
+    /**
+     * @return the innermost span still open on the thread, or NO_SPAN
+     */
+    private int findOpenSpan(final long threadId, final int before) {
+        for (int i = before - 1; i >= 0; i--) {
+            if (!ended[i] && threadIds[i] == threadId) {
+                return i;
+            }
+        }
+        return NO_SPAN;
+    }
+
+    private synchronized void endSpan(final int span, final long spanEndTime) {
+        if (span < numberOfSpans && !ended[span]) {
+            endTimes[span] = spanEndTime;
+            ended[span] = true;
+        }
+    }
+
+    /**
+     * @return time since the timings were started
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * @param phase stage of the request
+     * @return total time of all of the spans of the phase (spans still open are counted up to now)
+     */
+    public synchronized long getNanos(final QueryPhase phase) {
+        final long now = System.nanoTime();
+        long nanos = 0;
+        for (int i = 0; i < numberOfSpans; i++) {
+            if (phases[i] == phase) {
+                nanos += (ended[i] ? endTimes[i] : now) - startTimes[i];
+            }
+        }
+        return nanos;
+    }
+
+    /**
+     * @return compact breakdown of the time taken by each phase, for logging or the DEBUG_HEADER
+     */
+    public synchronized String getBreakdown() {
+        final long now = System.nanoTime();
+        final Map<String, long[]> nanosAndCountByPath = new LinkedHashMap<String, long[]>();
+        final String[] paths = new String[numberOfSpans];
+        for (int i = 0; i < numberOfSpans; i++) {
+            final String label = phases[i].getLabel();
+            paths[i] = parents[i] == NO_SPAN ? label : paths[parents[i]] + "." + label;
+            long[] nanosAndCount = nanosAndCountByPath.get(paths[i]);
+            if (nanosAndCount == null) {
+                nanosAndCount = new long[2];
+                nanosAndCountByPath.put(paths[i], nanosAndCount);
+            }
+            nanosAndCount[0] += (ended[i] ? endTimes[i] : now) - startTimes[i];
+            nanosAndCount[1]++;
+        }
+        final StringBuilder breakdown = new StringBuilder(32 + nanosAndCountByPath.size() * 24);
+        appendMillis(breakdown.append("total="), now - startTime);
+        for (final Map.Entry<String, long[]> entry : nanosAndCountByPath.entrySet()) {
+            appendMillis(breakdown.append(' ').append(entry.getKey()).append('='), entry.getValue()[0]);
+            if (entry.getValue()[1] > 1) {
+                breakdown.append("(x").append(entry.getValue()[1]).append(')');
+            }
+        }
+        if (droppedSpans > 0) {
+            breakdown.append(" dropped=").append(droppedSpans);
+        }
+        return breakdown.toString();
+    }
+
+    private static void appendMillis(final StringBuilder builder, final long nanos) {
+        final long tenthsOfMillis = Math.round(nanos / NANOS_IN_1_MILLISECOND * 10);
+        builder.append(tenthsOfMillis / 10).append('.').append(tenthsOfMillis % 10).append("ms");
+    }
+
+    /**
+     * Log the breakdown if the request has taken longer than the threshold
+     *
+     * @param thresholdInMillis threshold, 0 or less to never log
+     * @param description       description of the request for the log, for example its request id
+     * @return true if the breakdown was logged
+     */
+    public boolean logIfSlowerThan(final long thresholdInMillis, final String description) {
+        if (thresholdInMillis <= 0 || getElapsedNanos() <= TimeUnit.MILLISECONDS.toNanos(thresholdInMillis)) {
+            return false;
+        }
+        ServicesLogger.info(getClass().getName(), "logIfSlowerThan", "Slow request " + description + ": "
+                + getBreakdown());
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return getBreakdown();
+    }
+}
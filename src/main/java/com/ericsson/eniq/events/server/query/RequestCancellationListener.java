@@ -0,0 +1,22 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+/**
+ * Told when a request is cancelled through the RequestIdMappingService
+ * Used by requests that don't run statements of their own (see QueryCoalescer)
+ *
+ * @author eemecoy
+ */
+public interface RequestCancellationListener {
+
+    /**
+     * Called on the thread cancelling the request, so must not block
+     *
+     * @param requestID request that has been cancelled
+     */
+    void requestCancelled(String requestID);
+}
@@ -8,21 +8,27 @@ package com.ericsson.eniq.events.server.query;
 
 import static com.ericsson.eniq.events.server.common.ApplicationConstants.*;
 
-import java.util.Calendar;
-import java.util.Map;
-import java.util.Set;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.EJB;
-import javax.ejb.Lock;
-import javax.ejb.LockType;
+import javax.ejb.Schedule;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
 import com.ericsson.eniq.events.server.utils.config.ApplicationConfigManager;
 
 /**
@@ -31,27 +37,40 @@ import com.ericsson.eniq.events.server.utils.config.ApplicationConfigManager;
  * services, and stored to cancel the DB request for a particular request ID
  * Class also provides access methods for this map
  *
+ * A request may run several statements (one after another, or in parallel), so all of the statements put for a
+ * request id are kept, and cancel() cancels them together. Threads that need to know when a request has finished
+ * (for example, after cancelling it) can wait with awaitCompletion().
+ * A request that shares a statement run for another request id registers a RequestCancellationListener instead,
+ * which is told when the request is cancelled.
+ *
+ * All state is held in concurrent collections, so the bean uses bean managed concurrency and no method blocks
+ * another.
+ *
  * @author echchik
  */
 
 @Singleton
 @Startup
-@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
-@Lock(LockType.WRITE)
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class RequestIdMappingService {
 
     /**
-     * Map of Request Id values to prepared statement execution object
+     * Map of Request Id values to the statements being run for the request
      */
-    private final Map<String, NamedParameterStatement> requestIdMappings = new ConcurrentHashMap<String, NamedParameterStatement>();
+    private final ConcurrentMap<String, ActiveRequest> requestIdMappings = new ConcurrentHashMap<String, ActiveRequest>();
 
     /**
      * List of request ID that has no preparedstatement value when the
      * cancel request was received
      */
-    private final Map<String, Long> failedCancelReqId = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, FailedCancelTombstone> failedCancelReqId = new ConcurrentHashMap<String, FailedCancelTombstone>();
+
+    /**
+     * The failed cancel request ids in order of expiry - expired entries are removed by expireFailedCancelReqIds()
+     */
+    private final DelayQueue<FailedCancelTombstone> failedCancelExpiryQueue = new DelayQueue<FailedCancelTombstone>();
 
-    private long timeOutInMillis;
+    private long timeOutInNanos;
 
     @EJB
     private ApplicationConfigManager applicationManager;
@@ -63,89 +82,211 @@ public class RequestIdMappingService {
     @PostConstruct
     public void getTimeOutInMillis() {
         final long timeOutInMin = applicationManager.getCancelRequestTimeOut();
-        timeOutInMillis = timeOutInMin * SECONDS_IN_1_MIN * MILLISECOND_IN_1_SECOND;
+        timeOutInNanos = TimeUnit.MILLISECONDS.toNanos(timeOutInMin * SECONDS_IN_1_MIN * MILLISECOND_IN_1_SECOND);
     }
 
     @PreDestroy
     public void clearMap() {
-        requestIdMappings.clear();
+        for (final String requestID : requestIdMappings.keySet()) {
+            remove(requestID);
+        }
     }
 
     /*
      * This method returns
-     * true : if requestID exist in the requestIdMappings map
+     * true : if requestID exist in the requestIdMappings map, and the request hasn't been cancelled
      */
     public boolean containsKey(final String requestID) {
         if (requestID == null) {
             return false;
         }
-        return requestIdMappings.containsKey(requestID);
+        final ActiveRequest activeRequest = requestIdMappings.get(requestID);
+        return activeRequest != null && !activeRequest.cancelled;
     }
 
     /*
-     * Removes the requestID entry from the requestIdMappings map
+     * Removes the requestID entry from the requestIdMappings map, and signals any threads waiting for the request to
+     * complete
      */
     public void remove(final String requestID) {
         if (requestID == null) {
             return;
         }
-        synchronized (requestIdMappings) {
-            requestIdMappings.remove(requestID);
-            requestIdMappings.notifyAll();
+        final ActiveRequest activeRequest = requestIdMappings.remove(requestID);
+        if (activeRequest != null) {
+            activeRequest.completed.countDown();
         }
-
     }
 
     /*
      * return true if requestIdMappings map is empty else false
      */
-    @Lock(LockType.READ)
     public boolean isEmpty() {
         return requestIdMappings.isEmpty();
     }
 
     /*
-     * Adds the entry into requestIdMappings map with key as requestID and
-     * value as pstmt
+     * Adds pstmt to the statements for requestID
+     * If the request has already been cancelled, the statement is cancelled straight away
      */
     public boolean put(final String requestID, final NamedParameterStatement pstmt) {
         if (requestID == null || pstmt == null) {
             return false;
         }
-        requestIdMappings.put(requestID, pstmt);
+        final ActiveRequest activeRequest = getOrCreateActiveRequest(requestID);
+        activeRequest.statements.add(pstmt);
+        if (activeRequest.cancelled) {
+            cancelStatement(pstmt);
+        }
         return true;
     }
 
     /*
-     * returns the NamedParameterStatement corresponding to requestID
+     * Removes pstmt from the statements for requestID, once it has finished and is about to be closed, while the
+     * request goes on to run other statements
+     */
+    public void removeStatement(final String requestID, final NamedParameterStatement pstmt) {
+        if (requestID == null || pstmt == null) {
+            return;
+        }
+        final ActiveRequest activeRequest = requestIdMappings.get(requestID);
+        if (activeRequest != null) {
+            activeRequest.statements.remove(pstmt);
+        }
+    }
+
+    /**
+     * Add a listener to be told when requestID is cancelled
+     * If the request has already been cancelled, the listener is told straight away
+     *
+     * @param requestID request to listen for
+     * @param listener  listener to add
+     * @return true if the listener was added
+     */
+    public boolean addCancellationListener(final String requestID, final RequestCancellationListener listener) {
+        if (requestID == null || listener == null) {
+            return false;
+        }
+        final ActiveRequest activeRequest = getOrCreateActiveRequest(requestID);
+        activeRequest.listeners.add(listener);
+        if (activeRequest.cancelled) {
+            listener.requestCancelled(requestID);
+        }
+        return true;
+    }
+
+    /*
+     * returns the most recent NamedParameterStatement put for requestID
      * null if requestID key does not exists in the requestIdMappings map
+     * Use cancel() to cancel all of the statements for a request
      */
     public NamedParameterStatement get(final String requestID) {
         if (requestID == null) {
             return null;
         }
-        synchronized (requestIdMappings) {
-            try {
-                return requestIdMappings.get(requestID);
-            } finally {
-                requestIdMappings.notifyAll();
-            }
+        final ActiveRequest activeRequest = requestIdMappings.get(requestID);
+        if (activeRequest == null) {
+            return null;
+        }
+        final List<NamedParameterStatement> statements = activeRequest.statements;
+        final int numberOfStatements = statements.size();
+        return numberOfStatements == 0 ? null : statements.get(numberOfStatements - 1);
+    }
+
+    private ActiveRequest getOrCreateActiveRequest(final String requestID) {
+        final ActiveRequest activeRequest = requestIdMappings.get(requestID);
+        if (activeRequest != null) {
+            return activeRequest;
         }
+        final ActiveRequest newRequest = new ActiveRequest();
+        final ActiveRequest existingRequest = requestIdMappings.putIfAbsent(requestID, newRequest);
+        return existingRequest == null ? newRequest : existingRequest;
     }
 
     /*
-     * Checks if any entry exists in failedCancelReqId map for requestID key
+     * returns all of the statements put for requestID, empty if none
+     */
+    public List<NamedParameterStatement> getStatements(final String requestID) {
+        if (requestID == null) {
+            return Collections.emptyList();
+        }
+        final ActiveRequest activeRequest = requestIdMappings.get(requestID);
+        if (activeRequest == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(activeRequest.statements);
+    }
+
+    /**
+     * Cancel every statement being run for the request, and tell the request's cancellation listeners
+     * If neither a statement nor a listener has been put for the request yet, the request id is added to the failed cancel list, so the
+     * request's query is never run
+     *
+     * @param requestID request to cancel
+     * @return true if the request was running and its statements were cancelled, false if it wasn't running
+     */
+    public boolean cancel(final String requestID) {
+        if (requestID == null) {
+            return false;
+        }
+        final ActiveRequest activeRequest = requestIdMappings.get(requestID);
+        if (activeRequest == null) {
+            addFailedCancelReqId(requestID);
+            return false;
+        }
+        activeRequest.cancelled = true;
+        for (final NamedParameterStatement pstmt : activeRequest.statements) {
+            cancelStatement(pstmt);
+        }
+        for (final RequestCancellationListener listener : activeRequest.listeners) {
+            listener.requestCancelled(requestID);
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the request to complete (that is, for the request id to be removed)
+     *
+     * @param requestID request to wait for
+     * @param timeout   maximum time to wait
+     * @param unit      unit of timeout
+     * @return true if the request has completed, false if the timeout passed first
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public boolean awaitCompletion(final String requestID, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        if (requestID == null) {
+            return true;
+        }
+        final ActiveRequest activeRequest = requestIdMappings.get(requestID);
+        if (activeRequest == null) {
+            return true;
+        }
+        return activeRequest.completed.await(timeout, unit);
+    }
+
+    private void cancelStatement(final NamedParameterStatement pstmt) {
+        try {
+            pstmt.cancelExecution();
+        } catch (final SQLException e) {
+            ServicesLogger.warn(getClass().getName(), "cancel", e);
+        }
+    }
+
+    /*
+     * Checks if an unexpired entry exists in failedCancelReqId map for requestID key
      */
     public boolean isCancelFailedForReqId(final String requestID) {
         if (requestID == null) {
             return false;
         }
-        return failedCancelReqId.containsKey(requestID);
+        final FailedCancelTombstone tombstone = failedCancelReqId.get(requestID);
+        return tombstone != null && tombstone.getDelay(TimeUnit.NANOSECONDS) > 0;
     }
 
     /**
-     * Adds the entry into failedCancelReqId map with key as requestID and
-     * value as present time in millisecond
+     * Adds the entry into failedCancelReqId map with key as requestID, to
+     * expire once the cancel request time out has passed
      *
      * @param requestId corresponds to this request for cancelling later
      */
@@ -153,10 +294,10 @@ public class RequestIdMappingService {
         if (requestID == null) {
             return;
         }
-        synchronized (failedCancelReqId) {
-            removeOldEntries();
-            failedCancelReqId.put(requestID, Calendar.getInstance().getTimeInMillis());
-        }
+        final FailedCancelTombstone tombstone = new FailedCancelTombstone(requestID, System.nanoTime()
+                + timeOutInNanos);
+        failedCancelReqId.put(requestID, tombstone);
+        failedCancelExpiryQueue.add(tombstone);
     }
 
     /**
@@ -168,30 +309,77 @@ public class RequestIdMappingService {
         if (requestID == null) {
             return;
         }
-        synchronized (failedCancelReqId) {
-            failedCancelReqId.remove(requestID);
-        }
+        failedCancelReqId.remove(requestID);
     }
 
-    /*
-     * This method is used to remove old entries greater that twice the cancel
-     * request time out parameter
+    /**
+     * Remove the failed cancel request ids that have passed the cancel request time out
+     * Run by the timer service, so the request threads never pay for the expiry
      */
-    private void removeOldEntries() {
-        final long currentTimeInMillis = Calendar.getInstance().getTimeInMillis();
-        final Set<String> allCancelFailedReqId = failedCancelReqId.keySet();
-        for (final String requestId : allCancelFailedReqId) {
-            final long cancelFailedTimeInMillis = failedCancelReqId.get(requestId);
-            if (currentTimeInMillis - cancelFailedTimeInMillis >= timeOutInMillis) {
-                failedCancelReqId.remove(requestId);
-            }
+    @Schedule(second = "*/10", minute = "*", hour = "*", persistent = false)
+    public void expireFailedCancelReqIds() {
+        FailedCancelTombstone tombstone = failedCancelExpiryQueue.poll();
+        while (tombstone != null) {
+            //only remove the entry if it hasn't been replaced by a later cancel for the same request id
+            failedCancelReqId.remove(tombstone.requestID, tombstone);
+            tombstone = failedCancelExpiryQueue.poll();
         }
     }
 
+    /**
+     * for junit test case
+     *
+     * @param timeOut time for which a failed cancel request id is retained
+     * @param unit unit of timeOut
+     */
+    void setFailedCancelTimeOut(final long timeOut, final TimeUnit unit) {
+        timeOutInNanos = unit.toNanos(timeOut);
+    }
+
     /**
      * @param applicationManager the applicationManager to set
      */
     public void setApplicationManager(final ApplicationConfigManager applicationManager) {
         this.applicationManager = applicationManager;
     }
-}
\ No newline at end of file
+
+    /**
+     * Entry in the failed cancel list, that expires at expiryTimeInNanos (a System.nanoTime() value)
+     */
+    private static final class FailedCancelTombstone implements Delayed {
+
+        private final String requestID;
+
+        private final long expiryTimeInNanos;
+
+        FailedCancelTombstone(final String requestID, final long expiryTimeInNanos) {
+            this.requestID = requestID;
+            this.expiryTimeInNanos = expiryTimeInNanos;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(expiryTimeInNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            final long difference = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Statements being run for one request id, and the listeners to tell if it is cancelled
+     */
+    private static final class ActiveRequest {
+
+        private final List<NamedParameterStatement> statements = new CopyOnWriteArrayList<NamedParameterStatement>();
+
+        private final List<RequestCancellationListener> listeners = new CopyOnWriteArrayList<RequestCancellationListener>();
+
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        private volatile boolean cancelled;
+    }
+}
@@ -7,6 +7,7 @@ package com.ericsson.eniq.events.server.query;
 
 import static com.ericsson.eniq.events.server.common.ApplicationConstants.*;
 
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
@@ -58,9 +59,23 @@ public class SQLQueryLogger {
 
     private Object formatParameterValue(final QueryParameter queryParameter) {
         final Object parameterValue = queryParameter.getValue();
-        if (queryParameter.getType().equals(QueryParameterType.STRING)) {
+        if (queryParameter.getType().equals(QueryParameterType.STRING)
+                || queryParameter.getType().equals(QueryParameterType.TIMESTAMP)
+                || queryParameter.getType().equals(QueryParameterType.DATE)) {
             return SINGLE_QUOTE + parameterValue + SINGLE_QUOTE;
         }
+        if (queryParameter.isList()) {
+            //the values of the IN list, e.g. 1, 2, 3 or 'a', 'b', 'c'
+            final boolean quoted = queryParameter.getType().equals(QueryParameterType.STRING_LIST);
+            final StringBuilder values = new StringBuilder();
+            for (final Object value : (List<?>) parameterValue) {
+                if (values.length() > 0) {
+                    values.append(", ");
+                }
+                values.append(quoted ? SINGLE_QUOTE + value + SINGLE_QUOTE : value);
+            }
+            return values.length() == 0 ? "NULL" : values.toString();
+        }
         return parameterValue;
     }
 
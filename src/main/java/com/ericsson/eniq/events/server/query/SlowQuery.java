@@ -0,0 +1,153 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.beans.ConstructorProperties;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A query kept in the SlowQueryLog, as shown over JMX
+ * All times are in milliseconds
+ *
+ * @author eemecoy
+ */
+public final class SlowQuery {
+
+    private static final String TIME_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    private final long completedTime;
+
+    private final String requestId;
+
+    private final String target;
+
+    private final String sql;
+
+    private final long totalInMillis;
+
+    private final long checkoutInMillis;
+
+    private final long executionInMillis;
+
+    private final long rows;
+
+    private final boolean sampled;
+
+    private final String failure;
+
+    private final String timings;
+
+    @ConstructorProperties({ "completedTime", "requestId", "target", "sql", "totalInMillis", "checkoutInMillis",
+            "executionInMillis", "rows", "sampled", "failure", "timings" })
+    public SlowQuery(final long completedTime, final String requestId, final String target, final String sql,
+            final long totalInMillis, final long checkoutInMillis, final long executionInMillis, final long rows,
+            final boolean sampled, final String failure, final String timings) {
+        this.completedTime = completedTime;
+        this.requestId = requestId;
+        this.target = target;
+        this.sql = sql;
+        this.totalInMillis = totalInMillis;
+        this.checkoutInMillis = checkoutInMillis;
+        this.executionInMillis = executionInMillis;
+        this.rows = rows;
+        this.sampled = sampled;
+        this.failure = failure;
+        this.timings = timings;
+    }
+
+    /**
+     * @return System.currentTimeMillis() when the query completed (or failed)
+     */
+    public long getCompletedTime() {
+        return completedTime;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return the database the query was run on - "repdb", or "dwh:" and the LoadBalancingPolicy
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the query, with the values of its parameters injected as for SQLQueryLogger
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return time from asking for a connection until the result was transformed (or, for queries whose result
+     * sets are transformed together, until the query was executed)
+     */
+    public long getTotalInMillis() {
+        return totalInMillis;
+    }
+
+    public long getCheckoutInMillis() {
+        return checkoutInMillis;
+    }
+
+    public long getExecutionInMillis() {
+        return executionInMillis;
+    }
+
+    /**
+     * @return rows read from the result set, or -1 if not known
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return true if the query was kept as a sample, rather than for being over the threshold
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return the exception the query failed with, or null if it completed
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the QueryTimings breakdown of the request so far, or null if the request wasn't being timed
+     */
+    public String getTimings() {
+        return timings;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder text = new StringBuilder();
+        text.append(new SimpleDateFormat(TIME_FORMAT).format(new Date(completedTime)));
+        text.append(" requestId=").append(requestId);
+        text.append(" target=").append(target);
+        text.append(" total=").append(totalInMillis).append("ms");
+        text.append(" checkout=").append(checkoutInMillis).append("ms");
+        text.append(" execution=").append(executionInMillis).append("ms");
+        text.append(" rows=").append(rows);
+        if (sampled) {
+            text.append(" sampled");
+        }
+        if (failure != null) {
+            text.append(" failure=").append(failure);
+        }
+        if (timings != null) {
+            text.append(" timings=[").append(timings).append(']');
+        }
+        text.append('\n').append(sql);
+        return text.toString();
+    }
+}
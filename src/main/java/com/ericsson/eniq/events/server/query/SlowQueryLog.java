@@ -0,0 +1,286 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ericsson.eniq.events.server.logging.ServicesLogger;
+
+/**
+ * The most recent queries that took longer than the configured threshold, with their parameters injected, so that
+ * a slow query reported by an operator can be found without raising the log level to FINE (which SQLQueryLogger
+ * needs) and waiting for it to happen again
+ *
+ * The queries are held in a ring buffer of the configured size, shown over JMX as OBJECT_NAME, where they can be
+ * read or dumped to a file. One in ENIQ_EVENTS_SLOW_QUERY_LOG_SAMPLE_ONE_IN of the other queries can be kept as
+ * well, to compare against.
+ *
+ * Queries under the threshold that aren't sampled cost a comparison - the SQL is only rendered for the queries
+ * kept.
+ *
+ * @author eemecoy
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SlowQueryLog {
+
+    static final String OBJECT_NAME = "com.ericsson.eniq.events.server.query:type=SlowQueryLog";
+
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
+    private volatile AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<Slot>(0);
+
+    private volatile int thresholdInMillis;
+
+    private volatile long thresholdInNanos;
+
+    private volatile int sampleOneIn;
+
+    private final AtomicLong recorded = new AtomicLong();
+
+    private final AtomicLong unsampled = new AtomicLong();
+
+    private ObjectName objectName;
+
+    @PostConstruct
+    public void init() {
+        slots = new AtomicReferenceArray<Slot>(queryExecutorConfiguration.getSlowQueryLogSize());
+        thresholdInMillis = queryExecutorConfiguration.getSlowQueryLogThresholdInMillis();
+        thresholdInNanos = TimeUnit.MILLISECONDS.toNanos(thresholdInMillis);
+        sampleOneIn = queryExecutorConfiguration.getSlowQueryLogSampleOneIn();
+        recorded.set(0);
+        if (slots.length() == 0) {
+            return;
+        }
+        try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeanServer.isRegistered(name)) {
+                //left behind by an earlier deployment
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(new LogView(), name);
+            objectName = name;
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "init", "Slow query log not registered with JMX", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            ServicesLogger.warn(getClass().getName(), "destroy", e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Keep the query if it was slow, or is sampled
+     *
+     * @param requestID         request id of the query
+     * @param query             SQL query, with :parameterName place holders
+     * @param parameters        query parameters, may be null
+     * @param target            database the query was run on (see QueryMetrics.metricsFor())
+     * @param checkoutInNanos   time taken to get a connection from the pool
+     * @param executionInNanos  time taken by executeQuery()
+     * @param totalInNanos      time taken for the whole query
+     * @param rows              rows read (see QueryMetrics.getRows()), or -1 if not known
+     * @param failure           exception the query failed with, or null if it completed
+     */
+    public void record(final String requestID, final String query, final Map<String, QueryParameter> parameters,
+            final Object target, final long checkoutInNanos, final long executionInNanos, final long totalInNanos,
+            final long rows, final Throwable failure) {
+        final AtomicReferenceArray<Slot> currentSlots = slots;
+        if (currentSlots.length() == 0) {
+            return;
+        }
+        final boolean slow = thresholdInNanos > 0 && totalInNanos >= thresholdInNanos;
+        if (!slow && !isSampled()) {
+            return;
+        }
+        try {
+            final QueryTimings timings = QueryTimings.current();
+            final SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(), requestID,
+                    QueryMetrics.getTargetName(target), render(query, parameters), toMillis(totalInNanos),
+                    toMillis(checkoutInNanos), toMillis(executionInNanos), rows, !slow, failure == null ? null
+                            : failure.toString(), timings == null ? null : timings.getBreakdown());
+            final long sequence = recorded.getAndIncrement();
+            currentSlots.set((int) (sequence % currentSlots.length()), new Slot(sequence, slowQuery));
+        } catch (final RuntimeException e) {
+            //never fail the query for the sake of the log
+            ServicesLogger.warn(getClass().getName(), "record", e);
+        }
+    }
+
+    private boolean isSampled() {
+        final int oneIn = sampleOneIn;
+        return oneIn > 0 && unsampled.incrementAndGet() % oneIn == 0;
+    }
+
+    private static String render(final String query, final Map<String, QueryParameter> parameters) {
+        if (parameters == null) {
+            return query;
+        }
+        return new SQLQueryLogger().injectQueryParameters(query, parameters);
+    }
+
+    private static long toMillis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    public int getThresholdInMillis() {
+        return thresholdInMillis;
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    /**
+     * @return the queries held, newest first
+     */
+    public List<SlowQuery> getSlowQueries() {
+        final AtomicReferenceArray<Slot> currentSlots = slots;
+        final List<SlowQuery> slowQueries = new ArrayList<SlowQuery>();
+        final long newest = recorded.get() - 1;
+        final long oldest = Math.max(0, newest - currentSlots.length() + 1);
+        for (long sequence = newest; sequence >= oldest; sequence--) {
+            final Slot slot = currentSlots.get((int) (sequence % currentSlots.length()));
+            //skip slots already overwritten, or not yet written, by another thread
+            if (slot != null && slot.sequence == sequence) {
+                slowQueries.add(slot.slowQuery);
+            }
+        }
+        return slowQueries;
+    }
+
+    /**
+     * @param writer writer to write the queries held to, oldest first - flushed but not closed
+     * @return number of queries written
+     */
+    public int dump(final Writer writer) throws IOException {
+        final List<SlowQuery> slowQueries = getSlowQueries();
+        Collections.reverse(slowQueries);
+        for (final SlowQuery slowQuery : slowQueries) {
+            writer.write(slowQuery.toString());
+            writer.write("\n\n");
+        }
+        writer.flush();
+        return slowQueries.size();
+    }
+
+    /**
+     * @param fileName file to write the queries held to, replaced if it exists
+     * @return number of queries written
+     */
+    public int dumpToFile(final String fileName) throws IOException {
+        final Writer writer = new BufferedWriter(new FileWriter(fileName));
+        try {
+            return dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void clear() {
+        final AtomicReferenceArray<Slot> currentSlots = slots;
+        for (int i = 0; i < currentSlots.length(); i++) {
+            currentSlots.set(i, null);
+        }
+        recorded.set(0);
+    }
+
+    /**
+     * for junit test case
+     *
+     * @param queryExecutorConfiguration the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
+
+    private static final class Slot {
+
+        private final long sequence;
+
+        private final SlowQuery slowQuery;
+
+        Slot(final long sequence, final SlowQuery slowQuery) {
+            this.sequence = sequence;
+            this.slowQuery = slowQuery;
+        }
+    }
+
+    /**
+     * The view registered with JMX - a separate class, so that the MXBean interface doesn't become a business
+     * interface of the EJB
+     */
+    private final class LogView implements SlowQueryLogMXBean {
+
+        @Override
+        public int getCapacity() {
+            return SlowQueryLog.this.getCapacity();
+        }
+
+        @Override
+        public int getThresholdInMillis() {
+            return SlowQueryLog.this.getThresholdInMillis();
+        }
+
+        @Override
+        public long getRecordedCount() {
+            return SlowQueryLog.this.getRecordedCount();
+        }
+
+        @Override
+        public List<SlowQuery> getSlowQueries() {
+            return SlowQueryLog.this.getSlowQueries();
+        }
+
+        @Override
+        public int dumpToFile(final String fileName) throws IOException {
+            return SlowQueryLog.this.dumpToFile(fileName);
+        }
+
+        @Override
+        public void clear() {
+            SlowQueryLog.this.clear();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * JMX view of the SlowQueryLog, registered as SlowQueryLog.OBJECT_NAME
+ *
+ * @author eemecoy
+ */
+public interface SlowQueryLogMXBean {
+
+    /**
+     * @return number of queries the log holds before the oldest is dropped
+     */
+    int getCapacity();
+
+    /**
+     * @return time over which queries are kept
+     */
+    int getThresholdInMillis();
+
+    /**
+     * @return number of queries kept since the log was started or cleared, including those since dropped
+     */
+    long getRecordedCount();
+
+    /**
+     * @return the queries held, newest first
+     */
+    List<SlowQuery> getSlowQueries();
+
+    /**
+     * Write the queries held to a file on the server, oldest first
+     *
+     * @param fileName file to write, replaced if it exists
+     * @return number of queries written
+     * @throws IOException if the file can't be written
+     */
+    int dumpToFile(String fileName) throws IOException;
+
+    /**
+     * Drop the queries held
+     */
+    void clear();
+}
@@ -0,0 +1,62 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.ericsson.eniq.events.server.datasource.loadbalancing.LoadBalancingPolicy;
+import com.ericsson.eniq.events.server.query.resultsettransformers.StreamingResultSetTransformer;
+
+/**
+ * JAX-RS adapter for DataServiceQueryExecutor.streamData()
+ * The query is run when the container writes the response entity, and the rows are encoded straight onto the
+ * response output stream
+ *
+ * The executor passed in should be the injected EJB reference, so the query runs through the container as usual
+ *
+ * @author eemecoy
+ */
+public class StreamingQueryOutput implements StreamingOutput {
+
+    private static final String CHARACTER_ENCODING = "UTF-8";
+
+    private final DataServiceQueryExecutor dataServiceQueryExecutor;
+
+    private final String requestID;
+
+    private final String query;
+
+    private final Map<String, QueryParameter> parameters;
+
+    private final StreamingResultSetTransformer transformer;
+
+    private final LoadBalancingPolicy loadBalancingPolicy;
+
+    public StreamingQueryOutput(final DataServiceQueryExecutor dataServiceQueryExecutor, final String requestID,
+            final String query, final Map<String, QueryParameter> parameters,
+            final StreamingResultSetTransformer transformer, final LoadBalancingPolicy loadBalancingPolicy) {
+        this.dataServiceQueryExecutor = dataServiceQueryExecutor;
+        this.requestID = requestID;
+        this.query = query;
+        this.parameters = parameters;
+        this.transformer = transformer;
+        this.loadBalancingPolicy = loadBalancingPolicy;
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, CHARACTER_ENCODING));
+        dataServiceQueryExecutor.streamData(requestID, query, parameters, transformer, loadBalancingPolicy, writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query.resultsettransformers;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * ResultSetTransformer that can consume the result sets of several queries one at a time, through a
+ * ResultSetAccumulator.
+ * DataServiceQueryExecutor.getDataForMultipleQueries() hands each query's result set to the accumulator as soon as
+ * the query has run, and closes it (and gives its connection back to the pool) before running the next query, so
+ * the request holds one connection at a time rather than one for each query.
+ *
+ * transform(List) and transform(ResultSet) are implemented with the accumulator.
+ *
+ * @author eemecoy
+ * @since 2011
+ *
+ * @param <T>
+ */
+public abstract class AccumulatingResultSetTransformer<T> implements ResultSetTransformer<T> {
+
+    /**
+     * @return a new accumulator, for one request
+     */
+    public abstract ResultSetAccumulator<T> createAccumulator();
+
+    @Override
+    public T transform(final List<ResultSet> results) throws SQLException {
+        final ResultSetAccumulator<T> accumulator = createAccumulator();
+        for (final ResultSet rs : results) {
+            accumulator.accumulate(rs);
+        }
+        return accumulator.getResult();
+    }
+
+    @Override
+    public T transform(final ResultSet rs) throws SQLException {
+        final ResultSetAccumulator<T> accumulator = createAccumulator();
+        accumulator.accumulate(rs);
+        return accumulator.getResult();
+    }
+}
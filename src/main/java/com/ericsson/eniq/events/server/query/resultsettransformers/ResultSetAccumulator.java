@@ -0,0 +1,33 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query.resultsettransformers;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Builds the result of an AccumulatingResultSetTransformer one ResultSet at a time
+ *
+ * The ResultSet passed to accumulate() is closed, along with its statement and connection, as soon as accumulate()
+ * returns, so implementations must copy out anything they need from it.
+ *
+ * @author eemecoy
+ * @since 2011
+ *
+ * @param <T>
+ */
+public interface ResultSetAccumulator<T> {
+
+    /**
+     * @param rs result set of the next query, in the order the queries were given
+     */
+    void accumulate(ResultSet rs) throws SQLException;
+
+    /**
+     * @return the result built from all of the result sets accumulated
+     */
+    T getResult() throws SQLException;
+}
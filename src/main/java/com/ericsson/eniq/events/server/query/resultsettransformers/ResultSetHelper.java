@@ -58,14 +58,7 @@ public final class ResultSetHelper {
         if (columnNames != null) {
             sb.append(columnNames);
         }
-        List<Integer> timeColumnIndexes = null;
-        try {
-            final int timeCol = Integer.parseInt(timeColumn);
-            timeColumnIndexes = new ArrayList<Integer>();
-            timeColumnIndexes.add(timeCol);
-        } catch (final NumberFormatException numEx) {
-            ServicesLogger.detailed(Level.WARNING, "ResultSetHelper", "toCSV", numEx);
-        }
+        final List<Integer> timeColumnIndexes = getTimeColumnIndexes(timeColumn);
         while (rs.next()) {
             final String line = listToCSV(getColumnValues(rs, timeColumnIndexes, tzOffset));
             if (line != null) {
@@ -76,6 +69,24 @@ public final class ResultSetHelper {
         return sb.toString();
     }
 
+    /**
+     * Convert the (1 based) time column position to the list of time column indexes expected by getColumnValues()
+     * 
+     * @param timeColumn position of time column
+     * @return list containing the time column index, or null if timeColumn isn't a number
+     */
+    static List<Integer> getTimeColumnIndexes(final String timeColumn) {
+        try {
+            final int timeCol = Integer.parseInt(timeColumn);
+            final List<Integer> timeColumnIndexes = new ArrayList<Integer>();
+            timeColumnIndexes.add(timeCol);
+            return timeColumnIndexes;
+        } catch (final NumberFormatException numEx) {
+            ServicesLogger.detailed(Level.WARNING, "ResultSetHelper", "toCSV", numEx);
+            return null;
+        }
+    }
+
     /**
      * Writes a ResultSet to a CSV formatted string.
      * This is a very basic CSV writer. It has the following 
@@ -426,6 +426,30 @@ public final class ResultSetTransformerFactory {
         };
     }
 
+    /**
+     * Gets the streaming csv transformer - rows are written to the response as they are read from the database.
+     * 
+     * @return the streaming CSV transformer
+     */
+    public static StreamingResultSetTransformer getStreamingCSVTransformer(final String timeColumn, final String tzOffset) {
+        return new StreamingCSVTransformer(timeColumn, tzOffset);
+    }
+
+    /**
+     * Gets the streaming json grid data transformer - rows are written to the response as they are read from the
+     * database.
+     * 
+     * @param timestampFrom
+     *        the timestamp from
+     * @param timestampTo
+     *        the timestamp to
+     * @return the streaming JSON grid data transformer
+     */
+    public static StreamingResultSetTransformer getStreamingJSONGridDataTransformer(final String timestampFrom, final String timestampTo,
+                                                                                    final String timeColumn, final String tzOffset) {
+        return new StreamingJSONGridDataTransformer(timestampFrom, timestampTo, timeColumn, tzOffset);
+    }
+
     /**
      * Gets the transformer for transforming the result of the list connected cells to a SAC query
      * 
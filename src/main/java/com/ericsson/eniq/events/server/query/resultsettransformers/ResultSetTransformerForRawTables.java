@@ -10,28 +10,33 @@ import java.util.List;
 
 /**
  * Conversion of ResultSet to a RAW Table type. 
+ * The table names of several result sets are appended in order.
  * 
  * @author eavidat
  * @since 2010
  *
  */
 
-public class ResultSetTransformerForRawTables implements ResultSetTransformer<List<String>> {
+public class ResultSetTransformerForRawTables extends AccumulatingResultSetTransformer<List<String>> {
+
     @Override
-    public List<String> transform(final ResultSet rs) throws SQLException {
-        final List<String> tableNames = new ArrayList<String>();
-        while (rs != null && rs.next()) {
-        	final String string = rs.getString(RAW_TABLE_NAME_COLUMN);
-			tableNames.add(string);
-        }
-        return tableNames;
+    public ResultSetAccumulator<List<String>> createAccumulator() {
+        return new ResultSetAccumulator<List<String>>() {
+
+            private final List<String> tableNames = new ArrayList<String>();
+
+            @Override
+            public void accumulate(final ResultSet rs) throws SQLException {
+                while (rs != null && rs.next()) {
+                    final String string = rs.getString(RAW_TABLE_NAME_COLUMN);
+                    tableNames.add(string);
+                }
+            }
+
+            @Override
+            public List<String> getResult() {
+                return tableNames;
+            }
+        };
     }
-    
-
-	@Override
-	public List<String> transform(final List<ResultSet> results)
-			throws SQLException {
-		// TODO Auto-generated method stub
-		return null;
-	}    
 }
@@ -20,13 +20,13 @@ public class ResultSetTransformerToCheckResultSizeIsOne implements
 		ResultSetTransformer<Boolean> {
 	
 	/**
+	 * Reads at most two rows, so works with forward only result sets
+	 * 
 	 * @return true if the result set contains exactly one row
 	 */
     @Override
     public Boolean transform(final ResultSet rs) throws SQLException {
-    	rs.last();
-    	final int lastRowNumber = rs.getRow();
-        return lastRowNumber == 1;//is the first one also the last one.
+        return rs.next() && !rs.next();//is the first one also the last one.
     }
 
     @Override
@@ -0,0 +1,75 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query.resultsettransformers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Streaming equivalent of the CSV transformer - writes the column names and then one line per row to the writer,
+ * flushing every ROWS_PER_FLUSH rows
+ * For multiple result sets, the column names are taken from the first result set
+ * 
+ * @author eemecoy
+ * @since 2011
+ */
+public class StreamingCSVTransformer implements StreamingResultSetTransformer {
+
+    static final int ROWS_PER_FLUSH = 500;
+
+    private final List<Integer> timeColumnIndexes;
+
+    private final String tzOffset;
+
+    public StreamingCSVTransformer(final String timeColumn, final String tzOffset) {
+        this.timeColumnIndexes = ResultSetHelper.getTimeColumnIndexes(timeColumn);
+        this.tzOffset = tzOffset;
+    }
+
+    @Override
+    public void transform(final ResultSet rs, final Writer writer) throws SQLException, IOException {
+        writeColumnNames(rs, writer);
+        writeRows(rs, writer);
+        writer.flush();
+    }
+
+    @Override
+    public void transform(final List<ResultSet> results, final Writer writer) throws SQLException, IOException {
+        if (results.isEmpty()) {
+            return;
+        }
+        writeColumnNames(results.get(0), writer);
+        for (final ResultSet rs : results) {
+            writeRows(rs, writer);
+        }
+        writer.flush();
+    }
+
+    private void writeColumnNames(final ResultSet rs, final Writer writer) throws SQLException, IOException {
+        final String columnNames = ResultSetHelper.listToCSV(ResultSetHelper.getColumnNames(rs));
+        if (columnNames != null) {
+            writer.write(columnNames);
+        }
+    }
+
+    private void writeRows(final ResultSet rs, final Writer writer) throws SQLException, IOException {
+        int rowsSinceFlush = 0;
+        while (rs.next()) {
+            final String line = ResultSetHelper.listToCSV(ResultSetHelper.getColumnValues(rs, timeColumnIndexes,
+                    tzOffset));
+            if (line != null) {
+                writer.write(line);
+            }
+            if (++rowsSinceFlush == ROWS_PER_FLUSH) {
+                writer.flush();
+                rowsSinceFlush = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query.resultsettransformers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Streaming equivalent of the JSON grid data transformer
+ * Writes the grid in the format
+ * {"success":"true","errorDescription":"","timeStampFrom":"...","timeStampTo":"...","data":[{"1":"...","2":"..."},...]}
+ * where each row is keyed by (1 based) column position, flushing the writer every ROWS_PER_FLUSH rows
+ * Rows from multiple result sets are appended to the same data array
+ * 
+ * @author eemecoy
+ * @since 2011
+ */
+public class StreamingJSONGridDataTransformer implements StreamingResultSetTransformer {
+
+    static final int ROWS_PER_FLUSH = 500;
+
+    private static final char QUOTATION = '"';
+
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    private final String timestampFrom;
+
+    private final String timestampTo;
+
+    private final List<Integer> timeColumnIndexes;
+
+    private final String tzOffset;
+
+    public StreamingJSONGridDataTransformer(final String timestampFrom, final String timestampTo,
+            final String timeColumn, final String tzOffset) {
+        this.timestampFrom = timestampFrom;
+        this.timestampTo = timestampTo;
+        this.timeColumnIndexes = ResultSetHelper.getTimeColumnIndexes(timeColumn);
+        this.tzOffset = tzOffset;
+    }
+
+    @Override
+    public void transform(final ResultSet rs, final Writer writer) throws SQLException, IOException {
+        writeStartOfGrid(writer);
+        writeRows(rs, writer, true);
+        writeEndOfGrid(writer);
+    }
+
+    @Override
+    public void transform(final List<ResultSet> results, final Writer writer) throws SQLException, IOException {
+        writeStartOfGrid(writer);
+        boolean firstRow = true;
+        for (final ResultSet rs : results) {
+            firstRow = writeRows(rs, writer, firstRow);
+        }
+        writeEndOfGrid(writer);
+    }
+
+    private void writeStartOfGrid(final Writer writer) throws IOException {
+        writer.write("{\"success\":\"true\",\"errorDescription\":\"\",\"timeStampFrom\":");
+        writeJSONString(timestampFrom, writer);
+        writer.write(",\"timeStampTo\":");
+        writeJSONString(timestampTo, writer);
+        writer.write(",\"data\":[");
+    }
+
+    private void writeEndOfGrid(final Writer writer) throws IOException {
+        writer.write("]}");
+        writer.flush();
+    }
+
+    /**
+     * @return true if no rows have been written yet (ie the next row written will be the first)
+     */
+    private boolean writeRows(final ResultSet rs, final Writer writer, final boolean noRowsWrittenYet)
+            throws SQLException, IOException {
+        boolean firstRow = noRowsWrittenYet;
+        int rowsSinceFlush = 0;
+        while (rs.next()) {
+            if (!firstRow) {
+                writer.write(',');
+            }
+            firstRow = false;
+            writeRow(ResultSetHelper.getColumnValues(rs, timeColumnIndexes, tzOffset), writer);
+            if (++rowsSinceFlush == ROWS_PER_FLUSH) {
+                writer.flush();
+                rowsSinceFlush = 0;
+            }
+        }
+        return firstRow;
+    }
+
+    private void writeRow(final List<String> values, final Writer writer) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < values.size(); i++) {
+            if (i != 0) {
+                writer.write(',');
+            }
+            writer.write(QUOTATION);
+            writer.write(Integer.toString(i + 1));
+            writer.write(QUOTATION);
+            writer.write(':');
+            writeJSONString(values.get(i), writer);
+        }
+        writer.write('}');
+    }
+
+    static void writeJSONString(final String value, final Writer writer) throws IOException {
+        writer.write(QUOTATION);
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                final char character = value.charAt(i);
+                switch (character) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (character < ' ') {
+                        writer.write("\\u00");
+                        writer.write(HEX_DIGITS.charAt(character >> 4));
+                        writer.write(HEX_DIGITS.charAt(character & 0xF));
+                    } else {
+                        writer.write(character);
+                    }
+                }
+            }
+        }
+        writer.write(QUOTATION);
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query.resultsettransformers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Abstraction for conversion of ResultSet data directly to a character stream.
+ * Unlike the ResultSetTransformer, rows are encoded and written as the cursor advances, so the memory used
+ * does not grow with the size of the result set.
+ * 
+ * Implementations should not close the writer - the caller owns it.
+ * 
+ * @author eemecoy
+ * @since 2011
+ */
+public interface StreamingResultSetTransformer {
+
+    void transform(List<ResultSet> results, Writer writer) throws SQLException, IOException;
+
+    void transform(ResultSet rs, Writer writer) throws SQLException, IOException;
+}
@@ -14,6 +14,8 @@ package com.ericsson.eniq.events.server.utils;
 
 import static com.ericsson.eniq.events.server.common.ApplicationConstants.*;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,6 +46,22 @@ public class QueryUtils {
 
     private static final int NEGATIVE_VALUE = -1;
 
+    private static final String DATE_PARAMETER_FORMAT = "yyyy-MM-dd";
+
+    private static final String DATE_TIME_PARAMETER_FORMAT = "yyyy-MM-dd HH:mm";
+
+    private static final String DATE_TIME_WITH_SECONDS_PARAMETER_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * SimpleDateFormat isn't thread safe, so each thread keeps its own, one for each date parameter format
+     */
+    private static final ThreadLocal<Map<String, SimpleDateFormat>> DATE_FORMATS = new ThreadLocal<Map<String, SimpleDateFormat>>() {
+        @Override
+        protected Map<String, SimpleDateFormat> initialValue() {
+            return new HashMap<String, SimpleDateFormat>();
+        }
+    };
+
     @EJB
     // required for converting RAT parameters between integer values and
     // string field descriptions
@@ -61,6 +79,9 @@ public class QueryUtils {
     @EJB
     private ApplicationConfigManager applicationConfigManager;
 
+    @EJB
+    private QueryExecutorConfiguration queryExecutorConfiguration;
+
     /**
      * Alternative to viewAggregationTimeRangeGrid Type safe and more readable. Based on time range indicate the data type source for grid data
      * whether aggregated or raw.
@@ -166,15 +187,89 @@ public class QueryUtils {
     }
 
     public void addLocalDateParameters(final FormattedDateTimeRange dateTimeRange, final Map<String, QueryParameter> queryParameters) {
+        addLocalDateParameters(dateTimeRange, queryParameters, (String) null);
+    }
+
+    /**
+     * As addLocalDateParameters(), with the dates as strings if the template is listed in
+     * ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES
+     *
+     * @param templatePath path of the template the query is built from, may be null
+     */
+    public void addLocalDateParameters(final FormattedDateTimeRange dateTimeRange, final Map<String, QueryParameter> queryParameters,
+                                       final String templatePath) {
+        addLocalDateParameters(dateTimeRange, queryParameters, queryExecutorConfiguration.isDateParametersAsStrings(templatePath));
+    }
+
+    private void addLocalDateParameters(final FormattedDateTimeRange dateTimeRange, final Map<String, QueryParameter> queryParameters,
+                                        final boolean datesAsStrings) {
 
         if (this.getEventDataSourceType(dateTimeRange.getRangeInMinutes()) == EventDataSourceType.AGGREGATED_DAY) {
-            queryParameters.put(LOCAL_DATE_FROM, QueryParameter.createStringParameter(dateTimeRange.getStartDateLocal()));
-            queryParameters.put(LOCAL_DATE_TO, QueryParameter.createStringParameter(dateTimeRange.getEndDateLocal()));
+            queryParameters.put(LOCAL_DATE_FROM, createDateParameter(dateTimeRange.getStartDateLocal(), datesAsStrings));
+            queryParameters.put(LOCAL_DATE_TO, createDateParameter(dateTimeRange.getEndDateLocal(), datesAsStrings));
+        }
+    }
+
+    /**
+     * The date range parameters are bound as TIMESTAMP, so the database compares them with DATETIME columns (such as
+     * MIN_DATE and MAX_DATE of the raw timerange views) without converting a string for each row
+     * The time is worked out once, when the parameter is mapped, rather than each time the parameter is bound
+     * A string is kept for templates listed in ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES (see
+     * QueryExecutorConfiguration.isDateParametersAsStrings()), or if the value isn't in one of the expected formats
+     *
+     * @param dateTime       date time, as yyyy-MM-dd HH:mm (or with seconds)
+     * @param datesAsStrings true if the query's template needs its date parameters as strings
+     */
+    private QueryParameter createDateTimeParameter(final String dateTime, final boolean datesAsStrings) {
+        if (dateTime == null || datesAsStrings) {
+            return QueryParameter.createStringParameter(dateTime);
+        }
+        final String format = dateTime.length() == DATE_TIME_WITH_SECONDS_PARAMETER_FORMAT.length() ? DATE_TIME_WITH_SECONDS_PARAMETER_FORMAT
+                : DATE_TIME_PARAMETER_FORMAT;
+        try {
+            return QueryParameter.createTimestampParameter(parse(dateTime, format));
+        } catch (final ParseException e) {
+            return QueryParameter.createStringParameter(dateTime);
         }
     }
 
+    /**
+     * As createDateTimeParameter(), for the local date parameters, which are bound as DATE
+     *
+     * @param date           date, as yyyy-MM-dd
+     * @param datesAsStrings true if the query's template needs its date parameters as strings
+     */
+    private QueryParameter createDateParameter(final String date, final boolean datesAsStrings) {
+        if (date == null || datesAsStrings) {
+            return QueryParameter.createStringParameter(date);
+        }
+        try {
+            return QueryParameter.createDateParameter(parse(date, DATE_PARAMETER_FORMAT));
+        } catch (final ParseException e) {
+            return QueryParameter.createStringParameter(date);
+        }
+    }
+
+    /**
+     * @return milliseconds since the epoch of the whole of text, in the server's time zone (the zone the JDBC driver
+     * binds Timestamp and Date values in)
+     */
+    private static long parse(final String text, final String format) throws ParseException {
+        if (text.length() != format.length()) {
+            throw new ParseException(text, 0);
+        }
+        final Map<String, SimpleDateFormat> dateFormats = DATE_FORMATS.get();
+        SimpleDateFormat dateFormat = dateFormats.get(format);
+        if (dateFormat == null) {
+            dateFormat = new SimpleDateFormat(format);
+            dateFormat.setLenient(false);
+            dateFormats.put(format, dateFormat);
+        }
+        return dateFormat.parse(text).getTime();
+    }
+
     private void addAdjustedDateParameters(final FormattedDateTimeRange dateTimeRange, final Map<String, QueryParameter> queryParameters,
-                                           final String tzOffSet) {
+                                           final String tzOffSet, final boolean datesAsStrings) {
         final String dateFrom = dateTimeRange.getStartDateTime();
         final String dateTo = dateTimeRange.getEndDateTime();
 
@@ -186,8 +281,8 @@ public class QueryUtils {
         final String AdjustedDateFrom = DateTimeUtils.addMinutes(dateFrom, intValueOfMinutesToAdjust);
         final String AdjustedDateTo = DateTimeUtils.addMinutes(dateTo, intValueOfMinutesToAdjust);
 
-        queryParameters.put(ADJUSTED_DATE_FROM, QueryParameter.createStringParameter(AdjustedDateFrom));
-        queryParameters.put(ADJUSTED_DATE_TO, QueryParameter.createStringParameter(AdjustedDateTo));
+        queryParameters.put(ADJUSTED_DATE_FROM, createDateTimeParameter(AdjustedDateFrom, datesAsStrings));
+        queryParameters.put(ADJUSTED_DATE_TO, createDateTimeParameter(AdjustedDateTo, datesAsStrings));
     }
 
     /**
@@ -201,6 +296,18 @@ public class QueryUtils {
      */
     public Map<String, QueryParameter> mapRequestParameters(final MultivaluedMap<String, String> requestParameters,
                                                             final FormattedDateTimeRange dateTimeRange) {
+        return mapRequestParameters(requestParameters, dateTimeRange, null);
+    }
+
+    /**
+     * As mapRequestParameters(), with the date parameters as strings if the template is listed in
+     * ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES
+     *
+     * @param templatePath path of the template the query is built from, may be null
+     */
+    public Map<String, QueryParameter> mapRequestParameters(final MultivaluedMap<String, String> requestParameters,
+                                                            final FormattedDateTimeRange dateTimeRange, final String templatePath) {
+        final boolean datesAsStrings = queryExecutorConfiguration.isDateParametersAsStrings(templatePath);
 
         final Map<String, QueryParameter> queryParameters = new HashMap<String, QueryParameter>();
 
@@ -290,12 +397,12 @@ public class QueryUtils {
                 requestParameters.remove(KEY_PARAM);
             }
 
-            queryParameters.put(DATE_FROM, QueryParameter.createStringParameter(startTime));
-            queryParameters.put(DATE_TO, QueryParameter.createStringParameter(endTime));
+            queryParameters.put(DATE_FROM, createDateTimeParameter(startTime, datesAsStrings));
+            queryParameters.put(DATE_TO, createDateTimeParameter(endTime, datesAsStrings));
 
-            addLocalDateParameters(dateTimeRange, queryParameters);
+            addLocalDateParameters(dateTimeRange, queryParameters, datesAsStrings);
             if (!isWeekOverrideApplied &&(dateTimeRange.getRangeInMinutes() >= MINUTES_IN_A_WEEK) ) {
-                addAdjustedDateParameters(dateTimeRange, queryParameters, requestParameters.getFirst(TZ_OFFSET));
+                addAdjustedDateParameters(dateTimeRange, queryParameters, requestParameters.getFirst(TZ_OFFSET), datesAsStrings);
             }
 
         }
@@ -308,7 +415,7 @@ public class QueryUtils {
         if (StringUtils.isNotBlank(requestParameters.getFirst(parameter))) {
             final String parameterValue = requestParameters.getFirst(parameter);
             try {
-                final Long longParam = Long.valueOf(parameterValue);
+                final long longParam = Long.parseLong(parameterValue);
                 queryParameters.put(parameterName, QueryParameter.createLongParameter(longParam));
             } catch (final NumberFormatException e) {
                 addStringToQueryParameters(requestParameters, queryParameters, parameter);
@@ -383,7 +490,7 @@ public class QueryUtils {
                 if (StringUtils.isNotBlank(requestParameters.getFirst(parameter))) {
                     final String parameterValue = requestParameters.getFirst(parameter);
                     try {
-                        final Long longParam = Long.valueOf(parameterValue);
+                        final long longParam = Long.parseLong(parameterValue);
                         queryParameters.put(getConvertedParameterName(parameter), QueryParameter.createLongParameter(longParam));
                     } catch (final NumberFormatException e) {
                         add(parameter);
@@ -433,11 +540,12 @@ public class QueryUtils {
         addQueryParameter.addLong(CATEGORY_ID_PARAM);
 
         if (datetimeWhiteList.queryRequiresDateTimeParameters(templatePath)) {
-            queryParameters.put(DATE_FROM, QueryParameter.createStringParameter(dateTimeRange.getStartDateTime()));
-            queryParameters.put(DATE_TO, QueryParameter.createStringParameter(dateTimeRange.getEndDateTime()));
-            addLocalDateParameters(dateTimeRange, queryParameters);
+            final boolean datesAsStrings = queryExecutorConfiguration.isDateParametersAsStrings(templatePath);
+            queryParameters.put(DATE_FROM, createDateTimeParameter(dateTimeRange.getStartDateTime(), datesAsStrings));
+            queryParameters.put(DATE_TO, createDateTimeParameter(dateTimeRange.getEndDateTime(), datesAsStrings));
+            addLocalDateParameters(dateTimeRange, queryParameters, datesAsStrings);
             if ((dateTimeRange.getRangeInMinutes() >= MINUTES_IN_A_WEEK)) {
-                addAdjustedDateParameters(dateTimeRange, queryParameters, requestParameters.getFirst(TZ_OFFSET));
+                addAdjustedDateParameters(dateTimeRange, queryParameters, requestParameters.getFirst(TZ_OFFSET), datesAsStrings);
             }
 
         }
@@ -456,6 +564,18 @@ public class QueryUtils {
      */
     public Map<String, QueryParameter> mapRequestParametersForHashId(final MultivaluedMap<String, String> requestParameters,
                                                                      final FormattedDateTimeRange dateTimeRange) {
+        return mapRequestParametersForHashId(requestParameters, dateTimeRange, null);
+    }
+
+    /**
+     * As mapRequestParametersForHashId(), with the date parameters as strings if the template is listed in
+     * ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES
+     *
+     * @param templatePath path of the template the query is built from, may be null
+     */
+    public Map<String, QueryParameter> mapRequestParametersForHashId(final MultivaluedMap<String, String> requestParameters,
+                                                                     final FormattedDateTimeRange dateTimeRange, final String templatePath) {
+        final boolean datesAsStrings = queryExecutorConfiguration.isDateParametersAsStrings(templatePath);
 
         final Map<String, QueryParameter> queryParameters = new HashMap<String, QueryParameter>();
 
@@ -528,11 +648,11 @@ public class QueryUtils {
                 isWeekOverrideApplied = true;
                 queryParameters.put(ISWEEKOVERRIDE, QueryParameter.createStringParameter(String.valueOf(isWeekOverrideApplied)));
             }
-            queryParameters.put(DATE_FROM, QueryParameter.createStringParameter(startTime));
-            queryParameters.put(DATE_TO, QueryParameter.createStringParameter(endTime));
-            addLocalDateParameters(dateTimeRange, queryParameters);
+            queryParameters.put(DATE_FROM, createDateTimeParameter(startTime, datesAsStrings));
+            queryParameters.put(DATE_TO, createDateTimeParameter(endTime, datesAsStrings));
+            addLocalDateParameters(dateTimeRange, queryParameters, datesAsStrings);
             if (!isWeekOverrideApplied && (dateTimeRange.getRangeInMinutes() >= MINUTES_IN_A_WEEK )) {
-                addAdjustedDateParameters(dateTimeRange, queryParameters, requestParameters.getFirst(TZ_OFFSET));
+                addAdjustedDateParameters(dateTimeRange, queryParameters, requestParameters.getFirst(TZ_OFFSET), datesAsStrings);
             }
         }
 
@@ -554,20 +674,42 @@ public class QueryUtils {
      * @return dateTime parameters mapped into query parameters
      */
     public Map<String, QueryParameter> mapDateParameters(final FormattedDateTimeRange dateTimeRange) {
+        return mapDateParameters(dateTimeRange, null);
+    }
+
+    /**
+     * As mapDateParameters(), with the date parameters as strings if the template is listed in
+     * ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES
+     *
+     * @param templatePath path of the template the query is built from, may be null
+     */
+    public Map<String, QueryParameter> mapDateParameters(final FormattedDateTimeRange dateTimeRange, final String templatePath) {
+        final boolean datesAsStrings = queryExecutorConfiguration.isDateParametersAsStrings(templatePath);
         final Map<String, QueryParameter> queryParameters = new HashMap<String, QueryParameter>();
         if (dateTimeRange != null) {
-            queryParameters.put(DATE_FROM, QueryParameter.createStringParameter(dateTimeRange.getStartDateTime()));
-            queryParameters.put(DATE_TO, QueryParameter.createStringParameter(dateTimeRange.getEndDateTime()));
+            queryParameters.put(DATE_FROM, createDateTimeParameter(dateTimeRange.getStartDateTime(), datesAsStrings));
+            queryParameters.put(DATE_TO, createDateTimeParameter(dateTimeRange.getEndDateTime(), datesAsStrings));
         }
         return queryParameters;
     }
 
     public Map<String, QueryParameter> mapAdjustedDateParameters(final FormattedDateTimeRange dateTimeRange) {
+        return mapAdjustedDateParameters(dateTimeRange, null);
+    }
+
+    /**
+     * As mapAdjustedDateParameters(), with the date parameters as strings if the template is listed in
+     * ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES
+     *
+     * @param templatePath path of the template the query is built from, may be null
+     */
+    public Map<String, QueryParameter> mapAdjustedDateParameters(final FormattedDateTimeRange dateTimeRange, final String templatePath) {
+        final boolean datesAsStrings = queryExecutorConfiguration.isDateParametersAsStrings(templatePath);
         final Map<String, QueryParameter> queryParameters = new HashMap<String, QueryParameter>();
         String utcOffset = DateTimeUtils.getUTCOffset();
         if (dateTimeRange != null) {
-            queryParameters.put(DATE_FROM, QueryParameter.createStringParameter(DateTimeUtils.getRawOffsetAdjustedTime(dateTimeRange.getStartDateTime(), utcOffset)));
-            queryParameters.put(DATE_TO, QueryParameter.createStringParameter(DateTimeUtils.getRawOffsetAdjustedTime(dateTimeRange.getEndDateTime(), utcOffset)));
+            queryParameters.put(DATE_FROM, createDateTimeParameter(DateTimeUtils.getRawOffsetAdjustedTime(dateTimeRange.getStartDateTime(), utcOffset), datesAsStrings));
+            queryParameters.put(DATE_TO, createDateTimeParameter(DateTimeUtils.getRawOffsetAdjustedTime(dateTimeRange.getEndDateTime(), utcOffset), datesAsStrings));
         }
         return queryParameters;
     }
@@ -1070,9 +1212,9 @@ public class QueryUtils {
             case STRING:
                 return QueryParameter.createStringParameter(parameterValue);
             case INT:
-                return QueryParameter.createIntParameter(Integer.valueOf(parameterValue));
+                return QueryParameter.createIntParameter(Integer.parseInt(parameterValue));
             case LONG:
-                return QueryParameter.createLongParameter(Long.valueOf(parameterValue));
+                return QueryParameter.createLongParameter(Long.parseLong(parameterValue));
             default:
                 throw new UnsupportedOperationException("No mapping provided for " + parameterType);
         }
@@ -1140,4 +1282,12 @@ public class QueryUtils {
     public void setApplicationConfigManager(final ApplicationConfigManager applicationConfigManager) {
         this.applicationConfigManager = applicationConfigManager;
     }
+
+    /**
+     * @param queryExecutorConfiguration
+     *        the queryExecutorConfiguration to set
+     */
+    public void setQueryExecutorConfiguration(final QueryExecutorConfiguration queryExecutorConfiguration) {
+        this.queryExecutorConfiguration = queryExecutorConfiguration;
+    }
 }
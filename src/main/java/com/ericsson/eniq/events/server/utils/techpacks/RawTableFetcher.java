@@ -23,6 +23,8 @@ import javax.ejb.*;
 
 import com.ericsson.eniq.events.server.common.TechPackData;
 import com.ericsson.eniq.events.server.logging.ServicesLogger;
+import com.ericsson.eniq.events.server.query.QueryPhase;
+import com.ericsson.eniq.events.server.query.QueryTimings;
 import com.ericsson.eniq.events.server.utils.*;
 import com.ericsson.eniq.events.server.utils.techpacks.timerangequeries.TimerangeQuerier;
 import com.ericsson.eniq.events.server.utils.techpacks.timerangequeries.TimerangeQuerierFactory;
@@ -118,29 +120,54 @@ public class RawTableFetcher {
     }
 
     private List<String> fetchRawTables(final FormattedDateTimeRange dateTimeRange, final String... viewNames) {
-        List<String> rawtables = new ArrayList<String>();
+        final int span = QueryTimings.begin(QueryPhase.RAW_TABLES);
         try {
-            rawtables = getTablesFromEngine(dateTimeRange, viewNames);
-        } catch (final ParseException e) {
-            ServicesLogger.warn(getClass().toString(), "getRAWTables",
-                    "Exception thrown while trying to parse the date in order to get the table names from the engine cache. " + e.getMessage());
+            List<String> rawtables = fetchRawTablesFromEngine(dateTimeRange, viewNames);
+            if (rawtables.isEmpty()) {
+                // if RMI fails then use SQL query to get the table names and log the event
+                rawtables = fetchRawTablesUsingQuery(dateTimeRange, viewNames);
+            }
+            return rawtables;
+        } finally {
+            QueryTimings.end(span);
+        }
+    }
+
+    private List<String> fetchRawTablesFromEngine(final FormattedDateTimeRange dateTimeRange, final String... viewNames) {
+        final int span = QueryTimings.begin(QueryPhase.RAW_TABLES_ENGINE);
+        try {
+            List<String> rawtables = new ArrayList<String>();
+            try {
+                rawtables = getTablesFromEngine(dateTimeRange, viewNames);
+            } catch (final ParseException e) {
+                ServicesLogger.warn(getClass().toString(), "getRAWTables",
+                        "Exception thrown while trying to parse the date in order to get the table names from the engine cache. " + e.getMessage());
+            }
+            if (rawtables == null || rawtables.isEmpty()) {
+                rawtables = getLatestTablesFromEngine(viewNames);
+            }
+            return rawtables;
+        } finally {
+            QueryTimings.end(span);
         }
+    }
 
-        if (rawtables == null || rawtables.isEmpty()) {
-            rawtables = getLatestTablesFromEngine(viewNames);
+    private List<String> fetchRawTablesUsingQuery(final FormattedDateTimeRange dateTimeRange, final String... viewNames) {
+        final int span = QueryTimings.begin(QueryPhase.RAW_TABLES_SQL);
+        try {
+            final List<String> rawtables = new ArrayList<String>();
+            for (final String view : viewNames) {
+                rawtables.addAll(getTimerangeQuerier().getRAWTablesUsingQuery(dateTimeRange, view));
+            }
             if (rawtables.isEmpty()) {
-                // if RMI fails then use SQL query to get the table names and log the event
                 for (final String view : viewNames) {
-                    rawtables.addAll(getTimerangeQuerier().getRAWTablesUsingQuery(dateTimeRange, view));
-                }
-                if (rawtables.isEmpty()) {
-                    for (final String view : viewNames) {
-                        rawtables.addAll(getTimerangeQuerier().getLatestTablesUsingQuery(view));
-                    }
+                    rawtables.addAll(getTimerangeQuerier().getLatestTablesUsingQuery(view));
                 }
             }
+            return rawtables;
+        } finally {
+            QueryTimings.end(span);
         }
-        return rawtables;
     }
 
     private TimerangeQuerier getTimerangeQuerier() {
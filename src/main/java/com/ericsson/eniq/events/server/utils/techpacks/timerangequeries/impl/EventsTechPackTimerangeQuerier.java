@@ -156,24 +156,25 @@ public class EventsTechPackTimerangeQuerier implements TimerangeQuerier {
         final MultivaluedMap<String, String> requestParameters = new MultivaluedMapImpl();
         final Map<String, Object> templateParametersForRawTables = new HashMap<String, Object>();
         String query = null;
+        final boolean volumeBasedRawPartitions = techPackTechnologies.usesVolumeBasedRawPartitions(view);
+        final String templatePath = templateMappingEngine.getTemplate(volumeBasedRawPartitions ? GET_RAW_TABLES
+                : GET_RAW_TABLES_NO_TIMERANGE, requestParameters, drillType);
         final Map<String, QueryParameter> queryParameters;
         long rangeInMinutes = newDateTimeRange.getRangeInMinutes();
         if (rangeInMinutes >= MINUTES_IN_A_WEEK) {
-            queryParameters = getQueryUtils().mapAdjustedDateParameters(newDateTimeRange);
+            queryParameters = getQueryUtils().mapAdjustedDateParameters(newDateTimeRange, templatePath);
         } else {
-            queryParameters = getQueryUtils().mapDateParameters(newDateTimeRange);
+            queryParameters = getQueryUtils().mapDateParameters(newDateTimeRange, templatePath);
         }
 
-        if (techPackTechnologies.usesVolumeBasedRawPartitions(view)) {
+        if (volumeBasedRawPartitions) {
             templateParametersForRawTables.put(RAW_TIMERANGE_VIEW, getRawTimeRangeView(view));
-            query = getTemplateUtils().getQueryFromTemplate(templateMappingEngine.getTemplate(GET_RAW_TABLES, requestParameters, drillType),
-                    templateParametersForRawTables);
+            query = getTemplateUtils().getQueryFromTemplate(templatePath, templateParametersForRawTables);
             return getRawTables(query, queryParameters);
         }
 
         templateParametersForRawTables.put(RAW_TYPE, view);
-        query = getTemplateUtils().getQueryFromTemplate(templateMappingEngine.getTemplate(GET_RAW_TABLES_NO_TIMERANGE, requestParameters, drillType),
-                templateParametersForRawTables);
+        query = getTemplateUtils().getQueryFromTemplate(templatePath, templateParametersForRawTables);
         final List<List<String>> rows = dataServiceQueryExecutor.getDataFromRepdb(CANCEL_REQ_NOT_SUPPORTED, query, queryParameters,
                 ResultSetTransformerFactory.getStringResultsTransformer());
 
@@ -0,0 +1,200 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.common.exception.ServiceUserInfoException;
+
+/**
+ * @author eemecoy
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final String LIMIT_NAME = ConcurrencyLimiter.REPDB_LIMIT_NAME;
+
+    private ConcurrencyLimiter objToTest;
+
+    private Properties properties;
+
+    @After
+    public void tearDown() {
+        objToTest.destroy();
+    }
+
+    @Before
+    public void setup() {
+        properties = new Properties();
+        properties.setProperty(QueryExecutorConfiguration.CONCURRENCY_LIMIT_ENABLED_PROPERTY, "true");
+        properties.setProperty(QueryExecutorConfiguration.CONCURRENCY_LIMIT_INITIAL_PROPERTY, "4");
+        properties.setProperty(QueryExecutorConfiguration.CONCURRENCY_LIMIT_MINIMUM_PROPERTY, "2");
+        properties.setProperty(QueryExecutorConfiguration.CONCURRENCY_LIMIT_MAXIMUM_PROPERTY, "8");
+        properties.setProperty(QueryExecutorConfiguration.CONCURRENCY_LIMIT_QUEUE_SIZE_PROPERTY, "0");
+        objToTest = new ConcurrencyLimiter();
+    }
+
+    @Test
+    public void testLimitingIsDisabledByDefault() {
+        objToTest.setQueryExecutorConfiguration(new QueryExecutorConfiguration());
+        objToTest.init();
+        assertThat(objToTest.isEnabled(), is(false));
+        assertThat(objToTest.acquire(LIMIT_NAME, null), is(nullValue()));
+    }
+
+    @Test
+    public void testRequestOverLimitIsRejectedWhenQueueIsFull() {
+        init();
+        final List<ConcurrencyLimiter.Permit> permits = acquire(4);
+        try {
+            objToTest.acquire(LIMIT_NAME, null);
+            fail("Request over the limit should have been rejected");
+        } catch (final ServiceUserInfoException e) {
+            //expected
+        }
+        assertThat(objToTest.getRejectedCount(LIMIT_NAME), is(1L));
+        assertThat(objToTest.getInFlightCount(LIMIT_NAME), is(4));
+        release(permits);
+        assertThat(objToTest.getInFlightCount(LIMIT_NAME), is(0));
+    }
+
+    @Test
+    public void testQueuedRequestIsRejectedAfterQueueTimeOut() {
+        properties.setProperty(QueryExecutorConfiguration.CONCURRENCY_LIMIT_QUEUE_SIZE_PROPERTY, "10");
+        properties.setProperty(QueryExecutorConfiguration.CONCURRENCY_LIMIT_QUEUE_TIMEOUT_PROPERTY, "20");
+        init();
+        acquire(4);
+        final long startTime = System.currentTimeMillis();
+        try {
+            objToTest.acquire(LIMIT_NAME, null);
+            fail("Request over the limit should have timed out");
+        } catch (final ServiceUserInfoException e) {
+            //expected
+        }
+        assertThat(System.currentTimeMillis() - startTime >= 20, is(true));
+        assertThat(objToTest.getQueueDepth(LIMIT_NAME), is(0));
+    }
+
+    @Test
+    public void testQueuedRequestGetsPermitWhenOneIsReleased() throws Exception {
+        properties.setProperty(QueryExecutorConfiguration.CONCURRENCY_LIMIT_QUEUE_SIZE_PROPERTY, "10");
+        init();
+        final List<ConcurrencyLimiter.Permit> permits = acquire(4);
+        final ConcurrencyLimiter.Permit[] queuedPermit = new ConcurrencyLimiter.Permit[1];
+        final Thread queuedRequest = new Thread() {
+            @Override
+            public void run() {
+                queuedPermit[0] = objToTest.acquire(LIMIT_NAME, null);
+            }
+        };
+        queuedRequest.start();
+        while (objToTest.getQueueDepth(LIMIT_NAME) == 0) {
+            Thread.sleep(1);
+        }
+        objToTest.release(permits.get(0));
+        queuedRequest.join(5000);
+        assertThat(queuedPermit[0], is(notNullValue()));
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyIsSteadyAndIsCutWhenLatencyRises() {
+        init();
+        for (int i = 0; i < 100; i++) {
+            release(acquire(4), TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        final int grownLimit = objToTest.getLimit(LIMIT_NAME);
+        assertThat(grownLimit > 4, is(true));
+
+        for (int i = 0; i < 5; i++) {
+            release(acquire(2), TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        assertThat(objToTest.getLimit(LIMIT_NAME) < grownLimit, is(true));
+        assertThat(objToTest.getLimit(LIMIT_NAME) >= 2, is(true));
+    }
+
+    @Test
+    public void testLimitIsAdjustedFromQueryLatencyNotFromTimePermitIsHeld() throws Exception {
+        init();
+        for (int i = 0; i < 100; i++) {
+            release(acquire(4), TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        final int grownLimit = objToTest.getLimit(LIMIT_NAME);
+
+        //permits held a long time (a slow transformer), or released without a latency, leave the limit alone
+        for (int i = 0; i < 5; i++) {
+            final List<ConcurrencyLimiter.Permit> permits = acquire(2);
+            Thread.sleep(20);
+            release(permits, TimeUnit.MILLISECONDS.toNanos(1));
+            release(acquire(2));
+        }
+        assertThat(objToTest.getLimit(LIMIT_NAME) >= grownLimit, is(true));
+    }
+
+    @Test
+    public void testLimitsAreRegisteredWithJmx() throws Exception {
+        init();
+        acquire(4);
+        try {
+            objToTest.acquire(LIMIT_NAME, null);
+            fail("Request over the limit should have been rejected");
+        } catch (final ServiceUserInfoException e) {
+            //expected
+        }
+
+        final ObjectName objectName = new ObjectName(ConcurrencyLimiter.OBJECT_NAME);
+        assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "RejectedCount"),
+                is((Object) Long.valueOf(1)));
+        final CompositeData[] limitMetrics = (CompositeData[]) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(objectName, "LimitMetrics");
+        assertThat(limitMetrics.length, is(1));
+        assertThat(limitMetrics[0].get("name"), is((Object) LIMIT_NAME));
+        assertThat(limitMetrics[0].get("limit"), is((Object) Integer.valueOf(4)));
+        assertThat(limitMetrics[0].get("inFlight"), is((Object) Integer.valueOf(4)));
+        assertThat(limitMetrics[0].get("queueDepth"), is((Object) Integer.valueOf(0)));
+
+        objToTest.destroy();
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName), is(false));
+    }
+
+    private List<ConcurrencyLimiter.Permit> acquire(final int numberOfPermits) {
+        final List<ConcurrencyLimiter.Permit> permits = new ArrayList<ConcurrencyLimiter.Permit>();
+        for (int i = 0; i < numberOfPermits; i++) {
+            permits.add(objToTest.acquire(LIMIT_NAME, null));
+        }
+        return permits;
+    }
+
+    private void release(final List<ConcurrencyLimiter.Permit> permits) {
+        for (final ConcurrencyLimiter.Permit permit : permits) {
+            objToTest.release(permit);
+        }
+    }
+
+    private void release(final List<ConcurrencyLimiter.Permit> permits, final long latencyInNanos) {
+        for (final ConcurrencyLimiter.Permit permit : permits) {
+            objToTest.recordLatency(permit, latencyInNanos);
+        }
+        release(permits);
+    }
+
+    private void init() {
+        objToTest.setQueryExecutorConfiguration(QueryExecutorConfigurationFixture.withProperties(properties));
+        objToTest.init();
+    }
+}
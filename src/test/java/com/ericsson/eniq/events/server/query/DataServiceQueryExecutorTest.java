@@ -5,11 +5,17 @@
  */
 package com.ericsson.eniq.events.server.query;
 
+import com.ericsson.eniq.events.server.common.exception.ServiceException;
+import com.ericsson.eniq.events.server.common.exception.ServiceUserInfoException;
 import com.ericsson.eniq.events.server.datasource.DBConnectionManager;
 import com.ericsson.eniq.events.server.datasource.DataSourceConfigurationException;
 import com.ericsson.eniq.events.server.query.resultsettransformers.ResultSetTransformer;
+import com.ericsson.eniq.events.server.query.resultsettransformers.ResultSetTransformerForRawTables;
 import com.ericsson.eniq.events.server.test.common.BaseJMockUnitTest;
 import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -18,10 +24,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
+import static com.ericsson.eniq.events.server.common.ApplicationConstants.RAW_TABLE_NAME_COLUMN;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * @author EEMECOY
@@ -37,6 +49,8 @@ public class DataServiceQueryExecutorTest extends BaseJMockUnitTest {
 
     private DataServiceQueryExecutor objToTest;
 
+    private QueryMetrics queryMetrics;
+
     @Before
     public void setup() {
         objToTest = new DataServiceQueryExecutor();
@@ -44,6 +58,13 @@ public class DataServiceQueryExecutorTest extends BaseJMockUnitTest {
         this.objToTest.setRequestIdMappings(requestIdMappingService);
         mockedDbConnectionManager = mockery.mock(DBConnectionManager.class);
         objToTest.setDbConnectionManager(mockedDbConnectionManager);
+        objToTest.setQueryExecutorConfiguration(new QueryExecutorConfiguration());
+        objToTest.setPreparedStatementCache(new PreparedStatementCache());
+        objToTest.setConcurrencyLimiter(new ConcurrencyLimiter());
+        objToTest.setQueryAdmissionScheduler(new QueryAdmissionScheduler());
+        queryMetrics = new QueryMetrics();
+        objToTest.setQueryMetrics(queryMetrics);
+        objToTest.setSlowQueryLog(new SlowQueryLog());
     }
 
     public void setRequestIdMappingService(final RequestIdMappingService requestIdMappingService) {
@@ -62,6 +83,217 @@ public class DataServiceQueryExecutorTest extends BaseJMockUnitTest {
         assertThat(result, is(expectedJSONResult));
     }
 
+    @Test
+    public void testGetDataGivesStatementTheTimeRemainingOnTheDeadline() throws Exception {
+        final String query = "some sql query";
+        final Connection mockedConnection = mockery.mock(Connection.class);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        final ResultSet mockedResultSet = mockery.mock(ResultSet.class);
+        mockery.checking(new Expectations() {
+            {
+                one(mockedDbConnectionManager).getConnection(null);
+                will(returnValue(mockedConnection));
+                one(mockedConnection).prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                one(mockedStatement).setQueryTimeout(with(any(Integer.class)));
+                will(new CustomAction("check query timeout") {
+                    @Override
+                    public Object invoke(final Invocation invocation) {
+                        final int timeout = (Integer) invocation.getParameter(0);
+                        assertThat(timeout > 0 && timeout <= 60, is(true));
+                        return null;
+                    }
+                });
+                one(mockedStatement).executeQuery();
+                will(returnValue(mockedResultSet));
+                one(mockedStatement).getMoreResults();
+                will(returnValue(false));
+                one(mockedResultSet).close();
+                one(mockedStatement).close();
+                one(mockedConnection).close();
+            }
+        });
+        setupExpectationsOnRequestIdMappingService(1);
+        final ResultSetTransformer<String> transformer = mockery.mock(ResultSetTransformer.class);
+        final String expectedJSONResult = expect1Transform(transformer, mockedResultSet);
+        QueryDeadline.start(60000);
+        try {
+            assertThat(objToTest.getData(SAMPLE_REQUEST_ID, query, null, transformer, null), is(expectedJSONResult));
+        } finally {
+            QueryDeadline.clear();
+        }
+    }
+
+    @Test(expected = ServiceUserInfoException.class)
+    public void testGetDataFailsFastWithoutTakingConnectionWhenDeadlineHasPassed() {
+        final ResultSetTransformer<String> transformer = mockery.mock(ResultSetTransformer.class);
+        QueryDeadline.start(0);
+        try {
+            objToTest.getData(SAMPLE_REQUEST_ID, "some sql query", null, transformer, null);
+        } finally {
+            QueryDeadline.clear();
+        }
+    }
+
+    @Test
+    public void testResultTruncatedByConfiguredLimitsIsNotCached() throws Exception {
+        final String query = "some sql query";
+        final Properties properties = new Properties();
+        properties.setProperty(QueryExecutorConfiguration.MAX_ROWS_PER_QUERY_PROPERTY, "1");
+        properties.setProperty(QueryExecutorConfiguration.TRUNCATE_RESULT_ON_QUERY_LIMIT_PROPERTY, "true");
+        final QueryExecutorConfiguration queryExecutorConfiguration = new QueryExecutorConfiguration();
+        queryExecutorConfiguration.setEniqEventsProperties(properties);
+        objToTest.setQueryExecutorConfiguration(queryExecutorConfiguration);
+        final QueryResultCache queryResultCache = new QueryResultCache();
+        queryResultCache.setQueryExecutorConfiguration(queryExecutorConfiguration);
+        queryResultCache.init();
+        objToTest.setQueryResultCache(queryResultCache);
+        final CacheableQuery cacheableQuery = new CacheableQuery("SUBSCRIBER_DETAILS", "JSON", 1000L, 2000L);
+
+        final Connection mockedConnection = mockery.mock(Connection.class);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        final ResultSet mockedResultSet = mockery.mock(ResultSet.class);
+        setupExpectationsOnRequestIdMappingService(1);
+        final ResultSetTransformer<String> transformer = mockery.mock(ResultSetTransformer.class);
+        mockery.checking(new Expectations() {
+            {
+                one(mockedDbConnectionManager).getConnection(null);
+                will(returnValue(mockedConnection));
+                one(mockedConnection).prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                one(mockedStatement).executeQuery();
+                will(returnValue(mockedResultSet));
+                allowing(mockedResultSet).next();
+                will(returnValue(true));
+                one(mockedStatement).cancel();
+                one(mockedStatement).getMoreResults();
+                will(returnValue(false));
+                one(mockedResultSet).close();
+                one(mockedStatement).close();
+                one(mockedConnection).close();
+                one(transformer).transform(with(any(ResultSet.class)));
+                will(new CustomAction("read past the row limit") {
+                    @Override
+                    public Object invoke(final Invocation invocation) throws Throwable {
+                        final ResultSet rs = (ResultSet) invocation.getParameter(0);
+                        assertThat(rs.next(), is(true));
+                        assertThat(rs.next(), is(false));
+                        return "truncated json";
+                    }
+                });
+            }
+        });
+        final String result = objToTest.getCachedData(SAMPLE_REQUEST_ID, query, null, transformer, null,
+                cacheableQuery);
+        assertThat(result, is("truncated json"));
+        assertThat(QueryLimits.current() == null, is(true));
+        assertThat(queryResultCache.get(QueryResultCache.createKey(query, null, "JSON"), cacheableQuery) == null,
+                is(true));
+    }
+
+    @Test
+    public void testUpdateDataInRepdbInBatchesRunsAllParameterSetsInOneTransaction() throws Exception {
+        final String query = "update USER_PREFERENCES set SETTINGS = :SETTINGS";
+        final Connection mockedConnection = mockery.mock(Connection.class);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        mockery.checking(new Expectations() {
+            {
+                one(mockedDbConnectionManager).getDwhrepConnection();
+                will(returnValue(mockedConnection));
+                one(mockedConnection).getAutoCommit();
+                will(returnValue(true));
+                one(mockedConnection).setAutoCommit(false);
+                one(mockedConnection).prepareStatement("update USER_PREFERENCES set SETTINGS = ?",
+                        ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                exactly(3).of(mockedStatement).clearParameters();
+                one(mockedStatement).setString(1, "settings1");
+                one(mockedStatement).setString(1, "settings2");
+                one(mockedStatement).setString(1, "settings3");
+                exactly(3).of(mockedStatement).addBatch();
+                one(mockedStatement).executeBatch();
+                will(returnValue(new int[] { 1, 1 }));
+                one(mockedStatement).executeBatch();
+                will(returnValue(new int[] { 0 }));
+                one(mockedConnection).commit();
+                one(mockedConnection).setAutoCommit(true);
+                one(mockedStatement).getMoreResults();
+                will(returnValue(false));
+                one(mockedStatement).close();
+                one(mockedConnection).close();
+                one(requestIdMappingService).isCancelFailedForReqId(SAMPLE_REQUEST_ID);
+                one(requestIdMappingService).put(with(equal(SAMPLE_REQUEST_ID)),
+                        with(any(NamedParameterStatement.class)));
+                allowing(requestIdMappingService).remove(SAMPLE_REQUEST_ID);
+                allowing(requestIdMappingService).removeFailedCancelReqId(SAMPLE_REQUEST_ID);
+            }
+        });
+        final List<Map<String, QueryParameter>> parameterSets = new ArrayList<Map<String, QueryParameter>>();
+        for (int i = 1; i <= 3; i++) {
+            final Map<String, QueryParameter> parameters = new HashMap<String, QueryParameter>();
+            parameters.put("SETTINGS", QueryParameter.createStringParameter("settings" + i));
+            parameterSets.add(parameters);
+        }
+
+        final int[] updateCounts = objToTest.updateDataInRepdbInBatches(SAMPLE_REQUEST_ID, query, parameterSets, 2);
+
+        assertArrayEquals(new int[] { 1, 1, 0 }, updateCounts);
+    }
+
+    @Test
+    public void testUpdateDataInRepdbInBatchesRollsBackWhenBatchFails() throws Exception {
+        final String query = "delete from USER_PREFERENCES where USER_ID = :USER_ID";
+        final Connection mockedConnection = mockery.mock(Connection.class);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        mockery.checking(new Expectations() {
+            {
+                one(mockedDbConnectionManager).getDwhrepConnection();
+                will(returnValue(mockedConnection));
+                one(mockedConnection).getAutoCommit();
+                will(returnValue(true));
+                one(mockedConnection).setAutoCommit(false);
+                one(mockedConnection).prepareStatement("delete from USER_PREFERENCES where USER_ID = ?",
+                        ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                one(mockedStatement).clearParameters();
+                one(mockedStatement).setString(1, "user1");
+                one(mockedStatement).addBatch();
+                one(mockedStatement).executeBatch();
+                will(throwException(new SQLException("batch failed")));
+                one(mockedStatement).clearBatch();
+                one(mockedConnection).rollback();
+                one(mockedConnection).setAutoCommit(true);
+                allowing(mockedStatement).getMoreResults();
+                will(returnValue(false));
+                one(mockedStatement).close();
+                one(mockedConnection).close();
+                allowing(requestIdMappingService).isCancelFailedForReqId(SAMPLE_REQUEST_ID);
+                allowing(requestIdMappingService).put(with(equal(SAMPLE_REQUEST_ID)),
+                        with(any(NamedParameterStatement.class)));
+                allowing(requestIdMappingService).remove(SAMPLE_REQUEST_ID);
+                allowing(requestIdMappingService).removeFailedCancelReqId(SAMPLE_REQUEST_ID);
+            }
+        });
+        final Map<String, QueryParameter> parameters = new HashMap<String, QueryParameter>();
+        parameters.put("USER_ID", QueryParameter.createStringParameter("user1"));
+        final List<Map<String, QueryParameter>> parameterSets = new ArrayList<Map<String, QueryParameter>>();
+        parameterSets.add(parameters);
+
+        try {
+            objToTest.updateDataInRepdbInBatches(SAMPLE_REQUEST_ID, query, parameterSets, 2);
+            fail("ServiceException should have been thrown");
+        } catch (final ServiceException expected) {
+            //expected - rollback is verified by the mockery
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullParameterSetsAreRefusedBeforeConnectionIsCheckedOut() {
+        //no expectations on the DBConnectionManager - a connection checked out here would be leaked
+        objToTest.updateDataInRepdbInBatches(SAMPLE_REQUEST_ID, "delete from USER_PREFERENCES where USER_ID = :USER_ID",
+                null, 2);
+    }
+
     @Test
     public void testGetDataWithMultipleQueries() throws Exception {
         final String query1 = "1st sql query";
@@ -75,6 +307,170 @@ public class DataServiceQueryExecutorTest extends BaseJMockUnitTest {
         final String expectedJSONResult = expectMultipleTransforms(transformer, mockedResultSets);
         final String result = objToTest.getDataForMultipleQueries(SAMPLE_REQUEST_ID, queries, null, transformer, null);
         assertThat(result, is(expectedJSONResult));
+        assertThat(queryMetrics.getQueryCount(), is(2L));
+        assertThat(queryMetrics.getFailureCount(), is(0L));
+    }
+
+    @Test
+    public void testGetDataWithMultipleQueriesClosesEachConnectionBeforeTheNextQueryForAccumulatingTransformer()
+            throws Exception {
+        final Sequence connections = mockery.sequence("connections");
+        for (final String query : new String[] { "1st sql query", "2nd sql query" }) {
+            final Connection mockedConnection = mockery.mock(Connection.class, "connectionForQuery" + query);
+            final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class, "statementForQuery"
+                    + query);
+            final ResultSet mockedResultSet = mockery.mock(ResultSet.class, "resultset for query" + query);
+            mockery.checking(new Expectations() {
+                {
+                    one(mockedDbConnectionManager).getConnection(null);
+                    inSequence(connections);
+                    will(returnValue(mockedConnection));
+                    one(mockedConnection).prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+                            ResultSet.CONCUR_READ_ONLY);
+                    will(returnValue(mockedStatement));
+                    one(mockedStatement).executeQuery();
+                    will(returnValue(mockedResultSet));
+                    exactly(2).of(mockedResultSet).next();
+                    will(onConsecutiveCalls(returnValue(true), returnValue(false)));
+                    one(mockedResultSet).getString(RAW_TABLE_NAME_COLUMN);
+                    will(returnValue("table for " + query));
+                    one(mockedResultSet).close();
+                    one(mockedStatement).getMoreResults();
+                    will(returnValue(false));
+                    one(mockedStatement).close();
+                    one(mockedConnection).close();
+                    inSequence(connections);
+                    one(requestIdMappingService).removeStatement(with(equal(SAMPLE_REQUEST_ID)),
+                            with(any(NamedParameterStatement.class)));
+                }
+            });
+        }
+        setupExpectationsOnRequestIdMappingService(2);
+        final List<String> queries = new ArrayList<String>();
+        queries.add("1st sql query");
+        queries.add("2nd sql query");
+        final List<String> result = objToTest.getDataForMultipleQueries(SAMPLE_REQUEST_ID, queries, null,
+                new ResultSetTransformerForRawTables(), null);
+        final List<String> expectedResult = new ArrayList<String>();
+        expectedResult.add("table for 1st sql query");
+        expectedResult.add("table for 2nd sql query");
+        assertThat(result, is(expectedResult));
+        assertThat(queryMetrics.getQueryCount(), is(2L));
+    }
+
+    @Test
+    public void testGetDataWithMultipleQueriesInParallel() throws Exception {
+        final List<String> queries = new ArrayList<String>();
+        queries.add("1st sql query");
+        queries.add("2nd sql query");
+        queries.add("3rd sql query");
+        final List<ResultSet> mockedResultSets = setUpDatabaseExpectationsForMultipleQueries(queries);
+        setupExpectationsOnRequestIdMappingServiceForParallelQueries(3);
+        final ResultSetTransformer<String> transformer = mockery.mock(ResultSetTransformer.class);
+        final String expectedJSONResult = expectMultipleTransforms(transformer, mockedResultSets);
+        final QueryExecutorThreadPools threadPools = createThreadPools();
+        try {
+            final String result = objToTest.getDataForMultipleQueriesInParallel(SAMPLE_REQUEST_ID, queries, null,
+                    transformer, null);
+            assertThat(result, is(expectedJSONResult));
+            assertThat(queryMetrics.getQueryCount(), is(3L));
+        } finally {
+            threadPools.shutdownThreadPools();
+        }
+    }
+
+    @Test
+    public void testGetDataWithMultipleQueriesInParallelClosesAllConnectionsWhenQueryFails() throws Exception {
+        final String goodQuery = "good sql query";
+        final String badQuery = "bad sql query";
+        final List<String> queries = new ArrayList<String>();
+        queries.add(goodQuery);
+        queries.add(badQuery);
+        allowDatabaseExpectationsForQuery(goodQuery);
+        final Connection mockedConnection = mockery.mock(Connection.class, "connectionForQuery" + badQuery);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class, "statementForQuery" + badQuery);
+        mockery.checking(new Expectations() {
+            {
+                one(mockedDbConnectionManager).getConnection(null);
+                will(returnValue(mockedConnection));
+                one(mockedConnection).prepareStatement(badQuery, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                one(mockedStatement).executeQuery();
+                will(throwException(new SQLException("query failed")));
+                allowing(mockedStatement).cancel();
+                one(mockedStatement).close();
+                one(mockedConnection).close();
+            }
+        });
+        mockery.checking(new Expectations() {
+            {
+                allowing(requestIdMappingService).isCancelFailedForReqId(SAMPLE_REQUEST_ID);
+                allowing(requestIdMappingService).put(with(equal(SAMPLE_REQUEST_ID)),
+                        with(any(NamedParameterStatement.class)));
+                allowing(requestIdMappingService).remove(SAMPLE_REQUEST_ID);
+                allowing(requestIdMappingService).removeFailedCancelReqId(SAMPLE_REQUEST_ID);
+            }
+        });
+        final ResultSetTransformer<String> transformer = mockery.mock(ResultSetTransformer.class);
+        final QueryExecutorThreadPools threadPools = createThreadPools();
+        try {
+            objToTest.getDataForMultipleQueriesInParallel(SAMPLE_REQUEST_ID, queries, null, transformer, null);
+            fail("ServiceException should have been thrown");
+        } catch (final ServiceException expected) {
+            //expected - connections are verified as closed by the mockery
+            assertThat(queryMetrics.getFailureCount(), is(1L));
+        } finally {
+            threadPools.shutdownThreadPools();
+        }
+    }
+
+    /**
+     * the good query may or may not get to run before the bad query fails, but if its connection is opened then
+     * it must be closed
+     */
+    private void allowDatabaseExpectationsForQuery(final String query) throws SQLException,
+            DataSourceConfigurationException {
+        final Connection mockedConnection = mockery.mock(Connection.class, "connectionForQuery" + query);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class, "statementForQuery" + query);
+        final ResultSet mockedResultSet = mockery.mock(ResultSet.class, "resultset for query" + query);
+        mockery.checking(new Expectations() {
+            {
+                atMost(1).of(mockedDbConnectionManager).getConnection(null);
+                will(returnValue(mockedConnection));
+                atMost(1).of(mockedConnection).prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                atMost(1).of(mockedStatement).executeQuery();
+                will(returnValue(mockedResultSet));
+                allowing(mockedStatement).cancel();
+                atMost(1).of(mockedResultSet).close();
+                atMost(1).of(mockedStatement).close();
+                atMost(1).of(mockedConnection).close();
+            }
+        });
+    }
+
+    private QueryExecutorThreadPools createThreadPools() {
+        final QueryExecutorThreadPools threadPools = new QueryExecutorThreadPools();
+        threadPools.setQueryExecutorConfiguration(new QueryExecutorConfiguration());
+        threadPools.createThreadPools();
+        objToTest.setQueryExecutorThreadPools(threadPools);
+        return threadPools;
+    }
+
+    private void setupExpectationsOnRequestIdMappingServiceForParallelQueries(final int numberOfQueries) {
+        mockery.checking(new Expectations() {
+            {
+                one(requestIdMappingService).isCancelFailedForReqId(SAMPLE_REQUEST_ID);
+                exactly(numberOfQueries).of(requestIdMappingService).put(with(equal(SAMPLE_REQUEST_ID)),
+                        with(any(NamedParameterStatement.class)));
+                one(requestIdMappingService).containsKey(SAMPLE_REQUEST_ID);
+                will(returnValue(true));
+                allowing(requestIdMappingService).remove(SAMPLE_REQUEST_ID);
+                allowing(requestIdMappingService).removeFailedCancelReqId(SAMPLE_REQUEST_ID);
+            }
+        });
     }
 
     private List<ResultSet> setUpDatabaseExpectationsForMultipleQueries(final List<String> queries)
@@ -94,7 +490,7 @@ public class DataServiceQueryExecutorTest extends BaseJMockUnitTest {
                 {
                     one(mockedDbConnectionManager).getConnection(null);
                     will(returnValue(mockedConnection));
-                    one(mockedConnection).prepareStatement(query, ResultSet.TYPE_SCROLL_INSENSITIVE,
+                    one(mockedConnection).prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY,
                             ResultSet.CONCUR_READ_ONLY);
                     will(returnValue(mockedStatement));
                     one(mockedStatement).executeQuery();
@@ -161,7 +557,7 @@ public class DataServiceQueryExecutorTest extends BaseJMockUnitTest {
             {
                 one(mockedDbConnectionManager).getConnection(null);
                 will(returnValue(mockedConnection));
-                one(mockedConnection).prepareStatement(sqlQuery, ResultSet.TYPE_SCROLL_INSENSITIVE,
+                one(mockedConnection).prepareStatement(sqlQuery, ResultSet.TYPE_FORWARD_ONLY,
                         ResultSet.CONCUR_READ_ONLY);
                 will(returnValue(mockedStatement));
                 one(mockedStatement).executeQuery();
@@ -0,0 +1,110 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class HedgedQueryPolicyTest {
+
+    private static final String QUERY = "select * from EVENT_E_SGEH_ERR_RAW where IMSI = :IMSI";
+
+    private HedgedQueryPolicy objToTest;
+
+    private Properties properties;
+
+    @Before
+    public void setup() {
+        properties = new Properties();
+        properties.setProperty(QueryExecutorConfiguration.HEDGED_QUERIES_ENABLED_PROPERTY, "true");
+        properties.setProperty(QueryExecutorConfiguration.HEDGE_DEFAULT_DELAY_PROPERTY, "1000");
+        properties.setProperty(QueryExecutorConfiguration.HEDGE_MINIMUM_DELAY_PROPERTY, "10");
+        properties.setProperty(QueryExecutorConfiguration.HEDGE_LATENCY_PERCENTILE_PROPERTY, "90");
+        objToTest = new HedgedQueryPolicy();
+    }
+
+    @Test
+    public void testHedgingIsDisabledByDefault() {
+        objToTest.setQueryExecutorConfiguration(new QueryExecutorConfiguration());
+        objToTest.init();
+        assertThat(objToTest.isEnabled(), is(false));
+    }
+
+    @Test
+    public void testDefaultDelayIsUsedUntilEnoughLatenciesAreRecorded() {
+        init();
+        assertThat(objToTest.getHedgeDelayInNanos(QUERY), is(TimeUnit.MILLISECONDS.toNanos(1000)));
+    }
+
+    @Test
+    public void testDelayIsPercentileOfRecordedLatencies() {
+        init();
+        for (int i = 1; i <= 100; i++) {
+            objToTest.recordLatency(QUERY, TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertThat(objToTest.getHedgeDelayInNanos(QUERY), is(TimeUnit.MILLISECONDS.toNanos(90)));
+    }
+
+    @Test
+    public void testDelayIsNeverLessThanMinimumDelay() {
+        init();
+        for (int i = 0; i < HedgedQueryPolicy.MINIMUM_SAMPLES; i++) {
+            objToTest.recordLatency(QUERY, 1);
+        }
+        assertThat(objToTest.getHedgeDelayInNanos(QUERY), is(TimeUnit.MILLISECONDS.toNanos(10)));
+    }
+
+    @Test
+    public void testHedgesAreLimitedToBurstPlusRatePercentOfQueries() {
+        properties.setProperty(QueryExecutorConfiguration.HEDGE_RATE_PERCENT_PROPERTY, "10");
+        properties.setProperty(QueryExecutorConfiguration.HEDGE_BURST_PROPERTY, "2");
+        init();
+
+        assertThat(objToTest.tryAcquireHedge(QUERY), is(true));
+        assertThat(objToTest.tryAcquireHedge(QUERY), is(true));
+        assertThat(objToTest.tryAcquireHedge(QUERY), is(false));
+
+        for (int i = 0; i < 10; i++) {
+            objToTest.recordQuery(QUERY);
+        }
+        assertThat(objToTest.tryAcquireHedge(QUERY), is(true));
+        assertThat(objToTest.tryAcquireHedge(QUERY), is(false));
+
+        assertThat(objToTest.getHedgeCount(), is(3L));
+        assertThat(objToTest.getRejectedHedgeCount(), is(2L));
+        assertThat(objToTest.getTemplateCounts(QUERY), is(new long[] { 10, 3, 0, 2, 0 }));
+    }
+
+    @Test
+    public void testSkippedHedgeIsNotCountedAsSentAndGivesBackItsToken() {
+        properties.setProperty(QueryExecutorConfiguration.HEDGE_RATE_PERCENT_PROPERTY, "10");
+        properties.setProperty(QueryExecutorConfiguration.HEDGE_BURST_PROPERTY, "1");
+        init();
+
+        assertThat(objToTest.tryAcquireHedge(QUERY), is(true));
+        objToTest.recordSkippedHedge(QUERY);
+        assertThat(objToTest.tryAcquireHedge(QUERY), is(true));
+        assertThat(objToTest.tryAcquireHedge(QUERY), is(false));
+
+        assertThat(objToTest.getHedgeCount(), is(1L));
+        assertThat(objToTest.getSkippedHedgeCount(), is(1L));
+        assertThat(objToTest.getTemplateCounts(QUERY), is(new long[] { 0, 1, 0, 1, 1 }));
+    }
+
+    private void init() {
+        objToTest.setQueryExecutorConfiguration(QueryExecutorConfigurationFixture.withProperties(properties));
+        objToTest.init();
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.query.resultsettransformers.AccumulatingResultSetTransformer;
+import com.ericsson.eniq.events.server.query.resultsettransformers.ResultSetAccumulator;
+
+/**
+ * @author eemecoy
+ *
+ */
+public class KeyDemultiplexingAccumulatorTest {
+
+    private static final String KEY_COLUMN = "TAC";
+
+    private static final String VALUE_COLUMN = "VALUE";
+
+    private final AccumulatingResultSetTransformer<List<String>> transformer = new AccumulatingResultSetTransformer<List<String>>() {
+        @Override
+        public ResultSetAccumulator<List<String>> createAccumulator() {
+            return new ResultSetAccumulator<List<String>>() {
+                private final List<String> values = new ArrayList<String>();
+
+                @Override
+                public void accumulate(final ResultSet rs) throws SQLException {
+                    while (rs.next()) {
+                        values.add(rs.getString(VALUE_COLUMN));
+                    }
+                }
+
+                @Override
+                public List<String> getResult() {
+                    return values;
+                }
+            };
+        }
+    };
+
+    @Test
+    public void testRowsAreSplitByKey() throws SQLException {
+        final KeyDemultiplexingAccumulator<Long, List<String>> accumulator = new KeyDemultiplexingAccumulator<Long, List<String>>(
+                Arrays.asList(3L, 1L, 2L), KEY_COLUMN, transformer);
+        accumulator.accumulate(resultSet(new Object[][] { { 1L, "a" }, { 1L, "b" }, { 3L, "c" }, { 1L, "d" } }));
+        final Map<Long, List<String>> result = accumulator.getResult();
+        assertThat(new ArrayList<Long>(result.keySet()), is(Arrays.asList(3L, 1L, 2L)));
+        assertThat(result.get(1L), is(Arrays.asList("a", "b", "d")));
+        assertThat(result.get(2L).isEmpty(), is(true));
+        assertThat(result.get(3L), is(Arrays.asList("c")));
+    }
+
+    @Test
+    public void testRowsForKeysNotAskedForAreSkipped() throws SQLException {
+        final KeyDemultiplexingAccumulator<String, List<String>> accumulator = new KeyDemultiplexingAccumulator<String, List<String>>(
+                Arrays.asList("x"), KEY_COLUMN, transformer);
+        accumulator.accumulate(resultSet(new Object[][] { { "y", "a" }, { null, "b" }, { "x", "c" }, { "y", "d" } }));
+        assertThat(accumulator.getResult().get("x"), is(Arrays.asList("c")));
+    }
+
+    @Test
+    public void testEachResultSetOfChunkedKeysIsSplit() throws SQLException {
+        final KeyDemultiplexingAccumulator<Long, List<String>> accumulator = new KeyDemultiplexingAccumulator<Long, List<String>>(
+                Arrays.asList(1L, 2L, 2L, 3L), KEY_COLUMN, transformer);
+        final List<QueryParameter> keyParameters = accumulator.getKeyParameters(2);
+        assertThat(keyParameters.size(), is(2));
+        assertThat(keyParameters.get(0), is(QueryParameter.createLongListParameter(1L, 2L)));
+        assertThat(keyParameters.get(1), is(QueryParameter.createLongListParameter(3L)));
+        accumulator.accumulate(resultSet(new Object[][] { { 1L, "a" }, { 2L, "b" } }));
+        accumulator.accumulate(resultSet(new Object[][] { { 3L, "c" } }));
+        assertThat(accumulator.getResult().toString(), is("{1=[a], 2=[b], 3=[c]}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeysOfMixedTypesAreRefused() {
+        new KeyDemultiplexingAccumulator<Object, List<String>>(Arrays.<Object> asList(1L, "2"), KEY_COLUMN,
+                transformer);
+    }
+
+    /**
+     * @param rows key and value of each row
+     */
+    private ResultSet resultSet(final Object[][] rows) {
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class },
+                new InvocationHandler() {
+                    private int row = -1;
+
+                    private boolean wasNull;
+
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String methodName = method.getName();
+                        if ("next".equals(methodName)) {
+                            return ++row < rows.length;
+                        }
+                        if ("wasNull".equals(methodName)) {
+                            return wasNull;
+                        }
+                        final Object value = rows[row][KEY_COLUMN.equals(args[0]) ? 0 : 1];
+                        wasNull = value == null;
+                        if ("getLong".equals(methodName)) {
+                            return value == null ? 0L : value;
+                        }
+                        return value == null ? null : value.toString();
+                    }
+                });
+    }
+}
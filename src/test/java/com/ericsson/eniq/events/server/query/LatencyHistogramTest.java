@@ -0,0 +1,65 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram objToTest = new LatencyHistogram();
+
+    @Test
+    public void testEmptyHistogramReturnsZero() {
+        assertThat(objToTest.getCount(), is(0L));
+        assertThat(objToTest.getValueAtPercentileInMicros(99), is(0L));
+        assertThat(objToTest.getMeanInMicros(), is(0.0));
+    }
+
+    @Test
+    public void testEveryValueIsCountedInABucketThatHoldsIt() {
+        for (long micros = 0; micros < 100000; micros += 7) {
+            final int bucket = LatencyHistogram.bucketFor(micros);
+            assertThat(micros <= LatencyHistogram.highestValueInBucket(bucket), is(true));
+            assertThat(bucket == 0 || micros > LatencyHistogram.highestValueInBucket(bucket - 1), is(true));
+        }
+        assertThat(LatencyHistogram.bucketFor(LatencyHistogram.MAXIMUM_VALUE_IN_MICROS),
+                is(LatencyHistogram.NUMBER_OF_BUCKETS - 1));
+    }
+
+    @Test
+    public void testPercentilesAreWithinBucketPrecision() {
+        for (int millis = 1; millis <= 1000; millis++) {
+            objToTest.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        assertThat(objToTest.getCount(), is(1000L));
+        assertThat(objToTest.getMaximumInMicros(), is(1000000L));
+        assertWithinPrecision(objToTest.getValueAtPercentileInMicros(50), 500000);
+        assertWithinPrecision(objToTest.getValueAtPercentileInMicros(99), 990000);
+        assertThat(objToTest.getValueAtPercentileInMicros(100), is(1000000L));
+        assertWithinPrecision((long) objToTest.getMeanInMicros(), 500500);
+    }
+
+    @Test
+    public void testNegativeLatencyIsIgnoredAndHugeLatencyIsCapped() {
+        objToTest.recordNanos(-1);
+        objToTest.recordNanos(Long.MAX_VALUE);
+        assertThat(objToTest.getCount(), is(1L));
+        assertThat(objToTest.getMaximumInMicros(), is(LatencyHistogram.MAXIMUM_VALUE_IN_MICROS));
+    }
+
+    private void assertWithinPrecision(final long actual, final long expected) {
+        assertThat("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 16,
+                is(true));
+    }
+}
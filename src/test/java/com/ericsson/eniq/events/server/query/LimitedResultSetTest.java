@@ -0,0 +1,155 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.sql.ResultSet;
+import java.sql.SQLFeatureNotSupportedException;
+
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.test.common.BaseJMockUnitTest;
+
+/**
+ * @author eemecoy
+ */
+public class LimitedResultSetTest extends BaseJMockUnitTest {
+
+    private ResultSet mockedResultSet;
+
+    private NamedParameterStatement mockedStatement;
+
+    @Before
+    public void setup() {
+        mockedResultSet = mockery.mock(ResultSet.class);
+        mockedStatement = mockery.mock(NamedParameterStatement.class);
+    }
+
+    @Test
+    public void testRowsAndBytesAreCountedWhenThereAreNoLimits() throws Exception {
+        mockery.checking(new Expectations() {
+            {
+                exactly(2).of(mockedResultSet).next();
+                will(returnValue(true));
+                one(mockedResultSet).next();
+                will(returnValue(false));
+                exactly(2).of(mockedResultSet).getString(1);
+                will(returnValue("four"));
+                exactly(2).of(mockedResultSet).getInt(2);
+                will(returnValue(4));
+            }
+        });
+        final ResultSet countedResultSet = LimitedResultSet.limit(mockedResultSet, mockedStatement, null);
+
+        while (countedResultSet.next()) {
+            countedResultSet.getString(1);
+            countedResultSet.getInt(2);
+        }
+        assertThat(LimitedResultSet.getRowsRead(countedResultSet), is(2L));
+        assertThat(LimitedResultSet.getBytesRead(countedResultSet), is(2 * (16 + 8 + 16L)));
+        assertThat(LimitedResultSet.getRowsRead(mockedResultSet), is(-1L));
+    }
+
+    @Test
+    public void testTypedGetObjectIsReadWithGetObjectAndChecked() throws Exception {
+        mockery.checking(new Expectations() {
+            {
+                one(mockedResultSet).getObject(1);
+                will(returnValue("four"));
+                one(mockedResultSet).getObject("TAC");
+                will(returnValue("four"));
+            }
+        });
+        final ResultSet countedResultSet = LimitedResultSet.limit(mockedResultSet, mockedStatement, null);
+
+        assertThat(countedResultSet.getObject(1, String.class), is("four"));
+        assertThat(LimitedResultSet.getBytesRead(countedResultSet), is(16 + 8L));
+        try {
+            countedResultSet.getObject("TAC", Integer.class);
+            fail("SQLFeatureNotSupportedException should have been thrown");
+        } catch (final SQLFeatureNotSupportedException expected) {
+            //the value isn't converted to the type asked for
+        }
+    }
+
+    @Test
+    public void testNoLimitsNeverCancelsTheStatement() throws Exception {
+        mockery.checking(new Expectations() {
+            {
+                exactly(3).of(mockedResultSet).next();
+                will(returnValue(true));
+            }
+        });
+        final ResultSet countedResultSet = LimitedResultSet.limit(mockedResultSet, mockedStatement, new QueryLimits(
+                QueryLimits.NO_LIMIT, QueryLimits.NO_LIMIT, true));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(countedResultSet.next(), is(true));
+        }
+        assertThat(LimitedResultSet.getRowsRead(countedResultSet), is(3L));
+    }
+
+    @Test
+    public void testResultIsTruncatedAndStatementCancelledWhenRowLimitIsReached() throws Exception {
+        mockery.checking(new Expectations() {
+            {
+                exactly(3).of(mockedResultSet).next();
+                will(returnValue(true));
+                one(mockedStatement).cancelExecution();
+            }
+        });
+        final QueryLimits limits = new QueryLimits(2, QueryLimits.NO_LIMIT, true);
+        final ResultSet limitedResultSet = LimitedResultSet.limit(mockedResultSet, mockedStatement, limits);
+
+        assertThat(limitedResultSet.next(), is(true));
+        assertThat(limitedResultSet.next(), is(true));
+        assertThat(limitedResultSet.next(), is(false));
+        assertThat(limitedResultSet.next(), is(false));
+        assertThat(limits.wasTruncated(), is(true));
+    }
+
+    @Test
+    public void testResultWithExactlyMaxRowsIsNotTruncated() throws Exception {
+        mockery.checking(new Expectations() {
+            {
+                exactly(2).of(mockedResultSet).next();
+                will(returnValue(true));
+                one(mockedResultSet).next();
+                will(returnValue(false));
+            }
+        });
+        final QueryLimits limits = new QueryLimits(2, QueryLimits.NO_LIMIT, true);
+        final ResultSet limitedResultSet = LimitedResultSet.limit(mockedResultSet, mockedStatement, limits);
+
+        while (limitedResultSet.next()) {
+            //read all rows
+        }
+        assertThat(limits.wasTruncated(), is(false));
+    }
+
+    @Test(expected = QueryLimitExceededException.class)
+    public void testQueryFailsWhenByteLimitIsReachedAndLimitsAreNotSetToTruncate() throws Exception {
+        mockery.checking(new Expectations() {
+            {
+                allowing(mockedResultSet).next();
+                will(returnValue(true));
+                allowing(mockedResultSet).getString(1);
+                will(returnValue("a string value that takes more than 64 bytes to hold in memory"));
+                one(mockedStatement).cancelExecution();
+            }
+        });
+        final ResultSet limitedResultSet = LimitedResultSet.limit(mockedResultSet, mockedStatement, new QueryLimits(
+                QueryLimits.NO_LIMIT, 64, false));
+
+        while (limitedResultSet.next()) {
+            limitedResultSet.getString(1);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class NamedParameterStatementParseTest {
+
+    @Test
+    public void testParametersAreReplacedAndIndexed() {
+        final Map<String, int[]> indexes = new HashMap<String, int[]>();
+        final String parsedSql = NamedParameterStatement.parse(
+                "select * from EVENT_E_SGEH_ERR_RAW where IMSI = :IMSI and (APN = :APN or OLD_APN = :APN)", indexes);
+
+        assertThat(parsedSql, is("select * from EVENT_E_SGEH_ERR_RAW where IMSI = ? and (APN = ? or OLD_APN = ?)"));
+        assertThat(indexes.size(), is(2));
+        assertArrayEquals(new int[] { 1 }, indexes.get("IMSI"));
+        assertArrayEquals(new int[] { 2, 3 }, indexes.get("APN"));
+    }
+
+    @Test
+    public void testColonsInCommentsAreNotParameters() {
+        final String query = "select IMSI -- only for :type\n from EVENT_E_SGEH_ERR_RAW /* not :IMSI either */ "
+                + "where IMSI = :IMSI /* unclosed :comment";
+        final Map<String, int[]> indexes = new HashMap<String, int[]>();
+        final String parsedSql = NamedParameterStatement.parse(query, indexes);
+
+        assertThat(parsedSql, is("select IMSI -- only for :type\n from EVENT_E_SGEH_ERR_RAW /* not :IMSI either */ "
+                + "where IMSI = ? /* unclosed :comment"));
+        assertThat(indexes.keySet().toString(), is("[IMSI]"));
+    }
+
+    @Test
+    public void testCastsTimesAndQuotedTextAreNotParameters() {
+        final String query = "select DATETIME::varchar, 'it''s :quoted', \"col:name\" from EVENT_E_SGEH_ERR_RAW "
+                + "where DATETIME_ID >= :dateFrom and EVENT_TIME < '10:30:00' and HOUR_ID between 10:30 and :hour";
+        final Map<String, int[]> indexes = new HashMap<String, int[]>();
+        final String parsedSql = NamedParameterStatement.parse(query, indexes);
+
+        assertThat(parsedSql, is("select DATETIME::varchar, 'it''s :quoted', \"col:name\" from EVENT_E_SGEH_ERR_RAW "
+                + "where DATETIME_ID >= ? and EVENT_TIME < '10:30:00' and HOUR_ID between 10:30 and ?"));
+        assertArrayEquals(new int[] { 1 }, indexes.get("dateFrom"));
+        assertArrayEquals(new int[] { 2 }, indexes.get("hour"));
+        assertThat(indexes.size(), is(2));
+    }
+
+    @Test
+    public void testParameterManifestFindsMissingAndExtraParameters() {
+        final ParsedQuery parsedQuery = ParsedQuery
+                .parse("select * from EVENT_E_SGEH_ERR_RAW where TAC = :TAC and IMSI = :IMSI -- :notInManifest");
+        assertThat(parsedQuery.getParameterNames(), is(Arrays.asList("IMSI", "TAC")));
+
+        final Map<String, QueryParameter> parameters = new HashMap<String, QueryParameter>();
+        parameters.put("IMSI", QueryParameter.createLongParameter(460000123456789L));
+        assertThat(parsedQuery.checkParameters(parameters), is(false));
+        parameters.put("TAC", QueryParameter.createLongParameter(35123456L));
+        assertThat(parsedQuery.checkParameters(parameters), is(true));
+        parameters.put("APN", QueryParameter.createStringParameter("apn"));
+        assertThat(parsedQuery.checkParameters(parameters), is(false));
+        assertThat(parsedQuery.checkParameters(null), is(false));
+    }
+
+    /**
+     * JMH isn't available to the build, so the scanner is compared with the parser it replaced on a large UNION
+     * query (of the shape of the raw table templates) for identical results instead
+     */
+    @Test
+    public void testResultIsTheSameAsThePreviousParserForLargeUnionQuery() {
+        final String query = createLargeUnionQuery(64);
+        final Map<String, int[]> indexes = new HashMap<String, int[]>();
+        final Map<String, int[]> previousIndexes = new HashMap<String, int[]>();
+
+        final String parsedSql = NamedParameterStatement.parse(query, indexes);
+
+        assertThat(parsedSql, is(previousParse(query, previousIndexes)));
+        assertThat(indexes.keySet(), is(previousIndexes.keySet()));
+        for (final String name : indexes.keySet()) {
+            assertArrayEquals(previousIndexes.get(name), indexes.get(name));
+        }
+        assertThat(indexes.get("IMSI").length, is(64));
+    }
+
+    private String createLargeUnionQuery(final int numberOfTables) {
+        final StringBuilder query = new StringBuilder("select IMSI, count(*) from (\n");
+        for (int i = 0; i < numberOfTables; i++) {
+            if (i > 0) {
+                query.append("\nunion all\n");
+            }
+            query.append("select IMSI, EVENT_ID, 'SGEH:").append(i).append("' as SOURCE from EVENT_E_SGEH_ERR_RAW_")
+                    .append(i).append(" where DATETIME_ID >= :dateFrom and DATETIME_ID < :dateTo and IMSI = :IMSI")
+                    .append(" and TAC not in (select TAC from GROUP_TYPE_E_TAC where GROUP_NAME = :tacGroup)");
+        }
+        return query.append("\n) as RAW group by IMSI").toString();
+    }
+
+    /**
+     * The parser as it was before the single pass scanner
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static String previousParse(final String query, final Map paramMap) {
+        final int length = query.length();
+        final StringBuffer parsedQuery = new StringBuffer(length);
+        boolean inSingleQuote = false;
+        boolean inDoubleQuote = false;
+        int index = 1;
+
+        for (int i = 0; i < length; i++) {
+            char c = query.charAt(i);
+            if (inSingleQuote) {
+                if (c == '\'') {
+                    inSingleQuote = false;
+                }
+            } else if (inDoubleQuote) {
+                if (c == '"') {
+                    inDoubleQuote = false;
+                }
+            } else {
+                if (c == '\'') {
+                    inSingleQuote = true;
+                } else if (c == '"') {
+                    inDoubleQuote = true;
+                } else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(query.charAt(i + 1))) {
+                    int j = i + 2;
+                    while (j < length && Character.isJavaIdentifierPart(query.charAt(j))) {
+                        j++;
+                    }
+                    final String name = query.substring(i + 1, j);
+                    c = '?';
+                    i += name.length();
+
+                    List indexList = (List) paramMap.get(name);
+                    if (indexList == null) {
+                        indexList = new LinkedList();
+                        paramMap.put(name, indexList);
+                    }
+                    indexList.add(Integer.valueOf(index));
+
+                    index++;
+                }
+            }
+            parsedQuery.append(c);
+        }
+
+        for (final Iterator itr = paramMap.entrySet().iterator(); itr.hasNext();) {
+            final Map.Entry entry = (Map.Entry) itr.next();
+            final List list = (List) entry.getValue();
+            final int[] indexes = new int[list.size()];
+            int i = 0;
+            for (final Iterator itr2 = list.iterator(); itr2.hasNext();) {
+                indexes[i++] = ((Integer) itr2.next()).intValue();
+            }
+            entry.setValue(indexes);
+        }
+
+        return parsedQuery.toString();
+    }
+}
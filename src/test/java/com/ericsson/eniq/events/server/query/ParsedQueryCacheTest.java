@@ -0,0 +1,74 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class ParsedQueryCacheTest {
+
+    private static final String QUERY = "select * from EVENT_E_SGEH_ERR_RAW where IMSI = :IMSI and APN = :APN or "
+            + "OLD_APN = :APN";
+
+    private ParsedQueryCache objToTest;
+
+    @Before
+    public void setup() {
+        objToTest = new ParsedQueryCache(ParsedQueryCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    @Test
+    public void testQueryIsParsedOnceAndThenServedFromCache() {
+        final ParsedQuery firstParse = objToTest.get(QUERY);
+        final ParsedQuery secondParse = objToTest.get(QUERY);
+
+        assertThat(secondParse, is(sameInstance(firstParse)));
+        assertThat(objToTest.getMissCount(), is(1L));
+        assertThat(objToTest.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void testParsedQueryHasParameterIndexes() {
+        final ParsedQuery parsedQuery = objToTest.get(QUERY);
+
+        assertThat(parsedQuery.getParsedSql(),
+                is("select * from EVENT_E_SGEH_ERR_RAW where IMSI = ? and APN = ? or OLD_APN = ?"));
+        assertThat(parsedQuery.getNumberOfParameters(), is(2));
+        assertArrayEquals(new int[] { 1 }, parsedQuery.getIndexes("IMSI"));
+        assertArrayEquals(new int[] { 2, 3 }, parsedQuery.getIndexes("APN"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testIndexMapCantBeModified() {
+        objToTest.get(QUERY).getIndexMap().remove("IMSI");
+    }
+
+    @Test
+    public void testLeastRecentlyUsedQueriesAreEvictedOnceCacheIsFull() {
+        objToTest.setMaximumSize(1);
+        final int numberOfQueries = 100;
+        for (int i = 0; i < numberOfQueries; i++) {
+            objToTest.get(QUERY + " and ID = " + i);
+        }
+
+        assertThat(objToTest.getMissCount(), is((long) numberOfQueries));
+        assertTrue(objToTest.size() < numberOfQueries);
+        assertThat(objToTest.getEvictionCount(), is((long) (numberOfQueries - objToTest.size())));
+    }
+
+    @Test
+    public void testClearEmptiesCache() {
+        objToTest.get(QUERY);
+        objToTest.clear();
+        assertThat(objToTest.size(), is(0));
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ *
+ */
+public class ParsedQueryTest {
+
+    private static final String QUERY = "select * from event where IMSI in (:IMSI) and TAC = :TAC -- :IMSI";
+
+    private static final int MAXIMUM_LIST_SIZE = 16;
+
+    private Map<String, QueryParameter> parameters;
+
+    @Before
+    public void setup() {
+        parameters = new HashMap<String, QueryParameter>();
+        parameters.put("TAC", QueryParameter.createIntParameter(35));
+    }
+
+    @Test
+    public void testQueryWithoutListParametersIsNotExpanded() {
+        parameters.put("IMSI", QueryParameter.createLongParameter(1L));
+        assertSame(QUERY, ParsedQuery.parse(QUERY).expandListParameters(parameters, MAXIMUM_LIST_SIZE));
+    }
+
+    @Test
+    public void testListIsExpandedToPowerOfTwoOutsideComments() {
+        parameters.put("IMSI", QueryParameter.createLongListParameter(1L, 2L, 3L));
+        final String expandedQuery = ParsedQuery.parse(QUERY).expandListParameters(parameters, MAXIMUM_LIST_SIZE);
+        assertThat(expandedQuery, is("select * from event where IMSI in (:IMSI, :IMSI, :IMSI, :IMSI) and TAC = :TAC"
+                + " -- :IMSI"));
+        assertThat(ParsedQuery.parse(expandedQuery).getParsedSql(),
+                is("select * from event where IMSI in (?, ?, ?, ?) and TAC = ? -- :IMSI"));
+    }
+
+    @Test
+    public void testListSizesShareExpandedShapes() {
+        final ParsedQuery parsedQuery = ParsedQuery.parse(QUERY);
+        final List<String> shapes = new ArrayList<String>();
+        for (int listSize = 0; listSize <= MAXIMUM_LIST_SIZE; listSize++) {
+            parameters.put("IMSI", QueryParameter.createLongListParameter(new long[listSize]));
+            final String expandedQuery = parsedQuery.expandListParameters(parameters, MAXIMUM_LIST_SIZE);
+            if (!shapes.contains(expandedQuery)) {
+                shapes.add(expandedQuery);
+            }
+        }
+        // 1, 2, 4, 8 and 16 parameters
+        assertThat(shapes.size(), is(5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testListOverTheLimitIsRefused() {
+        parameters.put("IMSI", QueryParameter.createLongListParameter(new long[MAXIMUM_LIST_SIZE + 1]));
+        ParsedQuery.parse(QUERY).expandListParameters(parameters, MAXIMUM_LIST_SIZE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testListThatExpandsBeyondTheLimitIsRefused() {
+        //9 values are padded to 16 parameters
+        parameters.put("IMSI", QueryParameter.createLongListParameter(new long[9]));
+        ParsedQuery.parse(QUERY).expandListParameters(parameters, 12);
+    }
+
+    @Test
+    public void testListThatExpandsWithinTheLimitIsAccepted() {
+        parameters.put("IMSI", QueryParameter.createLongListParameter(new long[8]));
+        final String expandedQuery = ParsedQuery.parse(QUERY).expandListParameters(parameters, 12);
+        //8 IMSIs and the TAC
+        assertThat(ParsedQuery.parse(expandedQuery).getParsedSql().replaceAll("[^?]", "").length(), is(9));
+    }
+
+    @Test
+    public void testListIsBoundWithLastValueRepeated() throws Exception {
+        parameters.put("IMSI", QueryParameter.createLongListParameter(Arrays.asList(7L, 8L, 9L)));
+        final String expandedQuery = ParsedQuery.parse(QUERY).expandListParameters(parameters, MAXIMUM_LIST_SIZE);
+        final List<String> calls = new ArrayList<String>();
+        ParsedQuery.parse(expandedQuery).getBindingPlan().bind(recordingStatement(calls), parameters);
+        assertThat(calls.toString(), is("[setLong 1 7, setLong 2 8, setLong 3 9, setLong 4 9, setInt 5 35]"));
+    }
+
+    @Test
+    public void testStringListRepeatedInQueryIsBoundToEachInList() throws Exception {
+        final String query = "select * from a where x in (:APN) union select * from b where y in (:APN)";
+        parameters.clear();
+        parameters.put("APN", QueryParameter.createStringListParameter("a", "b"));
+        final String expandedQuery = ParsedQuery.parse(query).expandListParameters(parameters, MAXIMUM_LIST_SIZE);
+        final List<String> calls = new ArrayList<String>();
+        ParsedQuery.parse(expandedQuery).getBindingPlan().bind(recordingStatement(calls), parameters);
+        assertThat(calls.toString(), is("[setString 1 a, setString 2 b, setString 3 a, setString 4 b]"));
+    }
+
+    @Test
+    public void testEmptyListIsBoundAsNull() throws Exception {
+        parameters.clear();
+        parameters.put("IMSI", QueryParameter.createLongListParameter());
+        final String expandedQuery = ParsedQuery.parse(QUERY).expandListParameters(parameters, MAXIMUM_LIST_SIZE);
+        final List<String> calls = new ArrayList<String>();
+        ParsedQuery.parse(expandedQuery).getBindingPlan().bind(recordingStatement(calls), parameters);
+        assertThat(calls.toString(), is("[setNull 1 " + java.sql.Types.BIGINT + "]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testListBoundToQueryThatWasNotExpandedIsRefused() throws Exception {
+        parameters.put("IMSI", QueryParameter.createLongListParameter(1L, 2L));
+        ParsedQuery.parse(QUERY).getBindingPlan().bind(recordingStatement(new ArrayList<String>()), parameters);
+    }
+
+    private PreparedStatement recordingStatement(final List<String> calls) {
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        calls.add(method.getName() + " " + args[0] + " " + args[1]);
+                        return null;
+                    }
+                });
+    }
+}
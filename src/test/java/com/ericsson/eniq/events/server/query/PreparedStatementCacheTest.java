@@ -0,0 +1,260 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.test.common.BaseJMockUnitTest;
+
+/**
+ * @author eemecoy
+ */
+public class PreparedStatementCacheTest extends BaseJMockUnitTest {
+
+    private static final String QUERY = "select * from EVENT_E_SGEH_ERR_RAW where IMSI = :IMSI";
+
+    private static final String PARSED_QUERY = "select * from EVENT_E_SGEH_ERR_RAW where IMSI = ?";
+
+    private PreparedStatementCache objToTest;
+
+    private Connection mockedConnection;
+
+    private PooledConnectionHandle mockedHandle;
+
+    @Before
+    public void setup() {
+        objToTest = new PreparedStatementCache();
+        mockedConnection = mockery.mock(Connection.class);
+        mockedHandle = mockery.mock(PooledConnectionHandle.class);
+    }
+
+    @Test
+    public void testStatementIsPreparedAndClosedEveryTimeWhenCacheIsDisabled() throws Exception {
+        configureCacheSize(0);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        mockery.checking(new Expectations() {
+            {
+                exactly(2).of(mockedHandle).prepareStatement(PARSED_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                exactly(2).of(mockedStatement).close();
+            }
+        });
+
+        objToTest.release(prepare());
+        objToTest.release(prepare());
+
+        assertThat(objToTest.isEnabled(), is(false));
+        assertThat(objToTest.getPrepareCount(), is(2L));
+    }
+
+    @Test
+    public void testReleasedStatementIsClearedAndReusedOnSameConnection() throws Exception {
+        configureCacheSize(10);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        mockery.checking(new Expectations() {
+            {
+                allowing(mockedHandle).getConnection();
+                will(returnValue(mockedConnection));
+                one(mockedConnection).prepareStatement(PARSED_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                exactly(2).of(mockedStatement).clearParameters();
+                exactly(2).of(mockedStatement).setQueryTimeout(0);
+                one(mockedStatement).isClosed();
+                will(returnValue(false));
+            }
+        });
+
+        final NamedParameterStatement firstStatement = prepare();
+        objToTest.release(firstStatement);
+        final NamedParameterStatement secondStatement = prepare();
+        objToTest.release(secondStatement);
+
+        assertThat(secondStatement, is(sameInstance(firstStatement)));
+        assertThat(objToTest.getPrepareCount(), is(1L));
+        assertThat(objToTest.getHitCount(), is(1L));
+        assertThat(objToTest.getMissCount(), is(1L));
+        assertThat(objToTest.getCachedStatementCount(), is(1));
+    }
+
+    @Test
+    public void testStatementInUseIsNotHandedOutAgain() throws Exception {
+        configureCacheSize(10);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class, "firstStatement");
+        final PreparedStatement mockedSecondStatement = mockery.mock(PreparedStatement.class, "secondStatement");
+        mockery.checking(new Expectations() {
+            {
+                allowing(mockedHandle).getConnection();
+                will(returnValue(mockedConnection));
+                one(mockedConnection).prepareStatement(PARSED_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                one(mockedConnection).prepareStatement(PARSED_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedSecondStatement));
+            }
+        });
+
+        final NamedParameterStatement firstStatement = prepare();
+        final NamedParameterStatement secondStatement = prepare();
+
+        assertThat(secondStatement, is(not(sameInstance(firstStatement))));
+        assertThat(objToTest.getPrepareCount(), is(2L));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStatementIsClosedWhenCacheForConnectionIsFull() throws Exception {
+        configureCacheSize(1);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class, "firstStatement");
+        final PreparedStatement mockedSecondStatement = mockery.mock(PreparedStatement.class, "secondStatement");
+        mockery.checking(new Expectations() {
+            {
+                allowing(mockedHandle).getConnection();
+                will(returnValue(mockedConnection));
+                one(mockedConnection).prepareStatement(PARSED_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                one(mockedConnection).prepareStatement(PARSED_QUERY + " and APN = 'apn'",
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedSecondStatement));
+                ignoring(mockedStatement).clearParameters();
+                ignoring(mockedStatement).setQueryTimeout(0);
+                ignoring(mockedSecondStatement).clearParameters();
+                ignoring(mockedSecondStatement).setQueryTimeout(0);
+                one(mockedStatement).close();
+            }
+        });
+
+        final NamedParameterStatement firstStatement = prepare();
+        final NamedParameterStatement secondStatement = objToTest.prepare(mockedHandle, QUERY
+                + " and APN = 'apn'", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        objToTest.release(firstStatement);
+        objToTest.release(secondStatement);
+
+        assertThat(objToTest.getEvictionCount(), is(1L));
+        assertThat(objToTest.getCachedStatementCount(), is(1));
+    }
+
+    @Test
+    public void testStatementIsReusedThroughNewHandleOnSamePhysicalConnection() throws Exception {
+        configureCacheSize(10);
+        final PooledConnectionHandle mockedSecondHandle = mockery.mock(PooledConnectionHandle.class, "secondHandle");
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        mockery.checking(new Expectations() {
+            {
+                //as the JDBC spec has it, unwrap gives back the handle itself
+                allowing(mockedHandle).unwrap(Connection.class);
+                will(returnValue(mockedHandle));
+                allowing(mockedSecondHandle).unwrap(Connection.class);
+                will(returnValue(mockedSecondHandle));
+                allowing(mockedHandle).getConnection();
+                will(returnValue(mockedConnection));
+                allowing(mockedSecondHandle).getConnection();
+                will(returnValue(mockedConnection));
+                one(mockedConnection).prepareStatement(PARSED_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                ignoring(mockedStatement).clearParameters();
+                ignoring(mockedStatement).setQueryTimeout(0);
+                one(mockedStatement).isClosed();
+                will(returnValue(false));
+            }
+        });
+
+        final NamedParameterStatement firstStatement = prepare();
+        objToTest.release(firstStatement);
+        final NamedParameterStatement secondStatement = objToTest.prepare(mockedSecondHandle, QUERY,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+        assertThat(secondStatement, is(sameInstance(firstStatement)));
+        assertThat(objToTest.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void testStatementIsNotCachedWhenUnwrapGivesBackTheHandle() throws Exception {
+        configureCacheSize(10);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        mockery.checking(new Expectations() {
+            {
+                allowing(mockedConnection).unwrap(Connection.class);
+                will(returnValue(mockedConnection));
+                exactly(2).of(mockedConnection).prepareStatement(PARSED_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                exactly(2).of(mockedStatement).close();
+            }
+        });
+
+        for (int i = 0; i < 2; i++) {
+            objToTest.release(objToTest.prepare(mockedConnection, QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY));
+        }
+
+        assertThat(objToTest.getHitCount(), is(0L));
+        assertThat(objToTest.getCachedStatementCount(), is(0));
+    }
+
+    @Test
+    public void testCountsAreRegisteredWithJmx() throws Exception {
+        configureCacheSize(0);
+        final PreparedStatement mockedStatement = mockery.mock(PreparedStatement.class);
+        mockery.checking(new Expectations() {
+            {
+                exactly(2).of(mockedHandle).prepareStatement(PARSED_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(mockedStatement));
+                exactly(2).of(mockedStatement).close();
+            }
+        });
+
+        objToTest.release(prepare());
+        objToTest.release(prepare());
+
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName(PreparedStatementCache.OBJECT_NAME);
+        assertThat(mbeanServer.getAttribute(objectName, "Enabled"), is((Object) Boolean.FALSE));
+        assertThat(mbeanServer.getAttribute(objectName, "PrepareCount"), is((Object) Long.valueOf(2)));
+        assertThat(mbeanServer.getAttribute(objectName, "HitCount"), is((Object) Long.valueOf(0)));
+        assertThat(mbeanServer.getAttribute(objectName, "EvictionCount"), is((Object) Long.valueOf(0)));
+
+        objToTest.destroy();
+        assertThat(mbeanServer.isRegistered(objectName), is(false));
+    }
+
+    private NamedParameterStatement prepare() throws Exception {
+        return objToTest.prepare(mockedHandle, QUERY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    private void configureCacheSize(final int cacheSize) {
+        final Properties properties = new Properties();
+        properties.setProperty(QueryExecutorConfiguration.PREPARED_STATEMENT_CACHE_SIZE_PROPERTY,
+                String.valueOf(cacheSize));
+        objToTest.setQueryExecutorConfiguration(QueryExecutorConfigurationFixture.withProperties(properties));
+        objToTest.init();
+    }
+
+    /**
+     * A pool's connection handle, with an accessor for the physical connection (as the GlassFish ConnectionHolder)
+     */
+    public interface PooledConnectionHandle extends Connection {
+        Connection getConnection();
+    }
+}
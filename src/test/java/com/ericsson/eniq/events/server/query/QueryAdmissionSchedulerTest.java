@@ -0,0 +1,186 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static com.ericsson.eniq.events.server.common.ApplicationConstants.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.common.exception.ServiceUserInfoException;
+
+/**
+ * @author eemecoy
+ */
+public class QueryAdmissionSchedulerTest {
+
+    private QueryAdmissionScheduler objToTest;
+
+    private RequestIdMappingService requestIdMappings;
+
+    private Properties properties;
+
+    private final List<String> admissionOrder = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setup() {
+        properties = new Properties();
+        properties.setProperty(QueryExecutorConfiguration.QUERY_ADMISSION_ENABLED_PROPERTY, "true");
+        properties.setProperty(QueryExecutorConfiguration.QUERY_ADMISSION_SLOTS_PROPERTY, "1");
+        requestIdMappings = new RequestIdMappingService();
+        requestIdMappings.setFailedCancelTimeOut(1, TimeUnit.MINUTES);
+        objToTest = new QueryAdmissionScheduler();
+        objToTest.setRequestIdMappings(requestIdMappings);
+    }
+
+    @Test
+    public void testAdmissionIsDisabledByDefault() {
+        objToTest.setQueryExecutorConfiguration(new QueryExecutorConfiguration());
+        objToTest.init();
+        assertThat(objToTest.isEnabled(), is(false));
+    }
+
+    @Test
+    public void testUsersInSameClassTakeTurns() throws Exception {
+        init();
+        final QueryAdmissionScheduler.Ticket ticket = acquire(QueryClass.EXPORT, "holder");
+        final List<Thread> threads = new ArrayList<Thread>();
+        threads.add(queue("A1", QueryClass.EXPORT, "userA", 1));
+        threads.add(queue("A2", QueryClass.EXPORT, "userA", 2));
+        threads.add(queue("A3", QueryClass.EXPORT, "userA", 3));
+        threads.add(queue("B1", QueryClass.EXPORT, "userB", 4));
+        objToTest.release(ticket);
+        join(threads);
+
+        assertThat(admissionOrder, is(Arrays.asList("A1", "B1", "A2", "A3")));
+    }
+
+    @Test
+    public void testClassesAreAdmittedInProportionToTheirWeights() throws Exception {
+        init();
+        final QueryAdmissionScheduler.Ticket ticket = acquire(QueryClass.EXPORT, "holder");
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(queue("export", QueryClass.EXPORT, "userA", threads.size() + 1));
+        }
+        for (int i = 0; i < 4; i++) {
+            threads.add(queue("interactive", QueryClass.INTERACTIVE, "userB", threads.size() + 1));
+        }
+        objToTest.release(ticket);
+        join(threads);
+
+        assertThat(Collections.frequency(admissionOrder.subList(0, 5), "interactive"), is(4));
+        assertThat(objToTest.getAdmittedCount(QueryClass.INTERACTIVE), is(4L));
+    }
+
+    @Test
+    public void testCancelledRequestLeavesQueueStraightAway() throws Exception {
+        init();
+        final QueryAdmissionScheduler.Ticket ticket = acquire(QueryClass.EXPORT, "holder");
+        final QueryAdmissionScheduler.Ticket[] queuedTicket = new QueryAdmissionScheduler.Ticket[1];
+        final Thread queuedRequest = new Thread() {
+            @Override
+            public void run() {
+                queuedTicket[0] = objToTest.acquire("queuedRequest", new QueryPriority(QueryClass.EXPORT, "userA"),
+                        null);
+            }
+        };
+        queuedRequest.start();
+        waitForQueueDepth(QueryClass.EXPORT, 1);
+        requestIdMappings.cancel("queuedRequest");
+        queuedRequest.join(5000);
+
+        assertThat(queuedRequest.isAlive(), is(false));
+        assertThat(queuedTicket[0], is(nullValue()));
+        assertThat(objToTest.getQueueDepth(QueryClass.EXPORT), is(0));
+        assertThat(objToTest.getCancelledWhileQueuedCount(), is(1L));
+        objToTest.release(ticket);
+    }
+
+    @Test
+    public void testClassIsNotAdmittedOverItsCap() {
+        properties.setProperty(QueryExecutorConfiguration.QUERY_ADMISSION_SLOTS_PROPERTY, "10");
+        properties.setProperty(QueryExecutorConfiguration.QUERY_CLASS_MAX_CONCURRENT_PROPERTY + ".EXPORT", "1");
+        properties.setProperty(QueryExecutorConfiguration.QUERY_ADMISSION_QUEUE_TIMEOUT_PROPERTY, "20");
+        init();
+        acquire(QueryClass.EXPORT, "userA");
+        try {
+            acquire(QueryClass.EXPORT, "userB");
+            fail("Export over the cap should have waited and been rejected");
+        } catch (final ServiceUserInfoException e) {
+            //expected
+        }
+        assertThat(acquire(QueryClass.INTERACTIVE, "userB"), is(notNullValue()));
+        assertThat(objToTest.getRunningCount(QueryClass.EXPORT), is(1));
+        assertThat(objToTest.getRejectedCount(), is(1L));
+    }
+
+    private QueryAdmissionScheduler.Ticket acquire(final QueryClass queryClass, final String principal) {
+        return objToTest.acquire(CANCEL_REQ_NOT_SUPPORTED, new QueryPriority(queryClass, principal), null);
+    }
+
+    /**
+     * Start a thread that queues for admission, records its name once admitted and releases straight away
+     */
+    private Thread queue(final String name, final QueryClass queryClass, final String principal,
+            final int expectedQueueDepth) throws InterruptedException {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                final QueryAdmissionScheduler.Ticket ticket = acquire(queryClass, principal);
+                admissionOrder.add(name);
+                objToTest.release(ticket);
+            }
+        };
+        thread.start();
+        waitForTotalQueueDepth(expectedQueueDepth);
+        return thread;
+    }
+
+    private void waitForQueueDepth(final QueryClass queryClass, final int queueDepth) throws InterruptedException {
+        final long giveUpTime = System.currentTimeMillis() + 5000;
+        while (objToTest.getQueueDepth(queryClass) < queueDepth && System.currentTimeMillis() < giveUpTime) {
+            Thread.sleep(1);
+        }
+        assertThat(objToTest.getQueueDepth(queryClass), is(queueDepth));
+    }
+
+    private void waitForTotalQueueDepth(final int queueDepth) throws InterruptedException {
+        final long giveUpTime = System.currentTimeMillis() + 5000;
+        while (getTotalQueueDepth() < queueDepth && System.currentTimeMillis() < giveUpTime) {
+            Thread.sleep(1);
+        }
+        assertThat(getTotalQueueDepth(), is(queueDepth));
+    }
+
+    private int getTotalQueueDepth() {
+        int queueDepth = 0;
+        for (final QueryClass queryClass : QueryClass.values()) {
+            queueDepth += objToTest.getQueueDepth(queryClass);
+        }
+        return queueDepth;
+    }
+
+    private void join(final List<Thread> threads) throws InterruptedException {
+        for (final Thread thread : threads) {
+            thread.join(5000);
+        }
+    }
+
+    private void init() {
+        objToTest.setQueryExecutorConfiguration(QueryExecutorConfigurationFixture.withProperties(properties));
+        objToTest.init();
+    }
+}
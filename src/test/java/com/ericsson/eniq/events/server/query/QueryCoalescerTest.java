@@ -0,0 +1,151 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class QueryCoalescerTest {
+
+    private static final QueryResultCache.ResultKey KEY = QueryResultCache.createKey(
+            "select * from EVENT_E_SGEH_ERR_RAW", new HashMap<String, QueryParameter>(), "JSON");
+
+    private QueryCoalescer objToTest;
+
+    private RequestIdMappingService requestIdMappings;
+
+    private ExecutorService executor;
+
+    private final CountDownLatch queryStarted = new CountDownLatch(1);
+
+    private final CountDownLatch releaseQuery = new CountDownLatch(1);
+
+    private final CountDownLatch sharedQueryCancelled = new CountDownLatch(1);
+
+    @Before
+    public void setup() {
+        requestIdMappings = new RequestIdMappingService();
+        requestIdMappings.setFailedCancelTimeOut(1, TimeUnit.MINUTES);
+        objToTest = new QueryCoalescer();
+        objToTest.setRequestIdMappings(requestIdMappings);
+        objToTest.setQueryExecutorConfiguration(new QueryExecutorConfiguration());
+        objToTest.init();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCoalescingIsEnabledByDefault() {
+        assertThat(objToTest.isEnabled(), is(true));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneQuery() throws Exception {
+        final Future<String> first = execute("firstRequest");
+        assertThat(queryStarted.await(5, TimeUnit.SECONDS), is(true));
+        final Future<String> second = execute("secondRequest");
+        waitForCoalescedCount(1);
+        releaseQuery.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is("result"));
+        assertThat(second.get(5, TimeUnit.SECONDS), is("result"));
+        assertThat(objToTest.getQueryCount(), is(1L));
+        assertThat(objToTest.getInFlightCount(), is(0));
+        assertThat(requestIdMappings.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testSharedQueryIsOnlyCancelledWhenEveryRequestIsCancelled() throws Exception {
+        final Future<String> first = execute("firstRequest");
+        assertThat(queryStarted.await(5, TimeUnit.SECONDS), is(true));
+        final Future<String> second = execute("secondRequest");
+        waitForCoalescedCount(1);
+
+        requestIdMappings.cancel("firstRequest");
+        assertThat(sharedQueryCancelled.await(100, TimeUnit.MILLISECONDS), is(false));
+        requestIdMappings.cancel("secondRequest");
+        assertThat(sharedQueryCancelled.await(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(nullValue()));
+        assertThat(second.get(5, TimeUnit.SECONDS), is(nullValue()));
+        assertThat(objToTest.getSharedCancelCount(), is(1L));
+    }
+
+    @Test
+    public void testWaitingRequestGivesUpWhenItsDeadlinePasses() throws Exception {
+        final Future<String> first = execute("firstRequest");
+        assertThat(queryStarted.await(5, TimeUnit.SECONDS), is(true));
+        try {
+            objToTest.execute("secondRequest", KEY, QueryDeadline.after(50), sharedQuery());
+            fail("Request should have timed out");
+        } catch (final RuntimeException e) {
+            //expected
+        }
+        releaseQuery.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS), is("result"));
+        assertThat(objToTest.getSharedCancelCount(), is(0L));
+    }
+
+    private Future<String> execute(final String requestID) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return objToTest.execute(requestID, KEY, null, sharedQuery());
+            }
+        });
+    }
+
+    private QueryCoalescer.SharedQuery<String> sharedQuery() {
+        return new QueryCoalescer.SharedQuery<String>() {
+            @Override
+            public String run(final String sharedRequestID) {
+                requestIdMappings.addCancellationListener(sharedRequestID, new RequestCancellationListener() {
+                    @Override
+                    public void requestCancelled(final String requestID) {
+                        sharedQueryCancelled.countDown();
+                        releaseQuery.countDown();
+                    }
+                });
+                queryStarted.countDown();
+                try {
+                    releaseQuery.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                final boolean cancelled = !requestIdMappings.containsKey(sharedRequestID);
+                requestIdMappings.remove(sharedRequestID);
+                return cancelled ? null : "result";
+            }
+        };
+    }
+
+    private void waitForCoalescedCount(final long count) throws InterruptedException {
+        final long giveUpTime = System.currentTimeMillis() + 5000;
+        while (objToTest.getCoalescedCount() < count && System.currentTimeMillis() < giveUpTime) {
+            Thread.sleep(5);
+        }
+        assertThat(objToTest.getCoalescedCount(), is(count));
+    }
+}
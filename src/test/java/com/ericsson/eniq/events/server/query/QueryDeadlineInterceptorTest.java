@@ -0,0 +1,155 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.interceptor.InvocationContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class QueryDeadlineInterceptorTest {
+
+    private QueryDeadlineInterceptor objToTest;
+
+    private DataServiceQueryExecutor dataServiceQueryExecutor;
+
+    private List<QueryDeadline> deadlines;
+
+    @Before
+    public void setup() {
+        final Properties properties = new Properties();
+        properties.setProperty(QueryExecutorConfiguration.DEFAULT_QUERY_TIMEOUT_PROPERTY, "60");
+        final QueryExecutorConfiguration queryExecutorConfiguration = QueryExecutorConfigurationFixture
+                .withProperties(properties);
+        objToTest = new QueryDeadlineInterceptor();
+        objToTest.setQueryExecutorConfiguration(queryExecutorConfiguration);
+        dataServiceQueryExecutor = new DataServiceQueryExecutor();
+        dataServiceQueryExecutor.setQueryExecutorConfiguration(queryExecutorConfiguration);
+        deadlines = new ArrayList<QueryDeadline>();
+    }
+
+    @After
+    public void tearDown() {
+        QueryDeadline.clear();
+    }
+
+    @Test
+    public void testExecutorCallsOfOneRequestShareOneBudget() throws Exception {
+        final Object result = objToTest.startDeadline(new TwoExecutorCalls());
+
+        assertThat(result, is((Object) "done"));
+        assertThat(deadlines.size(), is(2));
+        assertThat(deadlines.get(0), is(notNullValue()));
+        assertThat(deadlines.get(1), is(sameInstance(deadlines.get(0))));
+        assertThat(QueryDeadline.current(), is(nullValue()));
+    }
+
+    @Test
+    public void testExecutorCallsWithoutTheInterceptorEachGetTheirOwnBudget() throws Exception {
+        new TwoExecutorCalls().proceed();
+
+        assertThat(deadlines.get(1), is(not(sameInstance(deadlines.get(0)))));
+    }
+
+    @Test
+    public void testDeadlineAlreadyStartedIsKeptAndNotCleared() throws Exception {
+        final QueryDeadline deadline = QueryDeadline.start(1000);
+
+        objToTest.startDeadline(new TwoExecutorCalls());
+
+        assertThat(deadlines.get(0), is(sameInstance(deadline)));
+        assertThat(deadlines.get(1), is(sameInstance(deadline)));
+        assertThat(QueryDeadline.current(), is(sameInstance(deadline)));
+    }
+
+    @Test
+    public void testDeadlineIsClearedWhenTheRequestFails() throws Exception {
+        try {
+            objToTest.startDeadline(new FailingRequest());
+            fail("Expected IllegalStateException");
+        } catch (final IllegalStateException e) {
+            assertThat(QueryDeadline.current(), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void testNoDeadlineIsStartedWithoutADefaultQueryTimeout() throws Exception {
+        final QueryExecutorConfiguration queryExecutorConfiguration = QueryExecutorConfigurationFixture
+                .withProperties(new Properties());
+        objToTest.setQueryExecutorConfiguration(queryExecutorConfiguration);
+        dataServiceQueryExecutor.setQueryExecutorConfiguration(queryExecutorConfiguration);
+
+        objToTest.startDeadline(new TwoExecutorCalls());
+
+        assertThat(deadlines.get(0), is(nullValue()));
+        assertThat(deadlines.get(1), is(nullValue()));
+    }
+
+    private class TwoExecutorCalls extends StubInvocationContext {
+        @Override
+        public Object proceed() throws Exception {
+            deadlines.add(dataServiceQueryExecutor.getDeadlineForRequest());
+            Thread.sleep(5);
+            deadlines.add(dataServiceQueryExecutor.getDeadlineForRequest());
+            return "done";
+        }
+    }
+
+    private class FailingRequest extends StubInvocationContext {
+        @Override
+        public Object proceed() throws Exception {
+            assertThat(QueryDeadline.current(), is(notNullValue()));
+            throw new IllegalStateException("request failed");
+        }
+    }
+
+    private abstract static class StubInvocationContext implements InvocationContext {
+        private final Map<String, Object> contextData = new HashMap<String, Object>();
+
+        @Override
+        public Object getTarget() {
+            return null;
+        }
+
+        @Override
+        public Method getMethod() {
+            return null;
+        }
+
+        @Override
+        public Object[] getParameters() {
+            return new Object[0];
+        }
+
+        @Override
+        public void setParameters(final Object[] params) {
+        }
+
+        @Override
+        public Map<String, Object> getContextData() {
+            return contextData;
+        }
+
+        @Override
+        public Object getTimer() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class QueryDeadlineTest {
+
+    @After
+    public void tearDown() {
+        QueryDeadline.clear();
+    }
+
+    @Test
+    public void testStartedDeadlineIsAvailableToCurrentThreadUntilCleared() {
+        final QueryDeadline deadline = QueryDeadline.start(1000);
+        assertThat(QueryDeadline.current(), is(sameInstance(deadline)));
+        QueryDeadline.clear();
+        assertThat(QueryDeadline.current(), is(nullValue()));
+    }
+
+    @Test
+    public void testDeadlineCreatedWithAfterIsNotAssociatedWithCurrentThread() {
+        QueryDeadline.after(1000);
+        assertThat(QueryDeadline.current(), is(nullValue()));
+    }
+
+    @Test
+    public void testQueryTimeoutIsRoundedUpToWholeSeconds() {
+        final QueryDeadline deadline = QueryDeadline.after(1500);
+        assertFalse(deadline.hasExpired());
+        assertThat(deadline.getRemainingSecondsForQueryTimeout(), is(2));
+    }
+
+    @Test
+    public void testExpiredDeadlineStillGivesNonZeroQueryTimeout() {
+        final QueryDeadline deadline = QueryDeadline.after(-1000);
+        assertTrue(deadline.hasExpired());
+        assertTrue(deadline.getRemainingNanos() < 0);
+        assertThat(deadline.getRemainingSecondsForQueryTimeout(), is(1));
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import java.util.Properties;
+
+/**
+ * Builds the QueryExecutorConfiguration given to the beans under test
+ *
+ * @author eemecoy
+ */
+final class QueryExecutorConfigurationFixture {
+
+    private QueryExecutorConfigurationFixture() {
+    }
+
+    /**
+     * @param properties ENIQ Events properties for the test
+     * @return configuration that reads the properties
+     */
+    static QueryExecutorConfiguration withProperties(final Properties properties) {
+        final QueryExecutorConfiguration queryExecutorConfiguration = new QueryExecutorConfiguration();
+        queryExecutorConfiguration.setEniqEventsProperties(properties);
+        return queryExecutorConfiguration;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.test.common.BaseJMockUnitTest;
+
+/**
+ * @author eemecoy
+ */
+public class QueryFutureTest extends BaseJMockUnitTest {
+
+    private static final String SAMPLE_REQUEST_ID = "sampleRequestID";
+
+    private RequestIdMappingService requestIdMappingService;
+
+    private final CountDownLatch queryStarted = new CountDownLatch(1);
+
+    private final CountDownLatch queryReleased = new CountDownLatch(1);
+
+    @Before
+    public void setup() {
+        requestIdMappingService = mockery.mock(RequestIdMappingService.class);
+    }
+
+    @Test
+    public void testCancellingRunningQueryCancelsRequestOnDatabase() throws Exception {
+        mockery.checking(new Expectations() {
+            {
+                one(requestIdMappingService).cancel(SAMPLE_REQUEST_ID);
+                will(returnValue(true));
+            }
+        });
+        final QueryFuture<String> future = new QueryFuture<String>(new BlockingQuery(), SAMPLE_REQUEST_ID,
+                requestIdMappingService);
+        final Thread queryThread = new Thread(future);
+        queryThread.start();
+        assertTrue(queryStarted.await(10, TimeUnit.SECONDS));
+
+        assertThat(future.cancel(true), is(true));
+
+        queryReleased.countDown();
+        queryThread.join();
+        assertThat(future.isCancelled(), is(true));
+    }
+
+    @Test
+    public void testQueryCancelledBeforeItStartsIsNeverRun() {
+        final QueryFuture<String> future = new QueryFuture<String>(new BlockingQuery(), SAMPLE_REQUEST_ID,
+                requestIdMappingService);
+
+        assertThat(future.cancel(true), is(true));
+        future.run();
+
+        assertThat(queryStarted.getCount(), is(1L));
+    }
+
+    private class BlockingQuery implements Callable<String> {
+
+        @Override
+        public String call() throws Exception {
+            queryStarted.countDown();
+            queryReleased.await(10, TimeUnit.SECONDS);
+            return "result";
+        }
+    }
+}
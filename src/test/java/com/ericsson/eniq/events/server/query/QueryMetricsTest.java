@@ -0,0 +1,123 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class QueryMetricsTest {
+
+    private static final long FINGERPRINT = QueryFingerprint.of("select * from EVENT_E_SGEH_ERR_RAW");
+
+    private static final String TEMPLATE_PATH = "NETWORK/Q_NETWORK_EVENT_ANALYSIS_RAW.vm";
+
+    private QueryMetrics objToTest;
+
+    @Before
+    public void setup() {
+        objToTest = new QueryMetrics();
+    }
+
+    @After
+    public void tearDown() {
+        objToTest.destroy();
+    }
+
+    @Test
+    public void testSameTemplateAndTargetShareMetrics() {
+        final QueryMetrics.TemplateMetrics metrics = objToTest.metricsFor(FINGERPRINT, "dwh");
+        assertThat(objToTest.metricsFor(FINGERPRINT, "dwh"), is(sameInstance(metrics)));
+        assertThat(objToTest.metricsFor(FINGERPRINT, ConcurrencyLimiter.REPDB_LIMIT_NAME),
+                is(not(sameInstance(metrics))));
+        assertThat(objToTest.getTemplateCount(), is(2));
+    }
+
+    @Test
+    public void testQueryIsRecordedForItsTemplate() {
+        final QueryMetrics.TemplateMetrics metrics = objToTest.metricsFor(FINGERPRINT,
+                ConcurrencyLimiter.REPDB_LIMIT_NAME);
+        metrics.recordCheckout(TimeUnit.MILLISECONDS.toNanos(1));
+        metrics.recordExecution(TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.recordTransformation(TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.recordQuery(TimeUnit.MILLISECONDS.toNanos(26), null, Arrays.asList("row1", "row2", "row3"));
+        metrics.recordQuery(TimeUnit.MILLISECONDS.toNanos(26), null, "{\"data\":[]}");
+        metrics.recordFailure();
+
+        final List<QueryTemplateMetrics> templateMetrics = objToTest.getTemplateMetrics();
+        assertThat(templateMetrics.size(), is(1));
+        final QueryTemplateMetrics snapshot = templateMetrics.get(0);
+        assertThat(snapshot.getTemplate(), is(QueryFingerprint.toString(FINGERPRINT)));
+        assertThat(snapshot.getTarget(), is(ConcurrencyLimiter.REPDB_LIMIT_NAME));
+        assertThat(snapshot.getRowsFetched(), is(3L));
+        assertThat(snapshot.getBytesMaterialized(), is(22L));
+        assertThat(snapshot.getFailures(), is(1L));
+        assertThat(snapshot.getExecution().getCount(), is(1L));
+        assertThat(snapshot.getExecution().getMaximumInMicros(), is(20000L));
+        assertThat(snapshot.getTotal().getCount(), is(2L));
+        assertThat(objToTest.getQueryCount(), is(2L));
+        assertThat(objToTest.getFailureCount(), is(1L));
+    }
+
+    @Test
+    public void testQueriesRenderedFromOneTemplateShareMetrics() {
+        final QueryMetrics.TemplateMetrics metrics = objToTest.metricsFor(TEMPLATE_PATH,
+                QueryFingerprint.of("select * from EVENT_E_SGEH_ERR_RAW_01"), "dwh");
+        assertThat(objToTest.metricsFor(TEMPLATE_PATH, QueryFingerprint.of("select * from EVENT_E_SGEH_ERR_RAW_02"),
+                "dwh"), is(sameInstance(metrics)));
+        assertThat(objToTest.metricsFor(null, FINGERPRINT, "dwh"), is(not(sameInstance(metrics))));
+        assertThat(objToTest.getTemplateCount(), is(2));
+        final List<String> templates = new ArrayList<String>();
+        for (final QueryTemplateMetrics snapshot : objToTest.getTemplateMetrics()) {
+            templates.add(snapshot.getTemplate());
+        }
+        assertThat(templates.contains(TEMPLATE_PATH), is(true));
+        assertThat(templates.contains(QueryFingerprint.toString(FINGERPRINT)), is(true));
+    }
+
+    @Test
+    public void testTemplatesOverTheMaximumShareMetrics() {
+        for (int i = 0; i < QueryMetrics.MAXIMUM_TEMPLATES; i++) {
+            objToTest.metricsFor(i, "dwh");
+        }
+        final QueryMetrics.TemplateMetrics otherTemplates = objToTest.metricsFor(-1, "dwh");
+        assertThat(objToTest.metricsFor(-2, "dwh"), is(sameInstance(otherTemplates)));
+        assertThat(objToTest.metricsFor(0, "dwh"), is(not(sameInstance(otherTemplates))));
+        assertThat(objToTest.getTemplateCount(), is(QueryMetrics.MAXIMUM_TEMPLATES));
+    }
+
+    @Test
+    public void testMetricsAreRegisteredWithJmx() throws Exception {
+        objToTest.init();
+        objToTest.metricsFor(FINGERPRINT, "dwh").recordQuery(1000, null, null);
+
+        final ObjectName objectName = new ObjectName(QueryMetrics.OBJECT_NAME);
+        assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "QueryCount"),
+                is((Object) Long.valueOf(1)));
+        final CompositeData[] templateMetrics = (CompositeData[]) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(objectName, "TemplateMetrics");
+        assertThat(templateMetrics.length, is(1));
+        assertThat(((CompositeData) templateMetrics[0].get("total")).get("count"), is((Object) Long.valueOf(1)));
+
+        objToTest.destroy();
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName), is(false));
+    }
+}
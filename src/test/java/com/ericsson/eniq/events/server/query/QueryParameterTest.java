@@ -2,12 +2,15 @@ package com.ericsson.eniq.events.server.query;
 
 import static org.junit.Assert.*;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
-import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
 
 /**
@@ -24,66 +27,84 @@ public class QueryParameterTest {
 
     @Test
     public void testSetParameters() throws Exception {
-        final Mockery context = new Mockery() {
-            {
-                setImposteriser(ClassImposteriser.INSTANCE);
-            }
-        };
-        final NamedParameterStatement stmt = context.mock(NamedParameterStatement.class);
+        final Mockery context = new Mockery();
+        final PreparedStatement preparedStatement = context.mock(PreparedStatement.class);
+        final NamedParameterStatement stmt = createStatement(context, preparedStatement);
 
         final Map<String, QueryParameter> parameters = new HashMap<String, QueryParameter>();
 
-        final Object obj = new Object();
         final String text = "this is text";
 
-        parameters.put("1", QueryParameter.createStringParameter("this is text"));
-        parameters.put("2", QueryParameter.createIntParameter(Integer.MIN_VALUE));
-        parameters.put("3", QueryParameter.createLongParameter(Long.MAX_VALUE));
+        parameters.put("text", QueryParameter.createStringParameter("this is text"));
+        parameters.put("int", QueryParameter.createIntParameter(Integer.MIN_VALUE));
+        parameters.put("long", QueryParameter.createLongParameter(Long.MAX_VALUE));
 
         context.checking(new Expectations() {
             {
-                one(stmt).setString("1", text);
-                one(stmt).setInt("2", Integer.MIN_VALUE);
-                one(stmt).setLong("3", Long.MAX_VALUE);
-                allowing(stmt).getNumberOfParameters();
-                will(returnValue(3));
+                one(preparedStatement).setString(1, text);
+                one(preparedStatement).setString(4, text);
+                one(preparedStatement).setInt(2, Integer.MIN_VALUE);
+                one(preparedStatement).setLong(3, Long.MAX_VALUE);
             }
         });
 
         QueryParameter.setParameters(stmt, parameters);
+        context.assertIsSatisfied();
     }
 
     @Test
     public void testSetParametersParamsUnEqual() throws Exception {
-        final Mockery context = new Mockery() {
-            {
-                setImposteriser(ClassImposteriser.INSTANCE);
-            }
-        };
-        final NamedParameterStatement stmt = context.mock(NamedParameterStatement.class);
+        final Mockery context = new Mockery();
+        final PreparedStatement preparedStatement = context.mock(PreparedStatement.class);
+        final NamedParameterStatement stmt = createStatement(context, preparedStatement);
 
-        Map<String, QueryParameter> parameters = new HashMap<String, QueryParameter>();
+        final Map<String, QueryParameter> parameters = new HashMap<String, QueryParameter>();
 
-        final Object obj = new Object();
         final String text = "this is text";
 
-        parameters.put("1", QueryParameter.createStringParameter("this is text"));
-        parameters.put("2", QueryParameter.createIntParameter(Integer.MIN_VALUE));
-        parameters.put("3", QueryParameter.createLongParameter(Long.MAX_VALUE));
+        parameters.put("text", QueryParameter.createStringParameter("this is text"));
+        parameters.put("long", QueryParameter.createLongParameter(Long.valueOf(Long.MAX_VALUE)));
+        parameters.put("notInQuery", QueryParameter.createIntParameter(Integer.MIN_VALUE));
 
         context.checking(new Expectations() {
             {
-                one(stmt).setString("1", text);
-                one(stmt).setInt("2", Integer.MIN_VALUE);
-                one(stmt).setLong("3", Long.MAX_VALUE);
-                allowing(stmt).getNumberOfParameters();
-                will(returnValue(2));
+                one(preparedStatement).setString(1, text);
+                one(preparedStatement).setString(4, text);
+                one(preparedStatement).setLong(3, Long.MAX_VALUE);
             }
         });
 
         QueryParameter.setParameters(stmt, parameters);
+        QueryParameter.setParameters(stmt, parameters);
+        context.assertIsSatisfied();
+    }
+
+    private NamedParameterStatement createStatement(final Mockery context, final PreparedStatement preparedStatement)
+            throws SQLException {
+        final Connection connection = context.mock(Connection.class);
+        context.checking(new Expectations() {
+            {
+                one(connection).prepareStatement("select * from t where a = ? and b = ? and c = ? and d = ?",
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                will(returnValue(preparedStatement));
+            }
+        });
+        return new NamedParameterStatement(connection,
+                "select * from t where a = :text and b = :int and c = :long and d = :text", ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
     }
-    
+
+    @Test
+    public void testPrimitiveParameterIsEqualToBoxedParameter() {
+        final QueryParameter primitive = QueryParameter.createLongParameter(460000123456789L);
+        final QueryParameter boxed = QueryParameter.createLongParameter(Long.valueOf(460000123456789L));
+        assertEquals(boxed, primitive);
+        assertEquals(boxed.hashCode(), primitive.hashCode());
+        assertEquals(Long.valueOf(460000123456789L), primitive.getValue());
+        assertEquals("LONG:460000123456789", primitive.toString());
+        assertFalse(primitive.equals(QueryParameter.createIntParameter(5)));
+    }
+
     @Test
     public void testCreateStringParameter() {
         QueryParameter p;
@@ -0,0 +1,142 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class QueryResultCacheTest {
+
+    private static final String QUERY = "select * from EVENT_E_SGEH_ERR_RAW where IMSI = :IMSI";
+
+    private static final String TEMPLATE = "SUBSCRIBER_DETAILS";
+
+    private static final CacheableQuery CLOSED_RANGE = new CacheableQuery(TEMPLATE, "JSON", 1000L, 2000L);
+
+    private QueryResultCache objToTest;
+
+    private Properties properties;
+
+    @Before
+    public void setup() {
+        properties = new Properties();
+        objToTest = new QueryResultCache();
+    }
+
+    @After
+    public void tearDown() {
+        objToTest.destroy();
+    }
+
+    @Test
+    public void testCacheIsDisabledWhenSizeIsZero() {
+        properties.setProperty(QueryExecutorConfiguration.RESULT_CACHE_SIZE_PROPERTY, "0");
+        init();
+        assertThat(objToTest.isEnabled(), is(false));
+        assertThat(objToTest.isCacheable(CLOSED_RANGE), is(false));
+    }
+
+    @Test
+    public void testOpenTimeRangeIsNotCacheable() {
+        init();
+        assertThat(objToTest.isCacheable(new CacheableQuery(TEMPLATE, "JSON", 3000L, 2000L)), is(false));
+        assertThat(objToTest.isCacheable(CLOSED_RANGE), is(true));
+        assertThat(objToTest.getOpenTimeRangeCount(), is(1L));
+    }
+
+    @Test
+    public void testResultIsReturnedForSameQueryParametersAndTransformer() {
+        init();
+        objToTest.put(QueryResultCache.createKey(QUERY, parameters("123"), "JSON"), CLOSED_RANGE, "result");
+
+        assertThat((String) objToTest.get(QueryResultCache.createKey(QUERY, parameters("123"), "JSON"),
+                CLOSED_RANGE), is("result"));
+        assertThat(objToTest.get(QueryResultCache.createKey(QUERY, parameters("456"), "JSON"), CLOSED_RANGE),
+                is(nullValue()));
+        assertThat(objToTest.get(QueryResultCache.createKey(QUERY, parameters("123"), "CSV"), CLOSED_RANGE),
+                is(nullValue()));
+        assertThat(objToTest.getHitCount(), is(1L));
+        assertThat(objToTest.getMissCount(), is(2L));
+        assertThat(objToTest.getHitRatio(TEMPLATE), is(1.0 / 3));
+    }
+
+    @Test
+    public void testKeyIsNotAffectedByLaterChangesToParameters() {
+        init();
+        final Map<String, QueryParameter> parameters = parameters("123");
+        final QueryResultCache.ResultKey key = QueryResultCache.createKey(QUERY, parameters, "JSON");
+        parameters.put("IMSI", QueryParameter.createLongParameter(456L));
+        assertThat(key, is(QueryResultCache.createKey(QUERY, parameters("123"), "JSON")));
+    }
+
+    @Test
+    public void testTemplateWithZeroTimeToLiveIsNotCached() {
+        properties.setProperty(QueryExecutorConfiguration.RESULT_CACHE_TIME_TO_LIVE_PROPERTY + "." + TEMPLATE, "0");
+        init();
+        final QueryResultCache.ResultKey key = QueryResultCache.createKey(QUERY, parameters("123"), "JSON");
+        objToTest.put(key, CLOSED_RANGE, "result");
+        assertThat(objToTest.get(key, CLOSED_RANGE), is(nullValue()));
+        assertThat(objToTest.getWeight(), is(0L));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultsAreEvictedWhenOverWeight() {
+        properties.setProperty(QueryExecutorConfiguration.RESULT_CACHE_SIZE_PROPERTY, "1");
+        init();
+        final char[] chars = new char[8 * 1024];
+        final String largeResult = new String(chars);
+        for (int i = 0; i < 200; i++) {
+            objToTest.put(QueryResultCache.createKey(QUERY, parameters(String.valueOf(i)), "JSON"), CLOSED_RANGE,
+                    largeResult);
+        }
+        assertThat(objToTest.getEvictionCount() > 0, is(true));
+        assertThat(objToTest.getWeight() <= 1024L * 1024L, is(true));
+    }
+
+    private Map<String, QueryParameter> parameters(final String imsi) {
+        final Map<String, QueryParameter> parameters = new HashMap<String, QueryParameter>();
+        parameters.put("IMSI", QueryParameter.createLongParameter(Long.valueOf(imsi)));
+        return parameters;
+    }
+
+    @Test
+    public void testHitRatioAndEvictionsAreRegisteredWithJmx() throws Exception {
+        init();
+        objToTest.put(QueryResultCache.createKey(QUERY, parameters("123"), "JSON"), CLOSED_RANGE, "result");
+        objToTest.get(QueryResultCache.createKey(QUERY, parameters("123"), "JSON"), CLOSED_RANGE);
+        objToTest.get(QueryResultCache.createKey(QUERY, parameters("456"), "JSON"), CLOSED_RANGE);
+
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName(QueryResultCache.OBJECT_NAME);
+        assertThat(mbeanServer.getAttribute(objectName, "HitRatio"), is((Object) Double.valueOf(0.5)));
+        assertThat(mbeanServer.getAttribute(objectName, "EvictionCount"), is((Object) Long.valueOf(0)));
+        assertThat(mbeanServer.invoke(objectName, "getHitRatio", new Object[] { TEMPLATE },
+                new String[] { String.class.getName() }), is((Object) Double.valueOf(0.5)));
+
+        objToTest.destroy();
+        assertThat(mbeanServer.isRegistered(objectName), is(false));
+    }
+
+    private void init() {
+        objToTest.setQueryExecutorConfiguration(QueryExecutorConfigurationFixture.withProperties(properties));
+        objToTest.init();
+    }
+}
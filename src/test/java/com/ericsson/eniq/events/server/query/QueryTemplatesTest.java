@@ -0,0 +1,63 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class QueryTemplatesTest {
+
+    private static final String TEMPLATE_PATH = "NETWORK/Q_NETWORK_EVENT_ANALYSIS_RAW.vm";
+
+    @After
+    public void tearDown() {
+        QueryTemplates.setCurrent(null);
+    }
+
+    @Test
+    public void testTemplateOfRenderedQueryIsFound() {
+        final String query = "select * from EVENT_E_SGEH_ERR_RAW_01";
+        QueryTemplates.rendered(query, TEMPLATE_PATH);
+        assertThat(QueryTemplates.templateOf(query), is(TEMPLATE_PATH));
+        assertThat(QueryTemplates.templateOf(new String(query)), is(TEMPLATE_PATH));
+        assertThat(QueryTemplates.templateOf("select * from EVENT_E_SGEH_ERR_RAW_02"), is(nullValue()));
+        assertThat(QueryTemplates.templateOf(null), is(nullValue()));
+    }
+
+    @Test
+    public void testOnlyTheLatestQueriesAreHeld() {
+        final String firstQuery = "select 0";
+        QueryTemplates.rendered(firstQuery, TEMPLATE_PATH);
+        for (int i = 1; i <= QueryTemplates.MAXIMUM_QUERIES; i++) {
+            QueryTemplates.rendered("select " + i, "template" + i);
+        }
+        assertThat(QueryTemplates.templateOf(firstQuery), is(nullValue()));
+        assertThat(QueryTemplates.templateOf("select " + QueryTemplates.MAXIMUM_QUERIES),
+                is("template" + QueryTemplates.MAXIMUM_QUERIES));
+    }
+
+    @Test
+    public void testTemplatesAreHeldPerThread() throws Exception {
+        final String query = "select * from EVENT_E_SGEH_ERR_RAW_01";
+        QueryTemplates.rendered(query, TEMPLATE_PATH);
+        final String[] templateOnOtherThread = new String[1];
+        final Thread otherThread = new Thread() {
+            @Override
+            public void run() {
+                templateOnOtherThread[0] = QueryTemplates.templateOf(query);
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+        assertThat(templateOnOtherThread[0], is(nullValue()));
+    }
+}
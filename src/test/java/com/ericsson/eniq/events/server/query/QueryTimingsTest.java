@@ -0,0 +1,96 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class QueryTimingsTest {
+
+    @After
+    public void tearDown() {
+        QueryTimings.clear();
+    }
+
+    @Test
+    public void testNothingIsRecordedWhenRequestIsNotTimed() {
+        assertThat(QueryTimings.begin(QueryPhase.EXECUTE), is(QueryTimings.NO_SPAN));
+        QueryTimings.end(QueryTimings.NO_SPAN);
+        QueryTimings.record(QueryPhase.EXECUTE, 0, 1);
+        assertThat(QueryTimings.current(), is(nullValue()));
+    }
+
+    @Test
+    public void testBreakdownShowsNestedSpansAndAddsUpRepeatedPhases() {
+        final QueryTimings timings = QueryTimings.start();
+        final int rawTables = QueryTimings.begin(QueryPhase.RAW_TABLES);
+        QueryTimings.end(QueryTimings.begin(QueryPhase.RAW_TABLES_ENGINE));
+        QueryTimings.end(rawTables);
+        QueryTimings.end(QueryTimings.begin(QueryPhase.EXECUTE));
+        QueryTimings.end(QueryTimings.begin(QueryPhase.EXECUTE));
+
+        final String breakdown = timings.getBreakdown();
+        assertThat(breakdown, breakdown.startsWith("total="), is(true));
+        assertThat(breakdown, breakdown.contains(" rawTables="), is(true));
+        assertThat(breakdown, breakdown.contains(" rawTables.engine="), is(true));
+        assertThat(breakdown, breakdown.contains("ms(x2)"), is(true));
+        assertThat(breakdown, breakdown.contains(" execute.execute"), is(false));
+    }
+
+    @Test
+    public void testPhaseTimeIsTheTotalOfItsSpans() {
+        final QueryTimings timings = QueryTimings.start();
+        QueryTimings.record(QueryPhase.EXECUTE, 0, TimeUnit.MILLISECONDS.toNanos(5));
+        QueryTimings.record(QueryPhase.EXECUTE, 0, TimeUnit.MILLISECONDS.toNanos(3));
+        assertThat(timings.getNanos(QueryPhase.EXECUTE), is(TimeUnit.MILLISECONDS.toNanos(8)));
+        assertThat(timings.getNanos(QueryPhase.TRANSFORM), is(0L));
+        assertThat(timings.getBreakdown().contains(" execute=8.0ms(x2)"), is(true));
+    }
+
+    @Test
+    public void testSpansOnOtherThreadsAreNotNestedInTheCallersOpenSpan() throws Exception {
+        final QueryTimings timings = QueryTimings.start();
+        final int transform = QueryTimings.begin(QueryPhase.TRANSFORM);
+        final Thread queryThread = new Thread() {
+            @Override
+            public void run() {
+                QueryTimings.setCurrent(timings);
+                QueryTimings.end(QueryTimings.begin(QueryPhase.CHECKOUT));
+                QueryTimings.clear();
+            }
+        };
+        queryThread.start();
+        queryThread.join(5000);
+        QueryTimings.end(transform);
+
+        assertThat(timings.getBreakdown().contains(" checkout="), is(true));
+        assertThat(timings.getBreakdown().contains("transform.checkout"), is(false));
+    }
+
+    @Test
+    public void testSpansOverTheMaximumAreOnlyCounted() {
+        final QueryTimings timings = QueryTimings.start();
+        for (int i = 0; i < QueryTimings.MAXIMUM_SPANS + 3; i++) {
+            QueryTimings.end(QueryTimings.begin(QueryPhase.CHECKOUT));
+        }
+        assertThat(timings.getBreakdown().endsWith(" dropped=3"), is(true));
+    }
+
+    @Test
+    public void testBreakdownIsOnlyLoggedOverThreshold() {
+        final QueryTimings timings = QueryTimings.start();
+        assertThat(timings.logIfSlowerThan(0, "requestId::1"), is(false));
+        assertThat(timings.logIfSlowerThan(60000, "requestId::1"), is(false));
+    }
+}
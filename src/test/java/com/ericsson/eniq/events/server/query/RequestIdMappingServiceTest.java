@@ -0,0 +1,161 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.test.common.BaseJMockUnitTest;
+
+/**
+ * @author eemecoy
+ */
+public class RequestIdMappingServiceTest extends BaseJMockUnitTest {
+
+    private static final String SAMPLE_REQUEST_ID = "sampleRequestID";
+
+    private RequestIdMappingService objToTest;
+
+    @Before
+    public void setup() {
+        objToTest = new RequestIdMappingService();
+        objToTest.setFailedCancelTimeOut(1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void testAllStatementsForRequestAreKeptAndCancelledTogether() throws Exception {
+        final NamedParameterStatement firstStatement = mockery.mock(NamedParameterStatement.class, "first");
+        final NamedParameterStatement secondStatement = mockery.mock(NamedParameterStatement.class, "second");
+        mockery.checking(new Expectations() {
+            {
+                one(firstStatement).cancelExecution();
+                one(secondStatement).cancelExecution();
+            }
+        });
+        objToTest.put(SAMPLE_REQUEST_ID, firstStatement);
+        objToTest.put(SAMPLE_REQUEST_ID, secondStatement);
+
+        assertThat(objToTest.getStatements(SAMPLE_REQUEST_ID).size(), is(2));
+        assertThat(objToTest.get(SAMPLE_REQUEST_ID), is(sameInstance(secondStatement)));
+        assertThat(objToTest.cancel(SAMPLE_REQUEST_ID), is(true));
+        assertThat(objToTest.containsKey(SAMPLE_REQUEST_ID), is(false));
+    }
+
+    @Test
+    public void testStatementPutAfterRequestIsCancelledIsCancelledStraightAway() throws Exception {
+        final NamedParameterStatement firstStatement = mockery.mock(NamedParameterStatement.class, "first");
+        final NamedParameterStatement lateStatement = mockery.mock(NamedParameterStatement.class, "late");
+        mockery.checking(new Expectations() {
+            {
+                one(firstStatement).cancelExecution();
+                one(lateStatement).cancelExecution();
+            }
+        });
+        objToTest.put(SAMPLE_REQUEST_ID, firstStatement);
+        objToTest.cancel(SAMPLE_REQUEST_ID);
+
+        objToTest.put(SAMPLE_REQUEST_ID, lateStatement);
+    }
+
+    @Test
+    public void testRemovedStatementIsNotCancelledWithTheRequest() throws Exception {
+        final NamedParameterStatement finishedStatement = mockery.mock(NamedParameterStatement.class, "finished");
+        final NamedParameterStatement runningStatement = mockery.mock(NamedParameterStatement.class, "running");
+        mockery.checking(new Expectations() {
+            {
+                one(runningStatement).cancelExecution();
+            }
+        });
+        objToTest.put(SAMPLE_REQUEST_ID, finishedStatement);
+        objToTest.removeStatement(SAMPLE_REQUEST_ID, finishedStatement);
+        objToTest.put(SAMPLE_REQUEST_ID, runningStatement);
+
+        assertThat(objToTest.cancel(SAMPLE_REQUEST_ID), is(true));
+        assertThat(objToTest.getStatements(SAMPLE_REQUEST_ID).size(), is(1));
+    }
+
+    @Test
+    public void testCancellingRequestThatIsNotRunningMarksItAsFailedCancel() {
+        assertThat(objToTest.cancel(SAMPLE_REQUEST_ID), is(false));
+        assertThat(objToTest.isCancelFailedForReqId(SAMPLE_REQUEST_ID), is(true));
+    }
+
+    @Test
+    public void testFailedCancelExpiresAfterTimeOutAndIsRemovedBySweep() throws Exception {
+        objToTest.setFailedCancelTimeOut(0, TimeUnit.MILLISECONDS);
+        objToTest.addFailedCancelReqId(SAMPLE_REQUEST_ID);
+        assertThat(objToTest.isCancelFailedForReqId(SAMPLE_REQUEST_ID), is(false));
+
+        objToTest.expireFailedCancelReqIds();
+        objToTest.setFailedCancelTimeOut(1, TimeUnit.MINUTES);
+        objToTest.addFailedCancelReqId(SAMPLE_REQUEST_ID);
+        assertThat(objToTest.isCancelFailedForReqId(SAMPLE_REQUEST_ID), is(true));
+    }
+
+    @Test
+    public void testSweepDoesNotRemoveFailedCancelThatWasAddedAgain() {
+        objToTest.setFailedCancelTimeOut(0, TimeUnit.MILLISECONDS);
+        objToTest.addFailedCancelReqId(SAMPLE_REQUEST_ID);
+        objToTest.setFailedCancelTimeOut(1, TimeUnit.MINUTES);
+        objToTest.addFailedCancelReqId(SAMPLE_REQUEST_ID);
+
+        objToTest.expireFailedCancelReqIds();
+
+        assertThat(objToTest.isCancelFailedForReqId(SAMPLE_REQUEST_ID), is(true));
+    }
+
+    @Test
+    public void testAwaitCompletionReturnsOnceRequestIsRemoved() throws Exception {
+        final NamedParameterStatement statement = mockery.mock(NamedParameterStatement.class);
+        objToTest.put(SAMPLE_REQUEST_ID, statement);
+        assertThat(objToTest.awaitCompletion(SAMPLE_REQUEST_ID, 10, TimeUnit.MILLISECONDS), is(false));
+
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final boolean[] completed = new boolean[1];
+        final Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                waiting.countDown();
+                try {
+                    completed[0] = objToTest.awaitCompletion(SAMPLE_REQUEST_ID, 10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    completed[0] = false;
+                }
+            }
+        };
+        waiter.start();
+        waiting.await();
+        objToTest.remove(SAMPLE_REQUEST_ID);
+        waiter.join();
+
+        assertThat(completed[0], is(true));
+        assertThat(objToTest.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testCancellationListenerIsToldWhenRequestIsCancelled() {
+        final int[] cancels = new int[1];
+        final RequestCancellationListener listener = new RequestCancellationListener() {
+            @Override
+            public void requestCancelled(final String requestID) {
+                cancels[0]++;
+            }
+        };
+        objToTest.addCancellationListener(SAMPLE_REQUEST_ID, listener);
+        assertThat(objToTest.cancel(SAMPLE_REQUEST_ID), is(true));
+        assertThat(cancels[0], is(1));
+
+        objToTest.addCancellationListener(SAMPLE_REQUEST_ID, listener);
+        assertThat(cancels[0], is(2));
+    }
+}
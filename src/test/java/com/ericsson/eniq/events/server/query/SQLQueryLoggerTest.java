@@ -116,4 +116,15 @@ public class SQLQueryLoggerTest {
         assertThat(result, is(expectedResult));
     }
 
+    @Test
+    public void testLoggingQueryInjectsListParameterValues() {
+        final String query = "select * from some table where city in (:" + STRING_PARAMETER_NAME + ")";
+        final Map<String, QueryParameter> queryParameters = new HashMap<String, QueryParameter>();
+        queryParameters.put(STRING_PARAMETER_NAME,
+                QueryParameter.createStringListParameter(STRING_PARAMETER_VALUE, "Paris"));
+        final String tracedQuery = sqlQueryLogger.injectQueryParameters(query, queryParameters);
+        assertThat(tracedQuery, is("select * from some table where city in (" + SINGLE_QUOTE
+                + STRING_PARAMETER_VALUE + SINGLE_QUOTE + ", " + SINGLE_QUOTE + "Paris" + SINGLE_QUOTE + ")"));
+    }
+
 }
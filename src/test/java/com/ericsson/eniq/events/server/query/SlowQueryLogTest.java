@@ -0,0 +1,150 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author eemecoy
+ */
+public class SlowQueryLogTest {
+
+    private static final String QUERY = "select * from EVENT_E_SGEH_ERR_RAW where IMSI = :IMSI and TAC = :TAC";
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(1500);
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private Properties properties;
+
+    private SlowQueryLog objToTest;
+
+    private Map<String, QueryParameter> parameters;
+
+    @Before
+    public void setup() {
+        properties = new Properties();
+        properties.setProperty(QueryExecutorConfiguration.SLOW_QUERY_LOG_THRESHOLD_PROPERTY, "1000");
+        properties.setProperty(QueryExecutorConfiguration.SLOW_QUERY_LOG_SIZE_PROPERTY, "3");
+        parameters = new HashMap<String, QueryParameter>();
+        parameters.put("IMSI", QueryParameter.createLongParameter(460000123456789L));
+        parameters.put("TAC", QueryParameter.createStringParameter("35123456"));
+        objToTest = new SlowQueryLog();
+    }
+
+    @After
+    public void tearDown() {
+        objToTest.destroy();
+    }
+
+    @Test
+    public void testSlowQueryIsKeptWithItsParametersInjected() throws Exception {
+        init();
+        objToTest.record("1", QUERY, parameters, ConcurrencyLimiter.REPDB_LIMIT_NAME, FAST, SLOW - FAST, SLOW, 42,
+                null);
+
+        final List<SlowQuery> slowQueries = objToTest.getSlowQueries();
+        assertThat(slowQueries.size(), is(1));
+        final SlowQuery slowQuery = slowQueries.get(0);
+        assertThat(slowQuery.getSql(),
+                is("select * from EVENT_E_SGEH_ERR_RAW where IMSI = 460000123456789 and TAC = '35123456'"));
+        assertThat(slowQuery.getRequestId(), is("1"));
+        assertThat(slowQuery.getTarget(), is(ConcurrencyLimiter.REPDB_LIMIT_NAME));
+        assertThat(slowQuery.getTotalInMillis(), is(1500L));
+        assertThat(slowQuery.getCheckoutInMillis(), is(5L));
+        assertThat(slowQuery.getExecutionInMillis(), is(1495L));
+        assertThat(slowQuery.getRows(), is(42L));
+        assertThat(slowQuery.isSampled(), is(false));
+        assertThat(slowQuery.getFailure(), is(nullValue()));
+    }
+
+    @Test
+    public void testFastQueryIsNotKeptUnlessSampled() throws Exception {
+        init();
+        objToTest.record("1", QUERY, parameters, ConcurrencyLimiter.REPDB_LIMIT_NAME, 0, FAST, FAST, 1, null);
+        assertThat(objToTest.getSlowQueries().isEmpty(), is(true));
+
+        properties.setProperty(QueryExecutorConfiguration.SLOW_QUERY_LOG_SAMPLE_PROPERTY, "2");
+        init();
+        for (int i = 0; i < 4; i++) {
+            objToTest.record(Integer.toString(i), QUERY, parameters, ConcurrencyLimiter.REPDB_LIMIT_NAME, 0, FAST,
+                    FAST, 1, null);
+        }
+        final List<SlowQuery> slowQueries = objToTest.getSlowQueries();
+        assertThat(slowQueries.size(), is(2));
+        assertThat(slowQueries.get(0).isSampled(), is(true));
+    }
+
+    @Test
+    public void testFailedQueryIsKeptWithItsFailure() throws Exception {
+        init();
+        objToTest.record("1", QUERY, parameters, ConcurrencyLimiter.REPDB_LIMIT_NAME, 0, SLOW, SLOW, -1,
+                new SQLException("timed out"));
+        assertThat(objToTest.getSlowQueries().get(0).getFailure().contains("timed out"), is(true));
+    }
+
+    @Test
+    public void testOldestQueriesAreDroppedAndNewestAreShownFirst() throws Exception {
+        init();
+        for (int i = 0; i < 5; i++) {
+            objToTest.record(Integer.toString(i), QUERY, parameters, ConcurrencyLimiter.REPDB_LIMIT_NAME, 0, SLOW,
+                    SLOW, 1, null);
+        }
+        final List<SlowQuery> slowQueries = objToTest.getSlowQueries();
+        assertThat(slowQueries.size(), is(3));
+        assertThat(slowQueries.get(0).getRequestId(), is("4"));
+        assertThat(slowQueries.get(2).getRequestId(), is("2"));
+        assertThat(objToTest.getRecordedCount(), is(5L));
+
+        final StringWriter writer = new StringWriter();
+        assertThat(objToTest.dump(writer), is(3));
+        assertThat(writer.toString().indexOf("requestId=2") < writer.toString().indexOf("requestId=4"), is(true));
+
+        objToTest.clear();
+        assertThat(objToTest.getSlowQueries().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testLogIsDisabledWhenSizeIsZero() throws Exception {
+        properties.setProperty(QueryExecutorConfiguration.SLOW_QUERY_LOG_SIZE_PROPERTY, "0");
+        init();
+        objToTest.record("1", QUERY, parameters, ConcurrencyLimiter.REPDB_LIMIT_NAME, 0, SLOW, SLOW, 1, null);
+        assertThat(objToTest.getSlowQueries().isEmpty(), is(true));
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(SlowQueryLog.OBJECT_NAME)),
+                is(false));
+    }
+
+    @Test
+    public void testLogIsRegisteredWithJmx() throws Exception {
+        init();
+        objToTest.record("1", QUERY, parameters, ConcurrencyLimiter.REPDB_LIMIT_NAME, 0, SLOW, SLOW, 1, null);
+        final Object recordedCount = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName(SlowQueryLog.OBJECT_NAME), "RecordedCount");
+        assertThat(recordedCount, is((Object) 1L));
+    }
+
+    private void init() {
+        objToTest.setQueryExecutorConfiguration(QueryExecutorConfigurationFixture.withProperties(properties));
+        objToTest.destroy();
+        objToTest.init();
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query.resultsettransformers;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.test.common.BaseJMockUnitTest;
+
+/**
+ * The transformer must only move forward through the result set, so it can be used with forward only cursors
+ *
+ * @author eemecoy
+ */
+public class ResultSetTransformerToCheckResultSizeIsOneTest extends BaseJMockUnitTest {
+
+    private ResultSetTransformerToCheckResultSizeIsOne objToTest;
+
+    private ResultSet mockedResultSet;
+
+    @Before
+    public void setup() {
+        objToTest = new ResultSetTransformerToCheckResultSizeIsOne();
+        mockedResultSet = mockery.mock(ResultSet.class);
+    }
+
+    @Test
+    public void testEmptyResultSetIsNotSizeOne() throws SQLException {
+        expectRowsInResultSet(false);
+        assertThat(objToTest.transform(mockedResultSet), is(false));
+    }
+
+    @Test
+    public void testSingleRowResultSetIsSizeOne() throws SQLException {
+        expectRowsInResultSet(true, false);
+        assertThat(objToTest.transform(mockedResultSet), is(true));
+    }
+
+    @Test
+    public void testOnlyTwoRowsAreReadFromLargeResultSet() throws SQLException {
+        expectRowsInResultSet(true, true);
+        assertThat(objToTest.transform(mockedResultSet), is(false));
+    }
+
+    private void expectRowsInResultSet(final boolean... resultsOfNext) throws SQLException {
+        final Sequence rows = mockery.sequence("rows");
+        for (final boolean resultOfNext : resultsOfNext) {
+            mockery.checking(new Expectations() {
+                {
+                    one(mockedResultSet).next();
+                    inSequence(rows);
+                    will(returnValue(resultOfNext));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * -----------------------------------------------------------------------
+ *     Copyright (C) 2011 LM Ericsson Limited.  All rights reserved.
+ * -----------------------------------------------------------------------
+ */
+package com.ericsson.eniq.events.server.query.resultsettransformers;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.StringWriter;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.junit.Test;
+
+import com.ericsson.eniq.events.server.test.common.BaseJMockUnitTest;
+
+/**
+ * @author eemecoy
+ * @since 2011
+ *
+ */
+public class StreamingResultSetTransformerTest extends BaseJMockUnitTest {
+
+    private static final String NO_TIME_COLUMN = null;
+
+    private static final String TZ_OFFSET = "+0000";
+
+    @Test
+    public void testStreamingCSVTransformerWritesHeaderAndRows() throws Exception {
+        final ResultSet mockedResultSet = setUpResultSetWithTwoRows();
+        final StringWriter writer = new StringWriter();
+
+        ResultSetTransformerFactory.getStreamingCSVTransformer(NO_TIME_COLUMN, TZ_OFFSET).transform(mockedResultSet,
+                writer);
+
+        assertThat(writer.toString(), is("\"APN\",\"FAILURES\"\n\"apn1\",\"10\"\n\"apn\"2\",\"20\"\n"));
+    }
+
+    @Test
+    public void testStreamingJSONGridDataTransformerWritesRowsKeyedByColumnPosition() throws Exception {
+        final ResultSet mockedResultSet = setUpResultSetWithTwoRows();
+        final StringWriter writer = new StringWriter();
+
+        ResultSetTransformerFactory.getStreamingJSONGridDataTransformer("1000", "2000", NO_TIME_COLUMN, TZ_OFFSET)
+                .transform(mockedResultSet, writer);
+
+        assertThat(writer.toString(), is("{\"success\":\"true\",\"errorDescription\":\"\",\"timeStampFrom\":\"1000\","
+                + "\"timeStampTo\":\"2000\",\"data\":[{\"1\":\"apn1\",\"2\":\"10\"},{\"1\":\"apn\\\"2\",\"2\":\"20\"}]}"));
+    }
+
+    private ResultSet setUpResultSetWithTwoRows() throws Exception {
+        final ResultSet mockedResultSet = mockery.mock(ResultSet.class);
+        final ResultSetMetaData mockedResultSetMetaData = mockery.mock(ResultSetMetaData.class);
+        final Sequence rows = mockery.sequence("rows");
+        mockery.checking(new Expectations() {
+            {
+                allowing(mockedResultSet).getMetaData();
+                will(returnValue(mockedResultSetMetaData));
+                allowing(mockedResultSetMetaData).getColumnCount();
+                will(returnValue(2));
+                allowing(mockedResultSetMetaData).getColumnName(1);
+                will(returnValue("APN"));
+                allowing(mockedResultSetMetaData).getColumnName(2);
+                will(returnValue("FAILURES"));
+                allowing(mockedResultSetMetaData).getColumnType(with(any(Integer.class)));
+                will(returnValue(Types.VARCHAR));
+
+                one(mockedResultSet).next();
+                inSequence(rows);
+                will(returnValue(true));
+                one(mockedResultSet).getString(1);
+                inSequence(rows);
+                will(returnValue("apn1"));
+                one(mockedResultSet).getString(2);
+                inSequence(rows);
+                will(returnValue("10"));
+
+                one(mockedResultSet).next();
+                inSequence(rows);
+                will(returnValue(true));
+                one(mockedResultSet).getString(1);
+                inSequence(rows);
+                will(returnValue("apn\"2"));
+                one(mockedResultSet).getString(2);
+                inSequence(rows);
+                will(returnValue("20"));
+
+                one(mockedResultSet).next();
+                inSequence(rows);
+                will(returnValue(false));
+            }
+        });
+        return mockedResultSet;
+    }
+}
@@ -17,6 +17,8 @@ import static com.ericsson.eniq.events.server.common.EventIDConstants.*;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 import javax.ws.rs.WebApplicationException;
@@ -31,6 +33,7 @@ import com.ericsson.eniq.common.HashIdCreator;
 import com.ericsson.eniq.events.server.common.ApplicationConstants;
 import com.ericsson.eniq.events.server.common.EventDataSourceType;
 import com.ericsson.eniq.events.server.common.exception.ServiceException;
+import com.ericsson.eniq.events.server.query.QueryExecutorConfiguration;
 import com.ericsson.eniq.events.server.query.QueryParameter;
 import com.ericsson.eniq.events.server.query.QueryParameterType;
 import com.ericsson.eniq.events.server.test.common.ApplicationTestConstants;
@@ -55,8 +58,12 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
 
     private static final String FAKE_RAT_INTEGER_VALUE = "332";
 
+    private static final String STRING_DATE_TEMPLATE = "common/q_event_analysis_aggregation_summary.vm";
+
     private final QueryUtils queryUtils = new QueryUtils();
 
+    private final Properties eniqEventsProperties = new Properties();
+
     HashIdCreator hashIdCreator;
 
     HashUtilities mockedHashUtilities;
@@ -70,6 +77,9 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     queryUtils.setParameterChecker(new ParameterChecker());
     mockedHashUtilities = mockery.mock(HashUtilities.class);
     queryUtils.setHashUtilities(mockedHashUtilities);
+    final QueryExecutorConfiguration queryExecutorConfiguration = new QueryExecutorConfiguration();
+    queryExecutorConfiguration.setEniqEventsProperties(eniqEventsProperties);
+    queryUtils.setQueryExecutorConfiguration(queryExecutorConfiguration);
     allowCallsForRatMappings();
     }
 
@@ -140,8 +150,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
                     DateTimeUtils.formattedDateTime(dateTo, timeTo)), tenplatePath);
     assertNotNull(result);
     assertEquals(2, result.size());
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     }
 
     @Test
@@ -167,12 +177,12 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
                     DateTimeUtils.formattedDateTime(dateTo, timeTo)), tenplatePath);
     assertNotNull(result);
     assertEquals(6, result.size());
-    assertEquals("1987-08-17 00:00", result.get(DATE_FROM).getValue());
-    assertEquals("1987-08-25 00:00", result.get(DATE_TO).getValue());
-    assertEquals("1987-08-17", result.get(LOCAL_DATE_FROM).getValue());
-    assertEquals("1987-08-25", result.get(LOCAL_DATE_TO).getValue());
-    assertEquals("1987-08-16 23:00", result.get(ADJUSTED_DATE_FROM).getValue());
-    assertEquals("1987-08-24 23:00", result.get(ADJUSTED_DATE_TO).getValue());
+    assertDateParameter("1987-08-17 00:00", result.get(DATE_FROM));
+    assertDateParameter("1987-08-25 00:00", result.get(DATE_TO));
+    assertDateParameter("1987-08-17", result.get(LOCAL_DATE_FROM));
+    assertDateParameter("1987-08-25", result.get(LOCAL_DATE_TO));
+    assertDateParameter("1987-08-16 23:00", result.get(ADJUSTED_DATE_FROM));
+    assertDateParameter("1987-08-24 23:00", result.get(ADJUSTED_DATE_TO));
     }
     
 
@@ -199,12 +209,12 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
                     DateTimeUtils.formattedDateTime(dateTo, timeTo)), tenplatePath);
     assertNotNull(result);
     assertEquals(6, result.size());
-    assertEquals("1987-08-17 00:00", result.get(DATE_FROM).getValue());
-    assertEquals("1987-08-25 00:00", result.get(DATE_TO).getValue());
-    assertEquals("1987-08-17", result.get(LOCAL_DATE_FROM).getValue());
-    assertEquals("1987-08-25", result.get(LOCAL_DATE_TO).getValue());
-    assertEquals("1987-08-16 23:00", result.get(ADJUSTED_DATE_FROM).getValue());
-    assertEquals("1987-08-24 23:00", result.get(ADJUSTED_DATE_TO).getValue());
+    assertDateParameter("1987-08-17 00:00", result.get(DATE_FROM));
+    assertDateParameter("1987-08-25 00:00", result.get(DATE_TO));
+    assertDateParameter("1987-08-17", result.get(LOCAL_DATE_FROM));
+    assertDateParameter("1987-08-25", result.get(LOCAL_DATE_TO));
+    assertDateParameter("1987-08-16 23:00", result.get(ADJUSTED_DATE_FROM));
+    assertDateParameter("1987-08-24 23:00", result.get(ADJUSTED_DATE_TO));
     }
 
     @Test
@@ -358,8 +368,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(5, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     assertEquals(vendor, result.get(VENDOR_PARAM.toUpperCase()).getValue());
     assertEquals(bsc, result.get(BSC_SQL_NAME).getValue());
     assertEquals("1", result.get(RAT_PARAM).getValue().toString());
@@ -416,8 +426,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     assertEquals(expectedHashedId, result.get(CONTROLLER_SQL_ID).getValue());
     }
 
@@ -445,8 +455,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     assertEquals(expectedHashId, result.get(EVENT_SOURCE_SQL_ID).getValue());
     }
 
@@ -493,8 +503,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(6, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     assertEquals(cell, result.get(CELL_SQL_NAME).getValue());
     assertEquals(vendor, result.get(VENDOR_PARAM.toUpperCase()).getValue());
     assertEquals(bsc, result.get(BSC_SQL_NAME).getValue());
@@ -531,8 +541,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     assertEquals(expectedHashedId, result.get(CELL_SQL_ID).getValue());
     }
 
@@ -561,8 +571,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     assertEquals("35458000", result.get(TAC_PARAM.toUpperCase()).getValue().toString());
     }
 
@@ -592,8 +602,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     }
 
     @Test
@@ -622,8 +632,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     assertEquals(imsiValue, result.get(IMSI_PARAM.toUpperCase()).getValue());
     }
 
@@ -681,8 +691,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     final long expectedHashId = 35458000l;
     assertEquals(expectedHashId, result.get(TAC_PARAM.toUpperCase()).getValue());
     }
@@ -713,8 +723,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     }
 
     @Test
@@ -743,8 +753,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(3, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     assertEquals(imsiValue, result.get(IMSI_PARAM.toUpperCase()).getValue());
     }
 
@@ -1065,8 +1075,8 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(2, result.size());
 
-    assertEquals("2009-11-14 16:00", result.get(DATE_FROM).getValue());
-    assertEquals("2009-11-14 16:01", result.get(DATE_TO).getValue());
+    assertDateParameter("2009-11-14 16:00", result.get(DATE_FROM));
+    assertDateParameter("2009-11-14 16:01", result.get(DATE_TO));
     }
     
     @Test
@@ -1084,14 +1094,11 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
 
     final Map<String, QueryParameter> result = queryUtils.mapAdjustedDateParameters(
             createTimeRange(DateTimeUtils.formattedDateTime(dateFrom, timeFrom),DateTimeUtils.formattedDateTime(dateTo, timeTo)));
-    Object actualStartDate =result.get(DATE_FROM).getValue();
-    Object atualEndDate = result.get(DATE_TO).getValue();
-
     assertNotNull(result);
     assertEquals(2, result.size());
 
-    assertEquals(expectedStartDate, actualStartDate);
-    assertEquals(expectedEndDate, atualEndDate);
+    assertDateParameter(expectedStartDate, result.get(DATE_FROM));
+    assertDateParameter(expectedEndDate, result.get(DATE_TO));
     }
 
     @Test
@@ -1140,15 +1147,15 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(9, result.size());
 
-    assertEquals("2014-09-05 18:30", result.get(DATE_FROM).getValue());
-    assertEquals("2014-09-14 18:30", result.get(DATE_TO).getValue());
+    assertDateParameter("2014-09-05 18:30", result.get(DATE_FROM));
+    assertDateParameter("2014-09-14 18:30", result.get(DATE_TO));
     assertEquals(cell, result.get(CELL_SQL_NAME).getValue());
     assertEquals(vendor, result.get(VENDOR_PARAM.toUpperCase()).getValue());
     assertEquals(bsc, result.get(BSC_SQL_NAME).getValue());
     assertEquals("1", result.get(RAT_PARAM).getValue().toString());
 
-    assertEquals("2014-09-06", result.get(LOCAL_DATE_FROM).getValue());
-    assertEquals("2014-09-15", result.get(LOCAL_DATE_TO).getValue());
+    assertDateParameter("2014-09-06", result.get(LOCAL_DATE_FROM));
+    assertDateParameter("2014-09-15", result.get(LOCAL_DATE_TO));
     assertEquals("true", result.get(ApplicationTestConstants.IS_WEEK_OVERRIDE_APPLIED).getValue());
     }
 
@@ -1184,12 +1191,168 @@ public class QueryUtilsTest extends BaseJMockUnitTest {
     assertNotNull(result);
     assertEquals(6, result.size());
 
-    assertEquals("2014-09-05 18:30", result.get(DATE_FROM).getValue());
-    assertEquals("2014-09-14 18:30", result.get(DATE_TO).getValue());
+    assertDateParameter("2014-09-05 18:30", result.get(DATE_FROM));
+    assertDateParameter("2014-09-14 18:30", result.get(DATE_TO));
     assertEquals(expectedHashedId, result.get(CELL_SQL_ID).getValue());
 
-    assertEquals("2014-09-06", result.get(LOCAL_DATE_FROM).getValue());
-    assertEquals("2014-09-15", result.get(LOCAL_DATE_TO).getValue());
+    assertDateParameter("2014-09-06", result.get(LOCAL_DATE_FROM));
+    assertDateParameter("2014-09-15", result.get(LOCAL_DATE_TO));
     assertEquals("true", result.get(ApplicationTestConstants.IS_WEEK_OVERRIDE_APPLIED).getValue());
     }
+
+    @Test
+    public void testDateParametersAreMappedAsTimestamps() {
+    final Map<String, QueryParameter> result = queryUtils.mapDateParameters(createTimeRange(
+            DateTimeUtils.formattedDateTime("14112009", "1600"), DateTimeUtils.formattedDateTime("14112009", "1601")));
+    assertThat(result.get(DATE_FROM).getType(), is(QueryParameterType.TIMESTAMP));
+    assertEquals(Timestamp.valueOf("2009-11-14 16:00:00"), result.get(DATE_FROM).getValue());
+    assertEquals(Timestamp.valueOf("2009-11-14 16:01:00"), result.get(DATE_TO).getValue());
+    }
+
+    @Test
+    public void testLocalAndAdjustedDateParametersAreMappedAsDatesAndTimestamps() {
+    final MultivaluedMap<String, String> requestParameters = new MultivaluedMapImpl();
+    requestParameters.add(ApplicationConstants.TIME_QUERY_PARAM, "11520");
+    requestParameters.add(ApplicationConstants.TZ_OFFSET, "+0100");
+    requestParameters.add(ApplicationConstants.TYPE_PARAM, ApplicationConstants.APN);
+    requestParameters.add(ApplicationConstants.KEY_PARAM, ApplicationConstants.KEY_TYPE_ERR);
+    final DateTimeWhiteList datetimeWhiteList = new DateTimeWhiteList();
+    datetimeWhiteList.applicationStartup();
+    queryUtils.setDatetimeWhiteList(datetimeWhiteList);
+    final Map<String, QueryParameter> result = queryUtils.getQueryParameters(requestParameters, createTimeRange(
+            DateTimeUtils.formattedDateTime("17081987", "0000"), DateTimeUtils.formattedDateTime("25081987", "0000")),
+            "common/q_event_analysis_aggregation_summary.vm");
+    assertThat(result.get(LOCAL_DATE_FROM).getType(), is(QueryParameterType.DATE));
+    assertEquals(java.sql.Date.valueOf("1987-08-17"), result.get(LOCAL_DATE_FROM).getValue());
+    assertEquals(java.sql.Date.valueOf("1987-08-25"), result.get(LOCAL_DATE_TO).getValue());
+    assertThat(result.get(ADJUSTED_DATE_FROM).getType(), is(QueryParameterType.TIMESTAMP));
+    assertEquals(Timestamp.valueOf("1987-08-16 23:00:00"), result.get(ADJUSTED_DATE_FROM).getValue());
+    assertEquals(Timestamp.valueOf("1987-08-24 23:00:00"), result.get(ADJUSTED_DATE_TO).getValue());
+    }
+
+    @Test
+    public void testTemplatesListedForStringDatesAreMappedAsStringsAlongsideOtherTemplates() {
+    final String stringTemplatePath = "common/q_event_analysis_aggregation_summary.vm";
+    eniqEventsProperties.setProperty("ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES", "common/q_other.vm, "
+            + stringTemplatePath);
+    final MultivaluedMap<String, String> requestParameters = new MultivaluedMapImpl();
+    requestParameters.add(ApplicationConstants.TIME_QUERY_PARAM, "11520");
+    requestParameters.add(ApplicationConstants.TZ_OFFSET, "+0100");
+    final DateTimeWhiteList datetimeWhiteList = new DateTimeWhiteList();
+    datetimeWhiteList.applicationStartup();
+    queryUtils.setDatetimeWhiteList(datetimeWhiteList);
+    final FormattedDateTimeRange timeRange = createTimeRange(DateTimeUtils.formattedDateTime("17081987", "0000"),
+            DateTimeUtils.formattedDateTime("25081987", "0000"));
+
+    final Map<String, QueryParameter> stringResult = queryUtils.getQueryParameters(requestParameters, timeRange,
+            stringTemplatePath);
+    final Map<String, QueryParameter> nativeResult = queryUtils.getQueryParameters(requestParameters, timeRange,
+            "common/q_event_analysis_aggregation_detail.vm");
+
+    for (final String name : new String[] { DATE_FROM, DATE_TO, LOCAL_DATE_FROM, LOCAL_DATE_TO, ADJUSTED_DATE_FROM,
+            ADJUSTED_DATE_TO }) {
+        assertThat(stringResult.get(name).getType(), is(QueryParameterType.STRING));
+        assertDateParameter((String) stringResult.get(name).getValue(), nativeResult.get(name));
+    }
+    assertThat(nativeResult.get(DATE_FROM).getType(), is(QueryParameterType.TIMESTAMP));
+    assertThat(nativeResult.get(LOCAL_DATE_FROM).getType(), is(QueryParameterType.DATE));
+    }
+
+    @Test
+    public void testMapRequestParametersMapsDatesAsStringsForListedTemplate() {
+    listTemplateForStringDates();
+    final MultivaluedMap<String, String> map = new MultivaluedMapImpl();
+    map.putSingle(TYPE_PARAM, TYPE_APN);
+    map.putSingle(TZ_OFFSET, "+0100");
+    map.putSingle(KEY_PARAM, KEY_TYPE_SUM);
+
+    final Map<String, QueryParameter> stringResult = queryUtils.mapRequestParameters(map, nineDayTimeRange(),
+            STRING_DATE_TEMPLATE);
+    final Map<String, QueryParameter> nativeResult = queryUtils.mapRequestParameters(map, nineDayTimeRange(),
+            "common/q_other_summary.vm");
+
+    assertDatesAreStringsAndMatch(stringResult, nativeResult, DATE_FROM, DATE_TO, LOCAL_DATE_FROM, LOCAL_DATE_TO,
+            ADJUSTED_DATE_FROM, ADJUSTED_DATE_TO);
+    }
+
+    @Test
+    public void testMapRequestParametersForHashIdMapsDatesAsStringsForListedTemplate() {
+    listTemplateForStringDates();
+    final MultivaluedMap<String, String> map = new MultivaluedMapImpl();
+    map.putSingle(TZ_OFFSET, "+0100");
+    map.putSingle(KEY_PARAM, KEY_TYPE_SUM);
+
+    final Map<String, QueryParameter> stringResult = queryUtils.mapRequestParametersForHashId(map,
+            nineDayTimeRange(), STRING_DATE_TEMPLATE);
+    final Map<String, QueryParameter> nativeResult = queryUtils.mapRequestParametersForHashId(map,
+            nineDayTimeRange(), null);
+
+    assertDatesAreStringsAndMatch(stringResult, nativeResult, DATE_FROM, DATE_TO, LOCAL_DATE_FROM, LOCAL_DATE_TO,
+            ADJUSTED_DATE_FROM, ADJUSTED_DATE_TO);
+    }
+
+    @Test
+    public void testMapDateParametersMapsDatesAsStringsForListedTemplate() {
+    listTemplateForStringDates();
+    assertDatesAreStringsAndMatch(queryUtils.mapDateParameters(nineDayTimeRange(), STRING_DATE_TEMPLATE),
+            queryUtils.mapDateParameters(nineDayTimeRange()), DATE_FROM, DATE_TO);
+    }
+
+    @Test
+    public void testMapAdjustedDateParametersMapsDatesAsStringsForListedTemplate() {
+    listTemplateForStringDates();
+    assertDatesAreStringsAndMatch(queryUtils.mapAdjustedDateParameters(nineDayTimeRange(), STRING_DATE_TEMPLATE),
+            queryUtils.mapAdjustedDateParameters(nineDayTimeRange()), DATE_FROM, DATE_TO);
+    }
+
+    @Test
+    public void testAddLocalDateParametersAddsDatesAsStringsForListedTemplate() {
+    listTemplateForStringDates();
+    final Map<String, QueryParameter> stringResult = new HashMap<String, QueryParameter>();
+    queryUtils.addLocalDateParameters(nineDayTimeRange(), stringResult, STRING_DATE_TEMPLATE);
+    final Map<String, QueryParameter> nativeResult = new HashMap<String, QueryParameter>();
+    queryUtils.addLocalDateParameters(nineDayTimeRange(), nativeResult);
+
+    assertDatesAreStringsAndMatch(stringResult, nativeResult, LOCAL_DATE_FROM, LOCAL_DATE_TO);
+    }
+
+    private void listTemplateForStringDates() {
+    eniqEventsProperties.setProperty("ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES", STRING_DATE_TEMPLATE);
+    }
+
+    private static FormattedDateTimeRange nineDayTimeRange() {
+    return createTimeRange(DateTimeUtils.formattedDateTime("06092014", "0000"),
+            DateTimeUtils.formattedDateTime("15092014", "0000"));
+    }
+
+    /**
+     * The parameters mapped for the template listed for string dates are strings, and hold the same dates as the
+     * native parameters mapped for any other template
+     */
+    private static void assertDatesAreStringsAndMatch(final Map<String, QueryParameter> stringResult,
+                                                      final Map<String, QueryParameter> nativeResult,
+                                                      final String... names) {
+    for (final String name : names) {
+        assertThat(stringResult.get(name).getType(), is(QueryParameterType.STRING));
+        assertThat(nativeResult.get(name).getType(), is(not(QueryParameterType.STRING)));
+        assertDateParameter((String) stringResult.get(name).getValue(), nativeResult.get(name));
+    }
+    }
+
+    /**
+     * Date range parameters are TIMESTAMP or DATE parameters, unless their template is listed in
+     * ENIQ_EVENTS_STRING_DATE_PARAMETER_TEMPLATES - either way the value is checked as the string it was mapped from
+     *
+     * @param expected date, as yyyy-MM-dd, or date time, as yyyy-MM-dd HH:mm
+     */
+    private static void assertDateParameter(final String expected, final QueryParameter parameter) {
+    if (parameter.getType() == QueryParameterType.TIMESTAMP) {
+        final String dateTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format((Date) parameter.getValue());
+        assertEquals(expected.length() == "yyyy-MM-dd HH:mm".length() ? expected + ":00" : expected, dateTime);
+    } else if (parameter.getType() == QueryParameterType.DATE) {
+        assertEquals(expected, new SimpleDateFormat("yyyy-MM-dd").format((Date) parameter.getValue()));
+    } else {
+        assertEquals(expected, parameter.getValue());
+    }
+    }
 }
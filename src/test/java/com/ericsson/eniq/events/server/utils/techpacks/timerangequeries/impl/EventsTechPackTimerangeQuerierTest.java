@@ -187,7 +187,7 @@ public class EventsTechPackTimerangeQuerierTest extends BaseJMockUnitTest {
                 will(returnValue(templateFile));
                 one(mockedTemplateUtils).getQueryFromTemplate(templateFile, parameters);
                 will(returnValue(query));
-                allowing(mockedQueryUtils).mapDateParameters(mockedFormattedDateTimeRange);
+                allowing(mockedQueryUtils).mapDateParameters(mockedFormattedDateTimeRange, templateFile);
                 will(returnValue(new HashMap<String, QueryParameter>()));
                 one(mockedLoadBalancingPolicyFactory).getDefaultLoadBalancingPolicy();
                 will(returnValue(loadBalancingPolicy));
@@ -235,7 +235,7 @@ public class EventsTechPackTimerangeQuerierTest extends BaseJMockUnitTest {
                 will(returnValue(templateFile));
                 one(mockedTemplateUtils).getQueryFromTemplate(templateFile, parameters);
                 will(returnValue(query));
-                allowing(mockedQueryUtils).mapDateParameters(mockedFormattedDateTimeRange);
+                allowing(mockedQueryUtils).mapDateParameters(mockedFormattedDateTimeRange, templateFile);
                 will(returnValue(new HashMap<String, QueryParameter>()));
                 one(mockedDataServiceQueryExecutor).getDataFromRepdb(with(same(CANCEL_REQ_NOT_SUPPORTED)), with(same(query)), with(any(Map.class)),
                         with(any(ResultSetTransformer.class)));